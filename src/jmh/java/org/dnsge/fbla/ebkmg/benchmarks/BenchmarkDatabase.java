@@ -0,0 +1,72 @@
+package org.dnsge.fbla.ebkmg.benchmarks;
+
+import org.dnsge.fbla.ebkmg.db.DatasetGenerator;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generated database that every benchmark runs against
+ * <p>
+ * Each size has {@code rows} students and {@code rows} ebooks, with 90% of the students paired.
+ * Databases are made by {@link DatasetGenerator} with its default seed the first time they're
+ * needed and kept in {@code target/benchmark-databases}, so later runs and other benchmarks reuse them.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    private final static File DIRECTORY = new File("target/benchmark-databases");
+    private final static int SAMPLE_SIZE = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    /** Random existing ebook codes to look up */
+    public String[] sampleCodes;
+    /** Random existing student IDs to look up */
+    public String[] sampleStudentIds;
+
+    @Setup(Level.Trial)
+    public void connect() throws Exception {
+        DatasetGenerator generator = new DatasetGenerator(DatasetGenerator.DEFAULT_SEED, rows, rows);
+        File database = new File(DIRECTORY, String.format("dataset-%d.db", rows));
+        if (!database.isFile()) {
+            Files.createDirectories(DIRECTORY.toPath());
+            long start = System.currentTimeMillis();
+            generator.generate(database, Runtime.getRuntime().availableProcessors(), null);
+            System.out.println(String.format("Generated %s in %.1fs", database, (System.currentTimeMillis() - start) / 1000.0));
+        }
+        SQLiteConnector.getInstance().connect(database.getAbsolutePath());
+        // Measure lookups against the loaded indexes, not their SQL fallback
+        if (!SQLiteConnector.getInstance().awaitIndexes(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("The student ID and ebook code indexes didn't load");
+        }
+
+        Random random = new Random(DatasetGenerator.DEFAULT_SEED);
+        sampleCodes = new String[SAMPLE_SIZE];
+        sampleStudentIds = new String[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            sampleCodes[i] = generator.ebookCode(random.nextInt(rows));
+            sampleStudentIds[i] = DatasetGenerator.studentId(random.nextInt(rows));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+        SQLiteConnector.getInstance().disconnectIfConnected();
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.dnsge.fbla.ebkmg.benchmarks;
+
+import org.dnsge.fbla.ebkmg.csv.CSVExporter;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of exporting students to CSV, reported as exports and megabytes per second
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class ExportBenchmark {
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Written {
+        public double megabytes;
+    }
+
+    @State(Scope.Thread)
+    public static class Output {
+        Path file;
+        List<Student> students;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkDatabase database) throws IOException, SQLException {
+            file = Files.createTempFile("export-benchmark", ".csv");
+            students = Student.queryAllWithEbooks();
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteFile() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public void writeCsvFromBeans(Output output, Written written) throws IOException {
+        CSVExporter.writeCsvFromBeans(output.students, output.file);
+        written.megabytes += Files.size(output.file) / 1e6;
+    }
+
+    @Benchmark
+    public void writeCsvFromDao(BenchmarkDatabase database, Output output, Written written) throws IOException, SQLException {
+        CSVExporter.writeCsvFromDao(SQLiteConnector.getInstance().getStudentDao(), output.file, Student::preloadDetachedEbooks, null);
+        written.megabytes += Files.size(output.file) / 1e6;
+    }
+
+}
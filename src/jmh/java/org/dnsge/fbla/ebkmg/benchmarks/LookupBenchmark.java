@@ -0,0 +1,97 @@
+package org.dnsge.fbla.ebkmg.benchmarks;
+
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.IdentityMap;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of looking up single students and ebooks
+ * <p>
+ * The {@code cached} benchmarks cycle through a few thousand keys, so after warmup they're
+ * answered by the identity map. The {@code uncached} ones empty the identity map after each
+ * lookup, so every lookup goes to SQLite.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class LookupBenchmark {
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private int next;
+        private Ebook[] sampleEbooks;
+
+        @Setup(Level.Trial)
+        public void loadEbooks(BenchmarkDatabase database) throws SQLException {
+            Map<String, Ebook> ebooks = Ebook.getAll(Arrays.asList(database.sampleCodes));
+            sampleEbooks = new Ebook[database.sampleCodes.length];
+            for (int i = 0; i < sampleEbooks.length; i++) {
+                sampleEbooks[i] = ebooks.get(database.sampleCodes[i]);
+            }
+        }
+
+        int next() {
+            next = (next + 1) % sampleEbooks.length;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Ebook ebookGetCached(BenchmarkDatabase database, Keys keys) throws SQLException {
+        return Ebook.get(database.sampleCodes[keys.next()]);
+    }
+
+    @Benchmark
+    public Ebook ebookGetUncached(BenchmarkDatabase database, Keys keys) throws SQLException {
+        Ebook ebook = Ebook.get(database.sampleCodes[keys.next()]);
+        identityMap().clear(Ebook.class);
+        return ebook;
+    }
+
+    /** {@link Ebook#getOwner()} looks the owner up with {@code Student.whoOwns} */
+    @Benchmark
+    public Student whoOwnsCached(Keys keys) {
+        return keys.sampleEbooks[keys.next()].getOwner();
+    }
+
+    @Benchmark
+    public Student whoOwnsUncached(Keys keys) {
+        Student owner = keys.sampleEbooks[keys.next()].getOwner();
+        identityMap().clear(Student.class);
+        return owner;
+    }
+
+    @Benchmark
+    public Student studentFromIdUncached(BenchmarkDatabase database, Keys keys) throws SQLException {
+        Student student = Student.getFromStudentId(database.sampleStudentIds[keys.next()]);
+        identityMap().clear(Student.class);
+        return student;
+    }
+
+    private static IdentityMap identityMap() {
+        return SQLiteConnector.getInstance().getIdentityMap();
+    }
+
+}
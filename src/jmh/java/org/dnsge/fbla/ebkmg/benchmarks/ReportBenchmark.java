@@ -0,0 +1,88 @@
+package org.dnsge.fbla.ebkmg.benchmarks;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.pdf.ReportGenerator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of generating the paired student report, reported as reports and pages per second
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class ReportBenchmark {
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Pages {
+        public long pages;
+    }
+
+    @State(Scope.Thread)
+    public static class Output {
+        File file;
+        List<Student> students;
+        int pagesPerReport;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkDatabase database) throws IOException, SQLException {
+            file = Files.createTempFile("report-benchmark", ".pdf").toFile();
+            students = Student.queryAllWithEbooks();
+
+            ReportGenerator.generateReport(file, null, 1);
+            try (PDDocument report = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly())) {
+                pagesPerReport = report.getNumberOfPages();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteFile() throws IOException {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Benchmark
+    public void fromList(Output output, Pages pages) throws IOException {
+        ReportGenerator.generateReport(output.file, output.students);
+        pages.pages += output.pagesPerReport;
+    }
+
+    @Benchmark
+    public void streaming(BenchmarkDatabase database, Output output, Pages pages) throws IOException, SQLException {
+        ReportGenerator.generateReport(output.file, null, 1);
+        pages.pages += output.pagesPerReport;
+    }
+
+    @Benchmark
+    public void parallel(BenchmarkDatabase database, Output output, Pages pages) throws IOException, SQLException {
+        ReportGenerator.generateReport(output.file, null, Runtime.getRuntime().availableProcessors());
+        pages.pages += output.pagesPerReport;
+    }
+
+}
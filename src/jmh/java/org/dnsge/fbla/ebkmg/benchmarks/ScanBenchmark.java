@@ -0,0 +1,79 @@
+package org.dnsge.fbla.ebkmg.benchmarks;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of reading every student, reported as scans and rows per second
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class ScanBenchmark {
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rows {
+        public long rows;
+    }
+
+    @State(Scope.Thread)
+    public static class LoadedStudents {
+        List<Student> students;
+
+        @Setup(Level.Trial)
+        public void load(BenchmarkDatabase database) throws SQLException {
+            students = Student.queryAllWithEbooks();
+        }
+    }
+
+    @Benchmark
+    public void daoIterator(BenchmarkDatabase database, Rows rows, Blackhole blackhole) throws IOException {
+        try (CloseableIterator<Student> iterator = SQLiteConnector.getInstance().getStudentDao().iterator()) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+                rows.rows++;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Student> queryAllWithEbooks(BenchmarkDatabase database, Rows rows) throws SQLException {
+        List<Student> students = Student.queryAllWithEbooks();
+        rows.rows += students.size();
+        return students;
+    }
+
+    @Benchmark
+    public void asCsvLine(LoadedStudents loaded, Rows rows, Blackhole blackhole) {
+        for (Student student : loaded.students) {
+            blackhole.consume(student.asCsvLine());
+        }
+        rows.rows += loaded.students.size();
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.dnsge.fbla.ebkmg;
+
+import java.io.File;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Version and file locations shared by the GUI and the command line
+ * <p>
+ * Kept out of {@link Main} so that using them doesn't load JavaFX
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public final class AppConstants {
+
+    public final static String VERSION = "1.0.0-SNAPSHOT";
+
+    public final static File HOME_DIRECTORY = new File(System.getProperty("user.home"));
+    public final static File EBOOK_DIRECTORY = new File(HOME_DIRECTORY, "EbookManagerData");
+    public final static File REPORTS_DIRECTORY = new File(EBOOK_DIRECTORY, "reports");
+    public final static File LOGS_DIRECTORY = new File(EBOOK_DIRECTORY, "logs");
+
+    // Formatters are used from worker threads, so they have to be immutable; both format Instants in local time
+    public final static DateTimeFormatter ERROR_LOG_DATE_FORMAT = DateTimeFormatter.ofPattern("YYYY-MM-dd kk.mm.ss").withZone(ZoneId.systemDefault());
+    public final static DateTimeFormatter CSV_FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("YYYY-MM-dd kk.mm.ss").withZone(ZoneId.systemDefault());
+
+    private AppConstants() { }
+
+    /**
+     * Creates the data, reports and logs directories if they don't exist yet
+     */
+    public static void createDirectories() {
+        for (File directory : new File[]{EBOOK_DIRECTORY, REPORTS_DIRECTORY, LOGS_DIRECTORY}) {
+            if (!directory.exists() && !directory.mkdirs()) {
+                System.out.println("Unable to create " + directory.getAbsolutePath());
+            }
+        }
+    }
+
+}
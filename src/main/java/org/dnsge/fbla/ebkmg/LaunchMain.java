@@ -1,12 +1,21 @@
 package org.dnsge.fbla.ebkmg;
 
+import org.dnsge.fbla.ebkmg.cli.CommandLine;
+
 /**
  * Bypasses missing java runtime environment annoyances
+ * <p>
+ * Runs the command line instead of the GUI when the first argument is a command,
+ * such as {@code export-csv} or {@code report}
  */
 public class LaunchMain {
 
     public static void main(String[] args) {
-        Main.main(args);
+        if (args.length > 0 && CommandLine.isCommand(args[0])) {
+            CommandLine.main(args);
+        } else {
+            Main.main(args);
+        }
     }
 
 }
@@ -8,32 +8,22 @@ import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
 import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.metrics.FlightRecording;
 import org.dnsge.fbla.ebkmg.popup.AlertCreator;
 import org.dnsge.fbla.ebkmg.util.ErrorLog;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 
 /**
  * Main class and program entry point
  *
  * @author Daniel Sage
  * @since 0.0
- * @version 0.4
+ * @version 0.6
  */
 public class Main extends Application {
 
-    public final static String VERSION = "1.0.0-SNAPSHOT";
-
-    final static File HOME_DIRECTORY = new File(System.getProperty("user.home"));
-    final static File EBOOK_DIRECTORY = new File(HOME_DIRECTORY, "EbookManagerData");
-    final static File REPORTS_DIRECTORY = new File(EBOOK_DIRECTORY, "reports");
-    public final static File LOGS_DIRECTORY = new File(EBOOK_DIRECTORY, "logs");
-
-    public final static SimpleDateFormat ERROR_LOG_DATE_FORMAT = new SimpleDateFormat("YYYY-MM-dd kk.mm.ss");
-    final static SimpleDateFormat CSV_FILE_DATE_FORMAT = new SimpleDateFormat("YYYY-MM-dd kk.mm.ss");
-
     public static void main(String[] args) {
         launch(args);
     }
@@ -43,15 +33,8 @@ public class Main extends Application {
         Thread.setDefaultUncaughtExceptionHandler(Main::showError);
 
         // Setup working directories
-        if (!EBOOK_DIRECTORY.exists() && !EBOOK_DIRECTORY.mkdirs()) {
-            System.out.println("Unable to create " + EBOOK_DIRECTORY.getAbsolutePath());
-        }
-        if (!REPORTS_DIRECTORY.exists() && !REPORTS_DIRECTORY.mkdirs()) {
-            System.out.println("Unable to create " + REPORTS_DIRECTORY.getAbsolutePath());
-        }
-        if (!LOGS_DIRECTORY.exists() && !LOGS_DIRECTORY.mkdirs()) {
-            System.out.println("Unable to create " + LOGS_DIRECTORY.getAbsolutePath());
-        }
+        AppConstants.createDirectories();
+        FlightRecording.startIfEnabled();
 
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/mainpage.fxml"));
         Parent root = loader.load();
@@ -1,50 +1,74 @@
 package org.dnsge.fbla.ebkmg;
 
-import com.j256.ormlite.misc.TransactionManager;
-import com.j256.ormlite.support.ConnectionSource;
-import com.j256.ormlite.table.TableUtils;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Window;
+import javafx.util.Callback;
+import javafx.util.Duration;
 import org.dnsge.fbla.ebkmg.csv.CSVExporter;
+import org.dnsge.fbla.ebkmg.csv.EbookCodeImporter;
+import org.dnsge.fbla.ebkmg.csv.ImportResult;
+import org.dnsge.fbla.ebkmg.csv.RosterImporter;
+import org.dnsge.fbla.ebkmg.db.AssignmentEngine;
+import org.dnsge.fbla.ebkmg.db.DatabaseExecutor;
+import org.dnsge.fbla.ebkmg.db.DatabaseTask;
 import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.EbookCodeGenerator;
+import org.dnsge.fbla.ebkmg.db.KeysetPager;
+import org.dnsge.fbla.ebkmg.db.PairingService;
 import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
 import org.dnsge.fbla.ebkmg.db.Student;
 import org.dnsge.fbla.ebkmg.extensions.ChangeWrapperHolder;
 import org.dnsge.fbla.ebkmg.extensions.ChoiceBoxWrapper;
+import org.dnsge.fbla.ebkmg.extensions.LazyPagedList;
 import org.dnsge.fbla.ebkmg.extensions.TextFieldWrapper;
+import org.dnsge.fbla.ebkmg.metrics.Histogram;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+import org.dnsge.fbla.ebkmg.metrics.RefreshEvent;
 import org.dnsge.fbla.ebkmg.pdf.ReportGenerator;
 import org.dnsge.fbla.ebkmg.popup.*;
 import org.dnsge.fbla.ebkmg.util.ErrorLog;
 import org.dnsge.fbla.ebkmg.util.Pair;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
 import org.dnsge.fbla.ebkmg.util.Utils;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.SQLException;
-import java.util.Date;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 /**
  * Controller for the main JavaFX view
  *
  * @author Daniel Sage
- * @version 0.6
+ * @version 0.22
  */
 public final class MainPageController {
     // Menu bar stuff
     @FXML private MenuBar menuBar;
-    @FXML private MenuItem newDatabase, connectToDatabase, closeConnection, exportToCsv;
+    @FXML private MenuItem newDatabase, connectToDatabase, closeConnection, exportToCsv, importRoster;
+    @FXML private MenuItem importEbookCodes, generateEbookCodes, assignEbooks;
     @FXML private MenuItem deleteMenuItem;
-    @FXML private MenuItem userGuideMenuItem, aboutMenuItem, licenseMenuItem;
+    @FXML private MenuItem userGuideMenuItem, diagnosticsMenuItem, aboutMenuItem, licenseMenuItem;
 
     // Tab stuff
     @FXML private TabPane mainTabPane;
@@ -52,6 +76,7 @@ public final class MainPageController {
     @FXML private Tab ebookTab;
 
     // Table related stuff
+    @FXML private TextField studentFilterField, ebookFilterField;
     @FXML private TableView<Student> studentTableView;
     @FXML private TableColumn<Student, String> lastNameColumn;
     @FXML private TableColumn<Student, String> firstNameColumn;
@@ -72,11 +97,28 @@ public final class MainPageController {
     @FXML private ToolBar buttonsToolbar;
     @FXML private Button newRecordButton;
     @FXML private Button generateReportButton;
+    @FXML private Button scanPairingButton;
+    @FXML private ProgressIndicator busyIndicator;
+    @FXML private Label statusLabel;
+    @FXML private Button cancelTaskButton;
 
     private Student selectedStudent;
     private Ebook selectedEbook;
     private SQLiteConnector connector = SQLiteConnector.getInstance();
 
+    // Background database work
+    private final DatabaseExecutor databaseExecutor = new DatabaseExecutor(Platform::runLater);
+    private DatabaseTask<LazyPagedList<Student>> studentRefreshTask;
+    private DatabaseTask<LazyPagedList<Ebook>> ebookRefreshTask;
+    private DatabaseTask<?> longRunningTask;
+    // Pairing of the selected rows, looked up when they are selected
+    private DatabaseTask<Ebook> ownedEbookTask;
+    private DatabaseTask<Student> ownerTask;
+    // The view each table was last asked to show
+    private KeysetPager<Student> requestedStudentPager;
+    private KeysetPager<Ebook> requestedEbookPager;
+    private final Map<TableColumn<?, ?>, KeysetPager.Order> columnOrders = new HashMap<>();
+
     // IChangeWrappers and ChangeWrapperHolder
     private TextFieldWrapper firstName, lastName, studentId;
     private TextFieldWrapper ebookName, ebookCode, redemptionDate;
@@ -84,12 +126,142 @@ public final class MainPageController {
     private ChangeWrapperHolder studentWrapperHolder;
     private ChangeWrapperHolder ebookWrapperHolder;
 
+    // How long to wait after the last keystroke in a filter field before querying
+    private final static Duration FILTER_DELAY = Duration.millis(250);
+
     // File directories for error logs & reports & opening file pickers
-    private final static File EBOOK_DIRECTORY = Main.EBOOK_DIRECTORY;
-    private final static File REPORTS_DIRECTORY = Main.REPORTS_DIRECTORY;
+    private final static File EBOOK_DIRECTORY = AppConstants.EBOOK_DIRECTORY;
+    private final static File REPORTS_DIRECTORY = AppConstants.REPORTS_DIRECTORY;
+
+    // Time from asking for a table refresh until its first rows are shown
+    private final static Histogram STUDENT_REFRESH_TIMER = Metrics.histogram("ui.refresh.students");
+    private final static Histogram EBOOK_REFRESH_TIMER = Metrics.histogram("ui.refresh.ebooks");
 
     private Window myWindow;
 
+    /**
+     * Database work that reports its progress
+     *
+     * @param <T> Type of the result
+     */
+    @FunctionalInterface
+    private interface LongTaskCall<T> {
+        T call(ProgressListener listener) throws Exception;
+    }
+
+    /**
+     * Rows of one table changed by a write, with where each of them belongs
+     * <p>
+     * Create it on the JavaFX thread before submitting the write, {@link #locate(Object)} the rows
+     * in the write's task, then apply them on the JavaFX thread once it has finished. Only the
+     * changed rows are re-rendered; if a change moves a row in the table's sort order or filter,
+     * or the rows couldn't be located, the table is reloaded instead.
+     *
+     * @param <T> Type of the rows
+     */
+    private final class TableRows<T> {
+
+        private final TableView<T> table;
+        private final LazyPagedList<T> rows;
+        private final Map<Integer, Long> positions = new ConcurrentHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private TableRows(TableView<T> table) {
+            this.table = table;
+            this.rows = table.getItems() instanceof LazyPagedList ? (LazyPagedList<T>) table.getItems() : null;
+        }
+
+        /**
+         * Finds where a row belongs; runs on the worker thread, before a delete or after any other write
+         *
+         * @param item Changed row
+         */
+        private void locate(T item) {
+            if (rows == null) {
+                return;
+            }
+            try {
+                positions.put(rows.getPager().keyOf(item), rows.locate(item));
+            } catch (SQLException e) {
+                // The write itself worked, so the table is reloaded instead of failing the task
+                e.printStackTrace();
+            }
+        }
+
+        private void locateAll(List<T> items) {
+            items.forEach(this::locate);
+        }
+
+        /**
+         * Puts a changed or new row into the table
+         *
+         * @param item Located row
+         */
+        private void upsert(T item) {
+            Long position = positionOf(item);
+            if (position == null || !rows.upsert(item, position)) {
+                reloadTable(table);
+            }
+        }
+
+        private void upsertAll(List<T> items) {
+            items.forEach(this::upsert);
+        }
+
+        /**
+         * Removes a deleted row from the table
+         *
+         * @param item Row located before it was deleted
+         */
+        private void remove(T item) {
+            Long position = positionOf(item);
+            if (position == null || !rows.delete(item, position)) {
+                reloadTable(table);
+            }
+        }
+
+        /**
+         * @param item Located row
+         * @return Index of the row in the table, or -1 if it isn't in it
+         */
+        private int indexOf(T item) {
+            Long position = positionOf(item);
+            return position != null && position < rows.size() ? position.intValue() : -1;
+        }
+
+        /**
+         * @param item Row to find
+         * @return Where the row was located, or null if it wasn't or the table's rows have been replaced since
+         */
+        private Long positionOf(T item) {
+            if (rows == null || table.getItems() != rows) {
+                return null;
+            }
+            return positions.get(rows.getPager().keyOf(item));
+        }
+    }
+
+    /**
+     * Rows of both tables changed by a {@link PairingService} operation
+     */
+    private final class PairingRows implements ScanPairingPopup.ChangedRows {
+
+        private final TableRows<Student> students = new TableRows<>(studentTableView);
+        private final TableRows<Ebook> ebooks = new TableRows<>(ebookTableView);
+
+        @Override
+        public void locate(PairingService.Changes changes) {
+            students.locateAll(changes.getStudents());
+            ebooks.locateAll(changes.getEbooks());
+        }
+
+        @Override
+        public void apply(PairingService.Changes changes) {
+            students.upsertAll(changes.getStudents());
+            ebooks.upsertAll(changes.getEbooks());
+        }
+    }
+
 
     /**
      * Called by JavaFX once all FXML fields/nodes have been created/registered
@@ -108,6 +280,20 @@ public final class MainPageController {
         setDisableOnInteractionsEbook(true);
         buttonsToolbar.setDisable(true);
 
+        databaseExecutor.addActivityListener(running -> {
+            busyIndicator.setVisible(!running.isEmpty());
+            if (running.isEmpty()) {
+                statusLabel.setText("");
+            } else if (longRunningTask == null || longRunningTask.isDone()) {
+                statusLabel.setText(String.join(", ", running) + "...");
+            }
+        });
+        cancelTaskButton.setOnAction(e -> {
+            if (longRunningTask != null) {
+                longRunningTask.cancel();
+            }
+        });
+
         studentTab.setOnSelectionChanged(e -> {
             if (selectedStudent != null) {
                 loadInteractionFieldsFromStudent(selectedStudent);
@@ -139,7 +325,8 @@ public final class MainPageController {
      */
     private void reloadTextBoxesStudent() {
         ObservableList<Student> selectedStudentList = studentTableView.getSelectionModel().getSelectedItems();
-        if (selectedStudentList.size() > 0) {
+        // A row that is still being read is null
+        if (selectedStudentList.size() > 0 && selectedStudentList.get(0) != null) {
             setDisableOnInteractionsStudent(false);
             selectedStudent = selectedStudentList.get(0);
             loadInteractionFieldsFromStudent(selectedStudent);
@@ -152,7 +339,7 @@ public final class MainPageController {
      */
     private void reloadTextBoxesEbook() {
         ObservableList<Ebook> selectedEbookList = ebookTableView.getSelectionModel().getSelectedItems();
-        if (selectedEbookList.size() > 0) {
+        if (selectedEbookList.size() > 0 && selectedEbookList.get(0) != null) {
             setDisableOnInteractionsStudent(false);
             selectedEbook = selectedEbookList.get(0);
             loadInteractionFieldsFromEbook(selectedEbook);
@@ -165,8 +352,11 @@ public final class MainPageController {
      */
     private void registerStudentTableDataInteractions() {
         // Set column cell value factories
-        lastNameColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getLastName()));
-        firstNameColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getFirstName()));
+        lastNameColumn.setCellValueFactory(textOf(Student::getLastName));
+        firstNameColumn.setCellValueFactory(textOf(Student::getFirstName));
+        columnOrders.put(lastNameColumn, KeysetPager.Order.LAST_NAME);
+        columnOrders.put(firstNameColumn, KeysetPager.Order.FIRST_NAME);
+        delegateSortAndFilter(studentTableView, studentFilterField, () -> requestedStudentPager);
 
         studentTableView.setOnMouseClicked(event -> reloadTextBoxesStudent());
 
@@ -174,42 +364,53 @@ public final class MainPageController {
             ObservableList<Student> selectedStudentList = studentTableView.getSelectionModel().getSelectedItems();
 
             // Make sure we have actually selectedStudent a row, though it shouldn't be possible to happen without
-            if (selectedStudentList.size() > 0) {
-                if (!Student.otherStudentWithIdExists(studentId.asText(), selectedStudent)) {
-
-                    // Create backup and save
-                    Student.Memento preservedStudent = selectedStudent.saveToMemento();
-                    saveTextFieldsToStudent(selectedStudent);
+            if (selectedStudent != null && selectedStudentList.size() > 0) {
+                // Edit a copy, so the shared Student only changes once the write has committed
+                Student shared = selectedStudent;
+                Student edited = shared.copy();
+                saveTextFieldsToStudent(edited);
+
+                if (!edited.filledOutProperly()) {
+                    AlertCreator.errorUser("You need to fill out each entry field!");
+                    return;
+                }
 
-                    if (!selectedStudent.filledOutProperly()) {
-                        selectedStudent.loadFromMemento(preservedStudent);
-                        loadInteractionFieldsFromStudent(selectedStudent);
-                        AlertCreator.errorUser("You need to fill out each entry field!");
-                        return;
+                // Use transactionManager to cancel changes if something goes wrong
+                TableRows<Student> rows = new TableRows<>(studentTableView);
+                updateStudentDataButton.setDisable(true);
+                DatabaseTask<Boolean> task = databaseExecutor.submit("Saving student",
+                        () -> connector.callInTransaction((Callable<Boolean>) () -> {
+                            if (Student.otherStudentWithIdExists(edited.getStudentId(), edited)) {
+                                return false;
+                            }
+                            connector.updateDetached(edited);
+                            rows.locate(edited);
+                            return true;
+                        }));
+                task.onSuccess(saved -> {
+                    if (saved) {
+                        shared.copyFrom(edited);
+                        rows.upsert(shared);
+                    } else {
+                        AlertCreator.errorUser("A Student with that Student ID already exists!");
                     }
-
-                    try {
-
-                        // Use transactionManager to cancel changes if something goes wrong
-                        TransactionManager.callInTransaction(connector.getConnectionSource(), (Callable<Void>) () -> {
-                            connector.getStudentDao().update(selectedStudent);
-                            return null;
-                        });
-
-                        studentWrapperHolder.clearAllStyle();
-                        studentWrapperHolder.updateAll();
-
-                    } catch (SQLException e) {
-                        selectedStudent.loadFromMemento(preservedStudent);
-                        loadInteractionFieldsFromStudent(selectedStudent);
-
-                        e.printStackTrace();
-                        ErrorLog.newErrorLogWithPopup(e);
+                    if (selectedStudent == shared) {
+                        if (saved) {
+                            studentWrapperHolder.clearAllStyle();
+                        }
+                        updateStudentDataButton.setDisable(false);
+                        loadInteractionFieldsFromStudent(shared);
                     }
-                } else {
-                    AlertCreator.errorUser("A Student with that Student ID already exists!");
-                }
-                refreshEverything();
+                });
+                task.onFailure(e -> {
+                    if (selectedStudent == shared) {
+                        updateStudentDataButton.setDisable(false);
+                        loadInteractionFieldsFromStudent(shared);
+                    }
+
+                    e.printStackTrace();
+                    ErrorLog.newErrorLogWithPopup(e);
+                });
             }
         });
 
@@ -224,45 +425,75 @@ public final class MainPageController {
 
         deleteStudentRecordButton.setOnAction(event -> {
             if (AlertCreator.askYesOrNo("Are you sure you want to delete this record?")) {
-                try {
-                    if (selectedStudent.getOwnedEbook() != null) {
-                        Ebook ebook = selectedStudent.getOwnedEbook();
-                        ebook.setAssignmentDate(null);
-                        connector.getEbookDao().update(ebook);
+                Student deleted = selectedStudent;
+                TableRows<Student> studentRows = new TableRows<>(studentTableView);
+                TableRows<Ebook> ebookRows = new TableRows<>(ebookTableView);
+                DatabaseTask<PairingService.Changes> task = databaseExecutor.submit("Deleting student", () -> {
+                    studentRows.locate(deleted);
+                    PairingService.Changes changes = PairingService.deleteStudent(deleted);
+                    ebookRows.locateAll(changes.getEbooks());
+                    return changes;
+                });
+                task.onSuccess(changes -> {
+                    ebookRows.upsertAll(changes.getEbooks());
+                    studentRows.remove(deleted);
+                    if (selectedStudent == deleted) {
+                        finishStudentChanges();
                     }
-
-                    connector.getStudentDao().delete(selectedStudent);
-                    refreshEverything();
-                    finishStudentChanges();
-                } catch (SQLException e) {
+                    refreshInteractionFields();
+                });
+                task.onFailure(e -> {
                     e.printStackTrace();
                     ErrorLog.newErrorLogWithPopup(e);
-                }
-                refreshEverything();
+                    refreshInteractionFields();
+                });
             }
         });
 
         viewEbookButton.setOnAction(event -> {
-            try {
-                Ebook ebook = selectedStudent.getOwnedEbook();
+            if (selectedStudent == null) {
+                return;
+            }
+            Student student = selectedStudent;
+            TableRows<Ebook> rows = new TableRows<>(ebookTableView);
+            DatabaseTask<Ebook> task = databaseExecutor.submit("Finding ebook", () -> {
+                Ebook ebook = student.getOwnedEbook();
+                if (ebook != null) {
+                    rows.locate(ebook);
+                }
+                return ebook;
+            });
+            task.onSuccess(ebook -> {
                 if (ebook != null) {
                     mainTabPane.getSelectionModel().select(ebookTab);
-                    ebookTableView.getSelectionModel().select(ebook);
-                    reloadTextBoxesEbook();
+                    ebookTableView.getSelectionModel().select(rows.indexOf(ebook));
+                    // The row may still be being read, so the fields are filled from the ebook that was found
+                    setDisableOnInteractionsEbook(false);
+                    selectedEbook = ebook;
+                    loadInteractionFieldsFromEbook(ebook);
+                    resetFieldsStyle();
                 }
-            } catch (NullPointerException e) {
-                e.printStackTrace();
-            }
+            });
+            task.onFailure(Throwable::printStackTrace);
         });
 
         unpairEbookButton.setOnAction(event -> {
-            selectedStudent.clearEbook();
-            try {
-                connector.getStudentDao().update(selectedStudent);
-            } catch (SQLException e) {
+            Student student = selectedStudent;
+            PairingRows rows = new PairingRows();
+            DatabaseTask<PairingService.Changes> task = databaseExecutor.submit("Unpairing ebook", () -> {
+                PairingService.Changes changes = PairingService.unpair(student);
+                rows.locate(changes);
+                return changes;
+            });
+            task.onSuccess(changes -> {
+                rows.apply(changes);
+                refreshInteractionFields();
+            });
+            task.onFailure(e -> {
+                AlertCreator.errorUser("There was a problem unpairing that Ebook and Student");
                 e.printStackTrace();
-            }
-            refreshEverything();
+                refreshInteractionFields();
+            });
         });
 
     }
@@ -272,12 +503,15 @@ public final class MainPageController {
      */
     private void registerEbookTableDataInteractions() {
 
-        ebookCodeColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getCode()));
-        ebookRedemptionDateColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getAssignmentDateString()));
+        ebookCodeColumn.setCellValueFactory(textOf(Ebook::getCode));
+        ebookRedemptionDateColumn.setCellValueFactory(textOf(Ebook::getAssignmentDateString));
+        columnOrders.put(ebookCodeColumn, KeysetPager.Order.CODE);
+        columnOrders.put(ebookRedemptionDateColumn, KeysetPager.Order.ASSIGNMENT_DATE);
+        delegateSortAndFilter(ebookTableView, ebookFilterField, () -> requestedEbookPager);
 
         ebookTableView.setOnMouseClicked(e -> {
             ObservableList<Ebook> selectedEbookList = ebookTableView.getSelectionModel().getSelectedItems();
-            if (selectedEbookList.size() > 0) {
+            if (selectedEbookList.size() > 0 && selectedEbookList.get(0) != null) {
                 setDisableOnInteractionsEbook(false);
                 selectedEbook = selectedEbookList.get(0);
                 loadInteractionFieldsFromEbook(selectedEbook);
@@ -289,36 +523,56 @@ public final class MainPageController {
             ObservableList<Ebook> selectedEbookList = ebookTableView.getSelectionModel().getSelectedItems();
 
             // Make sure we have actually selectedStudent a row
-            if (selectedEbookList.size() > 0) {
-                if (!Ebook.otherExists(ebookCode.asText(), selectedEbook)) {
-                    if (!selectedEbook.filledOutProperly()) {
-                        AlertCreator.errorUser("You need to fill out each entry field!");
+            if (selectedEbook != null && selectedEbookList.size() > 0) {
+                // Edit a copy, so the shared Ebook only changes once the write has committed
+                Ebook shared = selectedEbook;
+                Ebook edited = shared.copy();
+                saveTextFieldsToEbook(edited);
+
+                if (!edited.filledOutProperly()) {
+                    AlertCreator.errorUser("You need to fill out each entry field!");
+                    return;
+                }
+
+                TableRows<Ebook> rows = new TableRows<>(ebookTableView);
+                updateEbookDataButton.setDisable(true);
+                DatabaseTask<Boolean> task = databaseExecutor.submit("Saving ebook",
+                        () -> connector.callInTransaction((Callable<Boolean>) () -> {
+                            if (Ebook.otherExists(edited.getCode(), edited)) {
+                                return false;
+                            }
+                            connector.updateDetached(edited);
+                            rows.locate(edited);
+                            return true;
+                        }));
+                task.onSuccess(saved -> {
+                    if (!saved) {
+                        if (selectedEbook == shared) {
+                            updateEbookDataButton.setDisable(false);
+                            loadInteractionFieldsFromEbook(shared);
+                        }
+                        AlertCreator.errorUser("An Ebook with that code already exists!");
                         return;
                     }
 
-                    Ebook.Memento preservedEbook = selectedEbook.saveToMemento();
-                    saveTextFieldsToEbook(selectedEbook);
-                    try {
-                        TransactionManager.callInTransaction(connector.getConnectionSource(), (Callable<Void>) () -> {
-                            connector.getEbookDao().update(selectedEbook);
-                            return null;
-                        });
-
+                    shared.copyFrom(edited);
+                    rows.upsert(shared);
+                    if (selectedEbook == shared) {
                         ebookWrapperHolder.clearAllStyle();
                         ebookWrapperHolder.updateAll();
-
-                    } catch (SQLException e) {
-                        selectedEbook.loadFromMemento(preservedEbook);
-                        loadInteractionFieldsFromEbook(selectedEbook);
-
-                        e.printStackTrace();
-                        ErrorLog.newErrorLogWithPopup(e);
+                        updateEbookDataButton.setDisable(false);
                     }
-                } else {
-                    AlertCreator.errorUser("An Ebook with that code already exists!");
-                }
+                });
+                task.onFailure(e -> {
+                    if (selectedEbook == shared) {
+                        updateEbookDataButton.setDisable(false);
+                        loadInteractionFieldsFromEbook(shared);
+                    }
+
+                    e.printStackTrace();
+                    ErrorLog.newErrorLogWithPopup(e);
+                });
             }
-            ebookTableView.refresh();
         });
 
         cancelUpdateEbookButton.setOnAction(event -> {
@@ -331,57 +585,92 @@ public final class MainPageController {
         });
 
         viewStudentButton.setOnAction(event -> {
-            try {
-                Student stu = selectedEbook.getOwner();
+            if (selectedEbook == null) {
+                return;
+            }
+            Ebook ebook = selectedEbook;
+            TableRows<Student> rows = new TableRows<>(studentTableView);
+            DatabaseTask<Student> task = databaseExecutor.submit("Finding owner", () -> {
+                Student owner = ebook.getOwner();
+                if (owner != null) {
+                    rows.locate(owner);
+                }
+                return owner;
+            });
+            task.onSuccess(stu -> {
                 if (stu != null) {
                     mainTabPane.getSelectionModel().select(studentTab);
-                    studentTableView.getSelectionModel().select(stu);
-                    reloadTextBoxesStudent();
+                    studentTableView.getSelectionModel().select(rows.indexOf(stu));
+                    // The row may still be being read, so the fields are filled from the student that was found
+                    setDisableOnInteractionsStudent(false);
+                    selectedStudent = stu;
+                    loadInteractionFieldsFromStudent(stu);
+                    resetFieldsStyle();
                 }
-            } catch (NullPointerException e) {
-                e.printStackTrace();
-            }
+            });
+            task.onFailure(Throwable::printStackTrace);
         });
 
         pairStudentButton.setOnAction(event -> {
             PairStudentPopup psp = new PairStudentPopup();
             Pair<Student, Boolean> result = psp.showAndWait();
-            if (result.getR()) {
-                if (result.getL().getOwnedEbook() != null) {
-                    Ebook ebook = result.getL().getOwnedEbook();
-                    ebook.setAssignmentDate(null);
-                    try {
-                        connector.getEbookDao().update(ebook);
-                    } catch (SQLException e) {
-                        AlertCreator.errorUser("There was a problem removing the date of the previously paired Ebook.");
-                        e.printStackTrace();
-                    }
+            if (!result.getR() || selectedEbook == null) {
+                refreshInteractionFields();
+                return;
+            }
+
+            Ebook ebook = selectedEbook;
+            Student newOwner = result.getL();
+            DatabaseTask<Student> ownerLookup = databaseExecutor.submit("Finding owner", ebook::getOwner);
+            ownerLookup.onSuccess(owner -> {
+                if (owner != null && owner != newOwner && !AlertCreator.askYesOrNo(String.format(
+                        "This Ebook belongs to %s %s. Do you want to give it to %s %s instead?", owner.getFirstName(),
+                        owner.getLastName(), newOwner.getFirstName(), newOwner.getLastName()))) {
+                    return;
                 }
 
-                selectedEbook.setAssignmentDate(new Date());
-                result.getL().setEbook(selectedEbook);
-                try {
-                    connector.getStudentDao().update(result.getL());
-                    connector.getEbookDao().update(selectedEbook);
-                    loadInteractionFieldsFromEbook(selectedEbook);
-                } catch (SQLException e) {
+                PairingRows rows = new PairingRows();
+                DatabaseTask<PairingService.Changes> task = databaseExecutor.submit("Pairing ebook", () -> {
+                    PairingService.Changes changes = PairingService.transfer(ebook, newOwner);
+                    rows.locate(changes);
+                    return changes;
+                });
+                task.onSuccess(changes -> {
+                    rows.apply(changes);
+                    refreshInteractionFields();
+                });
+                task.onFailure(e -> {
                     AlertCreator.errorUser("There was a problem pairing that Ebook and Student");
                     e.printStackTrace();
-                }
-            }
-            refreshEverything();
+                    refreshInteractionFields();
+                });
+            });
+            ownerLookup.onFailure(Throwable::printStackTrace);
         });
 
         deleteEbookRecordButton.setOnAction(event -> {
             if (AlertCreator.askYesOrNo("Are you sure you want to delete this record?")) {
-                 try {
-                     connector.getEbookDao().delete(selectedEbook);
-                     refreshEverything();
-                     finishEbookChanges();
-                 } catch (SQLException e) {
-                     e.printStackTrace();
-                     ErrorLog.newErrorLogWithPopup(e);
-                 }
+                Ebook deleted = selectedEbook;
+                TableRows<Student> studentRows = new TableRows<>(studentTableView);
+                TableRows<Ebook> ebookRows = new TableRows<>(ebookTableView);
+                DatabaseTask<PairingService.Changes> task = databaseExecutor.submit("Deleting ebook", () -> {
+                    ebookRows.locate(deleted);
+                    PairingService.Changes changes = PairingService.deleteEbook(deleted);
+                    studentRows.locateAll(changes.getStudents());
+                    return changes;
+                });
+                task.onSuccess(changes -> {
+                    studentRows.upsertAll(changes.getStudents());
+                    ebookRows.remove(deleted);
+                    if (selectedEbook == deleted) {
+                        finishEbookChanges();
+                    }
+                    refreshInteractionFields();
+                });
+                task.onFailure(e -> {
+                    e.printStackTrace();
+                    ErrorLog.newErrorLogWithPopup(e);
+                });
             }
         });
 
@@ -418,27 +707,13 @@ public final class MainPageController {
                     newDatabaseFile.delete();
                     newDatabaseFile.createNewFile();
                 }
-
-                // Connect database
-                connector.connect(newDatabaseFile.getAbsolutePath());
-                ConnectionSource connectionSource = connector.getConnectionSource();
-
-                // Create database tables if they don't exist
-                TableUtils.createTableIfNotExists(connectionSource, Student.class);
-                TableUtils.createTableIfNotExists(connectionSource, Ebook.class);
-
-                // Get all students
-                List<Student> allStudents = connector.getStudentDao().queryForAll();
-                List<Ebook> allEbooks = connector.getEbookDao().queryForAll();
-
-                // Generate list and set the items
-                studentTableView.setItems(FXCollections.observableArrayList(allStudents));
-                ebookTableView.setItems(FXCollections.observableArrayList(allEbooks));
-
-            } catch (IOException | SQLException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
                 AlertCreator.errorUser("There was an issue creating that file.");
+                return;
             }
+
+            connectInBackground(newDatabaseFile, "There was an issue creating that file.");
         });
 
         // Bind 'Connect to Database' menu button
@@ -460,36 +735,7 @@ public final class MainPageController {
                 return;
             }
 
-            clearTextFields();
-            setDisableOnInteractionsStudent(true);
-            setDisableOnInteractionsEbook(true);
-
-            try {
-                // Connect database
-                connector.connect(databaseFile.getAbsolutePath());
-                ConnectionSource connectionSource = connector.getConnectionSource();
-
-                // Create database tables if they don't exist
-                TableUtils.createTableIfNotExists(connectionSource, Student.class);
-                TableUtils.createTableIfNotExists(connectionSource, Ebook.class);
-
-                // Get all students
-                List<Student> allStudents = connector.getStudentDao().queryForAll();
-                List<Ebook> allEbooks = connector.getEbookDao().queryForAll();
-
-                // Generate list and set the items
-                studentTableView.setItems(FXCollections.observableArrayList(allStudents));
-                ebookTableView.setItems(FXCollections.observableArrayList(allEbooks));
-
-            } catch (SQLException | IOException e) {
-                try {
-                    connector.disconnectIfConnected();
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
-                e.printStackTrace();
-                AlertCreator.errorUser("There was an issue reading that database file");
-            }
+            connectInBackground(databaseFile, "There was an issue reading that database file");
         });
 
         closeConnection.setOnAction(e -> {
@@ -500,6 +746,11 @@ public final class MainPageController {
             }
 
             try {
+                databaseExecutor.cancelAll();
+                closeRows(studentTableView);
+                closeRows(ebookTableView);
+                requestedStudentPager = null;
+                requestedEbookPager = null;
                 connector.disconnectIfConnected();
                 studentWrapperHolder.clearAll();
                 studentWrapperHolder.clearAllStyle();
@@ -517,22 +768,158 @@ public final class MainPageController {
         });
 
         exportToCsv.setOnAction(event -> {
+            File csvDirectory = Utils.openDirectoryPicker("Select where to export the .csv files", AppConstants.HOME_DIRECTORY, myWindow);
+            if (csvDirectory == null) {
+                return;
+            }
+
+            File studentsCsv = new File(csvDirectory, String.format("students-%s.csv", AppConstants.CSV_FILE_DATE_FORMAT.format(Instant.now())));
+            File ebooksCsv = new File(csvDirectory, String.format("ebooks-%s.csv", AppConstants.CSV_FILE_DATE_FORMAT.format(Instant.now())));
+
+            DatabaseTask<Void> task = submitLongTask("Exporting CSV files", listener -> {
+                CSVExporter.writeCsvFromDao(connector.getStudentDao(), studentsCsv.toPath(), Student::preloadDetachedEbooks, listener);
+                CSVExporter.writeCsvFromDao(connector.getEbookDao(), ebooksCsv.toPath(), listener);
+                return null;
+            });
+            if (task == null) {
+                return;
+            }
+
+            task.onSuccess(ignored -> AlertCreator.infoUser(String.format("CSV Files created in %s", csvDirectory.getAbsolutePath())));
+            task.onFailure(e -> {
+                e.printStackTrace();
+                AlertCreator.errorUser("There was an error exporting the CSV files.");
+            });
+        });
+
+        importRoster.setOnAction(event -> {
+            File rosterFile;
             try {
-                File csvDirectory = Utils.openDirectoryPicker("Select where to export the .csv files", Main.HOME_DIRECTORY, myWindow);
-                if (csvDirectory == null) {
+                rosterFile = Utils.openFilePickerDialog("Select Student Roster", AppConstants.HOME_DIRECTORY, myWindow);
+                if (rosterFile == null) {
                     return;
                 }
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                AlertCreator.errorUser("There was an issue opening the filepicker.");
+                return;
+            }
 
-                File studentsCsv = new File(csvDirectory, String.format("students-%s.csv", Main.CSV_FILE_DATE_FORMAT.format(new Date())));
-                File ebooksCsv = new File(csvDirectory, String.format("ebooks-%s.csv", Main.CSV_FILE_DATE_FORMAT.format(new Date())));
+            DatabaseTask<ImportResult> task = submitLongTask("Importing students",
+                    listener -> RosterImporter.importRoster(rosterFile.toPath(), listener));
+            if (task == null) {
+                return;
+            }
 
-                CSVExporter.writeCsvFromBeans(connector.getStudentDao().queryForAll(), studentsCsv.toPath());
-                CSVExporter.writeCsvFromBeans(connector.getEbookDao().queryForAll(), ebooksCsv.toPath());
-                AlertCreator.infoUser(String.format("CSV Files created in %s", csvDirectory.getAbsolutePath()));
-            } catch (IOException | SQLException e) {
-                AlertCreator.errorUser("There was an error exporting the CSV files.");
+            task.onSuccess(result -> {
+                refreshEverything();
+                showImportResult(result, "students");
+            });
+            task.onFailure(e -> {
+                e.printStackTrace();
+                refreshEverything();
+                if (e instanceof IOException) {
+                    AlertCreator.errorUser("There was an issue reading that roster file. " + e.getMessage());
+                } else {
+                    ErrorLog.newErrorLogWithPopup(e);
+                }
+            });
+            // Batches written before a cancel stay in the database
+            task.getResult().whenComplete((result, e) -> {
+                if (task.isCancelled()) {
+                    Platform.runLater(this::refreshEverything);
+                }
+            });
+        });
+
+        importEbookCodes.setOnAction(event -> {
+            File codesFile;
+            try {
+                codesFile = Utils.openFilePickerDialog("Select Ebook Code List", AppConstants.HOME_DIRECTORY, myWindow);
+                if (codesFile == null) {
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
                 e.printStackTrace();
+                AlertCreator.errorUser("There was an issue opening the filepicker.");
+                return;
             }
+
+            Pair<String, Boolean> result = new BulkEbookPopup("Import Ebook Codes", false).showAndWait();
+            if (!result.getR()) {
+                return;
+            }
+
+            DatabaseTask<ImportResult> task = submitLongTask("Importing ebook codes",
+                    listener -> EbookCodeImporter.importCodes(codesFile.toPath(), result.getL(), listener));
+            if (task == null) {
+                return;
+            }
+
+            task.onSuccess(importResult -> {
+                refreshEverything();
+                showImportResult(importResult, "ebooks");
+            });
+            task.onFailure(e -> {
+                e.printStackTrace();
+                if (e instanceof IOException) {
+                    AlertCreator.errorUser("There was an issue reading that code list. " + e.getMessage());
+                } else {
+                    ErrorLog.newErrorLogWithPopup(e);
+                }
+            });
+        });
+
+        generateEbookCodes.setOnAction(event -> {
+            BulkEbookPopup popup = new BulkEbookPopup("Generate Ebook Codes", true);
+            Pair<String, Boolean> result = popup.showAndWait();
+            if (!result.getR()) {
+                return;
+            }
+
+            DatabaseTask<List<Ebook>> task = submitLongTask("Generating ebook codes",
+                    listener -> EbookCodeGenerator.generate(result.getL(), popup.getCount()));
+            if (task == null) {
+                return;
+            }
+
+            task.onSuccess(created -> {
+                appendRows(ebookTableView, created);
+                AlertCreator.infoUser(String.format("Created %d ebooks for '%s'.", created.size(), result.getL()));
+            });
+            task.onFailure(e -> {
+                e.printStackTrace();
+                ErrorLog.newErrorLogWithPopup(e);
+            });
+        });
+
+        assignEbooks.setOnAction(event -> {
+            AssignmentPopup popup = new AssignmentPopup(databaseExecutor);
+            Pair<AssignmentEngine.Plan, Boolean> result = popup.showAndWait();
+            if (!result.getR()) {
+                return;
+            }
+
+            AssignmentEngine.Plan plan = result.getL();
+            DatabaseTask<Integer> task = submitLongTask("Assigning ebooks",
+                    listener -> AssignmentEngine.apply(plan, listener));
+            if (task == null) {
+                return;
+            }
+
+            task.onSuccess(paired -> {
+                refreshEverything();
+                AlertCreator.infoUser(String.format("Gave '%s' to %,d students in grade %s.",
+                        plan.getEbookName(), paired, plan.getGrade()));
+            });
+            task.onFailure(e -> {
+                if (e instanceof IllegalStateException) {
+                    AlertCreator.errorUser(e.getMessage() + ". Nothing was changed; preview the assignment again.");
+                } else {
+                    e.printStackTrace();
+                    ErrorLog.newErrorLogWithPopup(e);
+                }
+            });
         });
 
         deleteMenuItem.setOnAction(e -> {
@@ -559,6 +946,8 @@ public final class MainPageController {
             }
         });
 
+        diagnosticsMenuItem.setOnAction(e -> new DiagnosticsPopup().showAndWait());
+
         aboutMenuItem.setOnAction(e -> {
             BasicPopup aboutPopup = new BasicPopup(500, 175, "About",
                          "This is a Java program designed by Daniel Sage (github.com/dnsge) " +
@@ -587,50 +976,63 @@ public final class MainPageController {
     private void registerToolBarInteractions() {
         // Set listener for when database connection state is changed
         // If connected, enable bottom toolbar, else disable it
-        connector.getConnectedProperty().addListener((observable, oldValue, newValue) -> {
-            buttonsToolbar.setDisable(!newValue);
-            closeConnection.setDisable(!newValue);
-            exportToCsv.setDisable(!newValue);
-        });
+        // Connections are opened on a worker thread, so the change is applied on the JavaFX thread
+        connector.addConnectionListener(connected -> Platform.runLater(() -> {
+            buttonsToolbar.setDisable(!connected);
+            closeConnection.setDisable(!connected);
+            exportToCsv.setDisable(!connected);
+            importRoster.setDisable(!connected);
+            importEbookCodes.setDisable(!connected);
+            generateEbookCodes.setDisable(!connected);
+            assignEbooks.setDisable(!connected);
+        }));
 
         newRecordButton.setOnAction(event -> {
             if (mainTabPane.getSelectionModel().getSelectedIndex() == 0) { // Student tab
                 NewStudentPopup nsp = new NewStudentPopup();
                 Pair<Student, Boolean> result = nsp.showAndWait();
                 if (result.getR()) {
-                    try {
-                        TransactionManager.callInTransaction(connector.getConnectionSource(), (Callable<Void>) () -> {
-                            connector.getStudentDao().create(result.getL());
-
-                            refreshEverything();
-
-                            return null;
-                        });
-                    } catch (SQLException e) {
+                    Student created = result.getL();
+                    TableRows<Student> rows = new TableRows<>(studentTableView);
+                    DatabaseTask<Void> task = databaseExecutor.submit("Creating student",
+                            () -> connector.callInTransaction((Callable<Void>) () -> {
+                                connector.getStudentDao().create(created);
+                                rows.locate(created);
+                                return null;
+                            }));
+                    task.onSuccess(ignored -> rows.upsert(created));
+                    task.onFailure(e -> {
                         e.printStackTrace();
                         ErrorLog.newErrorLogWithPopup(e);
-                    }
+                    });
                 }
             } else {
                 NewEbookPopup nep = new NewEbookPopup();
                 Pair<Ebook, Boolean> result = nep.showAndWait();
                 if (result.getR()) {
-                    try {
-                        TransactionManager.callInTransaction(connector.getConnectionSource(), (Callable<Void>) () -> {
-                            connector.getEbookDao().create(result.getL());
-
-                            refreshEverything();
-
-                            return null;
-                        });
-                    } catch (SQLException e) {
+                    Ebook created = result.getL();
+                    TableRows<Ebook> rows = new TableRows<>(ebookTableView);
+                    DatabaseTask<Void> task = databaseExecutor.submit("Creating ebook",
+                            () -> connector.callInTransaction((Callable<Void>) () -> {
+                                connector.getEbookDao().create(created);
+                                rows.locate(created);
+                                return null;
+                            }));
+                    task.onSuccess(ignored -> rows.upsert(created));
+                    task.onFailure(e -> {
                         e.printStackTrace();
                         ErrorLog.newErrorLogWithPopup(e);
-                    }
+                    });
                 }
             }
         });
 
+        scanPairingButton.setOnAction(event -> {
+            ScanPairingPopup spp = new ScanPairingPopup(databaseExecutor, PairingRows::new);
+            spp.showAndWait();
+            refreshInteractionFields();
+        });
+
         generateReportButton.setOnAction(event -> {
             File saveFile = Utils.openSavePickerDialog("Select Report Location", REPORTS_DIRECTORY,
                     Utils.getWindowFromNode(generateReportButton), new FileChooser.ExtensionFilter("PDF files (*.pdf)", ".pdf"));
@@ -639,61 +1041,283 @@ public final class MainPageController {
                 return;
             }
 
-            try {
+            DatabaseTask<Void> task = submitLongTask("Generating report", listener -> {
                 boolean isNew = saveFile.createNewFile();
                 if (!isNew) {
                     saveFile.delete();
                     saveFile.createNewFile();
                 }
 
-                ReportGenerator.generateReport(saveFile, connector.getStudentDao().queryForAll());
+                try {
+                    ReportGenerator.generateReport(saveFile, listener, Runtime.getRuntime().availableProcessors());
+                } catch (InterruptedIOException e) {
+                    saveFile.delete();
+                    throw e;
+                }
+                return null;
+            });
+            if (task == null) {
+                return;
+            }
+
+            task.onSuccess(ignored -> {
                 AlertCreator.infoUser(String.format("Your report was successfully created at %s", saveFile.getAbsolutePath()));
-                Utils.openWebBrowser(saveFile.toURI());
-            } catch (IOException | SQLException e) {
+                try {
+                    Utils.openWebBrowser(saveFile.toURI());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            task.onFailure(e -> {
                 e.printStackTrace();
                 AlertCreator.errorUser("There was an issue creating your report.");
-            }
+            });
         });
     }
 
     /**
-     * Refreshes the ebooks table by fetching up-to-date objects
+     * Refreshes the ebooks table by fetching up-to-date objects in the background
+     * <p>
+     * Rows are read a page at a time as the table scrolls, in the table's sort order and
+     * filtered by the filter field. A refresh that is still running is cancelled, so only
+     * the newest result is shown.
      */
     private void completeEbookTableRefresh() {
-        List<Ebook> allEbooks = null;
-        try {
-            allEbooks = connector.getEbookDao().queryForAll();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (ebookRefreshTask != null) {
+            ebookRefreshTask.cancel();
         }
-        ebookTableView.setItems(FXCollections.observableArrayList(allEbooks));
-        ebookTableView.refresh();
+
+        long start = System.nanoTime();
+        KeysetPager<Ebook> pager = KeysetPager.forEbooks(orderOf(ebookTableView), ebookFilterField.getText());
+        requestedEbookPager = pager;
+        ebookRefreshTask = databaseExecutor.submit("Loading ebooks",
+                () -> LazyPagedList.open(pager, databaseExecutor, "Loading ebooks"));
+        ebookRefreshTask.onSuccess(ebookRows -> {
+            closeRows(ebookTableView);
+            ebookTableView.setItems(ebookRows);
+            ebookRows.loadPageBoundaries();
+            EBOOK_REFRESH_TIMER.recordSince(start);
+        });
+        ebookRefreshTask.onFailure(Throwable::printStackTrace);
     }
 
     /**
-     * Refreshes the students table by fetching up-to-date objects
+     * Refreshes the students table by fetching up-to-date objects in the background
+     * <p>
+     * Rows are read a page at a time as the table scrolls, in the table's sort order and
+     * filtered by the filter field. A refresh that is still running is cancelled, so only
+     * the newest result is shown.
      */
     private void completeStudentTableRefresh() {
-        List<Student> allStudents = null;
-        try {
-            allStudents = connector.getStudentDao().queryForAll();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (studentRefreshTask != null) {
+            studentRefreshTask.cancel();
+        }
+
+        long start = System.nanoTime();
+        KeysetPager<Student> pager = KeysetPager.forStudents(orderOf(studentTableView), studentFilterField.getText());
+        requestedStudentPager = pager;
+        studentRefreshTask = databaseExecutor.submit("Loading students",
+                () -> LazyPagedList.open(pager, databaseExecutor, "Loading students"));
+        studentRefreshTask.onSuccess(studentRows -> {
+            closeRows(studentTableView);
+            studentTableView.setItems(studentRows);
+            studentRows.loadPageBoundaries();
+            STUDENT_REFRESH_TIMER.recordSince(start);
+        });
+        studentRefreshTask.onFailure(Throwable::printStackTrace);
+    }
+
+    /**
+     * Starts a long running database task that shows its progress and can be cancelled
+     * from the toolbar. Only one can run at a time.
+     *
+     * @param description What the task is doing, shown in the toolbar
+     * @param call Work to run in the background
+     * @param <T> Type of the result
+     * @return The started task, or null if another long running task hasn't finished
+     */
+    private <T> DatabaseTask<T> submitLongTask(String description, LongTaskCall<T> call) {
+        if (longRunningTask != null && !longRunningTask.isDone()) {
+            AlertCreator.infoUser(String.format("Please wait for \"%s\" to finish.", longRunningTask.getDescription()));
+            return null;
         }
-        studentTableView.setItems(FXCollections.observableArrayList(allStudents));
-        studentTableView.refresh();
+
+        ProgressListener listener = databaseExecutor.onCallbackThread((done, total) -> {
+            if (longRunningTask != null && !longRunningTask.isDone()) {
+                statusLabel.setText(total > 0
+                        ? String.format("%s... %d of %d", description, done, total)
+                        : String.format("%s... %d", description, done));
+            }
+        });
+
+        DatabaseTask<T> task = databaseExecutor.submit(description, () -> call.call(listener));
+        longRunningTask = task;
+        cancelTaskButton.setVisible(true);
+        task.getResult().whenComplete((result, e) -> Platform.runLater(() -> {
+            if (longRunningTask == task) {
+                cancelTaskButton.setVisible(false);
+            }
+        }));
+        return task;
     }
 
     /**
      * Refreshes every table element and input field with the current data
      * from the database file
+     * <p>
+     * Reloads both tables, so it should only be used after bulk changes.
+     * Single row changes should use {@link TableRows}
      */
     private void refreshEverything() {
+        RefreshEvent event = new RefreshEvent();
+        event.begin();
         completeStudentTableRefresh();
         completeEbookTableRefresh();
-        studentTableView.refresh();
-        ebookTableView.refresh();
+        refreshInteractionFields();
+        CompletableFuture.allOf(studentRefreshTask.getResult(), ebookRefreshTask.getResult())
+                .whenComplete((ignored, e) -> {
+                    event.setCompleted(e == null);
+                    event.commit();
+                });
+    }
 
+    /**
+     * Opens a database file on a worker thread, then loads both tables
+     * <p>
+     * Opening can migrate the file and rebuild its search index, which takes a while on a
+     * large file. The tables stop reading rows first, since the old connection is closed.
+     *
+     * @param databaseFile File to open
+     * @param errorMessage Shown to the user if it can't be opened
+     */
+    private void connectInBackground(File databaseFile, String errorMessage) {
+        databaseExecutor.cancelAll();
+        clearTextFields();
+        setDisableOnInteractionsStudent(true);
+        setDisableOnInteractionsEbook(true);
+        selectedStudent = null;
+        selectedEbook = null;
+        closeRows(studentTableView);
+        closeRows(ebookTableView);
+
+        DatabaseTask<Void> task = databaseExecutor.submit("Opening " + databaseFile.getName(), () -> {
+            connector.connect(databaseFile.getAbsolutePath());
+            return null;
+        });
+        task.onSuccess(ignored -> {
+            completeStudentTableRefresh();
+            completeEbookTableRefresh();
+        });
+        task.onFailure(e -> {
+            try {
+                connector.disconnectIfConnected();
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            e.printStackTrace();
+            AlertCreator.errorUser(errorMessage);
+        });
+    }
+
+    /**
+     * Makes a cell value factory for a text column, showing nothing while a row is still being read
+     *
+     * @param text Gets the text of a row
+     * @param <S> Type of the rows
+     * @return The cell value factory
+     */
+    private static <S> Callback<TableColumn.CellDataFeatures<S, String>, ObservableValue<String>> textOf(Function<S, String> text) {
+        return param -> new SimpleStringProperty(param.getValue() == null ? null : text.apply(param.getValue()));
+    }
+
+    /**
+     * Stops background reads of a table's rows before they are replaced
+     *
+     * @param table Table whose rows are being replaced
+     */
+    private static void closeRows(TableView<?> table) {
+        if (table.getItems() instanceof LazyPagedList) {
+            ((LazyPagedList<?>) table.getItems()).close();
+        }
+    }
+
+    /**
+     * Adds new rows to the end of a table, or reloads it if they don't belong at the end
+     *
+     * @param table Table to update
+     * @param items New objects
+     * @param <T> Type of the rows
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void appendRows(TableView<T> table, List<T> items) {
+        if (table.getItems() instanceof LazyPagedList && ((LazyPagedList<T>) table.getItems()).getPager().isKeyOrdered()) {
+            table.getItems().addAll(items);
+        } else {
+            reloadTable(table);
+        }
+    }
+
+    /**
+     * Reloads one of the two tables
+     *
+     * @param table {@link #studentTableView} or {@link #ebookTableView}
+     */
+    private void reloadTable(TableView<?> table) {
+        if (table == studentTableView) {
+            completeStudentTableRefresh();
+        } else {
+            completeEbookTableRefresh();
+        }
+    }
+
+    /**
+     * Finds the database order matching a table's sort order
+     * <p>
+     * Only the first sort column is used, since each order needs a matching index
+     *
+     * @param table Table to read the sort order of
+     * @return Order to read the table's rows in
+     */
+    private KeysetPager.Order orderOf(TableView<?> table) {
+        if (table.getSortOrder().isEmpty()) {
+            return KeysetPager.Order.KEY;
+        }
+
+        TableColumn<?, ?> column = table.getSortOrder().get(0);
+        KeysetPager.Order order = columnOrders.getOrDefault(column, KeysetPager.Order.KEY);
+        return order.withAscending(column.getSortType() == TableColumn.SortType.ASCENDING);
+    }
+
+    /**
+     * Makes a table sort and filter by querying instead of sorting its rows in memory
+     *
+     * @param table Table to set up
+     * @param filterField Field whose text filters the table
+     * @param requestedPager Returns the pager the table was last asked to show
+     */
+    private void delegateSortAndFilter(TableView<?> table, TextField filterField, Supplier<KeysetPager<?>> requestedPager) {
+        Runnable reloadIfChanged = () -> {
+            KeysetPager<?> requested = requestedPager.get();
+            if (connector.isConnected() && (requested == null || !requested.reads(orderOf(table), filterField.getText()))) {
+                reloadTable(table);
+            }
+        };
+
+        // Called by JavaFX whenever the sort order changes and whenever the items are replaced
+        table.setSortPolicy(t -> {
+            reloadIfChanged.run();
+            return true;
+        });
+
+        PauseTransition filterDelay = new PauseTransition(FILTER_DELAY);
+        filterDelay.setOnFinished(e -> reloadIfChanged.run());
+        filterField.textProperty().addListener((observable, oldValue, newValue) -> filterDelay.playFromStart());
+    }
+
+    /**
+     * Reloads the input fields from the selected objects, or clears them if nothing is selected
+     */
+    private void refreshInteractionFields() {
         if (selectedStudent != null) {
             loadInteractionFieldsFromStudent(selectedStudent);
         } else {
@@ -807,6 +1431,9 @@ public final class MainPageController {
 
     /**
      * Fills in the text fields based off of a Student's information
+     * <p>
+     * The Student's Ebook is looked up in the background; the Ebook buttons stay
+     * disabled until it is found.
      *
      * @param stu Student to load from
      */
@@ -816,13 +1443,28 @@ public final class MainPageController {
         studentGrade.setValue(stu.getGrade());
         studentId.setValue(stu.getStudentId());
         studentWrapperHolder.updateAll();
-        hasEbookCheckbox.setSelected(stu.hasEbook());
-        viewEbookButton.setDisable(!stu.hasEbook());
-        unpairEbookButton.setDisable(!stu.hasEbook());
+        viewEbookButton.setDisable(true);
+        unpairEbookButton.setDisable(true);
+
+        if (ownedEbookTask != null) {
+            ownedEbookTask.cancel();
+        }
+        ownedEbookTask = databaseExecutor.submit("Finding ebook", stu::getOwnedEbook);
+        ownedEbookTask.onSuccess(ebook -> {
+            if (selectedStudent == stu) {
+                hasEbookCheckbox.setSelected(ebook != null);
+                viewEbookButton.setDisable(ebook == null);
+                unpairEbookButton.setDisable(ebook == null);
+            }
+        });
+        ownedEbookTask.onFailure(Throwable::printStackTrace);
     }
 
     /**
      * Fills in the text fields based off of an Ebook's information
+     * <p>
+     * The Ebook's owner is looked up in the background; the view student button stays
+     * disabled until it is found.
      *
      * @param ebook Ebook to load from
      */
@@ -831,9 +1473,18 @@ public final class MainPageController {
         ebookCode.setValue(ebook.getCode());
         redemptionDate.setValue(ebook.getAssignmentDateString());
         ebookWrapperHolder.updateAll();
-        if (ebook.getOwner() == null) {
-            viewStudentButton.setDisable(true);
+        viewStudentButton.setDisable(true);
+
+        if (ownerTask != null) {
+            ownerTask.cancel();
         }
+        ownerTask = databaseExecutor.submit("Finding owner", ebook::getOwner);
+        ownerTask.onSuccess(owner -> {
+            if (selectedEbook == ebook) {
+                viewStudentButton.setDisable(owner == null);
+            }
+        });
+        ownerTask.onFailure(Throwable::printStackTrace);
     }
 
     /**
@@ -858,6 +1509,38 @@ public final class MainPageController {
         ebook.setCode(ebookCode.asText());
     }
 
+    /**
+     * Tells the user how a bulk import went
+     * <p>
+     * Lists the first few rejected rows and saves all of them to a file in the logs directory
+     *
+     * @param result Result of the import
+     * @param recordName Plural name of the imported records, e.g. "students"
+     */
+    private void showImportResult(ImportResult result, String recordName) {
+        List<ImportResult.RejectedRow> rejected = result.getRejectedRows();
+        StringBuilder message = new StringBuilder(String.format("Imported %d %s.", result.getImportedCount(), recordName));
+
+        if (!rejected.isEmpty()) {
+            message.append(String.format(" %d rows were rejected:", rejected.size()));
+            rejected.stream().limit(10).forEach(row -> message.append("\n").append(row));
+            if (rejected.size() > 10) {
+                message.append("\n...");
+            }
+
+            File rejectsFile = new File(AppConstants.LOGS_DIRECTORY, String.format("rejected-%s-%s.csv", recordName,
+                    AppConstants.CSV_FILE_DATE_FORMAT.format(Instant.now())));
+            try {
+                result.writeRejectedRows(rejectsFile.toPath());
+                message.append("\n\nEvery rejected row is listed in ").append(rejectsFile.getAbsolutePath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        AlertCreator.infoUser(message.toString());
+    }
+
     boolean unsavedChanges() {
         return studentWrapperHolder.anyChanged() || ebookWrapperHolder.anyChanged();
     }
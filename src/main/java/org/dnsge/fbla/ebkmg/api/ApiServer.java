@@ -0,0 +1,495 @@
+package org.dnsge.fbla.ebkmg.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.dnsge.fbla.ebkmg.csv.CSVExporter;
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.PairingService;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.SearchIndex;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.util.WorkerThreads;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Embedded HTTP server that lets other programs look up and pair students and ebooks
+ * <p>
+ * Uses the connected {@link SQLiteConnector}, so lookups go through the same in-memory
+ * indexes, identity map and connection pool as everything else. Requests run on virtual
+ * threads when the runtime has them. Responses have a known length, so clients can keep
+ * connections alive between requests.
+ * <p>
+ * Endpoints (all JSON unless noted):
+ * <ul>
+ *     <li>{@code GET /api/students/{studentId}}, {@code GET /api/students?search=text&limit=n}</li>
+ *     <li>{@code POST /api/students/lookup} with {@code {"studentIds": [...]}}</li>
+ *     <li>{@code GET /api/ebooks/{code}}, {@code GET /api/ebooks?search=text&limit=n}</li>
+ *     <li>{@code POST /api/ebooks/lookup} with {@code {"codes": [...]}}</li>
+ *     <li>{@code POST /api/pairings} with {@code {"studentId": ..., "code": ..., "transfer": false}}</li>
+ *     <li>{@code POST /api/pairings/batch} with {@code {"pairings": [{"studentId": ..., "code": ...}, ...]}}</li>
+ *     <li>{@code DELETE /api/pairings/{studentId}}</li>
+ *     <li>{@code GET /api/export/students.csv}, {@code GET /api/export/ebooks.csv} (CSV)</li>
+ * </ul>
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class ApiServer {
+
+    public final static int MAX_BATCH_SIZE = 10_000;
+
+    private final static int DEFAULT_SEARCH_LIMIT = 50;
+    private final static int MAX_SEARCH_LIMIT = 1000;
+    private final static int FALLBACK_THREADS = 32;
+    private final static int BACKLOG = 256;
+
+    static {
+        // The server writes headers and body separately, so without this every small response on
+        // a kept-alive connection waits out the client's delayed ACK (about 40ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Gson gson = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    // SQLite allows one writer at a time; waiting here is cheaper than retrying SQLITE_BUSY
+    private final Object writeLock = new Object();
+
+    /**
+     * ApiServer constructor
+     *
+     * @param address Address to listen on
+     * @throws IOException if the address can't be bound
+     */
+    public ApiServer(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, BACKLOG);
+        workers = WorkerThreads.newExecutor("api-worker", FALLBACK_THREADS);
+        server.setExecutor(workers);
+
+        server.createContext("/api/students", exchange -> respond(exchange, this::students));
+        server.createContext("/api/ebooks", exchange -> respond(exchange, this::ebooks));
+        server.createContext("/api/pairings", exchange -> respond(exchange, this::pairings));
+        server.createContext("/api/export", exchange -> respond(exchange, this::export));
+    }
+
+    /**
+     * Starts answering requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops answering requests, waiting for ones in progress to finish
+     *
+     * @param delaySeconds Longest time to wait
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Address the server is listening on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private Object students(HttpExchange exchange, List<String> path) throws Exception {
+        if (path.isEmpty()) {
+            requireMethod(exchange, "GET");
+            List<Student> students = SearchIndex.searchStudents(requireSearch(exchange), searchLimit(exchange));
+            Student.preloadEbooks(students);
+            return studentViews(students);
+        }
+
+        if (path.size() == 1 && path.get(0).equals("lookup")) {
+            requireMethod(exchange, "POST");
+            List<String> studentIds = readBody(exchange, Views.StudentLookupRequest.class).studentIds;
+            checkBatch(studentIds, "studentIds");
+
+            Map<String, Student> found = Student.getAllFromStudentIds(studentIds);
+            Student.preloadEbooks(new ArrayList<>(found.values()));
+            return lookupResult("students", studentIds, found, Views.StudentView::new);
+        }
+
+        requireMethod(exchange, "GET");
+        return new Views.StudentView(requireStudent(singleKey(path)));
+    }
+
+    private Object ebooks(HttpExchange exchange, List<String> path) throws Exception {
+        if (path.isEmpty()) {
+            requireMethod(exchange, "GET");
+            List<Ebook> ebooks = SearchIndex.searchEbooks(requireSearch(exchange), searchLimit(exchange));
+            List<String> codes = new ArrayList<>(ebooks.size());
+            ebooks.forEach(ebook -> codes.add(ebook.getCode()));
+            Map<String, Student> owners = Student.whoOwnsAll(codes);
+
+            List<Views.EbookView> views = new ArrayList<>(ebooks.size());
+            ebooks.forEach(ebook -> views.add(new Views.EbookView(ebook, owners.get(ebook.getCode()))));
+            return views;
+        }
+
+        if (path.size() == 1 && path.get(0).equals("lookup")) {
+            requireMethod(exchange, "POST");
+            List<String> codes = readBody(exchange, Views.EbookLookupRequest.class).codes;
+            checkBatch(codes, "codes");
+
+            Map<String, Ebook> found = Ebook.getAll(codes);
+            Map<String, Student> owners = Student.whoOwnsAll(found.keySet());
+            return lookupResult("ebooks", codes, found, ebook -> new Views.EbookView(ebook, owners.get(ebook.getCode())));
+        }
+
+        requireMethod(exchange, "GET");
+        Ebook ebook = requireEbook(singleKey(path));
+        return new Views.EbookView(ebook, ebook.getOwner());
+    }
+
+    private Object pairings(HttpExchange exchange, List<String> path) throws Exception {
+        if (path.isEmpty()) {
+            requireMethod(exchange, "POST");
+            Views.PairRequest request = readBody(exchange, Views.PairRequest.class);
+            Student student = requireStudent(request.studentId);
+            Ebook ebook = requireEbook(request.code);
+
+            synchronized (writeLock) {
+                return new Views.ChangesView(request.transfer
+                        ? PairingService.transfer(ebook, student)
+                        : PairingService.pair(student, ebook));
+            }
+        }
+
+        if (path.size() == 1 && path.get(0).equals("batch")) {
+            requireMethod(exchange, "POST");
+            return pairBatch(readBody(exchange, Views.BatchPairRequest.class).pairings);
+        }
+
+        requireMethod(exchange, "DELETE");
+        Student student = requireStudent(singleKey(path));
+        synchronized (writeLock) {
+            return new Views.ChangesView(PairingService.unpair(student));
+        }
+    }
+
+    /**
+     * Makes many pairings in one transaction, or none if any of them can't be made
+     *
+     * @param requests Pairings to make
+     * @return Number of pairings made
+     * @throws SQLException if something goes wrong
+     * @throws ApiException if a student or ebook is unknown or listed twice
+     */
+    private Object pairBatch(List<Views.PairRequest> requests) throws SQLException, ApiException {
+        checkBatch(requests, "pairings");
+
+        Set<String> studentIds = new LinkedHashSet<>();
+        Set<String> codes = new LinkedHashSet<>();
+        List<String> problems = new ArrayList<>();
+        for (Views.PairRequest request : requests) {
+            if (request == null || request.studentId == null || request.code == null) {
+                problems.add("Every pairing needs a studentId and a code");
+            } else if (!studentIds.add(request.studentId)) {
+                problems.add("Student ID " + request.studentId + " is listed more than once");
+            } else if (!codes.add(request.code)) {
+                problems.add("Code " + request.code + " is listed more than once");
+            }
+        }
+
+        Map<String, Student> students = Student.getAllFromStudentIds(studentIds);
+        Map<String, Ebook> ebooks = Ebook.getAll(codes);
+        for (String studentId : studentIds) {
+            if (!students.containsKey(studentId)) {
+                problems.add("No student has Student ID " + studentId);
+            }
+        }
+        for (String code : codes) {
+            if (!ebooks.containsKey(code)) {
+                problems.add("No ebook has code " + code);
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new ApiException(400, "Nothing was paired", problems);
+        }
+
+        List<PairingService.Pairing> pairings = new ArrayList<>(requests.size());
+        for (Views.PairRequest request : requests) {
+            pairings.add(new PairingService.Pairing(students.get(request.studentId), ebooks.get(request.code)));
+        }
+        synchronized (writeLock) {
+            PairingService.pairAll(pairings);
+        }
+        return Collections.singletonMap("paired", pairings.size());
+    }
+
+    private Object export(HttpExchange exchange, List<String> path) throws Exception {
+        requireMethod(exchange, "GET");
+        String file = singleKey(path);
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+
+        if (!file.equals("students.csv") && !file.equals("ebooks.csv")) {
+            throw new ApiException(404, "Unknown export " + file);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            if (file.equals("students.csv")) {
+                CSVExporter.writeCsvFromDao(connector.getStudentDao(), writer, Student::preloadDetachedEbooks, null);
+            } else {
+                CSVExporter.writeCsvFromDao(connector.getEbookDao(), writer, null, null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs an endpoint and writes its result as JSON, or its failure as a JSON error
+     *
+     * @param exchange Request to answer
+     * @param endpoint Endpoint to run with the path segments after the context
+     * @throws IOException if the response can't be written
+     */
+    private void respond(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        int status = 200;
+        Object body;
+        try {
+            body = endpoint.handle(exchange, pathAfterContext(exchange));
+            if (body == null) {
+                exchange.close(); // the endpoint wrote its own response
+                return;
+            }
+        } catch (ApiException e) {
+            status = e.status;
+            body = errorBody(e.getMessage(), e.details);
+        } catch (IllegalStateException e) {
+            status = 409;
+            body = errorBody(e.getMessage(), null);
+        } catch (JsonParseException e) {
+            status = 400;
+            body = errorBody("The request body isn't valid JSON", null);
+        } catch (Exception e) {
+            if (exchange.getResponseCode() != -1) {
+                // Part of a streamed response was already sent, usually to a client that hung up
+                exchange.close();
+                return;
+            }
+            e.printStackTrace();
+            status = 500;
+            body = errorBody(e.toString(), null);
+        }
+
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private <T> T readBody(HttpExchange exchange, Class<T> type) throws IOException, ApiException {
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            T body = gson.fromJson(reader, type);
+            if (body == null) {
+                throw new ApiException(400, "Missing request body");
+            }
+            return body;
+        }
+    }
+
+    /**
+     * Lists the rows found by a batch lookup in request order, along with the keys that weren't found
+     */
+    private static <T> Map<String, Object> lookupResult(String name, List<String> keys, Map<String, T> found,
+                                                        Function<T, Object> view) {
+        List<Object> views = new ArrayList<>(found.size());
+        List<String> missing = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        for (String key : keys) {
+            T row = found.get(key);
+            if (row == null) {
+                missing.add(key);
+            } else if (seen.add(key)) {
+                views.add(view.apply(row));
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put(name, views);
+        result.put("missing", missing);
+        return result;
+    }
+
+    private static List<Views.StudentView> studentViews(List<Student> students) {
+        List<Views.StudentView> views = new ArrayList<>(students.size());
+        students.forEach(student -> views.add(new Views.StudentView(student)));
+        return views;
+    }
+
+    private static Student requireStudent(String studentId) throws SQLException, ApiException {
+        Student student = studentId != null ? Student.getFromStudentId(studentId) : null;
+        if (student == null) {
+            throw new ApiException(404, "No student has Student ID " + studentId);
+        }
+        return student;
+    }
+
+    private static Ebook requireEbook(String code) throws SQLException, ApiException {
+        Ebook ebook = code != null ? Ebook.get(code) : null;
+        if (ebook == null) {
+            throw new ApiException(404, "No ebook has code " + code);
+        }
+        return ebook;
+    }
+
+    private static void checkBatch(List<?> items, String name) throws ApiException {
+        if (items == null) {
+            throw new ApiException(400, "Missing " + name);
+        }
+        if (items.size() > MAX_BATCH_SIZE) {
+            throw new ApiException(413, String.format("At most %d %s can be sent at once", MAX_BATCH_SIZE, name));
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) throws ApiException {
+        if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+            exchange.getResponseHeaders().set("Allow", method);
+            throw new ApiException(405, "Use " + method + " for " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private static String singleKey(List<String> path) throws ApiException {
+        if (path.size() != 1) {
+            throw new ApiException(404, "Not found");
+        }
+        return path.get(0);
+    }
+
+    private static String requireSearch(HttpExchange exchange) throws ApiException {
+        String search = queryParameters(exchange).get("search");
+        if (search == null || search.trim().isEmpty()) {
+            throw new ApiException(400, "Missing search; use /api/export to list everything");
+        }
+        return search;
+    }
+
+    private static int searchLimit(HttpExchange exchange) throws ApiException {
+        String limit = queryParameters(exchange).get("limit");
+        if (limit == null) {
+            return DEFAULT_SEARCH_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "limit must be a number");
+        }
+    }
+
+    /**
+     * @param exchange Request
+     * @return Decoded path segments after the context's path
+     */
+    private static List<String> pathAfterContext(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Object> errorBody(String message, List<String> details) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", message);
+        if (details != null) {
+            body.put("details", details);
+        }
+        return body;
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        /**
+         * @return Object to send as JSON, or null if the endpoint already sent its response
+         */
+        Object handle(HttpExchange exchange, List<String> path) throws Exception;
+    }
+
+    /**
+     * Thrown by endpoints to answer with an error status
+     */
+    private final static class ApiException extends Exception {
+        private final static long serialVersionUID = 1L;
+
+        private final int status;
+        private final List<String> details;
+
+        ApiException(int status, String message) {
+            this(status, message, null);
+        }
+
+        ApiException(int status, String message, List<String> details) {
+            super(message);
+            this.status = status;
+            this.details = details;
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.dnsge.fbla.ebkmg.api;
+
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.PairingService;
+import org.dnsge.fbla.ebkmg.db.Student;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON shapes of the API's requests and responses
+ * <p>
+ * Students and ebooks are copied into views instead of being serialized directly, so the
+ * JSON doesn't depend on the database classes' fields.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+final class Views {
+
+    private Views() { }
+
+    static final class StudentView {
+        final String studentId;
+        final String firstName;
+        final String lastName;
+        final String grade;
+        final String ebookCode;
+        final String ebookName;
+
+        /**
+         * @param student Student to copy, ideally with their ebook loaded by {@link Student#preloadEbooks(List)}
+         */
+        StudentView(Student student) {
+            Ebook ebook = student.getOwnedEbook();
+            // Other requests can pair the same student, so read one state of it
+            synchronized (student) {
+                this.studentId = student.getStudentId();
+                this.firstName = student.getFirstName();
+                this.lastName = student.getLastName();
+                this.grade = student.getGrade();
+            }
+            if (ebook != null) {
+                synchronized (ebook) {
+                    this.ebookCode = ebook.getCode();
+                    this.ebookName = ebook.getName();
+                }
+            } else {
+                this.ebookCode = null;
+                this.ebookName = null;
+            }
+        }
+    }
+
+    static final class EbookView {
+        final String code;
+        final String name;
+        final String assignmentDate;
+        final String ownerStudentId;
+
+        /**
+         * @param ebook Ebook to copy
+         * @param owner Student that owns it, or null
+         */
+        EbookView(Ebook ebook, Student owner) {
+            Date assigned;
+            synchronized (ebook) {
+                assigned = ebook.getAssignmentDate();
+                this.code = ebook.getCode();
+                this.name = ebook.getName();
+            }
+            this.assignmentDate = assigned != null ? assigned.toInstant().toString() : null;
+            this.ownerStudentId = owner != null ? owner.getStudentId() : null;
+        }
+    }
+
+    /**
+     * Rows changed by a pairing
+     */
+    static final class ChangesView {
+        final List<StudentView> students = new ArrayList<>();
+        final List<EbookView> ebooks = new ArrayList<>();
+
+        ChangesView(PairingService.Changes changes) {
+            // Ebook owners come from the changed students, so no query is needed
+            Map<String, Student> owners = new HashMap<>();
+            for (Student student : changes.getStudents()) {
+                StudentView view = new StudentView(student);
+                students.add(view);
+                if (view.ebookCode != null) {
+                    owners.put(view.ebookCode, student);
+                }
+            }
+            for (Ebook ebook : changes.getEbooks()) {
+                ebooks.add(new EbookView(ebook, owners.get(ebook.getCode())));
+            }
+        }
+    }
+
+    static final class PairRequest {
+        String studentId;
+        String code;
+        boolean transfer;
+    }
+
+    static final class BatchPairRequest {
+        List<PairRequest> pairings;
+    }
+
+    static final class StudentLookupRequest {
+        List<String> studentIds;
+    }
+
+    static final class EbookLookupRequest {
+        List<String> codes;
+    }
+
+}
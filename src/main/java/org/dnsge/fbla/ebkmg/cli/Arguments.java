@@ -0,0 +1,150 @@
+package org.dnsge.fbla.ebkmg.cli;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options given to a command, in the form {@code --name value}
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+final class Arguments {
+
+    private final Map<String, String> options;
+
+    private Arguments(Map<String, String> options) {
+        this.options = options;
+    }
+
+    /**
+     * Parses options
+     *
+     * @param args Arguments after the command name
+     * @return The parsed options
+     * @throws UsageException if an argument isn't an option or an option has no value
+     */
+    static Arguments parse(String[] args) throws UsageException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || args[i].length() == 2) {
+                throw new UsageException("Unexpected argument " + args[i]);
+            }
+            if (i + 1 >= args.length) {
+                throw new UsageException("Missing value for " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return new Arguments(options);
+    }
+
+    /**
+     * @param name Name of the option, without dashes
+     * @return Value of the option, or null if it wasn't given
+     */
+    String get(String name) {
+        return options.get(name);
+    }
+
+    /**
+     * @param name Name of the option, without dashes
+     * @param defaultValue Value to use if the option wasn't given
+     * @return Value of the option as a whole number
+     * @throws UsageException if it isn't a whole number
+     */
+    int getInt(String name, int defaultValue) throws UsageException {
+        return (int) getLong(name, defaultValue, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param name Name of the option, without dashes
+     * @param defaultValue Value to use if the option wasn't given
+     * @return Value of the option as a whole number
+     * @throws UsageException if it isn't a whole number
+     */
+    long getLong(String name, long defaultValue) throws UsageException {
+        return getLong(name, defaultValue, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private long getLong(String name, long defaultValue, long min, long max) throws UsageException {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long number = Long.parseLong(value);
+            if (number < min || number > max) {
+                throw new UsageException(String.format("--%s must be between %d and %d", name, min, max));
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new UsageException(String.format("--%s must be a number", name));
+        }
+    }
+
+    /**
+     * @param name Name of the option, without dashes
+     * @param defaultValue Value to use if the option wasn't given
+     * @return Value of the option as a decimal number
+     * @throws UsageException if it isn't a number
+     */
+    double getDouble(String name, double defaultValue) throws UsageException {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new UsageException(String.format("--%s must be a number", name));
+        }
+    }
+
+    /**
+     * @param name Name of the option, without dashes
+     * @return Value of the option
+     * @throws UsageException if it wasn't given
+     */
+    String require(String name) throws UsageException {
+        String value = options.get(name);
+        if (value == null) {
+            throw new UsageException("Missing --" + name);
+        }
+        return value;
+    }
+
+    /**
+     * @param name Name of the option, without dashes
+     * @return File named by the option
+     * @throws UsageException if it wasn't given or the file doesn't exist
+     */
+    File requireExistingFile(String name) throws UsageException {
+        File file = new File(require(name));
+        if (!file.isFile()) {
+            throw new UsageException(file.getAbsolutePath() + " does not exist");
+        }
+        return file;
+    }
+
+    /**
+     * @return Names of every given option
+     */
+    Set<String> names() {
+        return Collections.unmodifiableSet(options.keySet());
+    }
+
+    /**
+     * Thrown when a command is given the wrong arguments
+     */
+    static final class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+}
@@ -0,0 +1,429 @@
+package org.dnsge.fbla.ebkmg.cli;
+
+import com.j256.ormlite.dao.GenericRawResults;
+import org.dnsge.fbla.ebkmg.AppConstants;
+import org.dnsge.fbla.ebkmg.api.ApiServer;
+import org.dnsge.fbla.ebkmg.csv.CSVExporter;
+import org.dnsge.fbla.ebkmg.csv.ImportResult;
+import org.dnsge.fbla.ebkmg.csv.PairingImporter;
+import org.dnsge.fbla.ebkmg.csv.RosterImporter;
+import org.dnsge.fbla.ebkmg.db.DatasetGenerator;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.SlowQueryLog;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.metrics.FlightRecording;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+import org.dnsge.fbla.ebkmg.pdf.ReportGenerator;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point for running batch jobs without a desktop session
+ * <p>
+ * Usage: {@code <command> --db <database file> [options]}. Never loads JavaFX, so it can
+ * run from cron on a server. Each command prints how long it took and exits with one of
+ * the {@code EXIT_} codes. Any command can be given {@code --metrics <file>} to write its
+ * {@link Metrics} to a file when it finishes, and {@code --recording <file.jfr>} to save a
+ * {@link FlightRecording} of it.
+ *
+ * @author Daniel Sage
+ * @version 0.8
+ */
+public final class CommandLine {
+
+    public final static int EXIT_OK = 0;
+    public final static int EXIT_FAILED = 1;
+    public final static int EXIT_USAGE = 2;
+    public final static int EXIT_ROWS_REJECTED = 3;
+
+    private final static long PROGRESS_PRINT_INTERVAL_MS = 2000;
+    private final static long SLOW_QUERY_FLUSH_MS = 5000;
+    private final static String DEFAULT_SERVE_HOST = "127.0.0.1";
+    private final static int DEFAULT_SERVE_PORT = 8080;
+
+    private final static Map<String, Command> COMMANDS = new LinkedHashMap<>();
+
+    // Counted down when run() is done, so a shutdown hook can let the command finish cleanly
+    private static volatile CountDownLatch finished = new CountDownLatch(1);
+
+    static {
+        register(new Command("export-csv", "[--out <directory>]",
+                "Writes the students and ebooks to .csv files", CommandLine::exportCsv));
+        register(new Command("report", "[--out <file.pdf>] [--threads <count>]",
+                "Writes a .pdf report of every paired student, laying out pages on every core by default",
+                CommandLine::report));
+        register(new Command("import-roster", "--file <roster.csv> [--rejects <file.csv>]",
+                "Adds the students in a roster file", CommandLine::importRoster));
+        register(new Command("pair-batch", "--file <pairs.csv> [--rejects <file.csv>]",
+                "Pairs the student ID and ebook code on each line, moving ebooks that are already paired",
+                CommandLine::pairBatch));
+        register(new Command("stats", "",
+                "Prints the number of students and ebooks, and how many of each title are paired",
+                CommandLine::stats));
+        register(new Command("serve", "[--host <address>] [--port <port>]",
+                "Answers JSON requests to look up and pair students and ebooks until stopped",
+                CommandLine::serve));
+        register(new Command("generate", "--students <count> [--ebooks <count>] [--paired <ratio>] [--skew <exponent>] "
+                + "[--seed <number>] [--threads <count>]",
+                "Creates a new database of made up students and ebooks for load testing; the same seed gives the same file",
+                CommandLine::generate, false));
+    }
+
+    private CommandLine() { }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Checks whether some text is the name of a command
+     *
+     * @param name Possible command name
+     * @return Whether it is one
+     */
+    public static boolean isCommand(String name) {
+        return COMMANDS.containsKey(name) || "help".equals(name);
+    }
+
+    /**
+     * Runs a command
+     *
+     * @param args Command name followed by its options
+     * @return Exit code
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0 || "help".equals(args[0])) {
+            printUsage();
+            return args.length == 0 ? EXIT_USAGE : EXIT_OK;
+        }
+
+        Command command = COMMANDS.get(args[0]);
+        if (command == null) {
+            System.err.println("Unknown command " + args[0]);
+            printUsage();
+            return EXIT_USAGE;
+        }
+
+        finished = new CountDownLatch(1);
+        String recordingPath = globalOption(args, "recording");
+        if (recordingPath != null) {
+            try {
+                if (!FlightRecording.startWritingTo(new File(recordingPath))) {
+                    System.err.println("Flight recordings aren't supported by this JVM, so none will be written");
+                }
+            } catch (IOException e) {
+                System.err.println("Couldn't start the flight recording: " + e);
+            }
+        }
+        long start = System.nanoTime();
+        int exitCode;
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        try {
+            Arguments arguments = Arguments.parse(Arrays.copyOfRange(args, 1, args.length));
+            command.checkOptions(arguments);
+            if (command.opensDatabase) {
+                File database = arguments.requireExistingFile("db");
+                connector.connect(database.getAbsolutePath());
+            }
+            exitCode = command.runner.run(arguments);
+        } catch (Arguments.UsageException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: " + command.usage());
+            exitCode = EXIT_USAGE;
+        } catch (Exception e) {
+            System.err.println(command.name + " failed: " + e);
+            e.printStackTrace();
+            exitCode = EXIT_FAILED;
+        } finally {
+            try {
+                SlowQueryLog.flush(SLOW_QUERY_FLUSH_MS);
+                connector.disconnectIfConnected();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (recordingPath != null && FlightRecording.isRunning()) {
+            FlightRecording.stop();
+            System.out.println("Flight recording written to " + new File(recordingPath).getAbsolutePath());
+        }
+
+        String metricsPath = globalOption(args, "metrics");
+        if (metricsPath != null) {
+            try {
+                Metrics.dump(new File(metricsPath));
+                System.out.println("Metrics written to " + new File(metricsPath).getAbsolutePath());
+            } catch (IOException e) {
+                System.err.println("Couldn't write metrics: " + e);
+            }
+        }
+
+        System.out.println(String.format("%s finished with exit code %d in %.2fs",
+                command.name, exitCode, (System.nanoTime() - start) / 1e9));
+        finished.countDown();
+        return exitCode;
+    }
+
+    private static int exportCsv(Arguments arguments) throws Exception {
+        File directory = new File(arguments.get("out") != null ? arguments.get("out") : ".");
+        Files.createDirectories(directory.toPath());
+        String date = AppConstants.CSV_FILE_DATE_FORMAT.format(Instant.now());
+        File studentsCsv = new File(directory, String.format("students-%s.csv", date));
+        File ebooksCsv = new File(directory, String.format("ebooks-%s.csv", date));
+
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        long students = CSVExporter.writeCsvFromDao(connector.getStudentDao(), studentsCsv.toPath(),
+                Student::preloadDetachedEbooks, progressPrinter("Exporting students"));
+        long ebooks = CSVExporter.writeCsvFromDao(connector.getEbookDao(), ebooksCsv.toPath(),
+                progressPrinter("Exporting ebooks"));
+
+        System.out.println(String.format("Wrote %d students to %s", students, studentsCsv.getAbsolutePath()));
+        System.out.println(String.format("Wrote %d ebooks to %s", ebooks, ebooksCsv.getAbsolutePath()));
+        return EXIT_OK;
+    }
+
+    private static int report(Arguments arguments) throws Exception {
+        File saveFile;
+        if (arguments.get("out") != null) {
+            saveFile = new File(arguments.get("out"));
+        } else {
+            AppConstants.createDirectories();
+            saveFile = new File(AppConstants.REPORTS_DIRECTORY,
+                    String.format("report-%s.pdf", AppConstants.CSV_FILE_DATE_FORMAT.format(Instant.now())));
+        }
+
+        int threads = arguments.getInt("threads", Runtime.getRuntime().availableProcessors());
+        long students = ReportGenerator.generateReport(saveFile, progressPrinter("Writing report"), threads);
+        System.out.println(String.format("Wrote %d students to %s", students, saveFile.getAbsolutePath()));
+        return EXIT_OK;
+    }
+
+    private static int importRoster(Arguments arguments) throws Exception {
+        File rosterFile = arguments.requireExistingFile("file");
+        ImportResult result = RosterImporter.importRoster(rosterFile.toPath(), progressPrinter("Importing students"));
+        System.out.println(String.format("Imported %d students", result.getImportedCount()));
+        return reportRejectedRows(result, arguments.get("rejects"));
+    }
+
+    private static int pairBatch(Arguments arguments) throws Exception {
+        File pairsFile = arguments.requireExistingFile("file");
+        ImportResult result = PairingImporter.importPairings(pairsFile.toPath(), progressPrinter("Reading pairs"));
+        System.out.println(String.format("Paired %d students", result.getImportedCount()));
+        return reportRejectedRows(result, arguments.get("rejects"));
+    }
+
+    private static int stats(Arguments arguments) throws Exception {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        long students = connector.getStudentDao().countOf();
+        long ebooks = connector.getEbookDao().countOf();
+        long paired = Student.countPaired();
+
+        System.out.println(String.format("Students: %d (%d paired, %d unpaired)", students, paired, students - paired));
+        System.out.println(String.format("Ebooks: %d (%d paired, %d unpaired)", ebooks, paired, ebooks - paired));
+
+        GenericRawResults<String[]> titles = connector.getEbookDao().queryRaw(
+                "SELECT name, count(*), count(students.id) FROM ebooks "
+                        + "LEFT JOIN students ON students.ebookCode = ebooks.code GROUP BY name ORDER BY name");
+        try {
+            for (String[] title : titles) {
+                System.out.println(String.format("  %s: %s of %s paired", title[0], title[2], title[1]));
+            }
+        } finally {
+            titles.close();
+        }
+        return EXIT_OK;
+    }
+
+    private static int serve(Arguments arguments) throws Exception {
+        String host = arguments.get("host") != null ? arguments.get("host") : DEFAULT_SERVE_HOST;
+        int port = arguments.getInt("port", DEFAULT_SERVE_PORT);
+
+        ApiServer server = new ApiServer(new InetSocketAddress(host, port));
+        CountDownLatch stopped = new CountDownLatch(1);
+        CountDownLatch commandFinished = finished;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            stopped.countDown();
+            try {
+                // The JVM exits once this returns, so wait for the metrics to be written
+                commandFinished.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) { }
+        }));
+
+        server.start();
+        System.out.println(String.format("Listening on http://%s:%d/api/ (Ctrl+C to stop)",
+                server.getAddress().getHostString(), server.getAddress().getPort()));
+        stopped.await();
+        return EXIT_OK;
+    }
+
+    private static int generate(Arguments arguments) throws Exception {
+        File database = new File(arguments.require("db"));
+        arguments.require("students");
+        int students = arguments.getInt("students", 0);
+        int ebooks = arguments.getInt("ebooks", students);
+        long seed = arguments.getLong("seed", DatasetGenerator.DEFAULT_SEED);
+        int threads = arguments.getInt("threads", Runtime.getRuntime().availableProcessors());
+
+        DatasetGenerator generator;
+        try {
+            generator = new DatasetGenerator(seed, students, ebooks,
+                    arguments.getDouble("paired", DatasetGenerator.DEFAULT_PAIRED_RATIO),
+                    arguments.getDouble("skew", DatasetGenerator.DEFAULT_SKEW));
+        } catch (IllegalArgumentException e) {
+            throw new Arguments.UsageException(e.getMessage());
+        }
+        if (database.exists()) {
+            throw new Arguments.UsageException(database.getAbsolutePath() + " already exists");
+        }
+
+        long paired = generator.generate(database, threads, progressPrinter("Generating rows"));
+        System.out.println(String.format("Wrote %d students and %d ebooks (%d paired) to %s",
+                students, ebooks, paired, database.getAbsolutePath()));
+        return EXIT_OK;
+    }
+
+    /**
+     * Finds an option that every command takes, such as {@code --metrics}, without parsing, so its
+     * file is written even after bad arguments
+     *
+     * @param args Command name followed by its options
+     * @param name Name of the option, without the dashes
+     * @return Value given to the option, or null
+     */
+    private static String globalOption(String[] args, String name) {
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (("--" + name).equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prints the rejected rows of an import, and writes them to a file if asked to
+     *
+     * @param result Result of the import
+     * @param rejectsPath Path to write the rejected rows to, or null
+     * @return {@link #EXIT_ROWS_REJECTED} if any rows were rejected, otherwise {@link #EXIT_OK}
+     * @throws IOException if the rejected rows can't be written
+     */
+    private static int reportRejectedRows(ImportResult result, String rejectsPath) throws IOException {
+        List<ImportResult.RejectedRow> rejected = result.getRejectedRows();
+        if (rejected.isEmpty()) {
+            return EXIT_OK;
+        }
+
+        System.out.println(String.format("%d rows were rejected:", rejected.size()));
+        rejected.stream().limit(10).forEach(row -> System.out.println("  " + row));
+        if (rejected.size() > 10) {
+            System.out.println("  ...");
+        }
+        if (rejectsPath != null) {
+            result.writeRejectedRows(new File(rejectsPath).toPath());
+            System.out.println("Every rejected row is listed in " + new File(rejectsPath).getAbsolutePath());
+        }
+        return EXIT_ROWS_REJECTED;
+    }
+
+    /**
+     * Makes a listener that prints progress to stderr, at most once every couple of seconds
+     *
+     * @param description What is being done
+     * @return The listener
+     */
+    private static ProgressListener progressPrinter(String description) {
+        long[] lastPrinted = {System.currentTimeMillis()};
+        return (done, total) -> {
+            long now = System.currentTimeMillis();
+            if (now - lastPrinted[0] >= PROGRESS_PRINT_INTERVAL_MS) {
+                lastPrinted[0] = now;
+                System.err.println(total > 0
+                        ? String.format("%s... %d of %d", description, done, total)
+                        : String.format("%s... %d", description, done));
+            }
+        };
+    }
+
+    private static void printUsage() {
+        System.err.println(String.format("Ebook manager %s", AppConstants.VERSION));
+        System.err.println("Usage: <command> --db <database file> [options] [--metrics <file.txt>] [--recording <file.jfr>]");
+        System.err.println();
+        for (Command command : COMMANDS.values()) {
+            System.err.println("  " + command.usage());
+            System.err.println("      " + command.description);
+        }
+        System.err.println();
+        System.err.println(String.format("Exit codes: %d ok, %d failed, %d bad arguments, %d some rows rejected",
+                EXIT_OK, EXIT_FAILED, EXIT_USAGE, EXIT_ROWS_REJECTED));
+    }
+
+    private static void register(Command command) {
+        COMMANDS.put(command.name, command);
+    }
+
+    @FunctionalInterface
+    private interface Runner {
+        int run(Arguments arguments) throws Exception;
+    }
+
+    /**
+     * A named command and the options it takes
+     */
+    private final static class Command {
+        private final String name;
+        private final String options;
+        private final String description;
+        private final Runner runner;
+        private final boolean opensDatabase;
+        private final Set<String> optionNames = new HashSet<>(Arrays.asList("db", "metrics", "recording"));
+
+        Command(String name, String options, String description, Runner runner) {
+            this(name, options, description, runner, true);
+        }
+
+        /**
+         * @param opensDatabase Whether {@code --db} must be an existing database that is connected to
+         *                      before the command runs
+         */
+        Command(String name, String options, String description, Runner runner, boolean opensDatabase) {
+            this.name = name;
+            this.options = options;
+            this.description = description;
+            this.runner = runner;
+            this.opensDatabase = opensDatabase;
+            for (String part : options.split("[\\s\\[\\]]+")) {
+                if (part.startsWith("--")) {
+                    optionNames.add(part.substring(2));
+                }
+            }
+        }
+
+        String usage() {
+            return String.format("%s --db <database file> %s", name, options).trim();
+        }
+
+        void checkOptions(Arguments arguments) throws Arguments.UsageException {
+            for (String given : arguments.names()) {
+                if (!optionNames.contains(given)) {
+                    throw new Arguments.UsageException("Unknown option --" + given);
+                }
+            }
+        }
+    }
+
+}
@@ -1,22 +1,49 @@
 package org.dnsge.fbla.ebkmg.csv;
 
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
 import com.opencsv.CSVWriter;
+import org.dnsge.fbla.ebkmg.db.DetachedRowMapper;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.metrics.CsvExportEvent;
+import org.dnsge.fbla.ebkmg.metrics.Histogram;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Class for exporting {@link CsvBeanWritable} objects to a .csv file
+ * <p>
+ * Each export from a DAO is timed in the {@code export.<table>} histogram and its rows are
+ * counted in {@code export.<table>.rows}.
  *
  * @author Daniel Sage
- * @version 0.1
+ * @version 0.6
  */
 public class CSVExporter {
 
+    // Number of rows held in memory at once while streaming from a DAO
+    private final static int STREAM_BUFFER_SIZE = 500;
+
+    /**
+     * Prepares a chunk of objects before they are written, e.g. by loading related rows
+     *
+     * @param <T> Type of the objects
+     */
+    @FunctionalInterface
+    public interface ChunkPreparer<T> {
+        void prepare(List<T> chunk) throws SQLException;
+    }
+
     /**
      * Writes a CSV file of objects to a path
      *
@@ -38,4 +65,132 @@ public class CSVExporter {
         writer.close();
     }
 
+    /**
+     * Writes a CSV file of every object in a DAO to a path
+     *
+     * @param dao DAO to read objects from
+     * @param writePath Path to write to
+     * @param listener Listener to report written rows to, or null
+     * @param <T> Type of the objects
+     * @return Number of rows written, excluding the header
+     * @throws IOException if something goes wrong while writing
+     * @throws SQLException if something goes wrong while reading
+     * @see #writeCsvFromDao(Dao, Path, ChunkPreparer, ProgressListener)
+     */
+    public static <T extends CsvBeanWritable> long writeCsvFromDao(Dao<T, ?> dao, Path writePath,
+                                                                   ProgressListener listener) throws IOException, SQLException {
+        return writeCsvFromDao(dao, writePath, null, listener);
+    }
+
+    /**
+     * Writes a CSV file of every object in a DAO to a path
+     * <p>
+     * Rows are streamed as raw rows through a {@link DetachedRowMapper} and written in chunks of
+     * {@value #STREAM_BUFFER_SIZE}, so memory use doesn't grow with the size of the table and the
+     * rows don't pass through the identity map. A preparer that loads related rows should do
+     * the same, like {@link Student#preloadDetachedEbooks(List)}.
+     *
+     * @param dao DAO to read objects from
+     * @param writePath Path to write to
+     * @param preparer Called on each chunk before it is written, or null
+     * @param listener Listener to report written rows to, or null
+     * @param <T> Type of the objects
+     * @return Number of rows written, excluding the header
+     * @throws IOException if something goes wrong while writing, or {@link InterruptedIOException} if the thread is interrupted
+     * @throws SQLException if something goes wrong while reading
+     */
+    public static <T extends CsvBeanWritable> long writeCsvFromDao(Dao<T, ?> dao, Path writePath, ChunkPreparer<T> preparer,
+                                                                   ProgressListener listener) throws IOException, SQLException {
+        try (Writer fileWriter = Files.newBufferedWriter(writePath, StandardCharsets.UTF_8)) {
+            return writeCsvFromDao(dao, fileWriter, preparer, listener);
+        }
+    }
+
+    /**
+     * Writes CSV rows of every object in a DAO to a writer, such as a network response
+     * <p>
+     * The writer is flushed but not closed.
+     *
+     * @param dao DAO to read objects from
+     * @param output Writer to write to
+     * @param preparer Called on each chunk before it is written, or null
+     * @param listener Listener to report written rows to, or null
+     * @param <T> Type of the objects
+     * @return Number of rows written, excluding the header
+     * @throws IOException if something goes wrong while writing, or {@link InterruptedIOException} if the thread is interrupted
+     * @throws SQLException if something goes wrong while reading
+     * @see #writeCsvFromDao(Dao, Path, ChunkPreparer, ProgressListener)
+     */
+    public static <T extends CsvBeanWritable> long writeCsvFromDao(Dao<T, ?> dao, Writer output, ChunkPreparer<T> preparer,
+                                                                   ProgressListener listener) throws IOException, SQLException {
+        Histogram timer = Metrics.histogram("export." + dao.getTableName());
+        CsvExportEvent event = new CsvExportEvent(dao.getTableName());
+        event.begin();
+        long start = System.nanoTime();
+        long total = listener != null ? dao.countOf() : -1;
+        long written = 0;
+        List<T> chunk = new ArrayList<>(STREAM_BUFFER_SIZE);
+        CSVWriter writer = new CSVWriter(output);
+
+        try (GenericRawResults<T> rows = DetachedRowMapper.queryAll(dao)) {
+            for (T row : rows) {
+                chunk.add(row);
+                if (chunk.size() == STREAM_BUFFER_SIZE) {
+                    written = writeChunk(writer, chunk, written, preparer);
+                    if (listener != null) {
+                        listener.progress(written, total);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("CSV export was cancelled");
+                    }
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                written = writeChunk(writer, chunk, written, preparer);
+            }
+            if (listener != null) {
+                listener.progress(written, total);
+            }
+        } finally {
+            timer.recordSince(start);
+            Metrics.counter("export." + dao.getTableName() + ".rows").add(written);
+            event.setRows(written);
+            event.commit();
+        }
+        writer.flush();
+
+        return written;
+    }
+
+    /**
+     * Writes and then clears a chunk of objects
+     *
+     * @param writer Writer to write to
+     * @param chunk Objects to write
+     * @param writtenSoFar Number of rows written before this chunk
+     * @param preparer Called on the chunk before it is written, or null
+     * @param <T> Type of the objects
+     * @return Number of rows written including this chunk
+     * @throws IOException if something goes wrong while writing
+     * @throws SQLException if the preparer fails
+     */
+    private static <T extends CsvBeanWritable> long writeChunk(CSVWriter writer, List<T> chunk, long writtenSoFar,
+                                                               ChunkPreparer<T> preparer) throws IOException, SQLException {
+        if (preparer != null) {
+            preparer.prepare(chunk);
+        }
+        if (writtenSoFar == 0) {
+            writer.writeNext(chunk.get(0).csvHeaders());
+        }
+        for (T bean : chunk) {
+            writer.writeNext(bean.asCsvLine());
+        }
+        writer.flush();
+
+        long written = writtenSoFar + chunk.size();
+        chunk.clear();
+        return written;
+    }
+
 }
@@ -0,0 +1,84 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import com.opencsv.CSVReader;
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class for importing a publisher's list of redemption codes for one title
+ * <p>
+ * The codes are read from the first column of a .csv or plain text file, one per line.
+ * A header of {@code code} or {@code ebookCode} on the first line is skipped.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class EbookCodeImporter {
+
+    private final static int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Imports every new code in a file as an {@link Ebook} with the given name
+     * <p>
+     * Codes are checked in memory against the database and the rest of the file,
+     * and all accepted Ebooks are inserted in a single transaction.
+     *
+     * @param codesPath Path of the code list
+     * @param name Name of the title the codes belong to
+     * @param listener Listener to report the number of rows read to, or null
+     * @return Result with the imported count and rejected rows
+     * @throws IOException if the file can't be read or the thread is interrupted
+     * @throws SQLException if something goes wrong while inserting; nothing is saved
+     */
+    public static ImportResult importCodes(Path codesPath, String name, ProgressListener listener) throws IOException, SQLException {
+        Set<String> usedCodes = Ebook.allCodes();
+        List<Ebook> newEbooks = new ArrayList<>();
+        ImportResult result = new ImportResult();
+
+        try (CSVReader reader = new CSVReader(Files.newBufferedReader(codesPath, StandardCharsets.UTF_8))) {
+            String[] row;
+            long rowsRead = 0;
+            while ((row = reader.readNext()) != null) {
+                long lineNumber = reader.getLinesRead();
+                rowsRead++;
+
+                String code = row.length > 0 && row[0] != null ? row[0].trim() : "";
+                if (rowsRead == 1 && (code.equalsIgnoreCase("code") || code.equalsIgnoreCase("ebookCode"))) {
+                    continue;
+                }
+
+                if (code.isEmpty()) {
+                    result.reject(lineNumber, "Missing code");
+                } else if (!usedCodes.add(code)) {
+                    result.reject(lineNumber, "An Ebook with code " + code + " already exists");
+                } else {
+                    newEbooks.add(new Ebook(name, code, null));
+                }
+
+                if (rowsRead % PROGRESS_INTERVAL == 0) {
+                    if (listener != null) {
+                        listener.progress(rowsRead, -1);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Code import was cancelled");
+                    }
+                }
+            }
+        }
+
+        Ebook.createAll(newEbooks);
+        result.addImported(newEbooks.size());
+        return result;
+    }
+
+}
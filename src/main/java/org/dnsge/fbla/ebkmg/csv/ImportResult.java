@@ -0,0 +1,93 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import com.opencsv.CSVWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were saved and which rows were rejected
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class ImportResult {
+
+    private long importedCount = 0;
+    private final List<RejectedRow> rejectedRows = new ArrayList<>();
+
+    void addImported(long count) {
+        importedCount += count;
+    }
+
+    void reject(long lineNumber, String reason) {
+        rejectedRows.add(new RejectedRow(lineNumber, reason));
+    }
+
+    /**
+     * @return Number of rows saved to the database
+     */
+    public long getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * @return Rows that were not saved, in file order
+     */
+    public List<RejectedRow> getRejectedRows() {
+        return Collections.unmodifiableList(rejectedRows);
+    }
+
+    /**
+     * Writes the rejected rows to a .csv file
+     *
+     * @param writePath Path to write to
+     * @throws IOException if something goes wrong
+     */
+    public void writeRejectedRows(Path writePath) throws IOException {
+        try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(writePath, StandardCharsets.UTF_8))) {
+            writer.writeNext(new String[]{"line", "reason"});
+            for (RejectedRow row : rejectedRows) {
+                writer.writeNext(new String[]{Long.toString(row.getLineNumber()), row.getReason()});
+            }
+        }
+    }
+
+    /**
+     * A single row that couldn't be imported
+     */
+    public static final class RejectedRow {
+        private final long lineNumber;
+        private final String reason;
+
+        RejectedRow(long lineNumber, String reason) {
+            this.lineNumber = lineNumber;
+            this.reason = reason;
+        }
+
+        /**
+         * @return Line number of the row in the source file, starting at 1
+         */
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return Why the row was rejected
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Line %d: %s", lineNumber, reason);
+        }
+    }
+
+}
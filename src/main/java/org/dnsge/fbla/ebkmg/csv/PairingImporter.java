@@ -0,0 +1,140 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import com.opencsv.CSVReader;
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.PairingService;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class for pairing students with ebooks from a list of student ID and code pairs
+ * <p>
+ * The pairs are read from the first two columns of a .csv file. A header of
+ * {@code studentId, code} or {@code studentId, ebookCode} on the first line is skipped.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public class PairingImporter {
+
+    private final static int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Makes every valid pairing in a file
+     * <p>
+     * Student IDs and codes are checked against the in-memory indexes, and all accepted
+     * pairings are made in a single transaction with {@link PairingService#pairAll}, so an
+     * ebook that already belongs to someone else is moved to the student in the file.
+     *
+     * @param pairsPath Path of the pair list
+     * @param listener Listener to report the number of rows read to, or null
+     * @return Result with the number of pairings made and rejected rows
+     * @throws IOException if the file can't be read or the thread is interrupted
+     * @throws SQLException if something goes wrong while pairing; nothing is changed
+     */
+    public static ImportResult importPairings(Path pairsPath, ProgressListener listener) throws IOException, SQLException {
+        List<String[]> accepted = new ArrayList<>();
+        Set<String> seenStudentIds = new HashSet<>();
+        Set<String> seenCodes = new HashSet<>();
+        ImportResult result = new ImportResult();
+
+        try (CSVReader reader = new CSVReader(Files.newBufferedReader(pairsPath, StandardCharsets.UTF_8))) {
+            String[] row;
+            long rowsRead = 0;
+            while ((row = reader.readNext()) != null) {
+                long lineNumber = reader.getLinesRead();
+                rowsRead++;
+
+                String studentId = row.length > 0 && row[0] != null ? row[0].trim() : "";
+                String code = row.length > 1 && row[1] != null ? row[1].trim() : "";
+                if (rowsRead == 1 && studentId.equalsIgnoreCase("studentId")
+                        && (code.equalsIgnoreCase("code") || code.equalsIgnoreCase("ebookCode"))) {
+                    continue;
+                }
+
+                String problem = validateRow(studentId, code, seenStudentIds, seenCodes);
+                if (problem != null) {
+                    result.reject(lineNumber, problem);
+                } else {
+                    seenStudentIds.add(studentId);
+                    seenCodes.add(code);
+                    accepted.add(new String[]{studentId, code});
+                }
+
+                if (rowsRead % PROGRESS_INTERVAL == 0) {
+                    if (listener != null) {
+                        listener.progress(rowsRead, -1);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Pairing import was cancelled");
+                    }
+                }
+            }
+        }
+
+        Map<String, Student> students = Student.getAllFromStudentIds(seenStudentIds);
+        Map<String, Ebook> ebooks = Ebook.getAll(seenCodes);
+
+        List<PairingService.Pairing> pairings = new ArrayList<>(accepted.size());
+        for (String[] pair : accepted) {
+            Student student = students.get(pair[0]);
+            Ebook ebook = ebooks.get(pair[1]);
+            if (student != null && ebook != null) {
+                pairings.add(new PairingService.Pairing(student, ebook));
+            }
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Pairing import was cancelled");
+        }
+
+        PairingService.pairAll(pairings);
+        result.addImported(pairings.size());
+        if (listener != null) {
+            listener.progress(accepted.size(), accepted.size());
+        }
+        return result;
+    }
+
+    /**
+     * Checks a single row
+     *
+     * @param studentId Student ID in the row
+     * @param code Ebook code in the row
+     * @param seenStudentIds Student IDs accepted earlier in the file
+     * @param seenCodes Codes accepted earlier in the file
+     * @return Why the row is invalid, or null if it can be paired
+     * @throws SQLException if the Student ID or code can't be looked up
+     */
+    private static String validateRow(String studentId, String code, Set<String> seenStudentIds, Set<String> seenCodes)
+            throws SQLException {
+        if (studentId.isEmpty() || code.isEmpty()) {
+            return "Expected a student ID and an ebook code";
+        }
+        if (!Student.studentWithIdExists(studentId)) {
+            return "No Student has Student ID " + studentId;
+        }
+        if (!Ebook.exists(code)) {
+            return "No Ebook has code " + code;
+        }
+        if (seenStudentIds.contains(studentId)) {
+            return "Student ID " + studentId + " is listed more than once";
+        }
+        if (seenCodes.contains(code)) {
+            return "Code " + code + " is listed more than once";
+        }
+        return null;
+    }
+
+}
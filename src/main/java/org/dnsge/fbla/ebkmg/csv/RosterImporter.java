@@ -0,0 +1,191 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import org.dnsge.fbla.ebkmg.db.BatchInserter;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class for importing a roster of {@link Student}s from a .csv or .tsv file
+ * <p>
+ * The file's header must start with the same columns that {@link Student#csvHeaders()}
+ * exports ({@code firstName, lastName, grade, studentId}); any columns after those are ignored,
+ * so an exported students file can be imported again.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class RosterImporter {
+
+    private final static List<String> VALID_GRADES = Arrays.asList("9", "10", "11", "12");
+    private final static int REQUIRED_COLUMNS = 4;
+    private final static int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Imports every valid row of a roster file into the connected database
+     * <p>
+     * The file is read one row at a time. Duplicate student IDs are checked in
+     * memory against the database and the rest of the file, and valid rows are
+     * inserted in large transactions through a {@link BatchInserter}.
+     *
+     * @param rosterPath Path of the .csv or .tsv file
+     * @param listener Listener to report the number of rows read to, or null
+     * @return Result with the imported count and rejected rows
+     * @throws IOException if the file can't be read, has the wrong header or the thread is interrupted
+     * @throws SQLException if something goes wrong while inserting
+     */
+    public static ImportResult importRoster(Path rosterPath, ProgressListener listener) throws IOException, SQLException {
+        Dao<Student, String> dao = SQLiteConnector.getInstance().getStudentDao();
+        Set<String> knownIds = loadExistingStudentIds(dao);
+        BatchInserter<Student> inserter = new BatchInserter<>(dao);
+        ImportResult result = new ImportResult();
+
+        try (BufferedReader fileReader = Files.newBufferedReader(rosterPath, StandardCharsets.UTF_8);
+             CSVReader reader = new CSVReaderBuilder(fileReader)
+                     .withCSVParser(new CSVParserBuilder().withSeparator(detectSeparator(rosterPath, fileReader)).build())
+                     .build()) {
+
+            checkHeader(reader.readNext());
+
+            String[] row;
+            long rowsRead = 0;
+            while ((row = reader.readNext()) != null) {
+                long lineNumber = reader.getLinesRead();
+                rowsRead++;
+
+                String problem = validateRow(row, knownIds);
+                if (problem != null) {
+                    result.reject(lineNumber, problem);
+                } else {
+                    String studentId = row[3].trim();
+                    knownIds.add(studentId);
+                    inserter.add(new Student(row[0].trim(), row[1].trim(), row[2].trim(), studentId));
+                }
+
+                if (rowsRead % PROGRESS_INTERVAL == 0) {
+                    if (listener != null) {
+                        listener.progress(rowsRead, -1);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Roster import was cancelled");
+                    }
+                }
+            }
+
+            inserter.flush();
+            if (listener != null) {
+                listener.progress(rowsRead, rowsRead);
+            }
+        } finally {
+            result.addImported(inserter.getInserted());
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks a single roster row
+     *
+     * @param row Row values
+     * @param knownIds Student IDs that already exist in the database or earlier in the file
+     * @return Why the row is invalid, or null if it can be imported
+     */
+    private static String validateRow(String[] row, Set<String> knownIds) {
+        if (row.length < REQUIRED_COLUMNS) {
+            return String.format("Expected at least %d columns but found %d", REQUIRED_COLUMNS, row.length);
+        }
+        for (int i = 0; i < REQUIRED_COLUMNS; i++) {
+            if (row[i] == null || row[i].trim().isEmpty()) {
+                return "Missing value for " + new Student().csvHeaders()[i];
+            }
+        }
+        if (!VALID_GRADES.contains(row[2].trim())) {
+            return "Grade must be one of " + String.join(", ", VALID_GRADES);
+        }
+        if (knownIds.contains(row[3].trim())) {
+            return "A Student with Student ID " + row[3].trim() + " already exists";
+        }
+        return null;
+    }
+
+    /**
+     * Makes sure a header row matches the student export layout
+     *
+     * @param header Header row, or null if the file is empty
+     * @throws IOException if the header doesn't match
+     */
+    private static void checkHeader(String[] header) throws IOException {
+        String[] expected = Arrays.copyOf(new Student().csvHeaders(), REQUIRED_COLUMNS);
+        if (header == null || header.length < REQUIRED_COLUMNS) {
+            throw new IOException("The roster file must start with the header " + String.join(", ", expected));
+        }
+        for (int i = 0; i < REQUIRED_COLUMNS; i++) {
+            if (!expected[i].equalsIgnoreCase(header[i].trim())) {
+                throw new IOException("The roster file must start with the header " + String.join(", ", expected));
+            }
+        }
+    }
+
+    /**
+     * Picks the column separator from the file extension, falling back to the first line
+     *
+     * @param rosterPath Path of the file
+     * @param fileReader Reader at the start of the file; it is reset after peeking
+     * @return {@code '\t'} for tab separated files, {@code ','} otherwise
+     * @throws IOException if the file can't be read
+     */
+    private static char detectSeparator(Path rosterPath, BufferedReader fileReader) throws IOException {
+        String fileName = rosterPath.getFileName().toString().toLowerCase();
+        if (fileName.endsWith(".tsv") || fileName.endsWith(".tab")) {
+            return '\t';
+        }
+
+        fileReader.mark(8192);
+        String firstLine = fileReader.readLine();
+        fileReader.reset();
+
+        return firstLine != null && firstLine.indexOf('\t') >= 0 && firstLine.indexOf(',') < 0 ? '\t' : ',';
+    }
+
+    /**
+     * Loads every student ID in the database
+     *
+     * @param dao Student DAO to query
+     * @return Mutable set of the IDs
+     * @throws SQLException if something goes wrong
+     */
+    private static Set<String> loadExistingStudentIds(Dao<Student, String> dao) throws SQLException {
+        Set<String> ids = new HashSet<>();
+        GenericRawResults<String[]> results = dao.queryRaw("SELECT studentId FROM students");
+        try {
+            for (String[] row : results) {
+                ids.add(row[0]);
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ids;
+    }
+
+}
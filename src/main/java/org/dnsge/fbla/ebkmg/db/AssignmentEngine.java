@@ -0,0 +1,291 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Gives one copy of a title to every unpaired student in a grade
+ * <p>
+ * A {@link Plan} is made first without changing anything, so it can be previewed. Students
+ * are matched in order of last name, first name and ID with the title's unowned ebooks in
+ * order of code, so the same database always gives the same plan. Both lists are read with
+ * one query each, and the plan is written in a single transaction with one UPDATE per table
+ * instead of one per row.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class AssignmentEngine {
+
+    private final static int BATCH_SIZE = 1000;
+
+    // A student whose code points to a deleted ebook counts as unpaired
+    private final static String UNPAIRED_STUDENT =
+            "(ebookCode IS NULL OR NOT EXISTS (SELECT 1 FROM ebooks WHERE ebooks.code = students.ebookCode))";
+    private final static String OWNED_EBOOK =
+            "EXISTS (SELECT 1 FROM students WHERE students.ebookCode = ebooks.code)";
+    private final static String UNOWNED_EBOOK = "NOT " + OWNED_EBOOK;
+
+    private AssignmentEngine() { }
+
+    /**
+     * A previewed assignment
+     */
+    public final static class Plan {
+        private final String grade;
+        private final String ebookName;
+        private final List<PairingService.Pairing> pairings;
+        private final int unmatchedStudents;
+        private final int unusedEbooks;
+
+        Plan(String grade, String ebookName, List<PairingService.Pairing> pairings, int unmatchedStudents, int unusedEbooks) {
+            this.grade = grade;
+            this.ebookName = ebookName;
+            this.pairings = Collections.unmodifiableList(pairings);
+            this.unmatchedStudents = unmatchedStudents;
+            this.unusedEbooks = unusedEbooks;
+        }
+
+        public String getGrade() {
+            return grade;
+        }
+
+        public String getEbookName() {
+            return ebookName;
+        }
+
+        /**
+         * @return Pairings that would be made, in order
+         */
+        public List<PairingService.Pairing> getPairings() {
+            return pairings;
+        }
+
+        /**
+         * @return Number of unpaired students left over because there weren't enough ebooks
+         */
+        public int getUnmatchedStudents() {
+            return unmatchedStudents;
+        }
+
+        /**
+         * @return Number of unowned ebooks left over because there weren't enough students
+         */
+        public int getUnusedEbooks() {
+            return unusedEbooks;
+        }
+    }
+
+    /**
+     * Lists the name of every title that has at least one unowned ebook
+     *
+     * @return Sorted titles
+     * @throws SQLException if something goes wrong
+     */
+    public static List<String> titlesWithUnownedEbooks() throws SQLException {
+        List<String> names = new ArrayList<>();
+        GenericRawResults<String[]> results = SQLiteConnector.getInstance().getEbookDao().queryRaw(
+                "SELECT DISTINCT name FROM ebooks WHERE name IS NOT NULL AND " + UNOWNED_EBOOK + " ORDER BY name");
+        try {
+            for (String[] row : results) {
+                names.add(row[0]);
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Matches every unpaired student in a grade with an unowned ebook of a title, without
+     * changing anything
+     *
+     * @param grade Grade of the students
+     * @param ebookName Name of the title
+     * @return The plan
+     * @throws SQLException if something goes wrong
+     */
+    public static Plan plan(String grade, String ebookName) throws SQLException {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        List<Student> students = connector.getStudentDao().queryBuilder()
+                .orderBy("lastName", true).orderBy("firstName", true).orderBy("id", true)
+                .where().eq("grade", new SelectArg(SqlType.STRING, grade)).and().raw(UNPAIRED_STUDENT)
+                .query();
+        List<Ebook> ebooks = connector.getEbookDao().queryBuilder()
+                .orderBy("code", true)
+                .where().eq("name", new SelectArg(SqlType.STRING, ebookName)).and().raw(UNOWNED_EBOOK)
+                .query();
+
+        int matched = Math.min(students.size(), ebooks.size());
+        List<PairingService.Pairing> pairings = new ArrayList<>(matched);
+        for (int i = 0; i < matched; i++) {
+            pairings.add(new PairingService.Pairing(students.get(i), ebooks.get(i)));
+        }
+        return new Plan(grade, ebookName, pairings, students.size() - matched, ebooks.size() - matched);
+    }
+
+    /**
+     * Writes a plan in one transaction
+     * <p>
+     * Fails without changing anything if any of the students were paired, or any of the
+     * ebooks taken, since the plan was made
+     *
+     * @param plan Plan to write
+     * @param listener Listener to report the number of pairings written to, or null
+     * @return Number of pairings made
+     * @throws SQLException if something goes wrong; nothing is changed
+     * @throws InterruptedIOException if the thread is interrupted; nothing is changed
+     * @throws IllegalStateException if the database changed since the plan was made
+     */
+    public static int apply(Plan plan, ProgressListener listener) throws SQLException, InterruptedIOException {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        List<PairingService.Pairing> pairings = plan.getPairings();
+        Date assignmentDate = new Date();
+
+        try {
+            connector.callInTransaction((Callable<Void>) () -> {
+                writePairings(connector.getConnectionSource(), pairings, assignmentDate, listener);
+                return null;
+            });
+        } catch (SQLException e) {
+            // TransactionManager wraps everything that isn't an SQLException
+            if (e.getCause() instanceof InterruptedIOException) {
+                throw (InterruptedIOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        for (PairingService.Pairing pairing : pairings) {
+            pairing.getEbook().setAssignmentDate(assignmentDate);
+            pairing.getStudent().setEbook(pairing.getEbook());
+        }
+        return pairings.size();
+    }
+
+    /**
+     * Writes pairings on the transaction's connection
+     * <p>
+     * The pairings are batch inserted into a temporary table, checked against the current
+     * rows, and then written with one UPDATE per table.
+     *
+     * @param connectionSource Connection source of the transaction
+     * @param pairings Pairings to write
+     * @param assignmentDate Assignment date of every ebook
+     * @param listener Listener to report progress to, or null
+     * @throws SQLException if something goes wrong
+     * @throws InterruptedIOException if the thread is interrupted
+     * @throws IllegalStateException if a student was paired, or an ebook taken or deleted, since the plan was made
+     */
+    private static void writePairings(ConnectionSource connectionSource, List<PairingService.Pairing> pairings,
+                                      Date assignmentDate, ProgressListener listener) throws SQLException, InterruptedIOException {
+        DatabaseConnection databaseConnection = connectionSource.getReadWriteConnection("students");
+        try {
+            if (!(databaseConnection instanceof JdbcDatabaseConnection)) {
+                throw new SQLException("Bulk assignment needs a JDBC connection");
+            }
+            Connection connection = ((JdbcDatabaseConnection) databaseConnection).getInternalConnection();
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMP TABLE IF NOT EXISTS assignment_plan "
+                        + "(studentId INTEGER PRIMARY KEY, ebookId INTEGER NOT NULL UNIQUE)");
+                statement.execute("DELETE FROM assignment_plan");
+                try {
+                    insertPlan(connection, pairings, listener);
+                    checkPlan(connection);
+
+                    statement.executeUpdate("UPDATE students SET ebookCode = (SELECT ebooks.code FROM assignment_plan "
+                            + "JOIN ebooks ON ebooks.id = assignment_plan.ebookId WHERE assignment_plan.studentId = students.id) "
+                            + "WHERE id IN (SELECT studentId FROM assignment_plan)");
+                    try (PreparedStatement dateEbooks = connection.prepareStatement(
+                            "UPDATE ebooks SET assignmentDate = ? WHERE id IN (SELECT ebookId FROM assignment_plan)")) {
+                        dateEbooks.setLong(1, assignmentDate.getTime());
+                        dateEbooks.executeUpdate();
+                    }
+                } finally {
+                    statement.execute("DROP TABLE IF EXISTS temp.assignment_plan");
+                }
+            }
+        } finally {
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    private static void insertPlan(Connection connection, List<PairingService.Pairing> pairings,
+                                   ProgressListener listener) throws SQLException, InterruptedIOException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO assignment_plan (studentId, ebookId) VALUES (?, ?)")) {
+            for (int start = 0; start < pairings.size(); start += BATCH_SIZE) {
+                int end = Math.min(start + BATCH_SIZE, pairings.size());
+                for (PairingService.Pairing pairing : pairings.subList(start, end)) {
+                    insert.setInt(1, pairing.getStudent().getId());
+                    insert.setInt(2, pairing.getEbook().getId());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+
+                if (listener != null) {
+                    listener.progress(end, pairings.size());
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Assignment was cancelled");
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure every planned student is still unpaired and every planned ebook still
+     * exists and is unowned
+     *
+     * @param connection Connection of the transaction
+     * @throws SQLException if something goes wrong
+     * @throws IllegalStateException if the plan is out of date
+     */
+    private static void checkPlan(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet stale = statement.executeQuery("SELECT firstName, lastName FROM assignment_plan "
+                    + "LEFT JOIN students ON students.id = assignment_plan.studentId "
+                    + "WHERE students.id IS NULL OR NOT " + UNPAIRED_STUDENT + " LIMIT 1")) {
+                if (stale.next()) {
+                    throw new IllegalStateException(stale.getString(1) == null
+                            ? "A student was deleted after the preview"
+                            : String.format("%s %s was paired after the preview", stale.getString(1), stale.getString(2)));
+                }
+            }
+            try (ResultSet stale = statement.executeQuery("SELECT ebooks.code FROM assignment_plan "
+                    + "LEFT JOIN ebooks ON ebooks.id = assignment_plan.ebookId "
+                    + "WHERE ebooks.id IS NULL OR " + OWNED_EBOOK + " LIMIT 1")) {
+                if (stale.next()) {
+                    throw new IllegalStateException(stale.getString(1) == null
+                            ? "An ebook was deleted after the preview"
+                            : String.format("Ebook %s was paired after the preview", stale.getString(1)));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Buffers new rows and inserts them through {@link Dao#callBatchTasks(Callable)}
+ * <p>
+ * Each full buffer is written in a single transaction instead of one
+ * autocommit per row. Call {@link #flush()} after the last {@link #add(Object)}.
+ *
+ * @param <T> Type of the rows
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class BatchInserter<T> {
+
+    /**
+     * Default number of rows per transaction
+     */
+    public final static int DEFAULT_BATCH_SIZE = 5000;
+
+    private final Dao<T, ?> dao;
+    private final int batchSize;
+    private final List<T> buffer;
+    private long inserted = 0;
+
+    /**
+     * BatchInserter constructor
+     *
+     * @param dao DAO to insert with
+     * @param batchSize Number of rows per transaction
+     */
+    public BatchInserter(Dao<T, ?> dao, int batchSize) {
+        this.dao = dao;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * BatchInserter constructor using {@link #DEFAULT_BATCH_SIZE}
+     *
+     * @param dao DAO to insert with
+     */
+    public BatchInserter(Dao<T, ?> dao) {
+        this(dao, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Queues a row, writing the buffer if it is full
+     *
+     * @param item Row to insert
+     * @throws SQLException if writing the buffer fails; the whole buffer is rolled back
+     */
+    public void add(T item) throws SQLException {
+        buffer.add(item);
+        if (buffer.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes every queued row in one transaction
+     *
+     * @throws SQLException if something goes wrong; the whole buffer is rolled back
+     */
+    public void flush() throws SQLException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        try {
+            dao.callBatchTasks(() -> {
+                for (T item : buffer) {
+                    dao.create(item);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+
+        inserted += buffer.size();
+        buffer.clear();
+    }
+
+    /**
+     * @return Number of rows written so far
+     */
+    public long getInserted() {
+        return inserted;
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how {@link SQLiteConnector} should open a database file
+ * <p>
+ * A profile decides whether connections are pooled and which SQLite
+ * pragmas are applied to every connection when it is opened.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class ConnectionProfile {
+
+    /**
+     * A single shared connection with SQLite's default settings
+     */
+    public final static ConnectionProfile SINGLE = new ConnectionProfile(false, 1, null, null, 0, 0, null);
+
+    /**
+     * A pool of connections running in WAL mode, so readers (reports, exports)
+     * don't block writers from the main window and vice versa
+     */
+    public final static ConnectionProfile POOLED_WAL = new ConnectionProfile(true, 4, "WAL", "NORMAL",
+            -16000, 256L * 1024 * 1024, "MEMORY");
+
+    private final boolean pooled;
+    private final int maxConnectionsFree;
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final String tempStore;
+
+    /**
+     * ConnectionProfile constructor
+     *
+     * @param pooled Whether to use a connection pool instead of a single connection
+     * @param maxConnectionsFree Maximum number of idle connections kept in the pool
+     * @param journalMode Value for {@code PRAGMA journal_mode}, or null to leave the default
+     * @param synchronous Value for {@code PRAGMA synchronous}, or null to leave the default
+     * @param cacheSize Value for {@code PRAGMA cache_size} (negative values are KiB), or 0 to leave the default
+     * @param mmapSize Value for {@code PRAGMA mmap_size} in bytes, or 0 to leave the default
+     * @param tempStore Value for {@code PRAGMA temp_store}, or null to leave the default
+     */
+    public ConnectionProfile(boolean pooled, int maxConnectionsFree, String journalMode, String synchronous,
+                             int cacheSize, long mmapSize, String tempStore) {
+        this.pooled = pooled;
+        this.maxConnectionsFree = maxConnectionsFree;
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+    }
+
+    /**
+     * @return Whether connections should be pooled
+     */
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * @return Maximum number of idle connections kept in the pool
+     */
+    public int getMaxConnectionsFree() {
+        return maxConnectionsFree;
+    }
+
+    /**
+     * Builds the pragma statements to run on each new connection
+     * <p>
+     * {@code journal_mode} comes first because it is persistent in the database file
+     * and the other pragmas are per-connection
+     *
+     * @return List of {@code PRAGMA} statements
+     */
+    List<String> pragmaStatements() {
+        List<String> statements = new ArrayList<>();
+        if (journalMode != null) {
+            statements.add("PRAGMA journal_mode = " + journalMode);
+        }
+        if (synchronous != null) {
+            statements.add("PRAGMA synchronous = " + synchronous);
+        }
+        if (cacheSize != 0) {
+            statements.add("PRAGMA cache_size = " + cacheSize);
+        }
+        if (mmapSize != 0) {
+            statements.add("PRAGMA mmap_size = " + mmapSize);
+        }
+        if (tempStore != null) {
+            statements.add("PRAGMA temp_store = " + tempStore);
+        }
+        return Collections.unmodifiableList(statements);
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+import org.dnsge.fbla.ebkmg.util.WorkerThreads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Runs database work off of the calling thread
+ * <p>
+ * Work runs on virtual threads when the runtime has them (Java 21+) and on a small
+ * pool of daemon threads otherwise. Results, failures and activity updates are handed
+ * to a callback {@link Executor}; the GUI passes {@code Platform::runLater} so that
+ * the JavaFX application thread never waits on SQLite.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public final class DatabaseExecutor {
+
+    private final static int FALLBACK_THREADS = 4;
+
+    /**
+     * A unit of database work
+     *
+     * @param <T> Type of the result
+     */
+    @FunctionalInterface
+    public interface DatabaseCall<T> {
+        T call() throws Exception;
+    }
+
+    private final ExecutorService workers;
+    private final Executor callbackExecutor;
+    private final Set<DatabaseTask<?>> runningTasks = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<List<String>>> activityListeners = new ArrayList<>();
+
+    /**
+     * DatabaseExecutor constructor
+     *
+     * @param callbackExecutor Executor that callbacks and activity updates run on
+     */
+    public DatabaseExecutor(Executor callbackExecutor) {
+        this.workers = WorkerThreads.newExecutor("database-worker", FALLBACK_THREADS);
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Submits database work
+     *
+     * @param description Human readable description, shown while the task runs
+     * @param call Work to run
+     * @param <T> Type of the result
+     * @return Handle for registering callbacks and cancelling
+     */
+    public <T> DatabaseTask<T> submit(String description, DatabaseCall<T> call) {
+        DatabaseTask<T> task = new DatabaseTask<>(description, callbackExecutor);
+        runningTasks.add(task);
+        fireActivityChanged();
+
+        task.setRunning(workers.submit(() -> {
+            try {
+                if (!task.isCancelled()) {
+                    task.complete(call.call());
+                }
+            } catch (Throwable t) {
+                task.fail(t);
+            }
+        }));
+
+        task.getResult().whenComplete((value, throwable) -> {
+            runningTasks.remove(task);
+            fireActivityChanged();
+        });
+        return task;
+    }
+
+    /**
+     * Cancels every task that hasn't finished yet
+     */
+    public void cancelAll() {
+        new ArrayList<>(runningTasks).forEach(DatabaseTask::cancel);
+    }
+
+    /**
+     * Registers a listener for when tasks start or finish
+     *
+     * @param listener Called on the callback executor with the descriptions of every running task
+     */
+    public void addActivityListener(Consumer<List<String>> listener) {
+        synchronized (activityListeners) {
+            activityListeners.add(listener);
+        }
+    }
+
+    /**
+     * Wraps a {@link ProgressListener} so that it is called on the callback executor
+     *
+     * @param listener Listener to wrap
+     * @return Listener that can be called from a worker thread
+     */
+    public ProgressListener onCallbackThread(ProgressListener listener) {
+        return (done, total) -> callbackExecutor.execute(() -> listener.progress(done, total));
+    }
+
+    /**
+     * @return Number of tasks that haven't finished yet
+     */
+    public int getRunningCount() {
+        return runningTasks.size();
+    }
+
+    /**
+     * Cancels every task and stops the worker threads
+     */
+    public void shutdown() {
+        cancelAll();
+        workers.shutdownNow();
+    }
+
+    private void fireActivityChanged() {
+        List<String> descriptions = new ArrayList<>();
+        runningTasks.forEach(task -> descriptions.add(task.getDescription()));
+
+        List<Consumer<List<String>>> listeners;
+        synchronized (activityListeners) {
+            listeners = new ArrayList<>(activityListeners);
+        }
+        callbackExecutor.execute(() -> listeners.forEach(listener -> listener.accept(descriptions)));
+    }
+
+}
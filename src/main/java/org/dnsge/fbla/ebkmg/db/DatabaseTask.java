@@ -0,0 +1,126 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * A database operation submitted to a {@link DatabaseExecutor}
+ * <p>
+ * Callbacks registered with {@link #onSuccess(Consumer)} and {@link #onFailure(Consumer)}
+ * run on the executor's callback thread (the JavaFX application thread in the GUI).
+ * Neither runs if the task is cancelled.
+ *
+ * @param <T> Type of the result
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class DatabaseTask<T> {
+
+    private final String description;
+    private final Executor callbackExecutor;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private volatile Future<?> running;
+
+    DatabaseTask(String description, Executor callbackExecutor) {
+        this.description = description;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    void setRunning(Future<?> running) {
+        this.running = running;
+        if (result.isCancelled()) {
+            running.cancel(true);
+        }
+    }
+
+    void complete(T value) {
+        result.complete(value);
+    }
+
+    void fail(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    /**
+     * Registers a callback for when the task finishes successfully
+     *
+     * @param callback Called with the result
+     * @return This task
+     */
+    public DatabaseTask<T> onSuccess(Consumer<? super T> callback) {
+        result.thenAcceptAsync(value -> {
+            if (!isCancelled()) {
+                callback.accept(value);
+            }
+        }, callbackExecutor);
+        return this;
+    }
+
+    /**
+     * Registers a callback for when the task throws an exception
+     *
+     * @param callback Called with the exception that was thrown
+     * @return This task
+     */
+    public DatabaseTask<T> onFailure(Consumer<Throwable> callback) {
+        result.whenCompleteAsync((value, throwable) -> {
+            if (throwable != null && !isCancelled()) {
+                callback.accept(unwrap(throwable));
+            }
+        }, callbackExecutor);
+        return this;
+    }
+
+    /**
+     * Cancels the task, interrupting its worker thread if it has started
+     *
+     * @return Whether the task was cancelled before it finished
+     */
+    public boolean cancel() {
+        boolean cancelled = result.cancel(false);
+        Future<?> current = running;
+        if (cancelled && current != null) {
+            current.cancel(true);
+        }
+        return cancelled;
+    }
+
+    /**
+     * @return Whether the task was cancelled
+     */
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    /**
+     * @return Whether the task finished, failed or was cancelled
+     */
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * @return Future completed with the task's result
+     */
+    public CompletableFuture<T> getResult() {
+        return result;
+    }
+
+    /**
+     * @return Human readable description of what the task is doing
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+
+}
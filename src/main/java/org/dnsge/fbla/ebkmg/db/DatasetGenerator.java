@@ -0,0 +1,541 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.TableUtils;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+import org.dnsge.fbla.ebkmg.util.WorkerThreads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a new database with made up students and ebooks, for load and scale testing
+ * <p>
+ * The same seed and sizes always give the same database, whatever the number of threads.
+ * Names and titles follow a Zipf distribution, so a few are very common, like in a real
+ * school, and assignment dates cluster in the first weeks of each semester of the 2018-2019
+ * school year. Rows are made in chunks on worker threads and written in order by a single
+ * connection in one transaction; the search tables and secondary indexes are built once at
+ * the end instead of row by row.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class DatasetGenerator {
+
+    /**
+     * Seed used when none is given, so generated databases match between runs by default
+     */
+    public final static long DEFAULT_SEED = 20181004L;
+    /**
+     * Default share of students that are paired with an ebook
+     */
+    public final static double DEFAULT_PAIRED_RATIO = 0.9;
+    /**
+     * Default Zipf exponent of names and titles; 0 makes them uniform
+     */
+    public final static double DEFAULT_SKEW = 1.0;
+
+    private final static int CHUNK_SIZE = 10_000;
+    private final static int FIRST_STUDENT_ID = 100_000;
+    // About CODE_SPACE / golden ratio and coprime with it, so consecutive codes land far apart
+    private final static BigInteger CODE_STEP = BigInteger.valueOf(486_802_372_054_683_456L);
+    private final static BigInteger CODE_SPACE = BigInteger.valueOf(EbookCodeGenerator.CODE_SPACE);
+    private final static long STUDENT_STREAM = 0x5354_5544_454E_5453L;
+    private final static long EBOOK_STREAM = 0x4542_4F4F_4B53_0000L;
+
+    private final static LocalDate FIRST_SEMESTER = LocalDate.of(2018, 8, 20);
+    private final static LocalDate SECOND_SEMESTER = LocalDate.of(2019, 1, 7);
+    private final static int SCHOOL_YEAR_DAYS = 280;
+    private final static int SCHOOL_DAY_START_MINUTE = 7 * 60 + 30;
+    private final static int SCHOOL_DAY_MINUTES = 8 * 60;
+
+    // Most common first, since the Zipf distribution weights them by rank
+    private final static String[] FIRST_NAMES = {
+            "Emma", "Liam", "Olivia", "Noah", "Ava", "William", "Sophia", "James", "Isabella", "Logan",
+            "Mia", "Benjamin", "Charlotte", "Mason", "Abigail", "Elijah", "Emily", "Oliver", "Harper", "Jacob",
+            "Amelia", "Lucas", "Evelyn", "Michael", "Elizabeth", "Alexander", "Sofia", "Ethan", "Madison", "Daniel",
+            "Avery", "Matthew", "Ella", "Aiden", "Scarlett", "Henry", "Grace", "Joseph", "Chloe", "Jackson",
+            "Victoria", "Samuel", "Riley", "Sebastian", "Aria", "David", "Lily", "Carter", "Aubrey", "Wyatt",
+            "Zoey", "Jayden", "Penelope", "John", "Lillian", "Owen", "Addison", "Dylan", "Layla", "Luke",
+            "Natalie", "Gabriel", "Camila", "Anthony", "Hannah", "Isaac", "Brooklyn", "Grayson", "Zoe", "Jack",
+            "Nora", "Julian", "Leah", "Levi", "Savannah", "Christopher", "Audrey", "Joshua", "Claire", "Andrew",
+            "Eleanor", "Lincoln", "Skylar", "Mateo", "Ellie", "Ryan", "Samantha", "Jaxon", "Stella", "Nathan",
+            "Paisley", "Aaron", "Violet", "Isaiah", "Mila", "Thomas", "Allison", "Charles", "Alexa", "Caleb",
+    };
+    private final static String[] LAST_NAMES = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+            "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+            "Lee", "Perez", "Thompson", "White", "Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson",
+            "Walker", "Young", "Allen", "King", "Wright", "Scott", "Torres", "Nguyen", "Hill", "Flores",
+            "Green", "Adams", "Nelson", "Baker", "Hall", "Rivera", "Campbell", "Mitchell", "Carter", "Roberts",
+            "Gomez", "Phillips", "Evans", "Turner", "Diaz", "Parker", "Cruz", "Edwards", "Collins", "Reyes",
+            "Stewart", "Morris", "Morales", "Murphy", "Cook", "Rogers", "Gutierrez", "Ortiz", "Morgan", "Cooper",
+            "Peterson", "Bailey", "Reed", "Kelly", "Howard", "Ramos", "Kim", "Cox", "Ward", "Richardson",
+            "Watson", "Brooks", "Chavez", "Wood", "James", "Bennett", "Gray", "Mendoza", "Ruiz", "Hughes",
+            "Price", "Alvarez", "Castillo", "Sanders", "Patel", "Myers", "Long", "Ross", "Foster", "Jimenez",
+            "Powell", "Jenkins", "Perry", "Russell", "Sullivan", "Bell", "Coleman", "Butler", "Henderson", "Barnes",
+            "Gonzales", "Fisher", "Vasquez", "Simmons", "Romero", "Jordan", "Patterson", "Alexander", "Hamilton", "Graham",
+    };
+    private final static String[] TITLES = {
+            "English 9", "Algebra I", "Biology", "World History", "English 10", "Geometry", "Chemistry",
+            "US History", "English 11", "Algebra II", "Spanish I", "Physics", "English 12", "Precalculus",
+            "Government", "Spanish II", "Economics", "Health", "French I", "Psychology", "AP Calculus AB",
+            "AP Biology", "Earth Science", "Computer Science", "French II", "AP US History", "Statistics",
+            "AP Chemistry", "German I", "AP Physics 1", "Anatomy", "AP Literature",
+    };
+    private final static String[] GRADES = {"9", "10", "11", "12"};
+    // Each class is a little smaller than the one before
+    private final static double[] GRADE_WEIGHTS = {27, 26, 24, 23};
+
+    private final long seed;
+    private final BigInteger codeOffset;
+    private final int studentCount;
+    private final int ebookCount;
+    private final double pairedRatio;
+    private final Zipf firstNames;
+    private final Zipf lastNames;
+    private final Zipf titles;
+    private final Zipf grades;
+
+    /**
+     * DatasetGenerator constructor
+     *
+     * @param seed Seed of every random choice
+     * @param studentCount Number of students
+     * @param ebookCount Number of ebooks
+     * @param pairedRatio Share of students to pair, from 0 to 1; limited by the number of ebooks
+     * @param skew Zipf exponent of names and titles, where 0 is uniform and higher is more skewed
+     * @throws IllegalArgumentException if a count is negative or the ratio or skew is out of range
+     */
+    public DatasetGenerator(long seed, int studentCount, int ebookCount, double pairedRatio, double skew) {
+        if (studentCount < 0 || ebookCount < 0) {
+            throw new IllegalArgumentException("Counts can't be negative");
+        }
+        if (!(pairedRatio >= 0 && pairedRatio <= 1)) {
+            throw new IllegalArgumentException("Paired ratio must be between 0 and 1");
+        }
+        if (!(skew >= 0)) {
+            throw new IllegalArgumentException("Skew can't be negative");
+        }
+
+        this.seed = seed;
+        this.codeOffset = BigInteger.valueOf(Math.floorMod(new SplittableRandom(seed).nextLong(), EbookCodeGenerator.CODE_SPACE));
+        this.studentCount = studentCount;
+        this.ebookCount = ebookCount;
+        this.pairedRatio = pairedRatio;
+        this.firstNames = new Zipf(FIRST_NAMES.length, skew);
+        this.lastNames = new Zipf(LAST_NAMES.length, skew);
+        this.titles = new Zipf(TITLES.length, skew);
+        this.grades = new Zipf(GRADE_WEIGHTS);
+    }
+
+    /**
+     * DatasetGenerator constructor using {@link #DEFAULT_PAIRED_RATIO} and {@link #DEFAULT_SKEW}
+     *
+     * @param seed Seed of every random choice
+     * @param studentCount Number of students
+     * @param ebookCount Number of ebooks
+     */
+    public DatasetGenerator(long seed, int studentCount, int ebookCount) {
+        this(seed, studentCount, ebookCount, DEFAULT_PAIRED_RATIO, DEFAULT_SKEW);
+    }
+
+    /**
+     * Student ID of a generated student
+     *
+     * @param index Index of the student, from 0
+     * @return The student's ID
+     */
+    public static String studentId(int index) {
+        return String.valueOf(FIRST_STUDENT_ID + index);
+    }
+
+    /**
+     * Code of a generated ebook
+     * <p>
+     * Codes are spread over the whole code space by a fixed permutation, so they look random
+     * but are unique without being checked.
+     *
+     * @param index Index of the ebook, from 0
+     * @return The ebook's code
+     */
+    public String ebookCode(int index) {
+        return EbookCodeGenerator.formatCode(
+                BigInteger.valueOf(index).multiply(CODE_STEP).add(codeOffset).mod(CODE_SPACE).longValue());
+    }
+
+    /**
+     * Creates a database file and fills it
+     * <p>
+     * The database is written to a {@code .partial} file next to it and only renamed into
+     * place once it is complete, so an interrupted run never leaves a half filled database.
+     *
+     * @param database File to create, which must not exist yet
+     * @param threads Number of threads to make rows on
+     * @param listener Listener to report the number of rows written to, or null
+     * @return Number of students that were paired
+     * @throws IOException if the file already exists or can't be written, or {@link InterruptedIOException}
+     *                     if the thread is interrupted, in which case nothing is kept
+     * @throws SQLException if something goes wrong while writing
+     */
+    public long generate(File database, int threads, ProgressListener listener) throws IOException, SQLException {
+        if (database.exists()) {
+            throw new FileAlreadyExistsException(database.getAbsolutePath());
+        }
+        File partial = new File(database.getAbsoluteFile().getParentFile(), database.getName() + ".partial");
+        Files.deleteIfExists(partial.toPath());
+
+        Pairing pairing = new Pairing();
+        ExecutorService workers = WorkerThreads.newFixedExecutor("generator-worker", Math.max(1, threads));
+        boolean complete = false;
+        try (JdbcConnectionSource connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + partial.getAbsolutePath())) {
+            TableUtils.createTableIfNotExists(connectionSource, Student.class);
+            TableUtils.createTableIfNotExists(connectionSource, Ebook.class);
+            SchemaMigrator.migrate(connectionSource);
+
+            DatabaseConnection databaseConnection = connectionSource.getReadWriteConnection(null);
+            try {
+                if (!(databaseConnection instanceof JdbcDatabaseConnection)) {
+                    throw new SQLException("Generating needs a JDBC connection");
+                }
+                write(((JdbcDatabaseConnection) databaseConnection).getInternalConnection(), workers,
+                        Math.max(1, threads), pairing, listener);
+            } finally {
+                connectionSource.releaseConnection(databaseConnection);
+            }
+            complete = true;
+        } finally {
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!complete) {
+                Files.deleteIfExists(partial.toPath());
+            }
+        }
+
+        Files.move(partial.toPath(), database.toPath());
+        return pairing.pairedCount;
+    }
+
+    /**
+     * Writes every row in one transaction
+     * <p>
+     * Secondary indexes and the search tables' triggers are dropped first and recreated from
+     * their own SQL afterwards, so this works with whatever schema {@link SchemaMigrator} made.
+     */
+    private void write(Connection connection, ExecutorService workers, int threads, Pairing pairing,
+                       ProgressListener listener) throws IOException, SQLException {
+        // Nothing else can see the partial file, so it doesn't need a journal
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = OFF");
+            statement.execute("PRAGMA synchronous = OFF");
+            statement.execute("PRAGMA cache_size = -262144");
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            List<String[]> deferred = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery("SELECT type, name, sql FROM sqlite_master " +
+                    "WHERE type IN ('index', 'trigger') AND tbl_name IN ('students', 'ebooks') AND sql IS NOT NULL")) {
+                while (rs.next()) {
+                    deferred.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3)});
+                }
+            }
+            for (String[] object : deferred) {
+                statement.execute(String.format("DROP %s `%s`", object[0].toUpperCase(), object[1]));
+            }
+
+            long total = (long) studentCount + ebookCount;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO ebooks (code, name, assignmentDate) VALUES (?, ?, ?)")) {
+                writeChunks(insert, ebookCount, chunk -> ebookChunk(chunk, pairing), workers, threads, listener, 0, total);
+            }
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO students (firstName, lastName, grade, studentId, ebookCode) VALUES (?, ?, ?, ?, ?)")) {
+                writeChunks(insert, studentCount, chunk -> studentChunk(chunk, pairing), workers, threads, listener,
+                        ebookCount, total);
+            }
+
+            for (String[] object : deferred) {
+                statement.execute(object[2]);
+            }
+            for (String searchTable : new String[]{SearchIndex.STUDENTS_TABLE, SearchIndex.EBOOKS_TABLE}) {
+                statement.execute(String.format("INSERT INTO %s(%s) VALUES ('rebuild')", searchTable, searchTable));
+            }
+            statement.execute("ANALYZE");
+            connection.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Makes chunks of rows on the workers and inserts them in order
+     * <p>
+     * At most two chunks per thread are made ahead of the one being written.
+     *
+     * @param insert Statement to insert one row, whose parameters are the row's values
+     * @param rows Number of rows
+     * @param factory Makes the rows of a chunk
+     * @param workers Executor to make chunks on
+     * @param threads Number of worker threads
+     * @param listener Listener to report progress to, or null
+     * @param done Rows written before these
+     * @param total Rows in the whole database
+     */
+    private static void writeChunks(PreparedStatement insert, int rows, ChunkFactory factory, ExecutorService workers,
+                                    int threads, ProgressListener listener, long done, long total)
+            throws IOException, SQLException {
+        int chunks = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Deque<Future<Object[][]>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            while (submitted < chunks && pending.size() < threads * 2) {
+                final int chunk = submitted++;
+                pending.add(workers.submit(() -> factory.make(chunk)));
+            }
+
+            while (!pending.isEmpty()) {
+                Object[][] chunkRows = awaitChunk(pending.poll());
+                if (submitted < chunks) {
+                    final int chunk = submitted++;
+                    pending.add(workers.submit(() -> factory.make(chunk)));
+                }
+
+                for (Object[] row : chunkRows) {
+                    for (int column = 0; column < row.length; column++) {
+                        if (row[column] instanceof Timestamp) {
+                            insert.setTimestamp(column + 1, (Timestamp) row[column]);
+                        } else if (row[column] == null) {
+                            insert.setNull(column + 1, Types.VARCHAR);
+                        } else {
+                            insert.setString(column + 1, (String) row[column]);
+                        }
+                    }
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+
+                done += chunkRows.length;
+                if (listener != null) {
+                    listener.progress(done, total);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Generation was cancelled");
+                }
+            }
+        } finally {
+            for (Future<Object[][]> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Object[][] awaitChunk(Future<Object[][]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Generation was cancelled");
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't generate rows", e.getCause());
+        }
+    }
+
+    /**
+     * Makes ebook rows of code, name and assignment date
+     */
+    private Object[][] ebookChunk(int chunk, Pairing pairing) {
+        SplittableRandom random = new SplittableRandom(seed ^ EBOOK_STREAM ^ chunk * 0x9E37_79B9_7F4A_7C15L);
+        int first = chunk * CHUNK_SIZE;
+        Object[][] rows = new Object[Math.min(CHUNK_SIZE, ebookCount - first)][];
+        for (int i = 0; i < rows.length; i++) {
+            int index = first + i;
+            String name = TITLES[titles.sample(random)];
+            Timestamp assigned = pairing.isPaired(index) ? assignmentDate(random) : null;
+            rows[i] = new Object[]{ebookCode(index), name, assigned};
+        }
+        return rows;
+    }
+
+    /**
+     * Makes student rows of first name, last name, grade, student ID and ebook code
+     */
+    private Object[][] studentChunk(int chunk, Pairing pairing) {
+        SplittableRandom random = new SplittableRandom(seed ^ STUDENT_STREAM ^ chunk * 0x9E37_79B9_7F4A_7C15L);
+        int first = chunk * CHUNK_SIZE;
+        Object[][] rows = new Object[Math.min(CHUNK_SIZE, studentCount - first)][];
+        for (int i = 0; i < rows.length; i++) {
+            int index = first + i;
+            int ebook = pairing.ebookOf(index);
+            rows[i] = new Object[]{
+                    FIRST_NAMES[firstNames.sample(random)],
+                    LAST_NAMES[lastNames.sample(random)],
+                    GRADES[grades.sample(random)],
+                    studentId(index),
+                    ebook >= 0 ? ebookCode(ebook) : null,
+            };
+        }
+        return rows;
+    }
+
+    /**
+     * Picks when an ebook was handed out
+     * <p>
+     * Most are handed out in the first weeks of the first semester, fewer at the start of the
+     * second, and the rest at any point in the year, always on a weekday during school hours.
+     *
+     * @param random Random to pick with
+     * @return Assignment date, in UTC so it doesn't depend on the machine's time zone
+     */
+    private static Timestamp assignmentDate(SplittableRandom random) {
+        double kind = random.nextDouble();
+        LocalDate day;
+        if (kind < 0.7) {
+            day = FIRST_SEMESTER.plusDays(exponentialDays(random, 4));
+        } else if (kind < 0.9) {
+            day = SECOND_SEMESTER.plusDays(exponentialDays(random, 3));
+        } else {
+            day = FIRST_SEMESTER.plusDays(random.nextInt(SCHOOL_YEAR_DAYS));
+        }
+        if (day.getDayOfWeek() == DayOfWeek.SATURDAY) {
+            day = day.plusDays(2);
+        } else if (day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            day = day.plusDays(1);
+        }
+
+        int minute = SCHOOL_DAY_START_MINUTE + random.nextInt(SCHOOL_DAY_MINUTES);
+        return new Timestamp(day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli() + minute * 60_000L);
+    }
+
+    private static long exponentialDays(SplittableRandom random, double meanDays) {
+        return Math.min((long) (-meanDays * Math.log(1 - random.nextDouble())), SCHOOL_YEAR_DAYS / 2);
+    }
+
+    @FunctionalInterface
+    private interface ChunkFactory {
+        Object[][] make(int chunk);
+    }
+
+    /**
+     * Which students own which ebooks
+     * <p>
+     * Paired students and ebooks are both picked by a seeded shuffle, so pairs are spread
+     * over the whole tables instead of following insertion order.
+     */
+    private final class Pairing {
+        private final int[] ebookOfStudent;
+        private final boolean[] pairedEbooks;
+        private final int pairedCount;
+
+        Pairing() {
+            Random random = new Random(seed);
+            pairedCount = (int) Math.min(Math.round(studentCount * pairedRatio), ebookCount);
+            int[] students = shuffledPrefix(studentCount, pairedCount, random);
+            int[] ebooks = shuffledPrefix(ebookCount, pairedCount, random);
+
+            ebookOfStudent = new int[studentCount];
+            Arrays.fill(ebookOfStudent, -1);
+            pairedEbooks = new boolean[ebookCount];
+            for (int i = 0; i < pairedCount; i++) {
+                ebookOfStudent[students[i]] = ebooks[i];
+                pairedEbooks[ebooks[i]] = true;
+            }
+        }
+
+        int ebookOf(int student) {
+            return ebookOfStudent[student];
+        }
+
+        boolean isPaired(int ebook) {
+            return pairedEbooks[ebook];
+        }
+
+        /**
+         * @return Numbers {@code 0..size-1} whose first {@code count} are a random sample
+         */
+        private int[] shuffledPrefix(int size, int count, Random random) {
+            int[] values = new int[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = i;
+            }
+            for (int i = 0; i < count; i++) {
+                int swap = i + random.nextInt(size - i);
+                int value = values[i];
+                values[i] = values[swap];
+                values[swap] = value;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Picks indexes with fixed weights, which by default fall off with rank like a Zipf distribution
+     */
+    private final static class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int size, double exponent) {
+            this(rankWeights(size, exponent));
+        }
+
+        Zipf(double[] weights) {
+            cumulative = new double[weights.length];
+            double sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                cumulative[i] = sum;
+            }
+        }
+
+        private static double[] rankWeights(int size, double exponent) {
+            double[] weights = new double[size];
+            for (int i = 0; i < size; i++) {
+                weights[i] = 1 / Math.pow(i + 1, exponent);
+            }
+            return weights;
+        }
+
+        int sample(SplittableRandom random) {
+            double point = random.nextDouble() * cumulative[cumulative.length - 1];
+            int index = Arrays.binarySearch(cumulative, point);
+            index = index >= 0 ? index + 1 : -index - 1;
+            return Math.min(index, cumulative.length - 1);
+        }
+    }
+
+}
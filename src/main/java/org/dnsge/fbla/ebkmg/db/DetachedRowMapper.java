@@ -0,0 +1,81 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DatabaseResultsMapper;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseResults;
+import com.j256.ormlite.table.DatabaseTableConfig;
+
+import java.lang.reflect.Constructor;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the rows of a raw query to new objects that skip the {@link IdentityMap}
+ * <p>
+ * Queries through a DAO hand back the cached object for every row and cache the rest, so
+ * reading a whole table that way would evict everything the GUI is using. Objects from this
+ * mapper are never cached, so they are for reading only, such as in an export.
+ * <p>
+ * Remembers the column positions of the first row, so use a new mapper for every query.
+ *
+ * @param <T> Type of the rows
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class DetachedRowMapper<T> implements DatabaseResultsMapper<T> {
+
+    private final Constructor<T> constructor;
+    private final FieldType[] fieldTypes;
+    private final Map<String, Integer> columnPositions = new HashMap<>();
+
+    private DetachedRowMapper(Constructor<T> constructor, FieldType[] fieldTypes) {
+        this.constructor = constructor;
+        this.fieldTypes = fieldTypes;
+    }
+
+    /**
+     * Creates a mapper for the rows of a DAO's table
+     *
+     * @param dao DAO of the table
+     * @param <T> Type of the rows
+     * @return The mapper
+     * @throws SQLException if the table can't be mapped
+     */
+    public static <T> DetachedRowMapper<T> of(Dao<T, ?> dao) throws SQLException {
+        ConnectionSource connectionSource = dao.getConnectionSource();
+        DatabaseTableConfig<T> config = DatabaseTableConfig.fromClass(connectionSource, dao.getDataClass());
+        return new DetachedRowMapper<>(DatabaseTableConfig.findNoArgConstructor(dao.getDataClass()),
+                config.getFieldTypes(connectionSource.getDatabaseType()));
+    }
+
+    /**
+     * Streams every row of a DAO's table as detached objects
+     *
+     * @param dao DAO of the table
+     * @param <T> Type of the rows
+     * @return Rows in the table's order; close them when done
+     * @throws SQLException if something goes wrong
+     */
+    public static <T> GenericRawResults<T> queryAll(Dao<T, ?> dao) throws SQLException {
+        return dao.queryRaw("SELECT * FROM " + dao.getTableName(), of(dao));
+    }
+
+    @Override
+    public T mapRow(DatabaseResults results) throws SQLException {
+        T row;
+        try {
+            row = constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("Could not create a " + constructor.getDeclaringClass().getSimpleName(), e);
+        }
+        for (FieldType fieldType : fieldTypes) {
+            fieldType.assignField(row, fieldType.resultToJava(results, columnPositions), false, null);
+        }
+        return row;
+    }
+
+}
@@ -1,22 +1,27 @@
 package org.dnsge.fbla.ebkmg.db;
 
-import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import org.dnsge.fbla.ebkmg.csv.CsvBeanWritable;
 
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents an ebook in a SQLite database
+ * <p>
+ * Ebooks are shared between threads through the {@link IdentityMap}, so their fields are
+ * guarded by the Ebook's own monitor. Hold it to read several fields as one consistent state.
  *
  * @author Daniel Sage
- * @version 0.5
+ * @version 0.11
  */
 @DatabaseTable(tableName = "ebooks")
 public final class Ebook implements CsvBeanWritable {
@@ -43,44 +48,88 @@ public final class Ebook implements CsvBeanWritable {
      * @throws SQLException if something goes wrong
      */
     static Ebook getOrCreate(String name, String code) throws SQLException {
-        SQLiteConnector connector = SQLiteConnector.getInstance();
-        Dao<Ebook, String> dao = connector.getEbookDao();
-
-        HashMap<String, Object> hm = new HashMap<>();
-        hm.put("code", code);
+        Ebook found = get(code);
 
-        List<Ebook> list = dao.queryForFieldValues(hm);
-        System.out.println("Found " + list.size() + " values in the list");
-
-        if (list.size() > 0) {
-            return list.get(0);
+        if (found != null) {
+            return found;
         } else {
             Ebook newEbook = new Ebook(name, code, new Date());
-            dao.create(newEbook);
+            SQLiteConnector.getInstance().getEbookDao().create(newEbook);
             return newEbook;
         }
     }
 
     /**
      * Gets the corresponding {@code Ebook} from a redemption code
+     * <p>
+     * Unknown codes are answered by the in-memory {@link PrefixIndex} without querying
      *
      * @param code Redemption code to select
      * @return Found {@code Ebook} object, or null if not found
      * @throws SQLException if something goes wrong
      */
-    static Ebook get(String code) throws SQLException {
+    public static Ebook get(String code) throws SQLException {
         SQLiteConnector connector = SQLiteConnector.getInstance();
-        Dao<Ebook, String> dao = connector.getEbookDao();
+        int id = connector.getEbookCodeIndex().idOf(code);
+        if (id < 0) {
+            return null;
+        }
 
-        HashMap<String, Object> hm = new HashMap<>();
-        hm.put("code", code);
+        return connector.getIdentityMap().find(Ebook.class, "code", code,
+                () -> connector.getEbookDao().queryBuilder().where().eq("id", id).queryForFirst());
+    }
 
-        List<Ebook> list = dao.queryForFieldValues(hm);
-        if (list.size() > 0) {
-            return list.get(0);
-        } else {
-            return null;
+    /**
+     * Gets the Ebooks with any of some redemption codes
+     * <p>
+     * Unknown codes are dropped using the in-memory {@link PrefixIndex} before querying
+     *
+     * @param codes Redemption codes to select
+     * @return Ebook by code; unknown codes are left out
+     * @throws SQLException if something goes wrong
+     */
+    public static Map<String, Ebook> getAll(Collection<String> codes) throws SQLException {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        Set<String> known = new LinkedHashSet<>();
+        for (String code : codes) {
+            if (connector.getEbookCodeIndex().contains(code)) {
+                known.add(code);
+            }
         }
+        return KeyedQuery.byKeys(connector.getEbookDao(), "code", known, Ebook::getCode);
+    }
+
+    /**
+     * Copies every redemption code from the in-memory code index
+     *
+     * @return Mutable set of all redemption codes
+     * @throws SQLException if something goes wrong
+     */
+    public static Set<String> allCodes() throws SQLException {
+        return SQLiteConnector.getInstance().getEbookCodeIndex().allKeys();
+    }
+
+    /**
+     * Finds redemption codes that start with some text, for type-ahead
+     *
+     * @param prefix Text the codes must start with
+     * @param limit Maximum number of codes to return
+     * @return Matching codes in sorted order
+     * @throws SQLException if something goes wrong
+     */
+    public static List<String> codesStartingWith(String prefix, int limit) throws SQLException {
+        return SQLiteConnector.getInstance().getEbookCodeIndex().keysWithPrefix(prefix, limit);
+    }
+
+    /**
+     * Inserts many new Ebooks in a single transaction
+     *
+     * @param ebooks Ebooks to insert
+     * @return Number of rows inserted
+     * @throws SQLException if something goes wrong; nothing is inserted
+     */
+    public static int createAll(Collection<Ebook> ebooks) throws SQLException {
+        return SQLiteConnector.getInstance().getEbookDao().create(ebooks);
     }
 
     /**
@@ -88,14 +137,10 @@ public final class Ebook implements CsvBeanWritable {
      *
      * @param code Redemption code to check against
      * @return Whether that code already exists in the database
+     * @throws SQLException if something goes wrong
      */
-    public static boolean exists(String code) {
-        try {
-            return get(code) != null;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+    public static boolean exists(String code) throws SQLException {
+        return SQLiteConnector.getInstance().getEbookCodeIndex().contains(code);
     }
 
     /**
@@ -104,26 +149,31 @@ public final class Ebook implements CsvBeanWritable {
      * @param code Redemption code to check against
      * @param me Ebook to ignore
      * @return Whether that code already exists and isn't the specified Ebook
+     * @throws SQLException if something goes wrong
      */
-    public static boolean otherExists(String code, Ebook me) {
-        try {
-            Ebook got = get(code);
-            return got != null && !got.equals(me);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+    public static boolean otherExists(String code, Ebook me) throws SQLException {
+        int id = SQLiteConnector.getInstance().getEbookCodeIndex().idOf(code);
+        return id >= 0 && id != me.getId();
+    }
+
+    /**
+     * Returns the Ebook database id
+     *
+     * @return Database ID Key
+     */
+    int getId() {
+        return id;
     }
 
-    public String getCode() {
+    public synchronized String getCode() {
         return code;
     }
 
-    public void setCode(String code) {
+    public synchronized void setCode(String code) {
         this.code = code;
     }
 
-    private Date getAssignmentDate() {
+    public synchronized Date getAssignmentDate() {
         return assignmentDate;
     }
 
@@ -132,7 +182,7 @@ public final class Ebook implements CsvBeanWritable {
      *
      * @return Formatted redemption date in "MM/dd/yy hh:mm aa" form
      */
-    public String getAssignmentDateString() {
+    public synchronized String getAssignmentDateString() {
         try {
             return new SimpleDateFormat("MM/dd/yy hh:mm aa").format(getAssignmentDate());
         } catch (NullPointerException e) {
@@ -156,11 +206,11 @@ public final class Ebook implements CsvBeanWritable {
         }
     }
 
-    public String getName() {
+    public synchronized String getName() {
         return name;
     }
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.name = name;
     }
 
@@ -168,10 +218,8 @@ public final class Ebook implements CsvBeanWritable {
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        Ebook ebook = (Ebook) o;
-        return Objects.equals(code, ebook.code) &&
-                Objects.equals(name, ebook.name) &&
-                Objects.equals(assignmentDate, ebook.assignmentDate);
+        // Each side is read under its own monitor, never both at once
+        return Arrays.equals(fields(), ((Ebook) o).fields());
     }
 
     /**
@@ -180,7 +228,7 @@ public final class Ebook implements CsvBeanWritable {
      * @param memento Memento to load from
      * @see Memento
      */
-    public void loadFromMemento(Memento memento) {
+    public synchronized void loadFromMemento(Memento memento) {
         setName(memento.getEbookName());
         setCode(memento.getEbookCode());
         assignmentDate = memento.getEbookDate();
@@ -192,29 +240,59 @@ public final class Ebook implements CsvBeanWritable {
      * @return Memento object with this Ebook's values
      * @see Memento
      */
-    public Memento saveToMemento() {
+    public synchronized Memento saveToMemento() {
         return new Memento(this);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(code, name, assignmentDate);
+        return Arrays.hashCode(fields());
+    }
+
+    private synchronized Object[] fields() {
+        return new Object[]{code, name, assignmentDate};
+    }
+
+    /**
+     * Copies this Ebook, including its database ID
+     * <p>
+     * Used to make changes that other threads shouldn't see until they're committed
+     *
+     * @return New Ebook with the same state
+     * @see #copyFrom(Ebook)
+     */
+    public synchronized Ebook copy() {
+        Ebook copy = new Ebook();
+        copy.id = id;
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Replaces this Ebook's state with a copy's in one step
+     *
+     * @param other Copy made by {@link #copy()}, not shared with other threads
+     */
+    public synchronized void copyFrom(Ebook other) {
+        code = other.code;
+        name = other.name;
+        assignmentDate = other.assignmentDate;
     }
 
     /**
      * @return Whether this Ebook has a valid name and code
      */
-    public boolean filledOutProperly() {
+    public synchronized boolean filledOutProperly() {
         return !name.trim().isEmpty() &&
                 !code.trim().isEmpty();
     }
 
-    public void setAssignmentDate(Date assignmentDate) {
+    public synchronized void setAssignmentDate(Date assignmentDate) {
         this.assignmentDate = assignmentDate;
     }
 
     @Override
-    public String[] asCsvLine() {
+    public synchronized String[] asCsvLine() {
         return new String[]{code, name, getAssignmentDateString()};
     }
 
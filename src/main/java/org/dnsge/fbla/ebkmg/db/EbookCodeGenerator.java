@@ -0,0 +1,102 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mints new, unique redemption codes for a title
+ * <p>
+ * Codes look like {@code K7QM-2XHD-9RWP} and leave out characters that are easy to
+ * mix up when read aloud or typed ({@code 0/O}, {@code 1/I/L}).
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public final class EbookCodeGenerator {
+
+    private final static char[] ALPHABET = "23456789ABCDEFGHJKMNPQRSTUVWXYZ".toCharArray();
+    private final static int GROUP_LENGTH = 4;
+    private final static int GROUPS = 3;
+
+    private final static SecureRandom RANDOM = new SecureRandom();
+
+    private EbookCodeGenerator() { }
+
+    /**
+     * Generates and saves new Ebooks with unique codes
+     * <p>
+     * Codes are checked in memory against every existing code, and all of the
+     * new Ebooks are inserted in a single transaction.
+     *
+     * @param name Name of the title
+     * @param count Number of Ebooks to create
+     * @return The new Ebooks
+     * @throws SQLException if something goes wrong; nothing is saved
+     */
+    public static List<Ebook> generate(String name, int count) throws SQLException {
+        Set<String> usedCodes = Ebook.allCodes();
+        List<Ebook> ebooks = new ArrayList<>(count);
+
+        while (ebooks.size() < count) {
+            String code = randomCode();
+            if (usedCodes.add(code)) {
+                ebooks.add(new Ebook(name, code, null));
+            }
+        }
+
+        Ebook.createAll(ebooks);
+        return ebooks;
+    }
+
+    /**
+     * Number of different codes, so every value in {@code [0, CODE_SPACE)} has its own code
+     */
+    final static long CODE_SPACE = pow(ALPHABET.length, GROUP_LENGTH * GROUPS);
+
+    /**
+     * Formats a number as a code, for callers that need codes without checking existing ones
+     *
+     * @param value Number in {@code [0, CODE_SPACE)}
+     * @return The number's code in {@code XXXX-XXXX-XXXX} form
+     */
+    static String formatCode(long value) {
+        char[] code = new char[GROUPS * (GROUP_LENGTH + 1) - 1];
+        for (int i = code.length - 1; i >= 0; i--) {
+            if ((i + 1) % (GROUP_LENGTH + 1) == 0) {
+                code[i] = '-';
+            } else {
+                code[i] = ALPHABET[(int) (value % ALPHABET.length)];
+                value /= ALPHABET.length;
+            }
+        }
+        return new String(code);
+    }
+
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * @return A random code in {@code XXXX-XXXX-XXXX} form
+     */
+    private static String randomCode() {
+        StringBuilder sb = new StringBuilder(GROUPS * (GROUP_LENGTH + 1));
+        for (int group = 0; group < GROUPS; group++) {
+            if (group > 0) {
+                sb.append('-');
+            }
+            for (int i = 0; i < GROUP_LENGTH; i++) {
+                sb.append(ALPHABET[RANDOM.nextInt(ALPHABET.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,343 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.ObjectCache;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size-bounded identity map shared by the DAOs of one connection
+ * <p>
+ * ORMLite calls into this {@link ObjectCache} whenever a DAO creates, queries, updates or
+ * deletes a row, so every lookup of the same primary key returns the same instance.
+ * On top of that, each type can register secondary keys (e.g. {@code studentId}) that are
+ * resolved through {@link #find(Class, String, String, Loader)} without touching SQLite.
+ * The least recently used entries are evicted once a type holds {@code capacity} objects.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class IdentityMap implements ObjectCache {
+
+    /**
+     * Default maximum number of cached objects per type
+     */
+    public final static int DEFAULT_CAPACITY = 50_000;
+
+    /**
+     * Loads an object from the database when it isn't cached
+     *
+     * @param <T> Type of the object
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    private final int capacity;
+    private final Map<Class<?>, TypeCache<?>> caches = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * IdentityMap constructor
+     *
+     * @param capacity Maximum number of cached objects per type
+     */
+    public IdentityMap(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Registers a type and how to read its primary key
+     *
+     * @param clazz Type to register
+     * @param idFunction Returns an object's primary key, boxed the same way ORMLite boxes it
+     * @param <T> Type of the objects
+     */
+    public <T> void registerType(Class<T> clazz, Function<T, Object> idFunction) {
+        cacheFor(clazz).idFunction = idFunction;
+    }
+
+    /**
+     * Registers a secondary key for a type
+     *
+     * @param clazz Type to register the key for
+     * @param keyName Name of the key, used with {@link #find(Class, String, String, Loader)}
+     * @param keyFunction Returns an object's key, or null if it doesn't have one
+     * @param <T> Type of the objects
+     */
+    public <T> void registerKey(Class<T> clazz, String keyName, Function<T, String> keyFunction) {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            cache.keys.put(keyName, new KeyIndex<>(keyFunction));
+        }
+    }
+
+    /**
+     * Finds an object by a secondary key, loading and indexing it on a miss
+     *
+     * @param clazz Type of the object
+     * @param keyName Name of the key registered with {@link #registerKey(Class, String, Function)}
+     * @param key Key value to find
+     * @param loader Queries the database if the object isn't cached
+     * @param <T> Type of the object
+     * @return The found object, or null if there isn't one
+     * @throws SQLException if the loader fails
+     */
+    public <T> T find(Class<T> clazz, String keyName, String key, Loader<T> loader) throws SQLException {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            T found = cache.lookup(keyName, key);
+            if (found != null) {
+                hits.increment();
+                return found;
+            }
+        }
+
+        misses.increment();
+        T loaded = loader.load();
+        if (loaded != null) {
+            synchronized (cache) {
+                cache.reindex(loaded);
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public <T> void registerClass(Class<T> clazz) {
+        cacheFor(clazz);
+    }
+
+    @Override
+    public <T, ID> T get(Class<T> clazz, ID id) {
+        TypeCache<T> cache = cacheFor(clazz);
+        T found;
+        synchronized (cache) {
+            found = cache.byId.get(id);
+        }
+
+        if (found != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return found;
+    }
+
+    @Override
+    public <T, ID> void put(Class<T> clazz, ID id, T data) {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            cache.unindex(id);
+            cache.byId.put(id, data);
+            cache.index(id, data);
+        }
+    }
+
+    @Override
+    public <T, ID> void remove(Class<T> clazz, ID id) {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            cache.byId.remove(id);
+            cache.unindex(id);
+        }
+    }
+
+    @Override
+    public <T, ID> T updateId(Class<T> clazz, ID oldId, ID newId) {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            T data = cache.byId.remove(oldId);
+            cache.unindex(oldId);
+            if (data != null) {
+                cache.byId.put(newId, data);
+                cache.index(newId, data);
+            }
+            return data;
+        }
+    }
+
+    @Override
+    public <T> void clear(Class<T> clazz) {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            cache.byId.clear();
+            cache.keys.values().forEach(KeyIndex::clear);
+        }
+    }
+
+    @Override
+    public void clearAll() {
+        caches.keySet().forEach(this::clear);
+    }
+
+    @Override
+    public <T> int size(Class<T> clazz) {
+        TypeCache<T> cache = cacheFor(clazz);
+        synchronized (cache) {
+            return cache.byId.size();
+        }
+    }
+
+    @Override
+    public int sizeAll() {
+        int size = 0;
+        for (Class<?> clazz : caches.keySet()) {
+            size += size(clazz);
+        }
+        return size;
+    }
+
+    /**
+     * @return Number of lookups answered from memory
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of lookups that had to go to the database
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of objects dropped because their type was at capacity
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Maximum number of cached objects per type
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHitCount();
+        long lookups = hitCount + getMissCount();
+        return String.format("IdentityMap[size=%d, capacity=%d/type, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d]",
+                sizeAll(), capacity, hitCount, getMissCount(), lookups == 0 ? 0.0 : 100.0 * hitCount / lookups, getEvictionCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> TypeCache<T> cacheFor(Class<T> clazz) {
+        return (TypeCache<T>) caches.computeIfAbsent(clazz, c -> new TypeCache<T>());
+    }
+
+    /**
+     * Objects of one type, by primary key and by each secondary key
+     * <p>
+     * Guarded by its own monitor
+     */
+    private final class TypeCache<T> {
+        private final Map<String, KeyIndex<T>> keys = new HashMap<>();
+        private Function<T, Object> idFunction;
+
+        private final LinkedHashMap<Object, T> byId = new LinkedHashMap<Object, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, T> eldest) {
+                if (size() > capacity) {
+                    unindex(eldest.getKey());
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        T lookup(String keyName, String key) {
+            KeyIndex<T> index = keys.get(keyName);
+            if (index == null || key == null) {
+                return null;
+            }
+
+            Object id = index.idsByKey.get(key);
+            if (id == null) {
+                return null;
+            }
+
+            // Objects are mutable, so the key may have changed since it was indexed
+            T found = byId.get(id);
+            if (found == null || !key.equals(index.keyFunction.apply(found))) {
+                index.remove(id);
+                return null;
+            }
+            return found;
+        }
+
+        void index(Object id, T data) {
+            keys.values().forEach(index -> index.add(id, data));
+        }
+
+        void unindex(Object id) {
+            keys.values().forEach(index -> index.remove(id));
+        }
+
+        void reindex(T data) {
+            if (idFunction == null) {
+                return;
+            }
+
+            Object id = idFunction.apply(data);
+            if (byId.get(id) == data) {
+                unindex(id);
+                index(id, data);
+            } else {
+                put(id, data);
+            }
+        }
+
+        private void put(Object id, T data) {
+            unindex(id);
+            byId.put(id, data);
+            index(id, data);
+        }
+    }
+
+    /**
+     * Maps one secondary key to primary keys and back
+     */
+    private final static class KeyIndex<T> {
+        private final Function<T, String> keyFunction;
+        private final Map<String, Object> idsByKey = new HashMap<>();
+        private final Map<Object, String> keysById = new HashMap<>();
+
+        KeyIndex(Function<T, String> keyFunction) {
+            this.keyFunction = keyFunction;
+        }
+
+        void add(Object id, T data) {
+            String key = keyFunction.apply(data);
+            if (key != null) {
+                idsByKey.put(key, id);
+                keysById.put(id, key);
+            }
+        }
+
+        void remove(Object id) {
+            String key = keysById.remove(id);
+            if (key != null && id.equals(idsByKey.get(key))) {
+                idsByKey.remove(key);
+            }
+        }
+
+        void clear() {
+            idsByKey.clear();
+            keysById.clear();
+        }
+    }
+
+}
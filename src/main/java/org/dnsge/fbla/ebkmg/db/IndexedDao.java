@@ -0,0 +1,246 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.ObjectCache;
+import com.j256.ormlite.stmt.PreparedDelete;
+import com.j256.ormlite.stmt.PreparedUpdate;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * DAO that keeps a {@link PrefixIndex} current as rows are written through it
+ * <p>
+ * Writes that can't be tied to single rows ({@code updateRaw} and prepared updates or
+ * deletes), and batches that fail part of the way through, reload the index from the table.
+ *
+ * @param <T> Type of the rows
+ * @author Daniel Sage
+ * @version 0.4
+ */
+final class IndexedDao<T> extends BaseDaoImpl<T, String> {
+
+    private final PrefixIndex index;
+    private final ToIntFunction<T> idFunction;
+    private final Function<T, String> keyFunction;
+
+    /**
+     * IndexedDao constructor
+     *
+     * @param connectionSource Connection to the database
+     * @param dataClass Type of the rows
+     * @param keyColumn Column to keep an index of
+     * @param idFunction Returns a row's primary key
+     * @param keyFunction Returns a row's indexed key
+     * @throws SQLException if the table can't be mapped
+     */
+    IndexedDao(ConnectionSource connectionSource, Class<T> dataClass, String keyColumn,
+               ToIntFunction<T> idFunction, Function<T, String> keyFunction) throws SQLException {
+        super(connectionSource, dataClass);
+        this.index = new PrefixIndex(keyColumn, this);
+        this.idFunction = idFunction;
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * @return The index this DAO keeps current
+     */
+    PrefixIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Reads every key in the table into the index again
+     *
+     * @throws SQLException if something goes wrong
+     */
+    void reloadIndex() throws SQLException {
+        index.load();
+    }
+
+    @Override
+    public int create(T data) throws SQLException {
+        int rows = super.create(data);
+        if (rows > 0) {
+            index.put(idFunction.applyAsInt(data), keyFunction.apply(data));
+        }
+        return rows;
+    }
+
+    @Override
+    public int create(Collection<T> datas) throws SQLException {
+        int rows = reloadOnFailure(() -> super.create(datas));
+        for (T data : datas) {
+            index.put(idFunction.applyAsInt(data), keyFunction.apply(data));
+        }
+        return rows;
+    }
+
+    @Override
+    public int update(T data) throws SQLException {
+        int rows = super.update(data);
+        if (rows > 0) {
+            index.put(idFunction.applyAsInt(data), keyFunction.apply(data));
+        }
+        return rows;
+    }
+
+    /**
+     * Writes a row from an object without copying it into the cached object with the same ID
+     * <p>
+     * {@link #update(Object)} copies an updated object's fields into the cached one as soon as
+     * its row is written, on the writing thread. This is for copies whose changes are only
+     * published to the cached object once their transaction commits.
+     *
+     * @param data Copy of a cached object
+     * @return Number of rows updated
+     * @throws SQLException if something goes wrong
+     */
+    int updateDetached(T data) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadWriteConnection(tableInfo.getTableName());
+        int rows;
+        try {
+            rows = statementExecutor.update(connection, data, null);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+        if (rows > 0) {
+            index.put(idFunction.applyAsInt(data), keyFunction.apply(data));
+        }
+        return rows;
+    }
+
+    /**
+     * Deletes a row without taking it out of the index or the object cache
+     * <p>
+     * For deletes inside a transaction, which {@link #forget(int)} the row once it commits,
+     * so a rollback leaves both as they were
+     *
+     * @param id Primary key of the row
+     * @return Number of rows deleted
+     * @throws SQLException if something goes wrong
+     */
+    int deleteDetached(int id) throws SQLException {
+        return executeRaw(String.format("DELETE FROM %s WHERE id = ?", getTableName()), Integer.toString(id));
+    }
+
+    /**
+     * Takes a row deleted by {@link #deleteDetached(int)} out of the index and the object cache
+     *
+     * @param id Primary key of the row
+     */
+    void forget(int id) {
+        index.removeId(id);
+        ObjectCache cache = getObjectCache();
+        if (cache != null) {
+            cache.remove(getDataClass(), id);
+        }
+    }
+
+    @Override
+    public int updateId(T data, String newId) throws SQLException {
+        int oldId = idFunction.applyAsInt(data);
+        int rows = super.updateId(data, newId);
+        if (rows > 0) {
+            index.removeId(oldId);
+            index.put(Integer.parseInt(newId), keyFunction.apply(data));
+        }
+        return rows;
+    }
+
+    @Override
+    public int update(PreparedUpdate<T> preparedUpdate) throws SQLException {
+        int rows = super.update(preparedUpdate);
+        reloadIndex();
+        return rows;
+    }
+
+    @Override
+    public int updateRaw(String statement, String... arguments) throws SQLException {
+        int rows = super.updateRaw(statement, arguments);
+        reloadIndex();
+        return rows;
+    }
+
+    @Override
+    public int delete(T data) throws SQLException {
+        int rows = super.delete(data);
+        if (rows > 0) {
+            index.removeId(idFunction.applyAsInt(data));
+        }
+        return rows;
+    }
+
+    @Override
+    public int delete(Collection<T> datas) throws SQLException {
+        int rows = super.delete(datas);
+        for (T data : datas) {
+            index.removeId(idFunction.applyAsInt(data));
+        }
+        return rows;
+    }
+
+    @Override
+    public int deleteById(String id) throws SQLException {
+        int rows = super.deleteById(id);
+        if (rows > 0) {
+            index.removeId(Integer.parseInt(String.valueOf(id)));
+        }
+        return rows;
+    }
+
+    @Override
+    public int deleteIds(Collection<String> ids) throws SQLException {
+        int rows = super.deleteIds(ids);
+        for (Object id : ids) {
+            index.removeId(Integer.parseInt(String.valueOf(id)));
+        }
+        return rows;
+    }
+
+    @Override
+    public int delete(PreparedDelete<T> preparedDelete) throws SQLException {
+        int rows = super.delete(preparedDelete);
+        reloadIndex();
+        return rows;
+    }
+
+    @Override
+    public <CT> CT callBatchTasks(Callable<CT> callable) throws SQLException {
+        return reloadOnFailure(() -> super.callBatchTasks(callable));
+    }
+
+    /**
+     * Runs writes that are rolled back together if one fails, reloading the index if they do
+     *
+     * @param call Writes to run
+     * @param <R> Type of the result
+     * @return Result of the writes
+     * @throws SQLException if the writes fail
+     */
+    <R> R reloadOnFailure(Callable<R> call) throws SQLException {
+        try {
+            return call.call();
+        } catch (SQLException | RuntimeException e) {
+            reloadAfterRollback(e);
+            throw e;
+        } catch (Exception e) {
+            reloadAfterRollback(e);
+            throw new SQLException(e);
+        }
+    }
+
+    private void reloadAfterRollback(Exception cause) {
+        try {
+            reloadIndex();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+}
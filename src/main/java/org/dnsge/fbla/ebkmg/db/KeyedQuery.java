@@ -0,0 +1,110 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.SelectArg;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Loads many rows by a unique text column with one {@code IN (...)} query per chunk of keys
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+final class KeyedQuery {
+
+    private final static int CHUNK_SIZE = 500;
+
+    private KeyedQuery() { }
+
+    /**
+     * Loads the rows with any of some keys
+     *
+     * @param dao DAO of the table
+     * @param column Unique column to match
+     * @param keys Keys to load; duplicates and nulls are ignored
+     * @param keyFunction Returns a row's key
+     * @param <T> Type of the rows
+     * @return Loaded rows by key; keys without a row are left out
+     * @throws SQLException if something goes wrong
+     */
+    static <T> Map<String, T> byKeys(Dao<T, String> dao, String column, Collection<String> keys,
+                                     Function<T, String> keyFunction) throws SQLException {
+        return byKeys(dao, column, keys, keyFunction, false);
+    }
+
+    /**
+     * Loads the rows with any of some keys as objects that skip the {@link IdentityMap}
+     *
+     * @param dao DAO of the table
+     * @param column Unique column to match
+     * @param keys Keys to load; duplicates and nulls are ignored
+     * @param keyFunction Returns a row's key
+     * @param <T> Type of the rows
+     * @return Loaded rows by key, from a {@link DetachedRowMapper}; keys without a row are left out
+     * @throws SQLException if something goes wrong
+     */
+    static <T> Map<String, T> byKeysDetached(Dao<T, String> dao, String column, Collection<String> keys,
+                                             Function<T, String> keyFunction) throws SQLException {
+        return byKeys(dao, column, keys, keyFunction, true);
+    }
+
+    private static <T> Map<String, T> byKeys(Dao<T, String> dao, String column, Collection<String> keys,
+                                             Function<T, String> keyFunction, boolean detached) throws SQLException {
+        Map<String, T> rows = new HashMap<>(keys.size() * 2);
+        List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (String key : keys) {
+            if (key == null) {
+                continue;
+            }
+            chunk.add(key);
+            if (chunk.size() == CHUNK_SIZE) {
+                loadChunk(dao, column, chunk, keyFunction, detached, rows);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            loadChunk(dao, column, chunk, keyFunction, detached, rows);
+        }
+        return rows;
+    }
+
+    private static <T> void loadChunk(Dao<T, String> dao, String column, List<String> chunk, Function<T, String> keyFunction,
+                                      boolean detached, Map<String, T> rows) throws SQLException {
+        if (detached) {
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            GenericRawResults<T> results = dao.queryRaw(String.format("SELECT * FROM %s WHERE %s IN (%s)",
+                    dao.getTableName(), column, placeholders), DetachedRowMapper.of(dao), chunk.toArray(new String[0]));
+            try {
+                for (T row : results) {
+                    rows.put(keyFunction.apply(row), row);
+                }
+            } finally {
+                try {
+                    results.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } else {
+            List<SelectArg> args = new ArrayList<>(chunk.size());
+            for (String key : chunk) {
+                args.add(new SelectArg(SqlType.STRING, key));
+            }
+            for (T row : dao.queryBuilder().where().in(column, args).query()) {
+                rows.put(keyFunction.apply(row), row);
+            }
+        }
+        chunk.clear();
+    }
+
+}
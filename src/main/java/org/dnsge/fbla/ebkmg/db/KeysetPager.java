@@ -0,0 +1,421 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.ArgumentHolder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reads a sorted and searched view of a table one page at a time
+ * <p>
+ * Pages are found by keyset ({@code WHERE (sort columns, id) > (?, ?) ORDER BY sort columns, id LIMIT ?})
+ * so that reading any page costs the same no matter how deep into the table it is, and every
+ * {@link Order} has a matching index so that SQLite never sorts the table itself. The key that
+ * starts each page comes from {@link #pageBoundaries(int)}; until those are known, pages can be
+ * read by offset instead.
+ * <p>
+ * The filter is a {@link SearchIndex} search. When a search is given in {@link Order#KEY},
+ * results are read in relevance order instead.
+ *
+ * @param <T> Type of the rows
+ * @author Daniel Sage
+ * @version 0.3
+ */
+public final class KeysetPager<T> {
+
+    private final static String KEY_COLUMN = "id";
+
+    /**
+     * An order that a table can be read in
+     * <p>
+     * Ties are always broken by primary key, so every order is total
+     */
+    public final static class Order {
+
+        /**
+         * Primary key order, which is also the order rows were created in
+         */
+        public final static Order KEY = new Order(true, new String[0], new SqlType[0]);
+
+        /**
+         * Students by last name, then first name
+         */
+        public final static Order LAST_NAME = new Order(true, new String[]{"lastName", "firstName"},
+                new SqlType[]{SqlType.STRING, SqlType.STRING});
+
+        /**
+         * Students by first name, then last name
+         */
+        public final static Order FIRST_NAME = new Order(true, new String[]{"firstName", "lastName"},
+                new SqlType[]{SqlType.STRING, SqlType.STRING});
+
+        /**
+         * Ebooks by code
+         */
+        public final static Order CODE = new Order(true, new String[]{"code"}, new SqlType[]{SqlType.STRING});
+
+        /**
+         * Ebooks by assignment date, unassigned ebooks first
+         */
+        public final static Order ASSIGNMENT_DATE = new Order(true, new String[]{"IFNULL(assignmentDate, 0)"},
+                new SqlType[]{SqlType.LONG});
+
+        private final boolean ascending;
+        private final String[] expressions;
+        private final SqlType[] types;
+
+        private Order(boolean ascending, String[] expressions, SqlType[] types) {
+            this.ascending = ascending;
+            this.expressions = expressions;
+            this.types = types;
+        }
+
+        /**
+         * @param ascending Whether the order should be ascending
+         * @return This order in the given direction
+         */
+        public Order withAscending(boolean ascending) {
+            return ascending == this.ascending ? this : new Order(ascending, expressions, types);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Order order = (Order) o;
+            return ascending == order.ascending && Arrays.equals(expressions, order.expressions);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Boolean.hashCode(ascending) + Arrays.hashCode(expressions);
+        }
+    }
+
+    private final Dao<T, ?> dao;
+    private final ToIntFunction<T> keyFunction;
+    private final Order order;
+    private final String searchTable;
+    private final String filter;
+
+    KeysetPager(Dao<T, ?> dao, ToIntFunction<T> keyFunction, Order order, String searchTable, String filter) {
+        this.dao = dao;
+        this.keyFunction = keyFunction;
+        this.order = order;
+        this.searchTable = searchTable;
+        this.filter = SearchIndex.toMatchQuery(filter);
+    }
+
+    /**
+     * Creates a pager over the students table of the current connection
+     *
+     * @param order Order to read the students in
+     * @param filter Text to search student names and IDs for, or null for every student
+     * @return The pager
+     */
+    public static KeysetPager<Student> forStudents(Order order, String filter) {
+        return new KeysetPager<>(SQLiteConnector.getInstance().getStudentDao(), Student::getId, order,
+                SearchIndex.STUDENTS_TABLE, filter);
+    }
+
+    /**
+     * Creates a pager over the ebooks table of the current connection
+     *
+     * @param order Order to read the ebooks in
+     * @param filter Text to search ebook names and codes for, or null for every ebook
+     * @return The pager
+     */
+    public static KeysetPager<Ebook> forEbooks(Order order, String filter) {
+        return new KeysetPager<>(SQLiteConnector.getInstance().getEbookDao(), Ebook::getId, order,
+                SearchIndex.EBOOKS_TABLE, filter);
+    }
+
+    /**
+     * @return Number of rows that match the filter
+     * @throws SQLException if something goes wrong
+     */
+    public long count() throws SQLException {
+        QueryBuilder<T, ?> builder = dao.queryBuilder();
+        if (filter != null) {
+            addFilter(builder.where());
+        }
+        return builder.countOf();
+    }
+
+    /**
+     * Reads the rows that come after a key
+     *
+     * @param afterKey Key of the last row of the previous page, from {@link #pageBoundaries(int)},
+     *                 or null for the first page
+     * @param limit Maximum number of rows to read
+     * @return Rows in order
+     * @throws SQLException if something goes wrong
+     */
+    public List<T> pageAfter(String[] afterKey, int limit) throws SQLException {
+        if (isRankOrdered()) {
+            return pageAt(0, limit);
+        }
+
+        QueryBuilder<T, ?> builder = orderedQuery().limit((long) limit);
+        if (filter != null || afterKey != null) {
+            Where<T, ?> where = builder.where();
+            int clauses = 0;
+            if (filter != null) {
+                addFilter(where);
+                clauses++;
+            }
+            if (afterKey != null) {
+                addKeysetSeek(where, afterKey);
+                clauses++;
+            }
+            if (clauses > 1) {
+                where.and(clauses);
+            }
+        }
+        return builder.query();
+    }
+
+    /**
+     * Reads the rows at an offset
+     * <p>
+     * Slower than {@link #pageAfter(String[], int)} for deep offsets, since SQLite has to step
+     * over every skipped row
+     *
+     * @param offset Number of rows to skip
+     * @param limit Maximum number of rows to read
+     * @return Rows in order
+     * @throws SQLException if something goes wrong
+     */
+    public List<T> pageAt(long offset, int limit) throws SQLException {
+        if (isRankOrdered()) {
+            return SearchIndex.rankedPage(dao, keyFunction, searchTable, filter, offset, limit);
+        }
+
+        QueryBuilder<T, ?> builder = orderedQuery().limit((long) limit).offset(offset);
+        if (filter != null) {
+            addFilter(builder.where());
+        }
+        return builder.query();
+    }
+
+    /**
+     * Finds the key that each page starts after
+     * <p>
+     * Streams only the sort columns and keeps one key per page, so memory stays
+     * proportional to the number of pages rather than the number of rows
+     *
+     * @param pageSize Rows per page
+     * @return List where element {@code p} is the key of the last row before page {@code p};
+     * element 0 is null. Search results in relevance order have no keys, so only element 0 is returned.
+     * @throws SQLException if something goes wrong
+     * @throws InterruptedIOException if the thread is interrupted while reading
+     */
+    public List<String[]> pageBoundaries(int pageSize) throws SQLException, InterruptedIOException {
+        List<String[]> boundaries = new ArrayList<>();
+        boundaries.add(null);
+        if (isRankOrdered()) {
+            return boundaries;
+        }
+
+        StringBuilder statement = new StringBuilder("SELECT ").append(keyColumns())
+                .append(" FROM ").append(dao.getTableName());
+        String[] args = new String[0];
+        if (filter != null) {
+            statement.append(" WHERE ").append(filterClause());
+            args = new String[]{filter};
+        }
+        statement.append(" ORDER BY ").append(orderByClause());
+
+        GenericRawResults<String[]> results = dao.queryRaw(statement.toString(), args);
+        try {
+            long row = 0;
+            for (String[] key : results) {
+                row++;
+                if (row % pageSize == 0) {
+                    boundaries.add(key);
+                }
+                if (row % 10_000 == 0 && Thread.interrupted()) {
+                    throw new InterruptedIOException("Reading page boundaries was cancelled");
+                }
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return Collections.unmodifiableList(boundaries);
+    }
+
+    /**
+     * Finds where a row is, or would be, in this order
+     *
+     * @param item Row to find
+     * @return Number of matching rows that come before it, or -1 for search results in relevance order
+     * @throws SQLException if something goes wrong
+     */
+    public long positionOf(T item) throws SQLException {
+        if (isRankOrdered()) {
+            return -1;
+        }
+
+        QueryBuilder<T, ?> builder = dao.queryBuilder();
+        Where<T, ?> where = builder.where();
+        where.raw(keyComparison(order.ascending ? "<" : ">",
+                String.format("(SELECT %s FROM %s WHERE %s = ?)", keyColumns(), dao.getTableName(), KEY_COLUMN)),
+                new SelectArg(SqlType.INTEGER, keyOf(item)));
+        if (filter != null) {
+            addFilter(where);
+            where.and(2);
+        }
+        return builder.countOf();
+    }
+
+    /**
+     * Checks whether a row is in the database and matches the filter
+     *
+     * @param item Row to check
+     * @return Whether the row belongs in this view
+     * @throws SQLException if something goes wrong
+     */
+    public boolean matches(T item) throws SQLException {
+        QueryBuilder<T, ?> builder = dao.queryBuilder();
+        Where<T, ?> where = builder.where().eq(KEY_COLUMN, keyOf(item));
+        if (filter != null) {
+            addFilter(where);
+            where.and(2);
+        }
+        return builder.countOf() > 0;
+    }
+
+    /**
+     * @param item Row to get the key of
+     * @return The row's primary key
+     */
+    public int keyOf(T item) {
+        return keyFunction.applyAsInt(item);
+    }
+
+    /**
+     * @return Whether rows are read in primary key order with no filter, so new rows always come last
+     */
+    public boolean isKeyOrdered() {
+        return order.expressions.length == 0 && order.ascending && filter == null;
+    }
+
+    /**
+     * @return Whether rows are search results read in relevance order
+     */
+    private boolean isRankOrdered() {
+        return filter != null && order.equals(Order.KEY);
+    }
+
+    /**
+     * Checks whether this pager reads the same view as an order and filter
+     *
+     * @param order Order to compare
+     * @param filter Filter to compare
+     * @return Whether they match this pager's order and filter
+     */
+    public boolean reads(Order order, String filter) {
+        return this.order.equals(order) && Objects.equals(this.filter, SearchIndex.toMatchQuery(filter));
+    }
+
+    private QueryBuilder<T, ?> orderedQuery() {
+        return dao.queryBuilder().orderByRaw(orderByClause());
+    }
+
+    private String orderByClause() {
+        String direction = order.ascending ? " ASC" : " DESC";
+        StringBuilder clause = new StringBuilder();
+        for (String expression : order.expressions) {
+            clause.append(expression).append(direction).append(", ");
+        }
+        return clause.append(KEY_COLUMN).append(direction).toString();
+    }
+
+    private String keyColumns() {
+        StringBuilder columns = new StringBuilder();
+        for (String expression : order.expressions) {
+            columns.append(expression).append(", ");
+        }
+        return columns.append(KEY_COLUMN).toString();
+    }
+
+    private String keyPlaceholders() {
+        StringBuilder placeholders = new StringBuilder("(");
+        for (int i = 0; i < order.expressions.length; i++) {
+            placeholders.append("?, ");
+        }
+        return placeholders.append("?)").toString();
+    }
+
+    /**
+     * Compares the sort columns and key as a row value, which SQLite can answer with an index seek
+     */
+    private String keyComparison(String operator, String right) {
+        return String.format("(%s) %s %s", keyColumns(), operator, right);
+    }
+
+    /**
+     * Adds the condition for rows after a key
+     * <p>
+     * SQLite only seeks an expression index for a plain comparison on its first column,
+     * so that comparison is added in front of the row value comparison
+     */
+    private void addKeysetSeek(Where<T, ?> where, String[] afterKey) {
+        String comparison = keyComparison(order.ascending ? ">" : "<", keyPlaceholders());
+        if (order.expressions.length == 0) {
+            where.raw(comparison, keyArgs(afterKey, 0));
+            return;
+        }
+
+        ArgumentHolder[] args = keyArgs(afterKey, 1);
+        args[0] = keyArg(0, afterKey[0]);
+        where.raw(String.format("%s %s ? AND %s", order.expressions[0], order.ascending ? ">=" : "<=", comparison), args);
+    }
+
+    /**
+     * @param key Key from {@link #pageBoundaries(int)}
+     * @param offset Number of empty places to leave at the start of the array
+     * @return Arguments for {@link #keyPlaceholders()}
+     */
+    private ArgumentHolder[] keyArgs(String[] key, int offset) {
+        ArgumentHolder[] args = new ArgumentHolder[offset + key.length];
+        for (int i = 0; i < order.expressions.length; i++) {
+            args[offset + i] = keyArg(i, key[i]);
+        }
+        args[offset + key.length - 1] = new SelectArg(SqlType.INTEGER, Integer.parseInt(key[key.length - 1]));
+        return args;
+    }
+
+    private ArgumentHolder keyArg(int expression, String value) {
+        return order.types[expression] == SqlType.LONG
+                ? new SelectArg(SqlType.LONG, Long.parseLong(value))
+                : new SelectArg(SqlType.STRING, value);
+    }
+
+    private void addFilter(Where<T, ?> where) {
+        where.raw(filterClause(), new SelectArg(SqlType.STRING, filter));
+    }
+
+    private String filterClause() {
+        return String.format("%s IN (SELECT rowid FROM %s WHERE %s MATCH ?)", KEY_COLUMN, searchTable, searchTable);
+    }
+
+}
@@ -0,0 +1,504 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Pairs, unpairs, transfers and swaps ebooks between students
+ * <p>
+ * Every operation, including a whole batch of pairings, runs in one transaction, so it
+ * either happens completely or not at all. Writes are ordered so that no two students ever
+ * hold the same ebook code, even for a moment.
+ * <p>
+ * Students and ebooks are shared with other threads through the {@link IdentityMap}, so an
+ * operation changes private copies of them and writes those. Once the transaction commits,
+ * each shared object takes its copy's state in one step under its own monitor, before the
+ * operation returns; a rolled back operation leaves them untouched. Deleted objects are only
+ * taken out of the identity map and key indexes at that point too.
+ * <p>
+ * An ebook that is given to a student gets the current date as its assignment date, and an
+ * ebook that is taken away from one without going to another student loses it.
+ *
+ * @author Daniel Sage
+ * @version 0.4
+ */
+public final class PairingService {
+
+    private PairingService() { }
+
+    /**
+     * A student and the ebook they should have, for {@link #pairAll(Collection)}
+     */
+    public final static class Pairing {
+        private final Student student;
+        private final Ebook ebook;
+
+        /**
+         * Pairing constructor
+         *
+         * @param student Student to give the ebook to
+         * @param ebook Ebook to give them
+         */
+        public Pairing(Student student, Ebook ebook) {
+            this.student = student;
+            this.ebook = ebook;
+        }
+
+        public Student getStudent() {
+            return student;
+        }
+
+        public Ebook getEbook() {
+            return ebook;
+        }
+    }
+
+    /**
+     * Every student and ebook changed by an operation, with how they were before it
+     */
+    public final static class Changes {
+        // By database ID, in the order they were first changed
+        private final Map<Integer, Change<Student>> students = new LinkedHashMap<>();
+        private final Map<Integer, Change<Ebook>> ebooks = new LinkedHashMap<>();
+
+        /**
+         * @return Students that were changed, in the order they were first changed
+         */
+        public List<Student> getStudents() {
+            return sharedObjects(students);
+        }
+
+        /**
+         * @return Ebooks that were changed, in the order they were first changed
+         */
+        public List<Ebook> getEbooks() {
+            return sharedObjects(ebooks);
+        }
+
+        /**
+         * @return Whether nothing was changed
+         */
+        public boolean isEmpty() {
+            return students.isEmpty() && ebooks.isEmpty();
+        }
+
+        /**
+         * Starts changing a student, if this operation hasn't already
+         *
+         * @param student Shared student
+         * @return The copy to change
+         */
+        private Student touch(Student student) {
+            return students.computeIfAbsent(student.getId(), id -> new Change<>(student, student.copy(), student.copy())).working;
+        }
+
+        /**
+         * Starts changing an ebook, if this operation hasn't already
+         *
+         * @param ebook Shared ebook
+         * @return The copy to change
+         */
+        private Ebook touch(Ebook ebook) {
+            return ebooks.computeIfAbsent(ebook.getId(), id -> new Change<>(ebook, ebook.copy(), ebook.copy())).working;
+        }
+
+        /**
+         * @param student Shared student
+         * @return The student as this operation has left it so far
+         */
+        private Student current(Student student) {
+            Change<Student> change = students.get(student.getId());
+            return change != null ? change.working : student;
+        }
+
+        /**
+         * Gives every shared object its copy's state, once the changes are committed
+         */
+        private void publish() {
+            SQLiteConnector connector = SQLiteConnector.getInstance();
+            IdentityMap identityMap = connector.getIdentityMap();
+            for (Change<Student> change : students.values()) {
+                change.shared.copyFrom(change.working);
+                if (change.deleted) {
+                    connector.forget(change.shared);
+                } else {
+                    // Indexes it again under its new ebook code
+                    identityMap.put(Student.class, change.shared.getId(), change.shared);
+                }
+            }
+            for (Change<Ebook> change : ebooks.values()) {
+                change.shared.copyFrom(change.working);
+                if (change.deleted) {
+                    connector.forget(change.shared);
+                } else {
+                    identityMap.put(Ebook.class, change.shared.getId(), change.shared);
+                }
+            }
+        }
+
+        private static <T> List<T> sharedObjects(Map<Integer, Change<T>> changes) {
+            List<T> shared = new ArrayList<>(changes.size());
+            for (Change<T> change : changes.values()) {
+                shared.add(change.shared);
+            }
+            return Collections.unmodifiableList(shared);
+        }
+    }
+
+    /**
+     * One changed object: the shared instance, a copy of how it was, and the copy being changed
+     *
+     * @param <T> Student or Ebook
+     */
+    private final static class Change<T> {
+        private final T shared;
+        private final T before;
+        private final T working;
+        private boolean deleted;
+
+        Change(T shared, T before, T working) {
+            this.shared = shared;
+            this.before = before;
+            this.working = working;
+        }
+    }
+
+    /**
+     * Operations on the objects of one transaction
+     */
+    @FunctionalInterface
+    private interface Work {
+        void apply(Batch batch) throws SQLException;
+    }
+
+    /**
+     * Gives an ebook to a student
+     * <p>
+     * The student's previous ebook, if any, is unpaired
+     *
+     * @param student Student to give the ebook to
+     * @param ebook Ebook to give them
+     * @return Changed objects; empty if the student already had the ebook
+     * @throws SQLException if something goes wrong; nothing is changed
+     * @throws IllegalStateException if the ebook belongs to another student
+     */
+    public static Changes pair(Student student, Ebook ebook) throws SQLException {
+        // Refuse before starting a transaction, since a rolled back one reloads the key indexes
+        checkNotOwnedByOther(student, ebook);
+        return run(batch -> batch.pair(student, ebook, false));
+    }
+
+    /**
+     * Gives an ebook to a student, taking it from whoever has it
+     *
+     * @param ebook Ebook to give
+     * @param student Student to give it to
+     * @return Changed objects; empty if the student already had the ebook
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes transfer(Ebook ebook, Student student) throws SQLException {
+        return run(batch -> batch.pair(student, ebook, true));
+    }
+
+    /**
+     * Gives many ebooks to many students in one transaction
+     * <p>
+     * Pairings are applied in order, each like {@link #transfer(Ebook, Student)}
+     *
+     * @param pairings Pairings to make
+     * @return Changed objects
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes pairAll(Collection<Pairing> pairings) throws SQLException {
+        return run(batch -> {
+            batch.preload(pairings);
+            for (Pairing pairing : pairings) {
+                batch.pair(pairing.student, pairing.ebook, true);
+            }
+        });
+    }
+
+    /**
+     * Takes a student's ebook away
+     *
+     * @param student Student to unpair
+     * @return Changed objects; empty if the student had no ebook
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes unpair(Student student) throws SQLException {
+        return run(batch -> batch.unpair(student));
+    }
+
+    /**
+     * Exchanges the ebooks of two students
+     *
+     * @param first A student
+     * @param second Another student
+     * @return Changed objects
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes swap(Student first, Student second) throws SQLException {
+        return run(batch -> batch.swap(first, second));
+    }
+
+    /**
+     * Deletes a student, unpairing their ebook first
+     *
+     * @param student Student to delete
+     * @return Changed objects, including the deleted student
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes deleteStudent(Student student) throws SQLException {
+        return run(batch -> {
+            batch.unpair(student);
+            batch.changes.touch(student);
+            batch.changes.students.get(student.getId()).deleted = true;
+            SQLiteConnector.getInstance().deleteDetached(student);
+        });
+    }
+
+    /**
+     * Deletes an ebook, taking it from its owner first
+     *
+     * @param ebook Ebook to delete
+     * @return Changed objects, including the deleted ebook
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes deleteEbook(Ebook ebook) throws SQLException {
+        return run(batch -> {
+            Student owner = batch.ownerOf(ebook);
+            if (owner != null) {
+                batch.write(batch.takeAway(owner));
+            }
+            batch.changes.touch(ebook);
+            batch.changes.ebooks.get(ebook.getId()).deleted = true;
+            SQLiteConnector.getInstance().deleteDetached(ebook);
+        });
+    }
+
+    /**
+     * Reverses an earlier operation, putting every object it changed back how it was
+     * <p>
+     * Only correct if none of those objects were changed again since. Deleted rows aren't
+     * brought back.
+     *
+     * @param changes Changes returned by the operation
+     * @return Changed objects
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    public static Changes undo(Changes changes) throws SQLException {
+        return run(batch -> {
+            // Codes move between these students, so free every code before handing any back
+            for (Change<Student> change : changes.students.values()) {
+                Student student = batch.changes.touch(change.shared);
+                String code = student.getEbookCode();
+                if (code != null && !code.equals(change.before.getEbookCode())) {
+                    student.clearEbook();
+                    batch.write(student);
+                }
+            }
+            for (Change<Ebook> change : changes.ebooks.values()) {
+                Ebook ebook = batch.changes.touch(change.shared);
+                ebook.copyFrom(change.before);
+                batch.write(ebook);
+            }
+            for (Change<Student> change : changes.students.values()) {
+                Student student = batch.changes.touch(change.shared);
+                student.copyFrom(change.before);
+                batch.write(student);
+            }
+        });
+    }
+
+    /**
+     * Runs operations in one transaction, then publishes the changed objects if it commits
+     *
+     * @param work Operations to run
+     * @return Changed objects
+     * @throws SQLException if something goes wrong; nothing is changed
+     */
+    private static Changes run(Work work) throws SQLException {
+        Batch batch = new Batch();
+        try {
+            SQLiteConnector.getInstance().callInTransaction((Callable<Void>) () -> {
+                work.apply(batch);
+                return null;
+            });
+        } catch (SQLException e) {
+            // TransactionManager wraps unchecked exceptions
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        batch.changes.publish();
+        return batch.changes;
+    }
+
+    /**
+     * @param student Student to give an ebook to
+     * @param ebook Ebook to give them
+     * @throws IllegalStateException if the ebook belongs to another student
+     */
+    private static void checkNotOwnedByOther(Student student, Ebook ebook) {
+        Student owner = ebook.getOwner();
+        if (owner != null && owner.getId() != student.getId()) {
+            throw alreadyOwned(ebook, owner);
+        }
+    }
+
+    private static IllegalStateException alreadyOwned(Ebook ebook, Student owner) {
+        return new IllegalStateException(String.format("%s already belongs to %s %s",
+                ebook.getCode(), owner.getFirstName(), owner.getLastName()));
+    }
+
+    /**
+     * Changes made so far in one transaction
+     * <p>
+     * Operations take shared objects and change the batch's copies of them
+     */
+    private final static class Batch {
+        private final Changes changes = new Changes();
+        // Owner of each ebook code looked up or changed in this batch, null for none
+        private final Map<String, Student> owners = new HashMap<>();
+
+        /**
+         * Loads the owners and owned ebooks of a batch of pairings with a few queries,
+         * instead of a few per pairing
+         *
+         * @param pairings Pairings about to be made
+         * @throws SQLException if something goes wrong
+         */
+        void preload(Collection<Pairing> pairings) throws SQLException {
+            List<Student> students = new ArrayList<>(pairings.size());
+            Set<String> codes = new LinkedHashSet<>();
+            for (Pairing pairing : pairings) {
+                students.add(pairing.student);
+                codes.add(pairing.ebook.getCode());
+            }
+            Student.preloadEbooks(students);
+
+            owners.putAll(Student.whoOwnsAll(codes));
+            for (String code : codes) {
+                owners.putIfAbsent(code, null);
+            }
+        }
+
+        Student ownerOf(Ebook ebook) {
+            String code = ebook.getCode();
+            if (owners.containsKey(code)) {
+                return owners.get(code);
+            }
+            Student owner = ebook.getOwner();
+            owners.put(code, owner);
+            return owner;
+        }
+
+        /**
+         * @return The student's copy
+         */
+        Student give(Student student, Ebook ebook) {
+            Student copy = takeAway(student);
+            copy.setEbook(ebook);
+            owners.put(ebook.getCode(), student);
+            return copy;
+        }
+
+        /**
+         * @return The student's copy
+         */
+        Student takeAway(Student student) {
+            Student copy = changes.touch(student);
+            String code = copy.getEbookCode();
+            copy.clearEbook();
+            if (code != null) {
+                owners.put(code, null);
+            }
+            return copy;
+        }
+
+        void pair(Student student, Ebook ebook, boolean takeFromOwner) throws SQLException {
+            Student owner = ownerOf(ebook);
+            if (owner != null && owner.getId() == student.getId()) {
+                return;
+            }
+            if (owner != null) {
+                if (!takeFromOwner) {
+                    throw alreadyOwned(ebook, owner);
+                }
+                write(takeAway(owner));
+            }
+
+            Student copy = changes.touch(student);
+            Ebook ebookCopy = changes.touch(ebook);
+            Ebook previous = copy.getOwnedEbook();
+            if (previous != null) {
+                Ebook previousCopy = changes.touch(previous);
+                previousCopy.setAssignmentDate(null);
+                write(previousCopy);
+            }
+
+            ebookCopy.setAssignmentDate(new Date());
+            write(give(student, ebook));
+            write(ebookCopy);
+        }
+
+        void unpair(Student student) throws SQLException {
+            Ebook ebook = changes.current(student).getOwnedEbook();
+            if (ebook == null) {
+                return;
+            }
+
+            Ebook ebookCopy = changes.touch(ebook);
+            ebookCopy.setAssignmentDate(null);
+            write(takeAway(student));
+            write(ebookCopy);
+        }
+
+        void swap(Student first, Student second) throws SQLException {
+            Ebook firstEbook = changes.current(first).getOwnedEbook();
+            Ebook secondEbook = changes.current(second).getOwnedEbook();
+            changes.touch(first);
+            changes.touch(second);
+
+            // Free the first student's code before the second student takes it
+            write(takeAway(first));
+            giveOrClear(second, firstEbook);
+            giveOrClear(first, secondEbook);
+        }
+
+        private void giveOrClear(Student student, Ebook ebook) throws SQLException {
+            if (ebook != null) {
+                Ebook ebookCopy = changes.touch(ebook);
+                ebookCopy.setAssignmentDate(new Date());
+                write(give(student, ebook));
+                write(ebookCopy);
+            } else {
+                write(takeAway(student));
+            }
+        }
+
+        void write(Student copy) throws SQLException {
+            if (SQLiteConnector.getInstance().updateDetached(copy) == 0) {
+                throw new SQLException("Student " + copy.getStudentId() + " no longer exists");
+            }
+        }
+
+        void write(Ebook copy) throws SQLException {
+            if (SQLiteConnector.getInstance().updateDetached(copy) == 0) {
+                throw new SQLException("Ebook " + copy.getCode() + " no longer exists");
+            }
+        }
+    }
+
+}
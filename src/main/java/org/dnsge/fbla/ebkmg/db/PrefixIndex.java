@@ -0,0 +1,490 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of one unique text column, such as {@code studentId} or {@code code}
+ * <p>
+ * Keys are held in sorted arrays with the primary key of each row beside them, so exact
+ * and prefix lookups are binary searches that never touch SQLite. Writes go into a small
+ * overlay of added and removed keys, which is folded back into the arrays once it grows.
+ * <p>
+ * Until the first {@link #load()} finishes, lookups are answered with SQL against the key
+ * column's unique index, so a large table can be loaded in the background; those lookups throw
+ * the {@link SQLException} if the query fails rather than report a key as missing. Writes made
+ * while a load is reading the table are replayed onto what it read, so none are lost.
+ * <p>
+ * Kept current by {@link IndexedDao}. Safe to use from any thread.
+ *
+ * @author Daniel Sage
+ * @version 0.3
+ */
+public final class PrefixIndex {
+
+    private final static int MIN_COMPACT_THRESHOLD = 1024;
+    private final static String[] NO_KEYS = new String[0];
+    private final static int[] NO_IDS = new int[0];
+
+    private final String keyColumn;
+    private final Dao<?, ?> dao;
+    private volatile boolean loaded;
+
+    // Loaded rows: keys sorted, ids[i] belongs to keys[i], idOrder holds positions sorted by id
+    private String[] keys = NO_KEYS;
+    private int[] ids = NO_IDS;
+    private int[] idOrder = NO_IDS;
+    private final BitSet removed = new BitSet();
+    private int removedCount;
+
+    // Rows written since the arrays were built
+    private final TreeMap<String, Integer> addedByKey = new TreeMap<>();
+    private final Map<Integer, String> addedById = new HashMap<>();
+
+    // Writes made while a load is running; null otherwise
+    private List<Write> journal;
+    private int loadsRunning;
+
+    /**
+     * PrefixIndex constructor
+     *
+     * @param keyColumn Column that is indexed
+     * @param dao DAO of the table, used to load the index and until then to answer lookups
+     */
+    PrefixIndex(String keyColumn, Dao<?, ?> dao) {
+        this.keyColumn = keyColumn;
+        this.dao = dao;
+    }
+
+    /**
+     * Replaces the index with every key in the table
+     *
+     * @throws SQLException if something goes wrong; lookups keep working as before
+     */
+    void load() throws SQLException {
+        int journalStart;
+        synchronized (this) {
+            if (journal == null) {
+                journal = new ArrayList<>();
+            }
+            journalStart = journal.size();
+            loadsRunning++;
+        }
+
+        Map<String, Integer> rows;
+        try {
+            rows = readRows();
+        } catch (SQLException | RuntimeException e) {
+            finishLoad();
+            throw e;
+        }
+
+        synchronized (this) {
+            rebuild(rows);
+            for (Write write : journal.subList(journalStart, journal.size())) {
+                apply(write.id, write.key);
+            }
+            loaded = true;
+            finishLoad();
+        }
+    }
+
+    /**
+     * Drops the journal once no load needs it, whether or not the load worked, so it only
+     * grows while a table is being read
+     */
+    private synchronized void finishLoad() {
+        loadsRunning--;
+        if (loadsRunning == 0) {
+            journal = null;
+        }
+    }
+
+    /**
+     * @return Whether the index has been loaded, rather than answering lookups with SQL
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private Map<String, Integer> readRows() throws SQLException {
+        List<String> loadedKeys = new ArrayList<>();
+        List<Integer> loadedIds = new ArrayList<>();
+        GenericRawResults<String[]> results = dao.queryRaw(String.format(
+                "SELECT %s, id FROM %s WHERE %s IS NOT NULL", keyColumn, dao.getTableName(), keyColumn));
+        try {
+            for (String[] row : results) {
+                loadedKeys.add(row[0]);
+                loadedIds.add(Integer.parseInt(row[1]));
+            }
+        } finally {
+            close(results);
+        }
+
+        Map<String, Integer> rows = new HashMap<>(loadedKeys.size() * 2);
+        for (int i = 0; i < loadedKeys.size(); i++) {
+            rows.put(loadedKeys.get(i), loadedIds.get(i));
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the row with a key
+     *
+     * @param key Key to find
+     * @return Primary key of the row, or -1 if there isn't one
+     * @throws SQLException if the index isn't loaded yet and the query fails
+     */
+    public int idOf(String key) throws SQLException {
+        if (key == null) {
+            return -1;
+        }
+        if (!loaded) {
+            return queryIdOf(key);
+        }
+        return loadedIdOf(key);
+    }
+
+    private synchronized int loadedIdOf(String key) {
+
+        Integer added = addedByKey.get(key);
+        if (added != null) {
+            return added;
+        }
+        int position = Arrays.binarySearch(keys, key);
+        return position >= 0 && !removed.get(position) ? ids[position] : -1;
+    }
+
+    /**
+     * Checks whether a row has a key
+     *
+     * @param key Key to check for
+     * @return Whether a row has that key
+     * @throws SQLException if the index isn't loaded yet and the query fails
+     */
+    public boolean contains(String key) throws SQLException {
+        return idOf(key) >= 0;
+    }
+
+    /**
+     * Finds keys that start with some text, for type-ahead
+     *
+     * @param prefix Text the keys must start with
+     * @param limit Maximum number of keys to return
+     * @return Matching keys in sorted order
+     * @throws SQLException if the index isn't loaded yet and the query fails
+     */
+    public List<String> keysWithPrefix(String prefix, int limit) throws SQLException {
+        if (prefix == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        if (!loaded) {
+            return queryKeysWithPrefix(prefix, limit);
+        }
+        return loadedKeysWithPrefix(prefix, limit);
+    }
+
+    private synchronized List<String> loadedKeysWithPrefix(String prefix, int limit) {
+        List<String> found = new ArrayList<>(Math.min(limit, 64));
+
+        int position = Arrays.binarySearch(keys, prefix);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        Iterator<String> added = addedByKey.tailMap(prefix, true).keySet().iterator();
+        String nextAdded = nextWithPrefix(added, prefix);
+
+        // Merge the loaded keys with the added ones, both already sorted
+        while (found.size() < limit) {
+            while (position < keys.length && removed.get(position)) {
+                position++;
+            }
+            String nextLoaded = position < keys.length && keys[position].startsWith(prefix) ? keys[position] : null;
+            if (nextLoaded == null && nextAdded == null) {
+                break;
+            }
+
+            if (nextAdded == null || (nextLoaded != null && nextLoaded.compareTo(nextAdded) < 0)) {
+                found.add(nextLoaded);
+                position++;
+            } else {
+                found.add(nextAdded);
+                nextAdded = nextWithPrefix(added, prefix);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Copies every key
+     *
+     * @return Mutable set of every key
+     * @throws SQLException if the index isn't loaded yet and the query fails
+     */
+    public Set<String> allKeys() throws SQLException {
+        if (!loaded) {
+            return queryAllKeys();
+        }
+        return loadedAllKeys();
+    }
+
+    private synchronized Set<String> loadedAllKeys() {
+        Set<String> all = new HashSet<>((keys.length + addedByKey.size()) * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (!removed.get(i)) {
+                all.add(keys[i]);
+            }
+        }
+        all.addAll(addedByKey.keySet());
+        return all;
+    }
+
+    /**
+     * @return Number of keys
+     * @throws SQLException if the index isn't loaded yet and the query fails
+     */
+    public int size() throws SQLException {
+        if (!loaded) {
+            return querySize();
+        }
+        return loadedSize();
+    }
+
+    private synchronized int loadedSize() {
+        return keys.length - removedCount + addedByKey.size();
+    }
+
+    /**
+     * Records that a row was created or changed
+     *
+     * @param id Primary key of the row
+     * @param key The row's key, or null if it doesn't have one
+     */
+    synchronized void put(int id, String key) {
+        record(id, key);
+        apply(id, key);
+    }
+
+    /**
+     * Records that a row was deleted
+     *
+     * @param id Primary key of the row
+     */
+    synchronized void removeId(int id) {
+        record(id, null);
+        apply(id, null);
+    }
+
+    private void record(int id, String key) {
+        if (journal != null) {
+            journal.add(new Write(id, key));
+        }
+    }
+
+    /**
+     * Puts a row's key into the overlay, or takes the row out if it has no key
+     */
+    private void apply(int id, String key) {
+        String current = keyOf(id);
+        if (current != null && current.equals(key)) {
+            return;
+        }
+
+        remove(id);
+        if (key != null) {
+            addedByKey.put(key, id);
+            addedById.put(id, key);
+            compactIfNeeded();
+        }
+    }
+
+    private void remove(int id) {
+        String added = addedById.remove(id);
+        if (added != null) {
+            addedByKey.remove(added);
+            return;
+        }
+
+        int position = loadedPositionOf(id);
+        if (position >= 0 && !removed.get(position)) {
+            removed.set(position);
+            removedCount++;
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * @param id Primary key of a row
+     * @return The row's key, or null if it isn't indexed
+     */
+    private String keyOf(int id) {
+        String added = addedById.get(id);
+        if (added != null) {
+            return added;
+        }
+        int position = loadedPositionOf(id);
+        return position >= 0 && !removed.get(position) ? keys[position] : null;
+    }
+
+    /**
+     * Binary searches {@link #idOrder} for a row that was loaded into the arrays
+     *
+     * @param id Primary key of the row
+     * @return Position of the row in {@link #keys}, or -1
+     */
+    private int loadedPositionOf(int id) {
+        int low = 0;
+        int high = idOrder.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = ids[idOrder[middle]];
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return idOrder[middle];
+            }
+        }
+        return -1;
+    }
+
+    private void compactIfNeeded() {
+        if (addedByKey.size() + removedCount <= Math.max(MIN_COMPACT_THRESHOLD, keys.length / 8)) {
+            return;
+        }
+
+        Map<String, Integer> rows = new HashMap<>(loadedSize() * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (!removed.get(i)) {
+                rows.put(keys[i], ids[i]);
+            }
+        }
+        rows.putAll(addedByKey);
+        rebuild(rows);
+    }
+
+    /**
+     * Rebuilds the arrays from a set of rows and empties the overlay
+     *
+     * @param rows Primary key of each key
+     */
+    private void rebuild(Map<String, Integer> rows) {
+        String[] newKeys = rows.keySet().toArray(NO_KEYS);
+        Arrays.sort(newKeys);
+        int[] newIds = new int[newKeys.length];
+        for (int i = 0; i < newKeys.length; i++) {
+            newIds[i] = rows.get(newKeys[i]);
+        }
+
+        Integer[] byId = new Integer[newKeys.length];
+        for (int i = 0; i < byId.length; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, (a, b) -> Integer.compare(newIds[a], newIds[b]));
+        int[] newIdOrder = new int[byId.length];
+        for (int i = 0; i < byId.length; i++) {
+            newIdOrder[i] = byId[i];
+        }
+
+        keys = newKeys;
+        ids = newIds;
+        idOrder = newIdOrder;
+        removed.clear();
+        removedCount = 0;
+        addedByKey.clear();
+        addedById.clear();
+    }
+
+    private int queryIdOf(String key) throws SQLException {
+        GenericRawResults<String[]> results = dao.queryRaw(String.format("SELECT id FROM %s WHERE %s = ?",
+                dao.getTableName(), keyColumn), key);
+        try {
+            String[] row = results.getFirstResult();
+            return row != null ? Integer.parseInt(row[0]) : -1;
+        } finally {
+            close(results);
+        }
+    }
+
+    private List<String> queryKeysWithPrefix(String prefix, int limit) throws SQLException {
+        List<String> found = new ArrayList<>(Math.min(limit, 64));
+        // Reads forward through the unique index from the prefix, stopping at the first key without it
+        GenericRawResults<String[]> results = dao.queryRaw(String.format("SELECT %1$s FROM %2$s WHERE %1$s >= ? ORDER BY %1$s LIMIT %3$d",
+                keyColumn, dao.getTableName(), limit), prefix);
+        try {
+            for (String[] row : results) {
+                if (!row[0].startsWith(prefix)) {
+                    break;
+                }
+                found.add(row[0]);
+            }
+        } finally {
+            close(results);
+        }
+        return found;
+    }
+
+    private Set<String> queryAllKeys() throws SQLException {
+        Set<String> all = new HashSet<>();
+        GenericRawResults<String[]> results = dao.queryRaw(String.format("SELECT %1$s FROM %2$s WHERE %1$s IS NOT NULL",
+                keyColumn, dao.getTableName()));
+        try {
+            for (String[] row : results) {
+                all.add(row[0]);
+            }
+        } finally {
+            close(results);
+        }
+        return all;
+    }
+
+    private int querySize() throws SQLException {
+        return (int) dao.queryRawValue(String.format("SELECT COUNT(%s) FROM %s", keyColumn, dao.getTableName()));
+    }
+
+    private static void close(GenericRawResults<?> results) {
+        try {
+            results.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String nextWithPrefix(Iterator<String> keys, String prefix) {
+        if (keys.hasNext()) {
+            String key = keys.next();
+            if (key.startsWith(prefix)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A write made while the index was being loaded
+     */
+    private final static class Write {
+        private final int id;
+        private final String key;
+
+        Write(int id, String key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+
+}
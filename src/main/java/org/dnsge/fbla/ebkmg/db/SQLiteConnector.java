@@ -1,28 +1,50 @@
 package org.dnsge.fbla.ebkmg.db;
 
 import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.support.ConnectionSource;
-import javafx.beans.property.SimpleBooleanProperty;
+import com.j256.ormlite.table.TableUtils;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * SQLiteConnector singleton class
  *
  * @author Daniel Sage
- * @version 0.2
+ * @version 0.11
  */
 public final class SQLiteConnector {
     private static SQLiteConnector ourInstance = new SQLiteConnector();
-    private SimpleBooleanProperty connected = new SimpleBooleanProperty(false);
+    private volatile boolean connected = false;
+    private final List<Consumer<Boolean>> connectionListeners = new CopyOnWriteArrayList<>();
     private ConnectionSource connectionSource;
-    private Dao<Student, String> studentDao;
-    private Dao<Ebook, String> ebookDao;
+    private IndexedDao<Student> studentDao;
+    private IndexedDao<Ebook> ebookDao;
+    private Dao<Student, String> timedStudentDao;
+    private Dao<Ebook, String> timedEbookDao;
+    private IdentityMap identityMap = new IdentityMap(IdentityMap.DEFAULT_CAPACITY);
+    private final DatabaseExecutor indexLoader = new DatabaseExecutor(Runnable::run);
+    private CompletableFuture<Void> indexesLoaded = CompletableFuture.completedFuture(null);
 
-    private SQLiteConnector() { }
+    private SQLiteConnector() {
+        // Read through the connector, since each connection gets a new identity map
+        Metrics.gauge("identityMap.size", () -> getIdentityMap().sizeAll());
+        Metrics.gauge("identityMap.hits", () -> getIdentityMap().getHitCount());
+        Metrics.gauge("identityMap.misses", () -> getIdentityMap().getMissCount());
+        Metrics.gauge("identityMap.evictions", () -> getIdentityMap().getEvictionCount());
+    }
 
     /**
      * Gets singleton instance
@@ -32,26 +54,121 @@ public final class SQLiteConnector {
     public static SQLiteConnector getInstance() { return ourInstance; }
 
     /**
-     * Connects to a database
+     * Connects to a database using the {@link ConnectionProfile#POOLED_WAL} profile
      * <p>
      * Closes previous connection if already connected
      *
      * @param connectionUrl Connection URL
      * @throws SQLException if there is an issue connecting to the database
      * @throws IOException if something goes wrong
+     * @see #connect(String, ConnectionProfile)
      */
     public void connect(String connectionUrl) throws SQLException, IOException {
+        connect(connectionUrl, ConnectionProfile.POOLED_WAL);
+    }
+
+    /**
+     * Connects to a database
+     * <p>
+     * Closes previous connection if already connected. Creates the tables
+     * if they don't exist yet and migrates the schema to the current version,
+     * which can take a while on a large file, so the GUI calls this from a
+     * {@link DatabaseExecutor}. The student ID and ebook code indexes are
+     * loaded in the background afterwards; see {@link #awaitIndexes(long, TimeUnit)}.
+     *
+     * @param connectionUrl Connection URL
+     * @param profile {@link ConnectionProfile} describing pooling and pragmas
+     * @throws SQLException if there is an issue connecting to the database
+     * @throws IOException if something goes wrong
+     */
+    public synchronized void connect(String connectionUrl, ConnectionProfile profile) throws SQLException, IOException {
         disconnectIfConnected();
 
-        connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + connectionUrl);
-        connected.set(true);
+        ConnectionSource newConnectionSource;
+        if (profile.isPooled()) {
+            newConnectionSource = new TunedConnectionSource("jdbc:sqlite:" + connectionUrl, profile);
+        } else {
+            newConnectionSource = new JdbcConnectionSource("jdbc:sqlite:" + connectionUrl);
+        }
 
         try {
-            studentDao = DaoManager.createDao(connectionSource, Student.class);
-            ebookDao = DaoManager.createDao(connectionSource, Ebook.class);
-        } catch (SQLException e) {
-            e.printStackTrace();
+            // Create database tables if they don't exist and upgrade older files in place
+            TableUtils.createTableIfNotExists(newConnectionSource, Student.class);
+            TableUtils.createTableIfNotExists(newConnectionSource, Ebook.class);
+            SchemaMigrator.migrate(newConnectionSource);
+
+            // Every DAO of this connection shares one identity map
+            identityMap = new IdentityMap(IdentityMap.DEFAULT_CAPACITY);
+            identityMap.registerType(Student.class, Student::getId);
+            identityMap.registerKey(Student.class, "studentId", Student::getStudentId);
+            identityMap.registerKey(Student.class, "ebookCode", Student::getEbookCode);
+            identityMap.registerType(Ebook.class, Ebook::getId);
+            identityMap.registerKey(Ebook.class, "code", Ebook::getCode);
+
+            studentDao = new IndexedDao<>(newConnectionSource, Student.class, "studentId",
+                    Student::getId, Student::getStudentId);
+            ebookDao = new IndexedDao<>(newConnectionSource, Ebook.class, "code",
+                    Ebook::getId, Ebook::getCode);
+            studentDao.setObjectCache(identityMap);
+            ebookDao.setObjectCache(identityMap);
+            timedStudentDao = TimedDao.wrap(studentDao, "students");
+            timedEbookDao = TimedDao.wrap(ebookDao, "ebooks");
+        } catch (SQLException | RuntimeException e) {
+            newConnectionSource.closeQuietly();
+            throw e;
         }
+
+        // Only announce the connection once it can be used
+        connectionSource = newConnectionSource;
+        setConnected(true);
+        indexesLoaded = CompletableFuture.allOf(loadIndex(studentDao), loadIndex(ebookDao));
+    }
+
+    /**
+     * Loads a DAO's index in the background; until it's loaded, lookups use SQL
+     */
+    private CompletableFuture<Void> loadIndex(IndexedDao<?> dao) {
+        DatabaseTask<Void> task = indexLoader.submit("Loading " + dao.getTableName() + " index", () -> {
+            dao.reloadIndex();
+            return null;
+        });
+        task.onFailure(Throwable::printStackTrace);
+        return task.getResult();
+    }
+
+    /**
+     * Waits for the student ID and ebook code indexes of the current connection to be loaded
+     * <p>
+     * Lookups are correct before then, just slower, so only code that measures them needs to wait
+     *
+     * @param timeout Longest time to wait
+     * @param unit Unit of {@code timeout}
+     * @return Whether both indexes are loaded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIndexes(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            indexesLoaded.get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs database writes in one transaction
+     * <p>
+     * If the transaction is rolled back, the student ID and ebook code indexes are
+     * reloaded so they don't keep keys that were never committed
+     *
+     * @param callable Writes to run
+     * @param <T> Type of the result
+     * @return Result of the callable
+     * @throws SQLException if something goes wrong; nothing is written
+     */
+    public <T> T callInTransaction(Callable<T> callable) throws SQLException {
+        return studentDao.reloadOnFailure(() -> ebookDao.reloadOnFailure(
+                () -> TransactionManager.callInTransaction(getConnectionSource(), callable)));
     }
 
     /**
@@ -62,8 +179,11 @@ public final class SQLiteConnector {
      */
     private void disconnect() throws IOException {
         if (isConnected()) {
+            // Index loads still reading the old file fail quietly
+            indexLoader.cancelAll();
             connectionSource.close();
-            connected.set(false);
+            identityMap.clearAll();
+            setConnected(false);
         } else
             throw new IllegalStateException("Not yet connected to SQLite database");
     }
@@ -73,7 +193,7 @@ public final class SQLiteConnector {
      *
      * @throws IOException if something goes wrong
      */
-    public void disconnectIfConnected() throws IOException {
+    public synchronized void disconnectIfConnected() throws IOException {
         try {
             disconnect();
         } catch (IllegalStateException ignored) {}
@@ -83,7 +203,7 @@ public final class SQLiteConnector {
      * @return If currently connected to a database
      */
     public boolean isConnected() {
-        return connected.getValue();
+        return connected;
     }
 
     /**
@@ -101,31 +221,142 @@ public final class SQLiteConnector {
     }
 
     /**
-     * @return The {@code connected} SimpleBooleanProperty
-     * @see SimpleBooleanProperty
+     * Registers a listener for when the connection is opened or closed
+     * <p>
+     * Listeners run on the thread that called {@link #connect(String)} or
+     * {@link #disconnectIfConnected()}
+     *
+     * @param listener Called with whether there is now a connection
      */
-    public SimpleBooleanProperty getConnectedProperty() {
-        return connected;
+    public void addConnectionListener(Consumer<Boolean> listener) {
+        connectionListeners.add(listener);
+    }
+
+    private void setConnected(boolean connected) {
+        if (this.connected == connected) {
+            return;
+        }
+        this.connected = connected;
+        for (Consumer<Boolean> listener : connectionListeners) {
+            listener.accept(connected);
+        }
     }
 
     /**
      * Gets the current active {@code Student} DAO
+     * <p>
+     * Every call through it is timed in {@link Metrics} by {@link TimedDao}
      *
      * @return Active {@code Student} DAO
      * @see Dao
      */
     public Dao<Student, String> getStudentDao() {
-        return studentDao;
+        return timedStudentDao;
+    }
+
+    /**
+     * Writes a copy of a shared Student without changing the shared Student
+     *
+     * @param copy Copy made by {@link Student#copy()}
+     * @return Number of rows updated
+     * @throws SQLException if something goes wrong
+     * @see IndexedDao#updateDetached(Object)
+     */
+    public int updateDetached(Student copy) throws SQLException {
+        return studentDao.updateDetached(copy);
+    }
+
+    /**
+     * Writes a copy of a shared Ebook without changing the shared Ebook
+     *
+     * @param copy Copy made by {@link Ebook#copy()}
+     * @return Number of rows updated
+     * @throws SQLException if something goes wrong
+     * @see IndexedDao#updateDetached(Object)
+     */
+    public int updateDetached(Ebook copy) throws SQLException {
+        return ebookDao.updateDetached(copy);
+    }
+
+    /**
+     * Deletes a Student's row without forgetting the shared Student yet
+     *
+     * @param student Student to delete
+     * @return Number of rows deleted
+     * @throws SQLException if something goes wrong
+     * @see IndexedDao#deleteDetached(int)
+     */
+    int deleteDetached(Student student) throws SQLException {
+        return studentDao.deleteDetached(student.getId());
+    }
+
+    /**
+     * Deletes an Ebook's row without forgetting the shared Ebook yet
+     *
+     * @param ebook Ebook to delete
+     * @return Number of rows deleted
+     * @throws SQLException if something goes wrong
+     * @see IndexedDao#deleteDetached(int)
+     */
+    int deleteDetached(Ebook ebook) throws SQLException {
+        return ebookDao.deleteDetached(ebook.getId());
+    }
+
+    /**
+     * Takes a deleted Student out of the identity map and the student ID index
+     *
+     * @param student Student whose row was deleted
+     */
+    void forget(Student student) {
+        studentDao.forget(student.getId());
+    }
+
+    /**
+     * Takes a deleted Ebook out of the identity map and the ebook code index
+     *
+     * @param ebook Ebook whose row was deleted
+     */
+    void forget(Ebook ebook) {
+        ebookDao.forget(ebook.getId());
+    }
+
+    /**
+     * Gets the identity map shared by the current connection's DAOs
+     *
+     * @return Active {@link IdentityMap}
+     */
+    public IdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * Gets the in-memory index of every student ID
+     *
+     * @return Student ID index of the current connection
+     */
+    public PrefixIndex getStudentIdIndex() {
+        return studentDao.getIndex();
+    }
+
+    /**
+     * Gets the in-memory index of every ebook code
+     *
+     * @return Ebook code index of the current connection
+     */
+    public PrefixIndex getEbookCodeIndex() {
+        return ebookDao.getIndex();
     }
 
     /**
      * Gets the current active {@code Ebook} DAO
+     * <p>
+     * Every call through it is timed in {@link Metrics} by {@link TimedDao}
      *
      * @return Active {@code Ebook} DAO
      * @see Dao
      */
     public Dao<Ebook, String> getEbookDao() {
-        return ebookDao;
+        return timedEbookDao;
     }
 
 }
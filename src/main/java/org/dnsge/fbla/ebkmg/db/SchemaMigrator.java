@@ -0,0 +1,251 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+/**
+ * Brings a database file's schema up to date
+ * <p>
+ * The schema version is stored in SQLite's {@code user_version} header field.
+ * Each migration runs in its own transaction and bumps the version when it
+ * commits, so older {@code .db} files are upgraded in place the next time they're opened.
+ *
+ * @author Daniel Sage
+ * @version 0.4
+ */
+final class SchemaMigrator {
+
+    /**
+     * A single schema upgrade step
+     */
+    private interface Migration {
+        void apply(DatabaseConnection connection) throws SQLException;
+    }
+
+    // Index n upgrades a database from version n to version n + 1
+    private final static Migration[] MIGRATIONS = {
+            SchemaMigrator::createLookupIndexes,
+            SchemaMigrator::createSortIndexes,
+            SchemaMigrator::createSearchIndex,
+            SchemaMigrator::skipUnchangedSearchUpdates,
+    };
+
+    /**
+     * The schema version that {@link #migrate(ConnectionSource)} upgrades to
+     */
+    final static int CURRENT_VERSION = MIGRATIONS.length;
+
+    private SchemaMigrator() { }
+
+    /**
+     * Runs every migration newer than the database's current schema version
+     *
+     * @param connectionSource Connection source of the database to upgrade
+     * @return The schema version before migrating
+     * @throws SQLException if a migration fails; that migration is rolled back
+     */
+    static int migrate(ConnectionSource connectionSource) throws SQLException {
+        int startVersion = (int) queryForLong(connectionSource, "PRAGMA user_version");
+        if (startVersion > CURRENT_VERSION) {
+            throw new SQLException(String.format("Database schema version %d is newer than supported version %d",
+                    startVersion, CURRENT_VERSION));
+        }
+
+        for (int version = startVersion; version < CURRENT_VERSION; version++) {
+            final Migration migration = MIGRATIONS[version];
+            final int newVersion = version + 1;
+
+            TransactionManager.callInTransaction(connectionSource, (Callable<Void>) () -> {
+                DatabaseConnection connection = connectionSource.getReadWriteConnection(null);
+                try {
+                    migration.apply(connection);
+                    connection.executeStatement("PRAGMA user_version = " + newVersion, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+                } finally {
+                    connectionSource.releaseConnection(connection);
+                }
+                return null;
+            });
+        }
+
+        return startVersion;
+    }
+
+    /**
+     * Version 1: indexes the columns used for lookups, sorting and reports
+     * <p>
+     * The {@code UNIQUE} constraints on {@code studentId}, {@code ebookCode} and {@code code}
+     * already have automatic indexes in databases created by this program, so those are only
+     * created when a file is missing them.
+     *
+     * @param connection Connection to run the statements on
+     * @throws SQLException if something goes wrong
+     */
+    private static void createLookupIndexes(DatabaseConnection connection) throws SQLException {
+        createIndexIfUncovered(connection, "students", "ebookCode", "students_ebookCode_idx", "ebookCode");
+        createIndexIfUncovered(connection, "students", "studentId", "students_studentId_idx", "studentId");
+        createIndexIfUncovered(connection, "ebooks", "code", "ebooks_code_idx", "code");
+        createIndexIfUncovered(connection, "students", "lastName", "students_name_idx", "lastName, firstName");
+        createIndexIfUncovered(connection, "students", "grade", "students_grade_idx", "grade");
+        createIndexIfUncovered(connection, "ebooks", "name", "ebooks_name_idx", "name");
+        createIndexIfUncovered(connection, "ebooks", "assignmentDate", "ebooks_assignmentDate_idx", "assignmentDate");
+        connection.executeStatement("ANALYZE", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+    }
+
+    /**
+     * Version 2: indexes the orders that the main tables can be sorted by
+     * <p>
+     * Each index ends with the row id, so {@link KeysetPager} can walk it in either
+     * direction without a sort step. Unassigned ebooks have a null date, which is
+     * indexed as 0 so that it can be compared in a keyset.
+     *
+     * @param connection Connection to run the statements on
+     * @throws SQLException if something goes wrong
+     */
+    private static void createSortIndexes(DatabaseConnection connection) throws SQLException {
+        connection.executeStatement("CREATE INDEX IF NOT EXISTS `students_firstName_idx` ON `students` (firstName, lastName)",
+                DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        connection.executeStatement("CREATE INDEX IF NOT EXISTS `ebooks_assignmentDate_sort_idx` ON `ebooks` (IFNULL(assignmentDate, 0))",
+                DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        connection.executeStatement("ANALYZE", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+    }
+
+    /**
+     * Version 3: adds the FTS5 tables used by {@link SearchIndex}
+     * <p>
+     * The tables are external content tables, so they only store the search index and read
+     * the text itself from {@code students} and {@code ebooks}. Triggers keep them in sync on
+     * every write, including bulk imports, and the index is built from the existing rows.
+     *
+     * @param connection Connection to run the statements on
+     * @throws SQLException if something goes wrong
+     */
+    private static void createSearchIndex(DatabaseConnection connection) throws SQLException {
+        createSearchTable(connection, SearchIndex.STUDENTS_TABLE, "students", "firstName", "lastName", "studentId");
+        createSearchTable(connection, SearchIndex.EBOOKS_TABLE, "ebooks", "name", "code");
+    }
+
+    /**
+     * Creates an external content FTS5 table, its sync triggers, and builds its index
+     *
+     * @param connection Connection to run the statements on
+     * @param searchTable Name of the FTS5 table
+     * @param table Table to index
+     * @param columns Columns to index
+     * @throws SQLException if something goes wrong
+     */
+    private static void createSearchTable(DatabaseConnection connection, String searchTable, String table,
+                                          String... columns) throws SQLException {
+        String columnList = String.join(", ", columns);
+        String newValues = "new." + String.join(", new.", columns);
+        String oldValues = "old." + String.join(", old.", columns);
+
+        String[] statements = {
+                String.format("CREATE VIRTUAL TABLE IF NOT EXISTS %s USING fts5(%s, content='%s', content_rowid='id', " +
+                        "prefix='2 3', tokenize='unicode61 remove_diacritics 1')", searchTable, columnList, table),
+                String.format("CREATE TRIGGER IF NOT EXISTS %s_insert AFTER INSERT ON %s BEGIN " +
+                        "INSERT INTO %s(rowid, %s) VALUES (new.id, %s); END",
+                        searchTable, table, searchTable, columnList, newValues),
+                String.format("CREATE TRIGGER IF NOT EXISTS %s_delete AFTER DELETE ON %s BEGIN " +
+                        "INSERT INTO %s(%s, rowid, %s) VALUES ('delete', old.id, %s); END",
+                        searchTable, table, searchTable, searchTable, columnList, oldValues),
+                searchUpdateTrigger(searchTable, table, columns, ""),
+                String.format("INSERT INTO %s(%s) VALUES ('rebuild')", searchTable, searchTable),
+        };
+
+        for (String statement : statements) {
+            connection.executeStatement(statement, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        }
+    }
+
+    /**
+     * Version 4: stops the search tables' update triggers from reindexing unchanged rows
+     * <p>
+     * ORMLite updates write every column, so the version 3 triggers reindexed a row on every
+     * update, even one that only paired an ebook. Now they only fire when indexed text changes.
+     *
+     * @param connection Connection to run the statements on
+     * @throws SQLException if something goes wrong
+     */
+    private static void skipUnchangedSearchUpdates(DatabaseConnection connection) throws SQLException {
+        replaceSearchUpdateTrigger(connection, SearchIndex.STUDENTS_TABLE, "students", "firstName", "lastName", "studentId");
+        replaceSearchUpdateTrigger(connection, SearchIndex.EBOOKS_TABLE, "ebooks", "name", "code");
+    }
+
+    private static void replaceSearchUpdateTrigger(DatabaseConnection connection, String searchTable, String table,
+                                                   String... columns) throws SQLException {
+        StringBuilder changed = new StringBuilder(" WHEN ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                changed.append(" OR ");
+            }
+            changed.append(String.format("old.%s IS NOT new.%s", columns[i], columns[i]));
+        }
+
+        connection.executeStatement(String.format("DROP TRIGGER IF EXISTS %s_update", searchTable),
+                DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        connection.executeStatement(searchUpdateTrigger(searchTable, table, columns, changed.toString()),
+                DatabaseConnection.DEFAULT_RESULT_FLAGS);
+    }
+
+    /**
+     * Builds the statement that creates a search table's update trigger
+     *
+     * @param searchTable Name of the FTS5 table
+     * @param table Table it indexes
+     * @param columns Indexed columns
+     * @param when {@code WHEN} clause, with a leading space, or an empty string
+     * @return The statement
+     */
+    private static String searchUpdateTrigger(String searchTable, String table, String[] columns, String when) {
+        String columnList = String.join(", ", columns);
+        return String.format("CREATE TRIGGER IF NOT EXISTS %s_update AFTER UPDATE OF %s ON %s%s BEGIN " +
+                        "INSERT INTO %s(%s, rowid, %s) VALUES ('delete', old.id, %s); " +
+                        "INSERT INTO %s(rowid, %s) VALUES (new.id, %s); END",
+                searchTable, columnList, table, when, searchTable, searchTable, columnList,
+                "old." + String.join(", old.", columns), searchTable, columnList, "new." + String.join(", new.", columns));
+    }
+
+    /**
+     * Creates an index unless some existing index already starts with a column
+     *
+     * @param connection Connection to run the statements on
+     * @param table Table to index
+     * @param leadingColumn Column that the index should start with
+     * @param indexName Name of the new index
+     * @param columns Comma separated columns of the new index
+     * @throws SQLException if something goes wrong
+     */
+    private static void createIndexIfUncovered(DatabaseConnection connection, String table, String leadingColumn,
+                                               String indexName, String columns) throws SQLException {
+        long covering = connection.queryForLong(String.format(
+                "SELECT COUNT(*) FROM pragma_index_list('%s') AS il, pragma_index_info(il.name) AS ii " +
+                        "WHERE ii.seqno = 0 AND ii.name = '%s'", table, leadingColumn));
+
+        if (covering == 0) {
+            connection.executeStatement(String.format("CREATE INDEX IF NOT EXISTS `%s` ON `%s` (%s)", indexName, table, columns),
+                    DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        }
+    }
+
+    /**
+     * Runs a query that returns a single number
+     *
+     * @param connectionSource Connection source to query
+     * @param statement SQL statement to run
+     * @return First column of the first row
+     * @throws SQLException if something goes wrong
+     */
+    private static long queryForLong(ConnectionSource connectionSource, String statement) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection(null);
+        try {
+            return connection.queryForLong(statement);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.SelectArg;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Full-text search over students and ebooks
+ * <p>
+ * Backed by the FTS5 tables {@code students_fts} (first name, last name and student ID) and
+ * {@code ebooks_fts} (name and code), which triggers keep in sync with their tables.
+ * Every word typed is matched as a prefix of any word in those columns, and results are
+ * ranked by relevance (bm25).
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class SearchIndex {
+
+    final static String STUDENTS_TABLE = "students_fts";
+    final static String EBOOKS_TABLE = "ebooks_fts";
+
+    private SearchIndex() { }
+
+    /**
+     * Searches students by name and student ID
+     *
+     * @param text Text the user typed
+     * @param limit Maximum number of students to return
+     * @return Matching students, most relevant first; empty if the text has no words
+     * @throws SQLException if something goes wrong
+     */
+    public static List<Student> searchStudents(String text, int limit) throws SQLException {
+        String match = toMatchQuery(text);
+        if (match == null) {
+            return Collections.emptyList();
+        }
+        return rankedPage(SQLiteConnector.getInstance().getStudentDao(), Student::getId, STUDENTS_TABLE, match, 0, limit);
+    }
+
+    /**
+     * Searches ebooks by name and code
+     *
+     * @param text Text the user typed
+     * @param limit Maximum number of ebooks to return
+     * @return Matching ebooks, most relevant first; empty if the text has no words
+     * @throws SQLException if something goes wrong
+     */
+    public static List<Ebook> searchEbooks(String text, int limit) throws SQLException {
+        String match = toMatchQuery(text);
+        if (match == null) {
+            return Collections.emptyList();
+        }
+        return rankedPage(SQLiteConnector.getInstance().getEbookDao(), Ebook::getId, EBOOKS_TABLE, match, 0, limit);
+    }
+
+    /**
+     * Turns typed text into an FTS5 query that matches every word as a prefix
+     * <p>
+     * Words are quoted, so characters with a meaning in FTS5 syntax are searched for literally.
+     * For example {@code smi "jo} becomes {@code "smi"* """jo"*}.
+     *
+     * @param text Text the user typed, or null
+     * @return The query, or null if the text has no words
+     */
+    static String toMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    /**
+     * Reads a page of search results in rank order
+     *
+     * @param dao DAO of the table that was searched
+     * @param keyFunction Returns a row's primary key
+     * @param searchTable FTS5 table to search
+     * @param match Query from {@link #toMatchQuery(String)}
+     * @param offset Number of results to skip
+     * @param limit Maximum number of results
+     * @param <T> Type of the rows
+     * @return Rows, most relevant first
+     * @throws SQLException if something goes wrong
+     */
+    static <T> List<T> rankedPage(Dao<T, ?> dao, ToIntFunction<T> keyFunction, String searchTable, String match,
+                                  long offset, int limit) throws SQLException {
+        List<Integer> ids = new ArrayList<>(limit);
+        GenericRawResults<String[]> results = dao.queryRaw(String.format(
+                "SELECT rowid FROM %s WHERE %s MATCH ? ORDER BY rank LIMIT %d OFFSET %d", searchTable, searchTable, limit, offset),
+                match);
+        try {
+            for (String[] row : results) {
+                ids.add(Integer.parseInt(row[0]));
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<SelectArg> idArgs = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            idArgs.add(new SelectArg(SqlType.INTEGER, id));
+        }
+        Map<Integer, T> byId = new HashMap<>();
+        for (T row : dao.queryBuilder().where().in("id", idArgs).query()) {
+            byId.put(keyFunction.applyAsInt(row), row);
+        }
+
+        List<T> ranked = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            T row = byId.get(id);
+            if (row != null) {
+                ranked.add(row);
+            }
+        }
+        return ranked;
+    }
+
+}
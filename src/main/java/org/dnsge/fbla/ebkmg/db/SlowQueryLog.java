@@ -0,0 +1,345 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import org.dnsge.fbla.ebkmg.AppConstants;
+import org.dnsge.fbla.ebkmg.metrics.Counter;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Log of statements that took longer than a threshold, with SQLite's query plan for each
+ * <p>
+ * Statements run through a {@link TracedConnection} are timed by the time spent executing them
+ * and reading their rows. Slow ones are written to {@link #LOG_FILE} with their SQL, parameters,
+ * duration, thread and {@code EXPLAIN QUERY PLAN} output, which shows full table scans such as
+ * an ebook code lookup on a file without its index. The file is rolled over at
+ * {@value #MAX_FILE_BYTES} bytes, keeping {@value #KEPT_FILES} old files.
+ * <p>
+ * The log can't become a hot path itself: a slow statement only hands its entry to a queue of
+ * {@value #QUEUE_CAPACITY} on one background thread, which explains and writes at most
+ * {@value #MAX_ENTRIES_PER_MINUTE} entries a minute and reuses the plan of a statement it explained
+ * in the last {@value #PLAN_REUSE_MINUTES} minutes. Entries that don't fit are counted in
+ * {@code db.slowQueries.notLogged} and noted in the next entry written.
+ * <p>
+ * The log is off unless the {@value #THRESHOLD_PROPERTY} system property gives a threshold in
+ * milliseconds, such as 100. While it's off, connections hand out plain JDBC statements, so
+ * statements and their results aren't wrapped at all.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public final class SlowQueryLog {
+
+    public final static String THRESHOLD_PROPERTY = "ebkmg.slowQueryMillis";
+    public final static File LOG_FILE = new File(AppConstants.LOGS_DIRECTORY, "slow-queries.log");
+
+    private final static long MAX_FILE_BYTES = 1024 * 1024;
+    private final static int KEPT_FILES = 5;
+    private final static int QUEUE_CAPACITY = 32;
+    private final static int MAX_ENTRIES_PER_MINUTE = 30;
+    private final static long PLAN_REUSE_MINUTES = 10;
+    private final static int MAX_PLANS = 256;
+    private final static int MAX_PARAMETERS = 20;
+    private final static int MAX_PARAMETER_LENGTH = 200;
+
+    private final static DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private final static Counter SLOW_QUERIES = Metrics.counter("db.slowQueries");
+    private final static Counter NOT_LOGGED = Metrics.counter("db.slowQueries.notLogged");
+
+    private static volatile long thresholdNanos =
+            TimeUnit.MILLISECONDS.toNanos(Math.max(Long.getLong(THRESHOLD_PROPERTY, 0), 0));
+    private static volatile Thread writerThread;
+    private final static ExecutorService WRITER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-log");
+                thread.setDaemon(true);
+                writerThread = thread;
+                return thread;
+            });
+
+    // Entries that were dropped since the last one was written; read and reset by the writer
+    private final static AtomicInteger PENDING_NOT_LOGGED = new AtomicInteger();
+
+    // Only used on the writer thread
+    private static long windowStart;
+    private static int entriesInWindow;
+    private final static Map<String, Plan> PLANS = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    private SlowQueryLog() { }
+
+    /**
+     * @return Whether slow statements are being logged
+     */
+    public static boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * @return Statements that take at least this long are logged; 0 if the log is off
+     */
+    public static long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    /**
+     * Changes the threshold; statements already made keep being checked against the new one
+     *
+     * @param thresholdMillis Statements that take at least this long are logged; 0 turns the log off
+     */
+    public static void setThresholdMillis(long thresholdMillis) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(thresholdMillis, 0));
+    }
+
+    /**
+     * Waits for the statements already handed to the log to be written, so none are lost when
+     * the program exits; must be called while still connected, so they can be explained
+     *
+     * @param timeoutMillis Longest time to wait
+     */
+    public static void flush(long timeoutMillis) {
+        if (writerThread == null) {
+            return; // Nothing was ever logged
+        }
+        try {
+            WRITER.submit(() -> { }).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException | ExecutionException | TimeoutException ignored) {
+            // Whatever is left is written later, or lost if the program exits first
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Logs a statement if it was slow
+     *
+     * @param sql Statement that ran, or null if it isn't known
+     * @param parameters Parameters bound to it, in order
+     * @param elapsedNanos How long it took
+     */
+    static void check(String sql, Object[] parameters, long elapsedNanos) {
+        long threshold = thresholdNanos;
+        if (threshold <= 0 || elapsedNanos < threshold || Thread.currentThread() == writerThread) {
+            return;
+        }
+
+        SLOW_QUERIES.increment();
+        Entry entry = new Entry(sql, parameters, elapsedNanos);
+        try {
+            WRITER.execute(() -> write(entry));
+        } catch (RejectedExecutionException e) {
+            notLogged();
+        }
+    }
+
+    private static void notLogged() {
+        NOT_LOGGED.increment();
+        PENDING_NOT_LOGGED.incrementAndGet();
+    }
+
+    private static void write(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= TimeUnit.MINUTES.toMillis(1)) {
+            windowStart = now;
+            entriesInWindow = 0;
+        }
+        if (entriesInWindow >= MAX_ENTRIES_PER_MINUTE) {
+            notLogged();
+            return;
+        }
+        entriesInWindow++;
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "---- %s  %.1f ms on %s%n", entry.timestamp.format(TIMESTAMP_FORMAT),
+                Metrics.millis(entry.elapsedNanos), entry.threadName));
+        text.append(entry.sql != null ? entry.sql : "(statement not known)").append(System.lineSeparator());
+        if (entry.parameters.length > 0) {
+            text.append("Parameters: ").append(formatParameters(entry.parameters)).append(System.lineSeparator());
+        }
+        List<String> plan = planOf(entry.sql, entry.parameters, now);
+        if (!plan.isEmpty()) {
+            text.append("Plan:").append(System.lineSeparator());
+            for (String step : plan) {
+                text.append("    ").append(step).append(System.lineSeparator());
+            }
+        }
+        int notLogged = PENDING_NOT_LOGGED.getAndSet(0);
+        if (notLogged > 0) {
+            text.append(String.format("(%d slow statements before this one were not logged)%n", notLogged));
+        }
+
+        try {
+            append(text.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Explains a statement, reusing its plan if it was explained recently
+     *
+     * @return Detail of each step of the plan, or nothing if the statement can't be explained
+     */
+    private static List<String> planOf(String sql, Object[] parameters, long now) {
+        if (sql == null || !isExplainable(sql)) {
+            return Collections.emptyList();
+        }
+        Plan cached = PLANS.get(sql);
+        if (cached != null && now - cached.explainedAt < TimeUnit.MINUTES.toMillis(PLAN_REUSE_MINUTES)) {
+            return cached.steps;
+        }
+
+        List<String> steps = new ArrayList<>();
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        if (!connector.isConnected()) {
+            return Collections.singletonList("(not connected, so the plan isn't known)");
+        }
+        try {
+            ConnectionSource source = connector.getConnectionSource();
+            DatabaseConnection connection = source.getReadOnlyConnection(null);
+            try (PreparedStatement statement = ((JdbcDatabaseConnection) connection).getInternalConnection()
+                    .prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        steps.add(results.getString(4));
+                    }
+                }
+            } finally {
+                source.releaseConnection(connection);
+            }
+        } catch (SQLException | RuntimeException e) {
+            return Collections.singletonList("(couldn't explain: " + e.getMessage() + ")");
+        }
+        PLANS.put(sql, new Plan(steps, now));
+        return steps;
+    }
+
+    private static boolean isExplainable(String sql) {
+        String start = sql.trim().toUpperCase(Locale.ROOT);
+        return start.startsWith("SELECT") || start.startsWith("WITH") || start.startsWith("UPDATE")
+                || start.startsWith("DELETE") || start.startsWith("INSERT");
+    }
+
+    private static String formatParameters(Object[] parameters) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < parameters.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            if (i == MAX_PARAMETERS) {
+                text.append(String.format("... %d more", parameters.length - i));
+                break;
+            }
+            Object parameter = parameters[i];
+            if (parameter == null) {
+                text.append("NULL");
+            } else if (parameter instanceof byte[]) {
+                text.append(String.format("<%d bytes>", ((byte[]) parameter).length));
+            } else if (parameter instanceof Number || parameter instanceof Boolean) {
+                text.append(parameter);
+            } else {
+                String value = parameter.toString();
+                if (value.length() > MAX_PARAMETER_LENGTH) {
+                    value = value.substring(0, MAX_PARAMETER_LENGTH) + "...";
+                }
+                text.append('\'').append(value.replace("'", "''")).append('\'');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Adds text to the log file, first rolling it over if the text would make it too big
+     */
+    private static void append(String text) throws IOException {
+        AppConstants.createDirectories();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (LOG_FILE.exists() && LOG_FILE.length() + bytes.length > MAX_FILE_BYTES) {
+            roll();
+        }
+        Files.write(LOG_FILE.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Renames slow-queries.log to slow-queries.1.log, .1 to .2 and so on, dropping the oldest
+     */
+    private static void roll() throws IOException {
+        Files.deleteIfExists(rolledFile(KEPT_FILES).toPath());
+        for (int i = KEPT_FILES - 1; i >= 1; i--) {
+            File older = rolledFile(i);
+            if (older.exists()) {
+                Files.move(older.toPath(), rolledFile(i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(LOG_FILE.toPath(), rolledFile(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static File rolledFile(int number) {
+        return new File(LOG_FILE.getParentFile(), String.format("slow-queries.%d.log", number));
+    }
+
+    /**
+     * A slow statement waiting to be written
+     */
+    private final static class Entry {
+        private final LocalDateTime timestamp = LocalDateTime.now();
+        private final String threadName = Thread.currentThread().getName();
+        private final String sql;
+        private final Object[] parameters;
+        private final long elapsedNanos;
+
+        Entry(String sql, Object[] parameters, long elapsedNanos) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    /**
+     * Steps of a statement's query plan and when they were read
+     */
+    private final static class Plan {
+        private final List<String> steps;
+        private final long explainedAt;
+
+        Plan(List<String> steps, long explainedAt) {
+            this.steps = steps;
+            this.explainedAt = explainedAt;
+        }
+    }
+
+}
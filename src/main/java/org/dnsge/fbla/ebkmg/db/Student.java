@@ -2,19 +2,27 @@ package org.dnsge.fbla.ebkmg.db;
 
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.SelectArg;
 import com.j256.ormlite.table.DatabaseTable;
 import org.dnsge.fbla.ebkmg.csv.CsvBeanWritable;
 
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a student in a SQLite database
+ * <p>
+ * Students are shared between threads through the {@link IdentityMap}, so their fields are
+ * guarded by the Student's own monitor. Hold it to read several fields as one consistent state.
  *
  * @author Daniel Sage
- * @version 0.5
+ * @version 0.14
  */
 @DatabaseTable(tableName = "students")
 public final class Student implements CsvBeanWritable {
@@ -27,6 +35,7 @@ public final class Student implements CsvBeanWritable {
     @DatabaseField(unique = true) private String ebookCode;
 
     private Ebook ownedEbook;
+    private boolean ebookPreloaded;
 
     /**
      * Student constructor for ORMLite
@@ -57,31 +66,138 @@ public final class Student implements CsvBeanWritable {
      * @throws SQLException if something goes wrong
      */
     static Student whoOwns(String code) throws SQLException {
-        Dao<Student, String> dao = SQLiteConnector.getInstance().getStudentDao();
-        List<Student> allCodes = dao.queryBuilder().where().eq("ebookCode", code).query();
-        return allCodes.size() > 0 ? allCodes.get(0) : null;
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        return connector.getIdentityMap().find(Student.class, "ebookCode", code, () -> {
+            Dao<Student, String> dao = connector.getStudentDao();
+            List<Student> allCodes = dao.queryBuilder().where().eq("ebookCode", new SelectArg(SqlType.STRING, code)).query();
+            return allCodes.size() > 0 ? allCodes.get(0) : null;
+        });
+    }
+
+    /**
+     * Gets the Students that own any of some Ebook codes
+     *
+     * @param codes Ebook codes to find
+     * @return Owning Student by code; codes nobody owns are left out
+     * @throws SQLException if something goes wrong
+     */
+    public static Map<String, Student> whoOwnsAll(Collection<String> codes) throws SQLException {
+        return KeyedQuery.byKeys(SQLiteConnector.getInstance().getStudentDao(), "ebookCode", codes, Student::getEbookCode);
+    }
+
+    /**
+     * Gets the Students with any of some studentIds
+     * <p>
+     * Unknown studentIds are dropped using the in-memory {@link PrefixIndex} before querying
+     *
+     * @param studentIds studentIds to find
+     * @return Student by studentId; unknown studentIds are left out
+     * @throws SQLException if something goes wrong
+     */
+    public static Map<String, Student> getAllFromStudentIds(Collection<String> studentIds) throws SQLException {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        Set<String> known = new LinkedHashSet<>();
+        for (String studentId : studentIds) {
+            if (connector.getStudentIdIndex().contains(studentId)) {
+                known.add(studentId);
+            }
+        }
+        return KeyedQuery.byKeys(connector.getStudentDao(), "studentId", known, Student::getStudentId);
+    }
+
+    /**
+     * Queries every Student with their owned Ebooks already loaded
+     *
+     * @return List of all Students
+     * @throws SQLException if something goes wrong
+     * @see #preloadEbooks(List)
+     */
+    public static List<Student> queryAllWithEbooks() throws SQLException {
+        List<Student> students = SQLiteConnector.getInstance().getStudentDao().queryForAll();
+        preloadEbooks(students);
+        return students;
+    }
+
+    /**
+     * Counts the Students whose ebook code belongs to an existing Ebook
+     *
+     * @return Number of paired Students
+     * @throws SQLException if something goes wrong
+     */
+    public static long countPaired() throws SQLException {
+        return SQLiteConnector.getInstance().getStudentDao().queryRawValue(
+                "SELECT count(*) FROM students JOIN ebooks ON ebooks.code = students.ebookCode");
+    }
+
+    /**
+     * Loads the owned Ebooks of many Students at once
+     * <p>
+     * Uses {@link KeyedQuery}, one {@code IN (...)} query per chunk of codes, instead of one query
+     * per Student, so later {@link #getOwnedEbook()} calls don't touch the database.
+     *
+     * @param students Students to load the Ebooks of
+     * @throws SQLException if something goes wrong
+     */
+    public static void preloadEbooks(List<Student> students) throws SQLException {
+        preloadEbooks(students, false);
+    }
+
+    /**
+     * Loads the owned Ebooks of many read-only Students at once, like {@link #preloadEbooks(List)},
+     * without putting the Ebooks in the {@link IdentityMap}
+     * <p>
+     * For Students from a {@link DetachedRowMapper}, such as during an export
+     *
+     * @param students Students to load the Ebooks of
+     * @throws SQLException if something goes wrong
+     */
+    public static void preloadDetachedEbooks(List<Student> students) throws SQLException {
+        preloadEbooks(students, true);
+    }
+
+    private static void preloadEbooks(List<Student> students, boolean detached) throws SQLException {
+        Set<String> codes = new LinkedHashSet<>();
+        for (Student student : students) {
+            synchronized (student) {
+                if (student.ownedEbook == null && student.ebookCode != null) {
+                    codes.add(student.ebookCode);
+                }
+            }
+        }
+
+        Dao<Ebook, String> dao = SQLiteConnector.getInstance().getEbookDao();
+        Map<String, Ebook> byCode = detached
+                ? KeyedQuery.byKeysDetached(dao, "code", codes, Ebook::getCode)
+                : KeyedQuery.byKeys(dao, "code", codes, Ebook::getCode);
+
+        for (Student student : students) {
+            synchronized (student) {
+                if (student.ownedEbook == null && student.ebookCode != null) {
+                    student.ownedEbook = byCode.get(student.ebookCode);
+                    student.ebookPreloaded = true;
+                }
+            }
+        }
     }
 
     /**
      * Gets the Student with a certain studentId
+     * <p>
+     * Unknown studentIds are answered by the in-memory {@link PrefixIndex} without querying
      *
      * @param studentId studentId to find
      * @return Student with that studentId, or null if there isn't one
      * @throws SQLException if something goes wrong
      */
-    private static Student getFromStudentId(String studentId) throws SQLException {
+    public static Student getFromStudentId(String studentId) throws SQLException {
         SQLiteConnector connector = SQLiteConnector.getInstance();
-        Dao<Student, String> dao = connector.getStudentDao();
-
-        HashMap<String, Object> hm = new HashMap<>();
-        hm.put("studentId", studentId);
-
-        List<Student> list = dao.queryForFieldValues(hm);
-        if (list.size() > 0) {
-            return list.get(0);
-        } else {
+        int id = connector.getStudentIdIndex().idOf(studentId);
+        if (id < 0) {
             return null;
         }
+
+        return connector.getIdentityMap().find(Student.class, "studentId", studentId,
+                () -> connector.getStudentDao().queryBuilder().where().eq("id", id).queryForFirst());
     }
 
     /**
@@ -89,14 +205,10 @@ public final class Student implements CsvBeanWritable {
      *
      * @param studentId studentId to check for
      * @return Whether a Student exists with a certain studentID
+     * @throws SQLException if something goes wrong
      */
-    public static boolean studentWithIdExists(String studentId) {
-        try {
-            return getFromStudentId(studentId) != null;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+    public static boolean studentWithIdExists(String studentId) throws SQLException {
+        return SQLiteConnector.getInstance().getStudentIdIndex().contains(studentId);
     }
 
     /**
@@ -105,15 +217,23 @@ public final class Student implements CsvBeanWritable {
      * @param studentId studentId to check for
      * @param me Student to ignore
      * @return Whether a Student exists with a certain studentID excluding a certain student
+     * @throws SQLException if something goes wrong
      */
-    public static boolean otherStudentWithIdExists(String studentId, Student me) {
-        try {
-            Student got = getFromStudentId(studentId);
-            return got != null && !got.equals(me);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+    public static boolean otherStudentWithIdExists(String studentId, Student me) throws SQLException {
+        int id = SQLiteConnector.getInstance().getStudentIdIndex().idOf(studentId);
+        return id >= 0 && id != me.getId();
+    }
+
+    /**
+     * Finds studentIds that start with some text, for type-ahead
+     *
+     * @param prefix Text the studentIds must start with
+     * @param limit Maximum number of studentIds to return
+     * @return Matching studentIds in sorted order
+     * @throws SQLException if something goes wrong
+     */
+    public static List<String> studentIdsStartingWith(String prefix, int limit) throws SQLException {
+        return SQLiteConnector.getInstance().getStudentIdIndex().keysWithPrefix(prefix, limit);
     }
 
     /**
@@ -121,7 +241,7 @@ public final class Student implements CsvBeanWritable {
      *
      * @return Database ID Key
      */
-    private int getId() {
+    int getId() {
         return id;
     }
 
@@ -137,7 +257,7 @@ public final class Student implements CsvBeanWritable {
     /**
      * @return Student first name
      */
-    public String getFirstName() {
+    public synchronized String getFirstName() {
         return firstName;
     }
 
@@ -146,14 +266,14 @@ public final class Student implements CsvBeanWritable {
      *
      * @param firstName First name
      */
-    public void setFirstName(String firstName) {
+    public synchronized void setFirstName(String firstName) {
         this.firstName = firstName;
     }
 
     /**
      * @return Student last name
      */
-    public String getLastName() {
+    public synchronized String getLastName() {
         return lastName;
     }
 
@@ -162,14 +282,14 @@ public final class Student implements CsvBeanWritable {
      *
      * @param lastName Last name
      */
-    public void setLastName(String lastName) {
+    public synchronized void setLastName(String lastName) {
         this.lastName = lastName;
     }
 
     /**
      * @return Student ID
      */
-    public String getStudentId() {
+    public synchronized String getStudentId() {
         return studentId;
     }
 
@@ -178,7 +298,7 @@ public final class Student implements CsvBeanWritable {
      *
      * @param studentId StudentId
      */
-    public void setStudentId(String studentId) {
+    public synchronized void setStudentId(String studentId) {
         this.studentId = studentId;
     }
 
@@ -186,49 +306,100 @@ public final class Student implements CsvBeanWritable {
         return getOwnedEbook() != null;
     }
 
-    private String getEbookCode() {
+    synchronized String getEbookCode() {
         return ebookCode;
     }
 
     public void setEbookCode(String ebookName, String ebookCode) {
-        this.ebookCode = ebookCode;
+        Ebook ebook = null;
         try {
-            ownedEbook = Ebook.getOrCreate(ebookName, ebookCode);
+            ebook = Ebook.getOrCreate(ebookName, ebookCode);
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        synchronized (this) {
+            this.ebookCode = ebookCode;
+            ownedEbook = ebook;
+        }
     }
 
     public void setEbook(Ebook ebook) {
-        ebookCode = ebook.getCode();
-        ownedEbook = ebook;
+        String code = ebook.getCode();
+        synchronized (this) {
+            ebookCode = code;
+            ownedEbook = ebook;
+            ebookPreloaded = false;
+        }
     }
 
-    public void clearEbook() {
+    public synchronized void clearEbook() {
         ebookCode = null;
         ownedEbook = null;
+        ebookPreloaded = false;
     }
 
     /**
      * Gets this Student's Ebook
+     * <p>
+     * Queries the database on the first call unless the Ebook was
+     * already loaded by {@link #preloadEbooks(List)}. The query runs without
+     * holding this Student's monitor.
      *
      * @return This Student's Ebook, null if there isn't one
      */
     public Ebook getOwnedEbook() {
-        if (ownedEbook != null) {
-            return ownedEbook;
-        } else {
-            if (ebookCode != null) {
-                try {
-                    ownedEbook = Ebook.get(ebookCode);
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    return null;
-                }
+        String code;
+        synchronized (this) {
+            if (ownedEbook != null || ebookCode == null || ebookPreloaded) {
                 return ownedEbook;
             }
+            code = ebookCode;
+        }
+
+        Ebook ebook;
+        try {
+            ebook = Ebook.get(code);
+        } catch (SQLException e) {
+            e.printStackTrace();
             return null;
         }
+        synchronized (this) {
+            // Keep it only if the Student wasn't paired with something else meanwhile
+            if (code.equals(ebookCode) && ownedEbook == null) {
+                ownedEbook = ebook;
+            }
+        }
+        return ebook;
+    }
+
+    /**
+     * Copies this Student, including its database ID and loaded Ebook
+     * <p>
+     * Used to make changes that other threads shouldn't see until they're committed
+     *
+     * @return New Student with the same state
+     * @see #copyFrom(Student)
+     */
+    public synchronized Student copy() {
+        Student copy = new Student();
+        copy.id = id;
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Replaces this Student's state with a copy's in one step
+     *
+     * @param other Copy made by {@link #copy()}, not shared with other threads
+     */
+    public synchronized void copyFrom(Student other) {
+        firstName = other.firstName;
+        lastName = other.lastName;
+        grade = other.grade;
+        studentId = other.studentId;
+        ebookCode = other.ebookCode;
+        ownedEbook = other.ownedEbook;
+        ebookPreloaded = other.ebookPreloaded;
     }
 
     /**
@@ -237,7 +408,7 @@ public final class Student implements CsvBeanWritable {
      * @return The Memento object
      * @see Memento
      */
-    public Memento saveToMemento() {
+    public synchronized Memento saveToMemento() {
         return new Memento(this);
     }
 
@@ -249,7 +420,7 @@ public final class Student implements CsvBeanWritable {
      * @param memento Memento with information to load from
      * @see Memento
      */
-    public void loadFromMemento(Memento memento) {
+    public synchronized void loadFromMemento(Memento memento) {
         firstName = memento.getFirstName();
         lastName = memento.getLastName();
         grade = memento.getGrade();
@@ -257,16 +428,16 @@ public final class Student implements CsvBeanWritable {
         ebookCode = memento.getEbookId();
     }
 
-    public String getGrade() {
+    public synchronized String getGrade() {
         return grade;
     }
 
-    public void setGrade(String grade) {
+    public synchronized void setGrade(String grade) {
         this.grade = grade;
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return String.format("%s %s (%s) (%s)", firstName, lastName, studentId, ebookCode);
     }
 
@@ -274,21 +445,20 @@ public final class Student implements CsvBeanWritable {
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        Student student = (Student) o;
-        return Objects.equals(firstName, student.firstName) &&
-                Objects.equals(lastName, student.lastName) &&
-                Objects.equals(grade, student.grade) &&
-                Objects.equals(studentId, student.studentId) &&
-                Objects.equals(ebookCode, student.ebookCode) &&
-                Objects.equals(ownedEbook, student.ownedEbook);
+        // Each side is read under its own monitor, never both at once
+        return Arrays.equals(fields(), ((Student) o).fields());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(firstName, lastName, grade, studentId, ebookCode, ownedEbook);
+        return Arrays.hashCode(fields());
     }
 
-    public boolean filledOutProperly() {
+    private synchronized Object[] fields() {
+        return new Object[]{firstName, lastName, grade, studentId, ebookCode, ownedEbook};
+    }
+
+    public synchronized boolean filledOutProperly() {
         return !firstName.trim().isEmpty() &&
                 !lastName.trim().isEmpty() &&
                 !studentId.trim().isEmpty();
@@ -296,7 +466,10 @@ public final class Student implements CsvBeanWritable {
 
     @Override
     public String[] asCsvLine() {
-        return new String[]{firstName, lastName, grade, studentId, hasEbook().toString(), hasEbook() ? Objects.requireNonNull(getOwnedEbook()).getCode() : ""};
+        Ebook ebook = getOwnedEbook();
+        synchronized (this) {
+            return new String[]{firstName, lastName, grade, studentId, Boolean.toString(ebook != null), ebook != null ? ebook.getCode() : ""};
+        }
     }
 
     @Override
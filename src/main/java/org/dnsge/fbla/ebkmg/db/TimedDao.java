@@ -0,0 +1,281 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.support.DatabaseResults;
+import org.dnsge.fbla.ebkmg.metrics.Counter;
+import org.dnsge.fbla.ebkmg.metrics.Histogram;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps a DAO so that every call to the database is timed in {@link Metrics}
+ * <p>
+ * Each DAO method gets a histogram named {@code dao.<table>.<method>}, with overloads sharing one.
+ * Rows returned as lists or single objects are added to {@code dao.<table>.rowsRead}, rows changed
+ * to {@code dao.<table>.rowsWritten}, and calls that throw to {@code dao.<table>.errors}. Iterators
+ * are recorded when they're closed or run out, with the time spent starting the query and moving
+ * through its rows but not the caller's work between rows, and add the rows they returned. Raw
+ * results are only timed until their query starts and their rows aren't counted.
+ * <p>
+ * Query, update and delete builders are made against the wrapper, so queries run through them
+ * are timed too. Methods that don't touch the database are passed straight through.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+final class TimedDao<T, ID> implements InvocationHandler {
+
+    private final BaseDaoImpl<T, ID> dao;
+    private final DatabaseType databaseType;
+    private final Map<Method, Histogram> histograms = new HashMap<>();
+    private final Counter rowsRead;
+    private final Counter rowsWritten;
+    private final Counter errors;
+    private Dao<T, ID> proxy;
+
+    private TimedDao(BaseDaoImpl<T, ID> dao, String name) {
+        this.dao = dao;
+        this.databaseType = dao.getConnectionSource().getDatabaseType();
+        String prefix = "dao." + name + ".";
+        for (Method method : Dao.class.getMethods()) {
+            if (isDatabaseCall(method)) {
+                histograms.put(method, Metrics.histogram(prefix + method.getName()));
+            }
+        }
+        this.rowsRead = Metrics.counter(prefix + "rowsRead");
+        this.rowsWritten = Metrics.counter(prefix + "rowsWritten");
+        this.errors = Metrics.counter(prefix + "errors");
+    }
+
+    /**
+     * Wraps a DAO
+     *
+     * @param dao DAO to wrap
+     * @param name Name of the table, used in metric names
+     * @param <T> Type of the rows
+     * @param <ID> Type of the rows' IDs
+     * @return Timed DAO that calls through to {@code dao}
+     */
+    @SuppressWarnings("unchecked")
+    static <T, ID> Dao<T, ID> wrap(BaseDaoImpl<T, ID> dao, String name) {
+        TimedDao<T, ID> handler = new TimedDao<>(dao, name);
+        handler.proxy = (Dao<T, ID>) Proxy.newProxyInstance(Dao.class.getClassLoader(), new Class<?>[]{Dao.class}, handler);
+        return handler.proxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "queryBuilder":
+                return new QueryBuilder<>(databaseType, dao.getTableInfo(), this.proxy);
+            case "updateBuilder":
+                return new UpdateBuilder<>(databaseType, dao.getTableInfo(), this.proxy);
+            case "deleteBuilder":
+                return new DeleteBuilder<>(databaseType, dao.getTableInfo(), this.proxy);
+            case "equals":
+                if (method.getParameterCount() == 1) {
+                    return proxy == args[0];
+                }
+                break;
+            case "hashCode":
+                if (method.getParameterCount() == 0) {
+                    return System.identityHashCode(proxy);
+                }
+                break;
+            case "toString":
+                if (method.getParameterCount() == 0) {
+                    return "TimedDao[" + dao + "]";
+                }
+                break;
+        }
+
+        Histogram histogram = histograms.get(method);
+        if (histogram == null) {
+            return call(method, args);
+        }
+
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = call(method, args);
+        } catch (Throwable e) {
+            errors.increment();
+            histogram.recordSince(start);
+            throw e;
+        }
+        if (result instanceof CloseableIterator) {
+            return new TimedIterator<>((CloseableIterator<?>) result, histogram, rowsRead, System.nanoTime() - start);
+        }
+        histogram.recordSince(start);
+        countRows(method.getName(), result);
+        return result;
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(dao, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void countRows(String methodName, Object result) {
+        if (result instanceof Collection) {
+            rowsRead.add(((Collection<?>) result).size());
+        } else if (result instanceof Integer && isWrite(methodName)) {
+            rowsWritten.add((Integer) result);
+        } else if (result instanceof Dao.CreateOrUpdateStatus) {
+            rowsWritten.add(((Dao.CreateOrUpdateStatus) result).getNumLinesChanged());
+        } else if (result != null && methodName.startsWith("queryFor") && dao.getDataClass().isInstance(result)) {
+            rowsRead.increment();
+        }
+    }
+
+    private static boolean isWrite(String methodName) {
+        return methodName.startsWith("create") || methodName.startsWith("update") || methodName.startsWith("delete")
+                || methodName.equals("executeRaw") || methodName.equals("executeRawNoArgs");
+    }
+
+    /**
+     * Methods that can throw {@link SQLException} talk to the database; iterators start their query
+     * when they're made, but can't throw it
+     */
+    private static boolean isDatabaseCall(Method method) {
+        return Arrays.asList(method.getExceptionTypes()).contains(SQLException.class)
+                || method.getName().equals("iterator") || method.getName().equals("closeableIterator");
+    }
+
+    /**
+     * Iterator that counts the rows it returns and the time spent in it, recording both once it is
+     * closed or runs out of rows
+     */
+    private final static class TimedIterator<T> implements CloseableIterator<T> {
+
+        private final CloseableIterator<T> iterator;
+        private final Histogram histogram;
+        private final Counter rowsRead;
+        private long elapsed;
+        private long rows;
+        private boolean recorded;
+
+        TimedIterator(CloseableIterator<T> iterator, Histogram histogram, Counter rowsRead, long elapsed) {
+            this.iterator = iterator;
+            this.histogram = histogram;
+            this.rowsRead = rowsRead;
+            this.elapsed = elapsed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long start = System.nanoTime();
+            boolean hasNext = iterator.hasNext();
+            elapsed += System.nanoTime() - start;
+            if (!hasNext) {
+                // The iterator closes itself when it runs out
+                record();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            long start = System.nanoTime();
+            T row = iterator.next();
+            elapsed += System.nanoTime() - start;
+            rows++;
+            return row;
+        }
+
+        @Override
+        public T nextThrow() throws SQLException {
+            long start = System.nanoTime();
+            T row = iterator.nextThrow();
+            elapsed += System.nanoTime() - start;
+            if (row != null) {
+                rows++;
+            }
+            return row;
+        }
+
+        @Override
+        public void moveToNext() {
+            iterator.moveToNext();
+        }
+
+        @Override
+        public T first() throws SQLException {
+            return iterator.first();
+        }
+
+        @Override
+        public T previous() throws SQLException {
+            return iterator.previous();
+        }
+
+        @Override
+        public T current() throws SQLException {
+            return iterator.current();
+        }
+
+        @Override
+        public T moveRelative(int offset) throws SQLException {
+            return iterator.moveRelative(offset);
+        }
+
+        @Override
+        public T moveAbsolute(int position) throws SQLException {
+            return iterator.moveAbsolute(position);
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public DatabaseResults getRawResults() {
+            return iterator.getRawResults();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                iterator.close();
+            } finally {
+                record();
+            }
+        }
+
+        @Override
+        public void closeQuietly() {
+            iterator.closeQuietly();
+            record();
+        }
+
+        private void record() {
+            if (!recorded) {
+                recorded = true;
+                histogram.record(elapsed);
+                rowsRead.add(rows);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,364 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import org.dnsge.fbla.ebkmg.metrics.QueryEvent;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps a JDBC connection so that every statement run on it is a {@link QueryEvent} and is
+ * checked by the {@link SlowQueryLog}
+ * <p>
+ * Statements are only wrapped while a flight recording is collecting query events or the slow
+ * query log is on, checked when each statement is made, so statements and their results cost
+ * nothing extra when both are off, which is the default.
+ * <p>
+ * Statements are timed by the time spent in their execute call plus, for queries, the time spent
+ * in each {@link ResultSet#next()}, so the caller's work between rows isn't counted. A query is
+ * finished when its result set or statement is closed, counting the rows read on the way; updates
+ * and batches count the rows they changed. Parameters bound to prepared statements are
+ * remembered for the slow query log.
+ *
+ * @author Daniel Sage
+ * @version 0.3
+ */
+final class TracedConnection implements InvocationHandler {
+
+    private final static int MAX_SHAPE_LENGTH = 1000;
+
+    private final Connection connection;
+
+    private TracedConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Wraps a connection
+     *
+     * @param connection Connection to wrap
+     * @return Connection that calls through to {@code connection}
+     */
+    static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new TracedConnection(connection));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result = call(connection, method, args);
+        if (!(result instanceof Statement)) {
+            return result;
+        }
+        boolean traced = QueryEvent.isRecording();
+        boolean logged = SlowQueryLog.isEnabled();
+        if (!traced && !logged) {
+            return result;
+        }
+        switch (method.getName()) {
+            case "prepareStatement":
+                return TracedStatement.wrap((PreparedStatement) result, PreparedStatement.class, (String) args[0], traced, logged);
+            case "createStatement":
+                return TracedStatement.wrap((Statement) result, Statement.class, null, traced, logged);
+            default:
+                return result; // Callable statements aren't used with SQLite
+        }
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reduces a statement to its shape: string and number literals become {@code ?}, lists of
+     * parameters become {@code (?, ...)}, and runs of whitespace become one space
+     *
+     * @param sql Statement
+     * @return Shape of the statement, cut off after {@value #MAX_SHAPE_LENGTH} characters
+     */
+    static String shapeOf(String sql) {
+        StringBuilder shape = new StringBuilder(sql.length());
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // Skip to the closing quote, where '' is an escaped quote
+                i++;
+                while (i < sql.length() && (sql.charAt(i) != '\'' || (i + 1 < sql.length() && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                i++;
+                shape.append('?');
+            } else if (c == '"' || c == '`') {
+                // Quoted names are kept as they are
+                int end = sql.indexOf(c, i + 1);
+                end = end < 0 ? sql.length() : end + 1;
+                shape.append(sql, i, end);
+                i = end;
+            } else if (Character.isDigit(c) && (shape.length() == 0 || !isNamePart(shape.charAt(shape.length() - 1)))) {
+                while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                shape.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (shape.length() > 0 && i < sql.length()) {
+                    shape.append(' ');
+                }
+            } else {
+                shape.append(c);
+                i++;
+            }
+        }
+        String collapsed = shape.toString().replaceAll("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)", "(?, ...)");
+        return collapsed.length() > MAX_SHAPE_LENGTH ? collapsed.substring(0, MAX_SHAPE_LENGTH) : collapsed;
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Records the statements run through one JDBC statement
+     */
+    private final static class TracedStatement implements InvocationHandler {
+
+        private final Statement statement;
+        private final String preparedSql;
+        private final String preparedShape;
+        private final boolean traced;
+        private final List<Object> parameters;
+        private Run openRun;
+
+        private TracedStatement(Statement statement, String preparedSql, boolean traced, boolean logged) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+            this.preparedShape = traced && preparedSql != null ? shapeOf(preparedSql) : null;
+            this.traced = traced;
+            this.parameters = logged ? new ArrayList<>() : null;
+        }
+
+        static <S extends Statement> S wrap(S statement, Class<S> type, String preparedSql, boolean traced, boolean logged) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new TracedStatement(statement, preparedSql, traced, logged)));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "executeQuery":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                case "execute":
+                    break;
+                case "close":
+                    finish();
+                    return call(statement, method, args);
+                case "clearParameters":
+                    if (parameters != null) {
+                        parameters.clear();
+                    }
+                    return call(statement, method, args);
+                default:
+                    if (parameters != null && name.startsWith("set") && args != null && args.length >= 2
+                            && args[0] instanceof Integer) {
+                        rememberParameter((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                    }
+                    return call(statement, method, args);
+            }
+
+            // Running a statement again closes the result set of the last run
+            finish();
+            String sql = preparedSql;
+            String shape = preparedShape;
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                sql = (String) args[0];
+                shape = traced ? shapeOf(sql) : null;
+            }
+            Run run = new Run(sql, parameters != null ? parameters.toArray() : null,
+                    traced ? new QueryEvent(shape, operationOf(name)) : null);
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = call(statement, method, args);
+            } catch (Throwable e) {
+                run.executed(start);
+                run.failed();
+                throw e;
+            }
+            run.executed(start);
+
+            if (result instanceof ResultSet) {
+                openRun = run;
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                        new TracedResultSet((ResultSet) result, this, run));
+            } else if (result instanceof Integer || result instanceof Long) {
+                run.addRows(((Number) result).longValue());
+            } else if (result instanceof int[]) {
+                for (int rows : (int[]) result) {
+                    run.addRows(Math.max(rows, 0));
+                }
+            } else if (result instanceof long[]) {
+                for (long rows : (long[]) result) {
+                    run.addRows(Math.max(rows, 0));
+                }
+            } else if (Boolean.FALSE.equals(result)) {
+                run.addRows(Math.max(statement.getUpdateCount(), 0));
+            }
+            run.finish();
+            return result;
+        }
+
+        private void rememberParameter(int index, Object value) {
+            while (parameters.size() < index) {
+                parameters.add(null);
+            }
+            parameters.set(index - 1, value);
+        }
+
+        private void finish() {
+            if (openRun != null) {
+                openRun.finish();
+                openRun = null;
+            }
+        }
+
+        private static String operationOf(String methodName) {
+            switch (methodName) {
+                case "executeQuery":
+                    return "query";
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    return "update";
+                case "executeBatch":
+                case "executeLargeBatch":
+                    return "batch";
+                default:
+                    return "execute";
+            }
+        }
+
+    }
+
+    /**
+     * One run of a statement, from when it starts until its results are closed
+     */
+    private final static class Run {
+
+        private final String sql;
+        private final Object[] parameters;
+        private final QueryEvent event;
+        private long elapsed;
+
+        Run(String sql, Object[] parameters, QueryEvent event) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.event = event;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /**
+         * Ends the execute call, which is the event's duration
+         *
+         * @param start When the call started, from {@link System#nanoTime()}
+         */
+        void executed(long start) {
+            addTime(start);
+            if (event != null) {
+                event.end();
+            }
+        }
+
+        /**
+         * Adds the time spent in a call made for this run
+         *
+         * @param start When the call started, from {@link System#nanoTime()}
+         */
+        void addTime(long start) {
+            elapsed += System.nanoTime() - start;
+        }
+
+        void addRows(long rows) {
+            if (event != null) {
+                event.addRows(rows);
+            }
+        }
+
+        void failed() {
+            if (event != null) {
+                event.setFailed(true);
+            }
+            finish();
+        }
+
+        void finish() {
+            if (event != null) {
+                event.setDatabaseTime(elapsed);
+                event.commit();
+            }
+            if (parameters != null) {
+                SlowQueryLog.check(sql, parameters, elapsed);
+            }
+        }
+
+    }
+
+    /**
+     * Counts and times the rows read from a query's results and finishes its run when they're closed
+     */
+    private final static class TracedResultSet implements InvocationHandler {
+
+        private final ResultSet resultSet;
+        private final TracedStatement owner;
+        private final Run run;
+
+        TracedResultSet(ResultSet resultSet, TracedStatement owner, Run run) {
+            this.resultSet = resultSet;
+            this.owner = owner;
+            this.run = run;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("next".equals(method.getName())) {
+                long start = System.nanoTime();
+                Object result;
+                try {
+                    result = call(resultSet, method, args);
+                } finally {
+                    run.addTime(start);
+                }
+                if (Boolean.TRUE.equals(result)) {
+                    run.addRows(1);
+                }
+                return result;
+            }
+
+            Object result = call(resultSet, method, args);
+            if ("close".equals(method.getName()) && owner.openRun == run) {
+                owner.finish();
+            }
+            return result;
+        }
+
+    }
+
+}
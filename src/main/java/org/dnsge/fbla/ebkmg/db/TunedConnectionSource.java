@@ -0,0 +1,53 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Pooled connection source that applies a {@link ConnectionProfile}'s
+ * pragmas to every connection it opens
+ * <p>
+ * Connections are wrapped in a {@link TracedConnection}, so their statements show up in flight
+ * recordings and the {@link SlowQueryLog}.
+ *
+ * @author Daniel Sage
+ * @version 0.3
+ */
+class TunedConnectionSource extends JdbcPooledConnectionSource {
+
+    private final ConnectionProfile profile;
+
+    /**
+     * TunedConnectionSource constructor
+     *
+     * @param url JDBC connection URL
+     * @param profile Profile to apply to new connections
+     * @throws SQLException if the connection source can't be initialized
+     */
+    TunedConnectionSource(String url, ConnectionProfile profile) throws SQLException {
+        super(url);
+        this.profile = profile;
+        setMaxConnectionsFree(profile.getMaxConnectionsFree());
+    }
+
+    @Override
+    protected DatabaseConnection makeConnection(Logger logger) throws SQLException {
+        DatabaseConnection connection = super.makeConnection(logger);
+        if (connection instanceof JdbcDatabaseConnection) {
+            JdbcDatabaseConnection jdbcConnection = (JdbcDatabaseConnection) connection;
+            try (Statement statement = jdbcConnection.getInternalConnection().createStatement()) {
+                for (String pragma : profile.pragmaStatements()) {
+                    statement.execute(pragma);
+                }
+            }
+            jdbcConnection.setInternalConnection(TracedConnection.wrap(jdbcConnection.getInternalConnection()));
+        }
+        return connection;
+    }
+
+}
@@ -0,0 +1,422 @@
+package org.dnsge.fbla.ebkmg.extensions;
+
+import javafx.collections.ObservableListBase;
+import org.dnsge.fbla.ebkmg.db.DatabaseExecutor;
+import org.dnsge.fbla.ebkmg.db.DatabaseTask;
+import org.dnsge.fbla.ebkmg.db.KeysetPager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@code ObservableList} that reads its rows from the database a page at a time
+ * <p>
+ * Only the most recently used pages are kept in memory, and the pages on either side of
+ * the one being read are prefetched in the background so scrolling rarely waits.
+ * Made to back a {@code TableView}, which only asks for the rows that are visible.
+ * A row whose page isn't in memory yet is null until the page has been read.
+ * <p>
+ * Rows are kept in the order and filter of the {@link KeysetPager}. Must only be used
+ * from the JavaFX application thread, apart from {@link #locate(Object)}, which never
+ * queries on it.
+ *
+ * @param <T> Type of the rows
+ * @author dnsge
+ * @version 0.3
+ * @since 0.7
+ */
+public final class LazyPagedList<T> extends ObservableListBase<T> {
+
+    /**
+     * Number of rows read at once
+     */
+    public final static int PAGE_SIZE = 100;
+
+    /**
+     * Maximum number of pages held in memory
+     */
+    public final static int MAX_CACHED_PAGES = 10;
+
+    private final KeysetPager<T> pager;
+    private final DatabaseExecutor executor;
+    private final String description;
+    private final Map<Integer, List<T>> pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<Integer> loading = new HashSet<>();
+    // Pages that were asked for before they were read, so their rows were handed out as null
+    private final Set<Integer> waiting = new HashSet<>();
+
+    private int size;
+    private volatile List<String[]> boundaries = Collections.singletonList(null);
+    private DatabaseTask<List<String[]>> boundaryTask;
+    // Incremented whenever rows are removed, so results read before the removal are dropped
+    private int generation;
+
+    private LazyPagedList(KeysetPager<T> pager, DatabaseExecutor executor, String description, int size, List<T> firstPage) {
+        this.pager = pager;
+        this.executor = executor;
+        this.description = description;
+        this.size = size;
+        pages.put(0, new ArrayList<>(firstPage));
+    }
+
+    /**
+     * Counts the rows and reads the first page
+     * <p>
+     * Blocks while querying, so call it from a background thread
+     *
+     * @param pager Pager to read rows with
+     * @param executor Executor to read pages with
+     * @param description Description of background reads, e.g. "Loading students"
+     * @param <T> Type of the rows
+     * @return The new list
+     * @throws SQLException if something goes wrong
+     */
+    public static <T> LazyPagedList<T> open(KeysetPager<T> pager, DatabaseExecutor executor, String description) throws SQLException {
+        int size = (int) pager.count();
+        return new LazyPagedList<>(pager, executor, description, size, pager.pageAfter(null, PAGE_SIZE));
+    }
+
+    /**
+     * Starts finding the key that each page starts after in the background
+     * <p>
+     * Until they are found, pages after the first are read by offset
+     */
+    public void loadPageBoundaries() {
+        if (boundaryTask != null) {
+            boundaryTask.cancel();
+        }
+
+        int startGeneration = generation;
+        boundaryTask = executor.submit(description, () -> pager.pageBoundaries(PAGE_SIZE));
+        boundaryTask.onSuccess(found -> {
+            if (startGeneration == generation) {
+                boundaries = found;
+            }
+        });
+        boundaryTask.onFailure(Throwable::printStackTrace);
+    }
+
+    /**
+     * @return The pager that rows are read with
+     */
+    public KeysetPager<T> getPager() {
+        return pager;
+    }
+
+    /**
+     * Finds where a row belongs in this list
+     * <p>
+     * Queries the database and only reads the pager, so call it from the task that writes
+     * the row and pass the result to {@link #upsert(Object, long)} or {@link #delete(Object, long)}.
+     * Find a deleted row's position before deleting it.
+     *
+     * @param item Row to find
+     * @return Index the row has in the database's order, or -1 if it isn't in this view
+     * or the order has no positions
+     * @throws SQLException if something goes wrong
+     */
+    public long locate(T item) throws SQLException {
+        return pager.matches(item) ? pager.positionOf(item) : -1;
+    }
+
+    /**
+     * Applies a created or changed row without reloading the list
+     * <p>
+     * In primary key order with no filter, a new row is added to the end. Otherwise a row can
+     * only be replaced in place if it is in memory and still at the same position.
+     *
+     * @param item Row that was created or changed in the database
+     * @param position Result of {@link #locate(Object)} after the write
+     * @return Whether the change was applied; if not, the list should be replaced
+     */
+    public boolean upsert(T item, long position) {
+        if (position < 0) {
+            return false;
+        }
+
+        if (pager.isKeyOrdered()) {
+            if (position < size) {
+                set((int) position, item);
+            } else {
+                add(item);
+            }
+            return true;
+        }
+
+        if (indexOf(item) == position) {
+            set((int) position, item);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a row that was deleted from the database without reloading the list
+     *
+     * @param item Row that was deleted
+     * @param position Result of {@link #locate(Object)} before the delete
+     * @return Whether the row was found and removed; if not, the list should be replaced
+     */
+    public boolean delete(T item, long position) {
+        int index = indexOf(item);
+        // A row that isn't in memory was where it was found, unless its page is in memory without it
+        if (index < 0 && position >= 0 && position < size && !pages.containsKey((int) (position / PAGE_SIZE))) {
+            index = (int) position;
+        }
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Cancels any background reads
+     */
+    public void close() {
+        if (boundaryTask != null) {
+            boundaryTask.cancel();
+        }
+        generation++;
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int page = index / PAGE_SIZE;
+        if (!pages.containsKey(page)) {
+            waiting.add(page);
+            loadPage(page);
+        }
+        loadPage(page + 1);
+        loadPage(page - 1);
+        return cached(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds a row by its key among the pages in memory
+     * <p>
+     * Never queries, so a row whose page hasn't been read isn't found
+     *
+     * @param o Row to find
+     * @return Index of the row, or -1 if it isn't in memory
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int indexOf(Object o) {
+        if (o == null) {
+            return -1;
+        }
+        T item = (T) o;
+        int key = pager.keyOf(item);
+
+        for (Map.Entry<Integer, List<T>> entry : pages.entrySet()) {
+            List<T> rows = entry.getValue();
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i) != null && pager.keyOf(rows.get(i)) == key) {
+                    return entry.getKey() * PAGE_SIZE + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    /**
+     * Replaces the row at an index, firing a change for that row only
+     *
+     * @param index Index of the row
+     * @param element New row
+     * @return The replaced row
+     */
+    @Override
+    public T set(int index, T element) {
+        T old = cached(index);
+        List<T> rows = pages.get(index / PAGE_SIZE);
+        if (rows != null && index % PAGE_SIZE < rows.size()) {
+            rows.set(index % PAGE_SIZE, element);
+        }
+
+        beginChange();
+        nextSet(index, old);
+        endChange();
+        return old;
+    }
+
+    /**
+     * Adds a new row to the end of the list
+     *
+     * @param index Must be {@link #size()}, since rows are kept in order
+     * @param element Row to add
+     * @throws UnsupportedOperationException if the rows aren't in primary key order, or the index isn't the end
+     */
+    @Override
+    public void add(int index, T element) {
+        if (index != size || !pager.isKeyOrdered()) {
+            throw new UnsupportedOperationException("Rows can only be added to the end of a LazyPagedList");
+        }
+
+        beginChange();
+        append(element);
+        endChange();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        if (!pager.isKeyOrdered()) {
+            throw new UnsupportedOperationException("Rows can only be added to a LazyPagedList in primary key order");
+        }
+        if (c.isEmpty()) {
+            return false;
+        }
+
+        beginChange();
+        c.forEach(this::append);
+        endChange();
+        return true;
+    }
+
+    /**
+     * Removes a row, firing a change for that row only
+     * <p>
+     * Every page after the removed row shifts by one, so they are dropped from memory and
+     * their boundaries are found again in the background
+     *
+     * @param index Index of the row
+     * @return The removed row
+     */
+    @Override
+    public T remove(int index) {
+        T removed = cached(index);
+        int page = index / PAGE_SIZE;
+        pages.keySet().removeIf(cachedPage -> cachedPage >= page);
+        if (boundaries.size() > page + 1) {
+            boundaries = new ArrayList<>(boundaries.subList(0, page + 1));
+        }
+        size--;
+        generation++;
+        loading.clear();
+        waiting.clear();
+
+        beginChange();
+        nextRemove(index, removed);
+        endChange();
+
+        loadPageBoundaries();
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A LazyPagedList can't be cleared; replace it instead");
+    }
+
+    private void append(T element) {
+        int index = size++;
+        List<T> rows = pages.get(index / PAGE_SIZE);
+        if (rows != null && rows.size() == index % PAGE_SIZE) {
+            rows.add(element);
+        } else {
+            pages.remove(index / PAGE_SIZE);
+        }
+        nextAdd(index, index + 1);
+    }
+
+    /**
+     * @param index Index of the row
+     * @return The row if its page is in memory, otherwise null
+     */
+    private T cached(int index) {
+        List<T> rows = pages.get(index / PAGE_SIZE);
+        int offset = index % PAGE_SIZE;
+        // Rows deleted outside of this list can leave a page short
+        return rows != null && offset < rows.size() ? rows.get(offset) : null;
+    }
+
+    /**
+     * Reads a page in the background if it isn't already in memory or being read
+     * <p>
+     * If its rows were asked for while it was being read, they are replaced once it arrives
+     * so the table shows them
+     *
+     * @param page Page number
+     */
+    private void loadPage(int page) {
+        if (page < 0 || page * PAGE_SIZE >= size || pages.containsKey(page) || !loading.add(page)) {
+            return;
+        }
+
+        int startGeneration = generation;
+        DatabaseTask<List<T>> task = executor.submit(description, () -> queryPage(page));
+        task.onSuccess(rows -> {
+            if (startGeneration != generation) {
+                return;
+            }
+            loading.remove(page);
+            if (!pages.containsKey(page)) {
+                pages.put(page, new ArrayList<>(rows));
+            }
+            if (waiting.remove(page)) {
+                int from = page * PAGE_SIZE;
+                int to = Math.min(from + PAGE_SIZE, size);
+                beginChange();
+                for (int i = from; i < to; i++) {
+                    nextSet(i, null);
+                }
+                endChange();
+            }
+        });
+        task.onFailure(e -> {
+            if (startGeneration == generation) {
+                loading.remove(page);
+                waiting.remove(page);
+            }
+            e.printStackTrace();
+        });
+    }
+
+    /**
+     * Queries a page by keyset if its boundary is known, or by offset otherwise
+     * <p>
+     * Only reads fields that are fixed at call time, so it can run on a worker thread
+     *
+     * @param page Page number
+     * @return The page's rows
+     * @throws SQLException if something goes wrong
+     */
+    private List<T> queryPage(int page) throws SQLException {
+        List<String[]> knownBoundaries = boundaries;
+        if (page == 0) {
+            return pager.pageAfter(null, PAGE_SIZE);
+        } else if (page < knownBoundaries.size()) {
+            return pager.pageAfter(knownBoundaries.get(page), PAGE_SIZE);
+        } else {
+            return pager.pageAt((long) page * PAGE_SIZE, PAGE_SIZE);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as rows read, that many threads can add to without contending
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter() { }
+
+    /**
+     * Adds one
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * @param amount Amount to add
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * @return Current count
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    void reset() {
+        count.reset();
+    }
+
+}
@@ -0,0 +1,38 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for exporting one table to CSV
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@Name("org.dnsge.fbla.ebkmg.CsvExport")
+@Label("CSV Export")
+@Category({"Ebook Manager", "Export"})
+public final class CsvExportEvent extends Event {
+
+    @Label("Table")
+    private final String table;
+
+    @Label("Rows")
+    private long rows;
+
+    /**
+     * CsvExportEvent constructor
+     *
+     * @param table Name of the table being exported
+     */
+    public CsvExportEvent(String table) {
+        this.table = table;
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Continuous Java Flight Recorder recording of this program's events
+ * <p>
+ * Uses the JDK's low overhead {@code default} settings plus {@link QueryEvent},
+ * {@link RefreshEvent}, {@link ReportBatchEvent} and {@link CsvExportEvent}, keeping the last
+ * {@value #MAX_AGE_MINUTES} minutes on disk. Queries with less than {@value #QUERY_THRESHOLD_MILLIS} ms
+ * of database time are left out to keep it cheap; start a recording from JDK Mission Control or {@code jcmd} to see
+ * every query. Started with {@code -D}{@value #ENABLED_PROPERTY}{@code =true} or from the
+ * diagnostics popup, and dumped next to every error log, so freezes can be matched to the queries
+ * that were running.
+ *
+ * @author Daniel Sage
+ * @version 0.3
+ */
+public final class FlightRecording {
+
+    public final static String ENABLED_PROPERTY = "ebkmg.recording";
+
+    /**
+     * How many minutes of events the recording keeps; less if they take up more than its size limit
+     */
+    public final static long MAX_AGE_MINUTES = 30;
+    private final static long MAX_SIZE_BYTES = 64L * 1024 * 1024;
+    private final static long QUERY_THRESHOLD_MILLIS = 1;
+
+    private static Recording recording;
+
+    private FlightRecording() { }
+
+    /**
+     * Starts the recording if the {@value #ENABLED_PROPERTY} system property is {@code true}
+     */
+    public static void startIfEnabled() {
+        if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+            start();
+        }
+    }
+
+    /**
+     * Starts the recording if it isn't running
+     *
+     * @return Whether it is running; false if this JVM has no flight recorder
+     */
+    public static synchronized boolean start() {
+        if (recording != null) {
+            return true;
+        }
+        if (!FlightRecorder.isAvailable()) {
+            return false;
+        }
+
+        try {
+            Recording newRecording = new Recording(Configuration.getConfiguration("default"));
+            newRecording.setName("Ebook Manager");
+            newRecording.setToDisk(true);
+            newRecording.setMaxAge(Duration.ofMinutes(MAX_AGE_MINUTES));
+            newRecording.setMaxSize(MAX_SIZE_BYTES);
+            newRecording.enable(QueryEvent.class).with("databaseThreshold", QUERY_THRESHOLD_MILLIS + " ms");
+            newRecording.enable(RefreshEvent.class);
+            newRecording.enable(ReportBatchEvent.class);
+            newRecording.enable(CsvExportEvent.class);
+            newRecording.start();
+            recording = newRecording;
+            return true;
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Starts the recording if it isn't running, and writes it to a file when it is stopped or the JVM exits
+     * <p>
+     * The flight recorder writes the file itself, so it is saved even when the program is killed.
+     *
+     * @param destination File to write to, usually ending in {@code .jfr}
+     * @return Whether it is running; false if this JVM has no flight recorder
+     * @throws IOException if the file can't be written to
+     */
+    public static synchronized boolean startWritingTo(File destination) throws IOException {
+        if (!start()) {
+            return false;
+        }
+        recording.setDestination(destination.toPath());
+        recording.setDumpOnExit(true);
+        return true;
+    }
+
+    /**
+     * Stops the recording, writing it to its file if {@link #startWritingTo(File)} gave it one,
+     * and otherwise throwing away what it recorded
+     */
+    public static synchronized void stop() {
+        if (recording != null) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                recording.stop();
+            }
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * @return Whether the recording is running
+     */
+    public static synchronized boolean isRunning() {
+        return recording != null;
+    }
+
+    /**
+     * Writes what has been recorded so far to a file, leaving the recording running
+     *
+     * @param dumpFile File to write to, usually ending in {@code .jfr}
+     * @return Whether anything was written; false if the recording isn't running
+     * @throws IOException if it can't be written
+     */
+    public static synchronized boolean dump(File dumpFile) throws IOException {
+        if (recording == null) {
+            return false;
+        }
+        recording.dump(dumpFile.toPath());
+        return true;
+    }
+
+    /**
+     * Writes what has been recorded so far next to another file, with the same name but ending in {@code .jfr}
+     *
+     * @param file File the recording goes with, such as an error log
+     * @return The file written, or null if the recording isn't running or couldn't be written
+     */
+    public static File dumpBeside(File file) {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        File dumpFile = new File(file.getParentFile(), (extension > 0 ? name.substring(0, extension) : name) + ".jfr");
+        try {
+            return dump(dumpFile) ? dumpFile : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+}
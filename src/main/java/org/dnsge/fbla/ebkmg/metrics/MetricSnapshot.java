@@ -0,0 +1,89 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+/**
+ * Values of one metric at the moment {@link Metrics#snapshot()} was called
+ * <p>
+ * Counters and gauges only have a {@link #getValue() value}. Histograms use it for the number
+ * of values recorded and also have their total, mean, percentiles and maximum.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class MetricSnapshot {
+
+    /**
+     * Kind of metric
+     */
+    public enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private final String name;
+    private final Type type;
+    private final long value;
+    private final long total;
+    private final long p50;
+    private final long p99;
+    private final long max;
+
+    MetricSnapshot(String name, Type type, long value) {
+        this(name, type, value, 0, 0, 0, 0);
+    }
+
+    MetricSnapshot(String name, Histogram histogram) {
+        this(name, Type.HISTOGRAM, histogram.getCount(), histogram.getSum(),
+                histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax());
+    }
+
+    private MetricSnapshot(String name, Type type, long value, long total, long p50, long p99, long max) {
+        this.name = name;
+        this.type = type;
+        this.value = value;
+        this.total = total;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return Count of a counter, reading of a gauge, or number of values in a histogram
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return Sum of a histogram's values
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Mean of a histogram's values, or 0 if it has none
+     */
+    public double getMean() {
+        return value == 0 ? 0 : (double) total / value;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+}
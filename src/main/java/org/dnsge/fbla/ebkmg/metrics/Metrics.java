@@ -0,0 +1,158 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import org.dnsge.fbla.ebkmg.AppConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of every counter, histogram and gauge in the program
+ * <p>
+ * Metrics are created the first time their name is asked for and live until the program exits,
+ * so callers can keep them in static fields. Names are dotted paths such as
+ * {@code dao.students.queryForId}; histograms named by this program hold durations in nanoseconds.
+ * Recording is lock free, so metrics can be left on in production.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class Metrics {
+
+    private final static Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private final static Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private final static Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    static {
+        gauge("jvm.heapUsedBytes", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    }
+
+    private Metrics() { }
+
+    /**
+     * @param name Name of the counter
+     * @return The counter with that name, created if it doesn't exist yet
+     */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, ignored -> new Counter());
+    }
+
+    /**
+     * @param name Name of the histogram
+     * @return The histogram with that name, created if it doesn't exist yet
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, ignored -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, which is read each time a snapshot is taken
+     *
+     * @param name Name of the gauge; replaces any gauge with the same name
+     * @param reader Reads the gauge's current value; must be cheap and thread safe
+     */
+    public static void gauge(String name, LongSupplier reader) {
+        GAUGES.put(name, reader);
+    }
+
+    /**
+     * @return Current values of every metric, sorted by name; histograms that have no values yet are left out
+     */
+    public static List<MetricSnapshot> snapshot() {
+        List<MetricSnapshot> snapshots = new ArrayList<>();
+        COUNTERS.forEach((name, counter) -> snapshots.add(new MetricSnapshot(name, MetricSnapshot.Type.COUNTER, counter.get())));
+        HISTOGRAMS.forEach((name, histogram) -> {
+            if (histogram.getCount() > 0) {
+                snapshots.add(new MetricSnapshot(name, histogram));
+            }
+        });
+        GAUGES.forEach((name, reader) -> {
+            long value;
+            try {
+                value = reader.getAsLong();
+            } catch (RuntimeException e) {
+                value = -1; // e.g. read while disconnected
+            }
+            snapshots.add(new MetricSnapshot(name, MetricSnapshot.Type.GAUGE, value));
+        });
+        snapshots.sort(Comparator.comparing(MetricSnapshot::getName));
+        return snapshots;
+    }
+
+    /**
+     * Sets every counter and histogram back to zero; gauges are left alone
+     */
+    public static void reset() {
+        COUNTERS.values().forEach(Counter::reset);
+        HISTOGRAMS.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Writes every metric as a plain text table, with durations in milliseconds
+     *
+     * @param output Writer to write to; flushed but not closed
+     */
+    public static void writeReport(Writer output) {
+        PrintWriter writer = new PrintWriter(output);
+        writer.println(String.format("Ebook manager version %s metrics @ %s", AppConstants.VERSION,
+                AppConstants.ERROR_LOG_DATE_FORMAT.format(Instant.now())));
+        writer.println();
+        writer.println(String.format("%-44s %12s %12s %10s %10s %10s %10s",
+                "name", "count", "total ms", "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (MetricSnapshot metric : snapshot()) {
+            if (metric.getType() == MetricSnapshot.Type.HISTOGRAM) {
+                writer.println(String.format("%-44s %12d %12.1f %10.3f %10.3f %10.3f %10.3f",
+                        metric.getName(), metric.getValue(), millis(metric.getTotal()), millis(metric.getMean()),
+                        millis(metric.getP50()), millis(metric.getP99()), millis(metric.getMax())));
+            } else {
+                writer.println(String.format("%-44s %12d", metric.getName(), metric.getValue()));
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes {@link #writeReport(Writer) the report} to a file, replacing it if it exists
+     *
+     * @param dumpFile File to write to
+     * @throws IOException if it can't be written
+     */
+    public static void dump(File dumpFile) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(dumpFile.toPath(), StandardCharsets.UTF_8)) {
+            writeReport(writer);
+        }
+    }
+
+    /**
+     * Writes the report to a new file in the logs directory, named by the current time
+     *
+     * @return The file that was written
+     * @throws IOException if it can't be written
+     */
+    public static File dump() throws IOException {
+        AppConstants.createDirectories();
+        File dumpFile = new File(AppConstants.LOGS_DIRECTORY,
+                String.format("metrics@%s.txt", AppConstants.ERROR_LOG_DATE_FORMAT.format(Instant.now())));
+        dump(dumpFile);
+        return dumpFile;
+    }
+
+    /**
+     * @param nanos Duration in nanoseconds
+     * @return Duration in milliseconds
+     */
+    public static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingControl;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.Timespan;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flight recorder event for one SQL statement
+ * <p>
+ * The event's duration is the JDBC execute call. Its database time adds the time spent reading
+ * each row of a query's results, but not the caller's own work between rows, and it is committed
+ * once the results are closed. Recordings leave out statements whose database time is under the
+ * {@code databaseThreshold} setting, e.g. {@code "1 ms"}, which is 0 unless set. The statement is
+ * recorded by its shape, with literals replaced by {@code ?}, so the same query with different
+ * values can be grouped.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+@Name("org.dnsge.fbla.ebkmg.Query")
+@Label("SQL Statement")
+@Category({"Ebook Manager", "Database"})
+@Description("A statement run against the database, with the time spent executing it and reading its results")
+public final class QueryEvent extends Event {
+
+    @Label("Statement")
+    private final String statement;
+
+    @Label("Operation")
+    @Description("query, update, batch or execute")
+    private final String operation;
+
+    @Label("Rows")
+    @Description("Rows read by a query, or changed by an update or batch")
+    private long rows;
+
+    @Label("Database Time")
+    @Description("Time spent executing the statement and reading its rows")
+    @Timespan(Timespan.NANOSECONDS)
+    private long databaseTime;
+
+    @Label("Failed")
+    private boolean failed;
+
+    /**
+     * QueryEvent constructor
+     *
+     * @param statement Shape of the statement
+     * @param operation Kind of JDBC call that ran it
+     */
+    public QueryEvent(String statement, String operation) {
+        this.statement = statement;
+        this.operation = operation;
+    }
+
+    /**
+     * @return Whether a recording is collecting these events right now, so callers can skip the work of making them
+     */
+    public static boolean isRecording() {
+        return new QueryEvent(null, null).isEnabled();
+    }
+
+    public void addRows(long rows) {
+        this.rows += rows;
+    }
+
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+
+    public void setDatabaseTime(long databaseTime) {
+        this.databaseTime = databaseTime;
+    }
+
+    @Label("Database Time Threshold")
+    @Description("Leave out statements with less database time than this")
+    @SettingDefinition
+    protected boolean databaseThreshold(DatabaseThreshold threshold) {
+        return databaseTime >= threshold.nanos;
+    }
+
+    /**
+     * Setting that leaves out events by their database time, since the event's own duration and
+     * threshold only cover the execute call
+     * <p>
+     * Values are written like other flight recorder thresholds, e.g. {@code "20 ms"}, and the
+     * lowest value asked for by any running recording is used.
+     */
+    public final static class DatabaseThreshold extends SettingControl {
+
+        // "s" comes last since the other units end with it too
+        private final static String[] UNITS = {"ns", "us", "ms", "s"};
+        private final static TimeUnit[] TIME_UNITS = {TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS,
+                TimeUnit.MILLISECONDS, TimeUnit.SECONDS};
+
+        private String value = "0 ns";
+        private volatile long nanos;
+
+        @Override
+        public String combine(Set<String> values) {
+            String lowest = null;
+            for (String candidate : values) {
+                if (lowest == null || parse(candidate) < parse(lowest)) {
+                    lowest = candidate;
+                }
+            }
+            return lowest != null ? lowest : "0 ns";
+        }
+
+        @Override
+        public void setValue(String value) {
+            this.value = value;
+            this.nanos = parse(value);
+        }
+
+        @Override
+        public String getValue() {
+            return value;
+        }
+
+        private static long parse(String value) {
+            String trimmed = value.trim();
+            for (int i = 0; i < UNITS.length; i++) {
+                if (trimmed.endsWith(UNITS[i])) {
+                    String amount = trimmed.substring(0, trimmed.length() - UNITS[i].length()).trim();
+                    try {
+                        return TIME_UNITS[i].toNanos(Long.parseLong(amount));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+            return 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for reloading every table in the main window
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@Name("org.dnsge.fbla.ebkmg.Refresh")
+@Label("Refresh Everything")
+@Category({"Ebook Manager", "User Interface"})
+@Description("Both tables being reloaded, until their first rows were read")
+public final class RefreshEvent extends Event {
+
+    @Label("Completed")
+    @Description("False if the refresh failed or was replaced by a newer one")
+    private boolean completed;
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.dnsge.fbla.ebkmg.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for laying out one batch of a report's pages
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@Name("org.dnsge.fbla.ebkmg.ReportBatch")
+@Label("Report Page Batch")
+@Category({"Ebook Manager", "Reports"})
+@Description("A batch of report pages being laid out")
+public final class ReportBatchEvent extends Event {
+
+    @Label("Batch")
+    @Description("Position of the batch in the report, starting at 0")
+    private final int batch;
+
+    @Label("Rows")
+    private int rows;
+
+    /**
+     * ReportBatchEvent constructor
+     *
+     * @param batch Position of the batch in the report
+     */
+    public ReportBatchEvent(int batch) {
+        this.batch = batch;
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+}
@@ -1,25 +1,48 @@
 package org.dnsge.fbla.ebkmg.pdf;
 
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.GenericRawResults;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
 import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.metrics.Counter;
+import org.dnsge.fbla.ebkmg.metrics.Histogram;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+import org.dnsge.fbla.ebkmg.metrics.ReportBatchEvent;
+import org.dnsge.fbla.ebkmg.util.ProgressListener;
+import org.dnsge.fbla.ebkmg.util.WorkerThreads;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 /**
  * Class to generate reports about Students
+ * <p>
+ * Reports read from the database are timed in the {@code report.generate} histogram, and their
+ * students and pages are counted in {@code report.rows} and {@code report.pages}.
  *
  * @author Daniel Sage
  * @since 0.4
- * @version 0.1
+ * @version 0.5
  */
 @SuppressWarnings("deprecation")
 public class ReportGenerator {
@@ -31,80 +54,301 @@ public class ReportGenerator {
     private final static int HORZ_MARGIN = 50;
     private final static int VERT_MARGIN = 50;
 
-    private final static SimpleDateFormat FORMAT_DATE = new SimpleDateFormat("MMMM dd, YYY");
-    private final static SimpleDateFormat FORMAT_TIME = new SimpleDateFormat("hh:mm aa");
+    private final static int LINE_HEIGHT = 20;
+    private final static int TITLE_PAGE_FIRST_LINE = 651;
+    private final static int PAGE_FIRST_LINE = HEIGHT - VERT_MARGIN - 12;
+
+    private final static int PROGRESS_INTERVAL = 500;
+    private final static int PAGES_PER_SECTION = 50;
+
+    private final static Histogram REPORT_TIMER = Metrics.histogram("report.generate");
+    private final static Counter REPORT_ROWS = Metrics.counter("report.rows");
+    private final static Counter REPORT_PAGES = Metrics.counter("report.pages");
+
+    private final static DateTimeFormatter FORMAT_DATE = DateTimeFormatter.ofPattern("MMMM dd, YYY");
+    private final static DateTimeFormatter FORMAT_TIME = DateTimeFormatter.ofPattern("hh:mm a");
 
     /**
      * Creates a non-custom report
      *
      * @param saveFile File to save the pdf to
-     * @param students List of students to include in the report
+     * @param students List of students to include in the report, ideally
+     *                 with their ebooks loaded by {@link Student#preloadEbooks(List)}
      * @throws IOException if something goes wrong with fileio
+     * @see #generateReport(File, ProgressListener)
      */
     public static void generateReport(File saveFile, List<Student> students) throws IOException {
-        PDDocument doc = new PDDocument();
-        PDPage titlePage = new PDPage();
-        PDPageContentStream contentStream = new PDPageContentStream(doc, titlePage);
+        try (PDDocument doc = new PDDocument()) {
+            PageWriter writer = new PageWriter(doc, PDType1Font.COURIER, true);
+            for (Student student : filterList(students, Student::hasEbook)) {
+                writer.writeStudent(student);
+            }
+            writer.finish();
+
+            doc.save(saveFile);
+        }
+    }
+
+    /**
+     * Creates a non-custom report of every paired student, reading them from the database in chunks
+     * <p>
+     * Students are read one row at a time from a single query, and each page's content is moved
+     * to a temporary scratch file as soon as the page is full, so heap use stays flat however many
+     * students there are. Progress is reported and cancellation checked every
+     * {@value #PROGRESS_INTERVAL} students.
+     *
+     * @param saveFile File to save the pdf to
+     * @param listener Listener to report the number of students written to, or null
+     * @return Number of students in the report
+     * @throws IOException if something goes wrong with fileio, or {@link InterruptedIOException}
+     *                     if the thread is interrupted, in which case nothing is saved
+     * @throws SQLException if something goes wrong while reading students
+     */
+    public static long generateReport(File saveFile, ProgressListener listener) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long total = listener != null ? Student.countPaired() : -1;
+        long written = 0;
+
+        GenericRawResults<String[]> rows = queryPairedRows();
+        try (PDDocument doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+             CloseableIterator<String[]> iterator = rows.closeableIterator()) {
+            PageWriter writer = new PageWriter(doc, PDType1Font.COURIER, true);
+            int batchSize = linesPerPage(TITLE_PAGE_FIRST_LINE) + (PAGES_PER_SECTION - 1) * linesPerPage(PAGE_FIRST_LINE);
+            int batchRows = 0;
+            int batches = 0;
+            ReportBatchEvent batch = new ReportBatchEvent(batches);
+            batch.begin();
+            while (iterator.hasNext()) {
+                String[] row = iterator.next();
+                writer.writeLine(row);
+                written++;
+
+                if (++batchRows == batchSize) {
+                    batch.setRows(batchRows);
+                    batch.commit();
+                    batch = new ReportBatchEvent(++batches);
+                    batch.begin();
+                    batchSize = PAGES_PER_SECTION * linesPerPage(PAGE_FIRST_LINE);
+                    batchRows = 0;
+                }
+
+                if (written % PROGRESS_INTERVAL == 0) {
+                    if (listener != null) {
+                        listener.progress(written, total);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Report generation was cancelled");
+                    }
+                }
+            }
+            writer.finish();
+            if (batchRows > 0 || written == 0) {
+                batch.setRows(batchRows);
+                batch.commit();
+            }
 
-        drawTitleHeader(contentStream);
+            doc.save(saveFile);
+            REPORT_PAGES.add(doc.getNumberOfPages());
+        } finally {
+            rows.close();
+            REPORT_TIMER.recordSince(start);
+        }
+        REPORT_ROWS.add(written);
+        if (listener != null) {
+            listener.progress(written, total);
+        }
+        return written;
+    }
+
+    /**
+     * Creates a non-custom report of every paired student, laying out pages on several threads
+     * <p>
+     * Students are read in order as in {@link #generateReport(File, ProgressListener)} and split into
+     * sections of {@value #PAGES_PER_SECTION} pages. Each section is laid out and compressed into its own
+     * document on a worker thread, and the finished pages are then added to the report in order, so
+     * the result is the same as a sequential report. At most two sections per thread are waiting at
+     * once.
+     *
+     * @param saveFile File to save the pdf to
+     * @param listener Listener to report the number of students read to, or null
+     * @param threads Number of threads to lay out pages on; 1 lays them out on the calling thread
+     * @return Number of students in the report
+     * @throws IOException if something goes wrong with fileio, or {@link InterruptedIOException}
+     *                     if the thread is interrupted, in which case nothing is saved
+     * @throws SQLException if something goes wrong while reading students
+     */
+    public static long generateReport(File saveFile, ProgressListener listener, int threads) throws IOException, SQLException {
+        if (threads <= 1) {
+            return generateReport(saveFile, listener);
+        }
 
-        ArrayList<PDPage> pages = null;
+        long start = System.nanoTime();
+        long total = listener != null ? Student.countPaired() : -1;
+        long written = 0;
+        ExecutorService workers = WorkerThreads.newFixedExecutor("report-worker", threads);
+        Semaphore waitingSections = new Semaphore(threads * 2);
+        List<Future<PDDocument>> sections = new ArrayList<>();
 
-        students = filterList(students, Student::hasEbook);
+        GenericRawResults<String[]> rows = queryPairedRows();
+        try (PDDocument doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+             CloseableIterator<String[]> iterator = rows.closeableIterator()) {
+            int sectionSize = linesPerPage(TITLE_PAGE_FIRST_LINE) + (PAGES_PER_SECTION - 1) * linesPerPage(PAGE_FIRST_LINE);
+            List<String[]> section = new ArrayList<>(sectionSize);
 
-        if (students.size() > 0) {
-            int heightAt = 651;
-            int index = printManyStudents(contentStream, students, 0, heightAt);
+            while (iterator.hasNext()) {
+                section.add(iterator.next());
+                written++;
 
-            pages = new ArrayList<>();
-            while (index < students.size()) {
-                heightAt = HEIGHT - VERT_MARGIN - 12;
-                PDPage newPage = new PDPage();
-                PDPageContentStream newStream = new PDPageContentStream(doc, newPage);
+                if (section.size() == sectionSize) {
+                    sections.add(submitSection(workers, waitingSections, section, sections.size()));
+                    sectionSize = PAGES_PER_SECTION * linesPerPage(PAGE_FIRST_LINE);
+                    section = new ArrayList<>(sectionSize);
+                }
+                if (written % PROGRESS_INTERVAL == 0) {
+                    if (listener != null) {
+                        listener.progress(written, total);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Report generation was cancelled");
+                    }
+                }
+            }
+            if (!section.isEmpty() || sections.isEmpty()) {
+                sections.add(submitSection(workers, waitingSections, section, sections.size()));
+            }
 
-                index = printManyStudents(newStream, students, index, heightAt);
-                pages.add(newPage);
-                newStream.close();
+            for (Future<PDDocument> future : sections) {
+                for (PDPage page : awaitSection(future).getPages()) {
+                    doc.importPage(page);
+                }
             }
-        } else {
-            contentStream.beginText();
-            contentStream.newLineAtOffset(HORZ_MARGIN, 665);
-            contentStream.showText("There are no students that are paired with an Ebook.");
-            contentStream.endText();
+            doc.save(saveFile);
+            REPORT_PAGES.add(doc.getNumberOfPages());
+        } finally {
+            rows.close();
+            closeSections(workers, sections);
+            REPORT_TIMER.recordSince(start);
+        }
+        REPORT_ROWS.add(written);
+        if (listener != null) {
+            listener.progress(written, total);
+        }
+        return written;
+    }
+
+    /**
+     * Starts laying out a section of the report, waiting first if too many sections are already waiting
+     *
+     * @param workers Executor to lay out the section on
+     * @param waitingSections Permits for sections that haven't been laid out yet
+     * @param rows Rows of the section
+     * @param index Position of the section in the report; the first starts with the title page
+     * @return Future document holding the section's pages
+     * @throws IOException if the font can't be loaded, or {@link InterruptedIOException} if the thread is interrupted
+     */
+    private static Future<PDDocument> submitSection(ExecutorService workers, Semaphore waitingSections,
+                                                    List<String[]> rows, int index) throws IOException {
+        try {
+            waitingSections.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Report generation was cancelled");
         }
 
-        contentStream.close();
-        doc.addPage(titlePage);
+        // Fonts cache their encodings in a plain HashMap, so each section gets its own copy
+        PDFont font = new PDType1Font(new COSDictionary(PDType1Font.COURIER.getCOSObject()));
+        return workers.submit(() -> {
+            ReportBatchEvent batch = new ReportBatchEvent(index);
+            batch.begin();
+            PDDocument sectionDoc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+            try {
+                PageWriter writer = new PageWriter(sectionDoc, font, index == 0);
+                for (String[] row : rows) {
+                    writer.writeLine(row);
+                }
+                writer.finish();
+                batch.setRows(rows.size());
+                batch.commit();
+                return sectionDoc;
+            } catch (IOException | RuntimeException e) {
+                sectionDoc.close();
+                throw e;
+            } finally {
+                waitingSections.release();
+            }
+        });
+    }
 
-        if (pages != null) {
-            pages.forEach(doc::addPage);
+    /**
+     * Waits for a section to be laid out
+     *
+     * @param future Future section
+     * @return Document holding the section's pages, which must stay open until the report is saved
+     * @throws IOException if laying out the section failed, or {@link InterruptedIOException} if the thread is interrupted
+     */
+    private static PDDocument awaitSection(Future<PDDocument> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Report generation was cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Couldn't lay out part of the report", e.getCause());
         }
+    }
 
-        doc.save(saveFile);
-        doc.close();
+    /**
+     * Stops the workers and closes the documents of every section that was laid out
+     *
+     * @param workers Executor the sections were laid out on
+     * @param sections Future sections, some of which may have failed or never started
+     */
+    private static void closeSections(ExecutorService workers, List<Future<PDDocument>> sections) {
+        for (Runnable neverStarted : workers.shutdownNow()) {
+            ((Future<?>) neverStarted).cancel(false);
+        }
+        try {
+            // Sections that already started can't be stopped part way, but each one is short
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Future<PDDocument> future : sections) {
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    future.get().close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | IOException e) {
+                    // Failed sections close their own documents
+                }
+            }
+        }
     }
 
     /**
-     * Prints out as many students that fit on a page as possible
+     * Queries the rows of every paired student for a report
+     * <p>
+     * Raw rows skip the identity map, which would otherwise fill up with every student in the report.
      *
-     * @param stream {@code PDPageContentStream} to print to
-     * @param students List of students to include
-     * @param startIndex start index of the students list
-     * @param startHeight start height on the page
-     * @return the index that the loop finished on
-     * @throws IOException if something goes wrong with writing information
+     * @return First name, last name, student ID, ebook name and ebook code of each paired student
+     * @throws SQLException if something goes wrong
      */
-    private static int printManyStudents(PDPageContentStream stream, List<Student> students, int startIndex, int startHeight) throws IOException {
-        int i = startIndex;
-        int rHeight = startHeight;
-        while (rHeight > VERT_MARGIN && i < students.size()) {
-            renderStudentInformation(stream, students.get(i), rHeight);
-            i++;
-            rHeight -= 20;
-        }
-        return i;
+    private static GenericRawResults<String[]> queryPairedRows() throws SQLException {
+        return SQLiteConnector.getInstance().getStudentDao().queryRaw(
+                "SELECT students.firstName, students.lastName, students.studentId, ebooks.name, ebooks.code "
+                        + "FROM students JOIN ebooks ON ebooks.code = students.ebookCode ORDER BY students.id");
     }
 
+    /**
+     * @param firstLine Height of the first line on a page
+     * @return Number of student lines that fit on the page
+     */
+    private static int linesPerPage(int firstLine) {
+        return (firstLine - VERT_MARGIN - 1) / LINE_HEIGHT + 1;
+    }
 
     /**
      * Draws the headers on a report
@@ -127,7 +371,7 @@ public class ReportGenerator {
         stream.newLineAtOffset(HORZ_MARGIN, 691);
         stream.setFont(PDType1Font.HELVETICA, 12);
 
-        Date now = new Date();
+        LocalDateTime now = LocalDateTime.now();
 
         stream.showText("Report generated on ");
         stream.setFont(PDType1Font.HELVETICA_BOLD, 12);
@@ -141,32 +385,52 @@ public class ReportGenerator {
      * Renders a single line with student information
      *
      * @param stream {@code PDPageContentStream} to render to
+     * @param font Font to render with
      * @param stu {@link Student} object to render IF it has a book currently redeemed & paired
      * @param heightAt height to render at
      * @throws IOException if something goes wrong while rendering
      * @apiNote Uses depreciated methods in pdfbox
      */
-    private static void renderStudentInformation(PDPageContentStream stream, Student stu, int heightAt) throws IOException {
-        if (stu.getOwnedEbook() != null) {
-            stream.beginText();
-            stream.newLineAtOffset(HORZ_MARGIN, heightAt);
-            stream.setFont(PDType1Font.COURIER, 12);
-
-            String renderString = String.format("%s %s (%s) assigned book '%s' (code %s)",
-                    stu.getFirstName(),
-                    stu.getLastName(),
-                    stu.getStudentId(),
-                    stu.getOwnedEbook().getName(),
-                    stu.getOwnedEbook().getCode()
-            );
-
-            if (renderString.length() > 71) {
-                renderString = renderString.substring(0, 68) + "...";
-            }
+    private static void renderStudentInformation(PDPageContentStream stream, PDFont font, Student stu, int heightAt) throws IOException {
+        Ebook ebook = stu.getOwnedEbook();
+        if (ebook != null) {
+            renderLine(stream, font, stu.getFirstName(), stu.getLastName(), stu.getStudentId(), ebook.getName(), ebook.getCode(), heightAt);
+        }
+    }
+
+    /**
+     * Renders a single line about a student and their ebook
+     *
+     * @param stream {@code PDPageContentStream} to render to
+     * @param font Font to render with
+     * @param firstName Student's first name
+     * @param lastName Student's last name
+     * @param studentId Student's ID
+     * @param ebookName Name of the student's ebook
+     * @param ebookCode Code of the student's ebook
+     * @param heightAt height to render at
+     * @throws IOException if something goes wrong while rendering
+     */
+    private static void renderLine(PDPageContentStream stream, PDFont font, String firstName, String lastName, String studentId,
+                                   String ebookName, String ebookCode, int heightAt) throws IOException {
+        stream.beginText();
+        stream.newLineAtOffset(HORZ_MARGIN, heightAt);
+        stream.setFont(font, 12);
 
-            stream.showText(renderString);
-            stream.endText();
+        String renderString = String.format("%s %s (%s) assigned book '%s' (code %s)",
+                firstName,
+                lastName,
+                studentId,
+                ebookName,
+                ebookCode
+        );
+
+        if (renderString.length() > 71) {
+            renderString = renderString.substring(0, 68) + "...";
         }
+
+        stream.showText(renderString);
+        stream.endText();
     }
 
     /**
@@ -187,4 +451,84 @@ public class ReportGenerator {
 
         return r;
     }
+
+    /**
+     * Lays out student lines one after another, starting a new page whenever one fills up
+     * <p>
+     * A page's content stream is closed as soon as the next page starts, so finished pages
+     * don't keep growing buffers open.
+     */
+    private final static class PageWriter {
+        private final PDDocument doc;
+        private final PDFont font;
+        private final boolean titlePage;
+        private PDPageContentStream stream;
+        private int heightAt = VERT_MARGIN;
+        private boolean wroteStudent = false;
+
+        /**
+         * @param doc Document to add pages to
+         * @param font Font for student lines
+         * @param titlePage Whether to start with the title page, or with a blank page when the first line is written
+         * @throws IOException if something goes wrong with writing information
+         */
+        PageWriter(PDDocument doc, PDFont font, boolean titlePage) throws IOException {
+            this.doc = doc;
+            this.font = font;
+            this.titlePage = titlePage;
+            if (titlePage) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                stream = new PDPageContentStream(doc, page);
+                drawTitleHeader(stream);
+                heightAt = TITLE_PAGE_FIRST_LINE;
+            }
+        }
+
+        void writeStudent(Student student) throws IOException {
+            startLine();
+            renderStudentInformation(stream, font, student, heightAt);
+            heightAt -= LINE_HEIGHT;
+        }
+
+        /**
+         * @param row First name, last name, student ID, ebook name and ebook code
+         * @throws IOException if something goes wrong with writing information
+         */
+        void writeLine(String[] row) throws IOException {
+            startLine();
+            renderLine(stream, font, row[0], row[1], row[2], row[3], row[4], heightAt);
+            heightAt -= LINE_HEIGHT;
+        }
+
+        private void startLine() throws IOException {
+            if (heightAt <= VERT_MARGIN) {
+                if (stream != null) {
+                    stream.close();
+                }
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                stream = new PDPageContentStream(doc, page);
+                heightAt = PAGE_FIRST_LINE;
+            }
+            wroteStudent = true;
+        }
+
+        /**
+         * Notes when there was nobody to list, and closes the last page
+         *
+         * @throws IOException if something goes wrong with writing information
+         */
+        void finish() throws IOException {
+            if (titlePage && !wroteStudent) {
+                stream.beginText();
+                stream.newLineAtOffset(HORZ_MARGIN, 665);
+                stream.showText("There are no students that are paired with an Ebook.");
+                stream.endText();
+            }
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,227 @@
+package org.dnsge.fbla.ebkmg.popup;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import org.dnsge.fbla.ebkmg.db.AssignmentEngine;
+import org.dnsge.fbla.ebkmg.db.DatabaseExecutor;
+import org.dnsge.fbla.ebkmg.db.DatabaseTask;
+import org.dnsge.fbla.ebkmg.db.PairingService;
+import org.dnsge.fbla.ebkmg.util.Pair;
+
+import java.util.List;
+
+/**
+ * Class that creates a popup for giving one title to every unpaired student in a grade
+ * <p>
+ * Nothing is changed by the popup; it previews an {@link AssignmentEngine.Plan} and returns
+ * it if the user chooses to assign it.
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class AssignmentPopup {
+
+    private final DatabaseExecutor executor;
+
+    private Stage myStage;
+    private ChoiceBox<String> gradeField;
+    private ChoiceBox<String> titleField;
+    private Label summaryLabel;
+    private TableView<PairingService.Pairing> tableView;
+    private Button previewButton;
+    private Button assignButton;
+
+    private AssignmentEngine.Plan plan;
+    private boolean wantSave = false;
+
+    /**
+     * AssignmentPopup constructor
+     *
+     * @param executor Executor to read the database with
+     */
+    public AssignmentPopup(DatabaseExecutor executor) {
+        this.executor = executor;
+
+        AnchorPane root = new AnchorPane();
+        root.setPrefSize(500, 600);
+        root.setPadding(new Insets(5));
+
+        GridPane mainGrid = new GridPane();
+        mainGrid.setHgap(5);
+        mainGrid.setVgap(7);
+        mainGrid.setPadding(new Insets(10));
+
+        // Choices
+
+        gradeField = new ChoiceBox<>();
+        gradeField.setItems(FXCollections.observableArrayList("9", "10", "11", "12"));
+        gradeField.setPrefWidth(50);
+        titleField = new ChoiceBox<>();
+        titleField.setPrefWidth(250);
+        gradeField.valueProperty().addListener((observable, oldValue, newValue) -> clearPlan());
+        titleField.valueProperty().addListener((observable, oldValue, newValue) -> clearPlan());
+
+        previewButton = new Button("Preview");
+        previewButton.setOnAction(event -> preview());
+
+        // Preview table
+
+        tableView = new TableView<>();
+        TableColumn<PairingService.Pairing, String> lastNameColumn = new TableColumn<>("Last Name");
+        TableColumn<PairingService.Pairing, String> firstNameColumn = new TableColumn<>("First Name");
+        TableColumn<PairingService.Pairing, String> studentIdColumn = new TableColumn<>("Student ID");
+        TableColumn<PairingService.Pairing, String> codeColumn = new TableColumn<>("Ebook Code");
+        lastNameColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getStudent().getLastName()));
+        firstNameColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getStudent().getFirstName()));
+        studentIdColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getStudent().getStudentId()));
+        codeColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getEbook().getCode()));
+        tableView.getColumns().add(lastNameColumn);
+        tableView.getColumns().add(firstNameColumn);
+        tableView.getColumns().add(studentIdColumn);
+        tableView.getColumns().add(codeColumn);
+        tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        tableView.setPlaceholder(new Label("Choose a grade and title, then press Preview"));
+        GridPane.setHgrow(tableView, Priority.ALWAYS);
+        GridPane.setVgrow(tableView, Priority.ALWAYS);
+
+        summaryLabel = new Label();
+        summaryLabel.setWrapText(true);
+
+        // Buttons
+
+        assignButton = new Button("Assign");
+        assignButton.setDisable(true);
+        Button cancelButton = new Button("Cancel");
+        HBox buttonBox = new HBox(5);
+        buttonBox.setAlignment(Pos.CENTER_RIGHT);
+        buttonBox.getChildren().addAll(cancelButton, assignButton);
+
+        cancelButton.setOnAction(event -> myStage.close());
+        assignButton.setOnAction(event -> {
+            wantSave = true;
+            myStage.close();
+        });
+
+        // Grid and Root setup
+
+        mainGrid.add(new Label("Grade"), 0, 0);
+        mainGrid.add(gradeField, 1, 0);
+        mainGrid.add(new Label("Ebook Name"), 0, 1);
+        mainGrid.add(titleField, 1, 1);
+        mainGrid.add(previewButton, 2, 1);
+        mainGrid.add(tableView, 0, 2, 3, 1);
+        mainGrid.add(summaryLabel, 0, 3, 3, 1);
+        mainGrid.add(buttonBox, 0, 4, 3, 1);
+        root.getChildren().add(mainGrid);
+        AnchorPane.setTopAnchor(mainGrid, 0.0);
+        AnchorPane.setBottomAnchor(mainGrid, 0.0);
+        AnchorPane.setLeftAnchor(mainGrid, 0.0);
+        AnchorPane.setRightAnchor(mainGrid, 0.0);
+
+        Scene myScene = new Scene(root);
+        myStage = new Stage();
+
+        myStage.setScene(myScene);
+        myStage.setTitle("Assign Ebooks to Grade");
+        myStage.initModality(Modality.APPLICATION_MODAL);
+        myStage.setResizable(false);
+
+        loadTitles();
+    }
+
+    /**
+     * Fills the title choices with every title that has an unowned ebook
+     */
+    private void loadTitles() {
+        previewButton.setDisable(true);
+        DatabaseTask<List<String>> task = executor.submit("Reading ebook titles",
+                AssignmentEngine::titlesWithUnownedEbooks);
+        task.onSuccess(titles -> {
+            titleField.setItems(FXCollections.observableArrayList(titles));
+            previewButton.setDisable(false);
+            if (titles.isEmpty()) {
+                summaryLabel.setText("Every ebook is already paired with a student.");
+            }
+        });
+        task.onFailure(e -> {
+            e.printStackTrace();
+            AlertCreator.errorUser("There was an issue reading the ebook titles");
+        });
+    }
+
+    /**
+     * Makes a plan for the chosen grade and title and shows it
+     */
+    private void preview() {
+        String grade = gradeField.getValue();
+        String title = titleField.getValue();
+        if (grade == null || title == null) {
+            AlertCreator.errorUser("Choose a grade and an ebook name first");
+            return;
+        }
+
+        clearPlan();
+        previewButton.setDisable(true);
+        summaryLabel.setText("Finding unpaired students...");
+        DatabaseTask<AssignmentEngine.Plan> task = executor.submit("Planning assignment",
+                () -> AssignmentEngine.plan(grade, title));
+        task.onSuccess(newPlan -> {
+            previewButton.setDisable(false);
+            if (!grade.equals(gradeField.getValue()) || !title.equals(titleField.getValue())) {
+                summaryLabel.setText("");
+                return; // choices changed while planning
+            }
+
+            plan = newPlan;
+            tableView.setItems(FXCollections.observableArrayList(plan.getPairings()));
+            assignButton.setDisable(plan.getPairings().isEmpty());
+            summaryLabel.setText(summarize(plan));
+        });
+        task.onFailure(e -> {
+            e.printStackTrace();
+            previewButton.setDisable(false);
+            summaryLabel.setText("");
+            AlertCreator.errorUser("There was an issue finding unpaired students");
+        });
+    }
+
+    private void clearPlan() {
+        plan = null;
+        tableView.getItems().clear();
+        assignButton.setDisable(true);
+        summaryLabel.setText("");
+    }
+
+    private static String summarize(AssignmentEngine.Plan plan) {
+        StringBuilder summary = new StringBuilder(String.format("%,d students in grade %s will be given '%s'.",
+                plan.getPairings().size(), plan.getGrade(), plan.getEbookName()));
+        if (plan.getUnmatchedStudents() > 0) {
+            summary.append(String.format(" %,d more unpaired students won't get one because there aren't enough codes.",
+                    plan.getUnmatchedStudents()));
+        }
+        if (plan.getUnusedEbooks() > 0) {
+            summary.append(String.format(" %,d codes will be left over.", plan.getUnusedEbooks()));
+        }
+        return summary.toString();
+    }
+
+    public Pair<AssignmentEngine.Plan, Boolean> showAndWait() {
+        myStage.showAndWait();
+        return new Pair<>(plan, wantSave && plan != null);
+    }
+
+}
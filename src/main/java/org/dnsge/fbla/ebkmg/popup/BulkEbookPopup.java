@@ -0,0 +1,137 @@
+package org.dnsge.fbla.ebkmg.popup;
+
+import javafx.geometry.HPos;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.geometry.VPos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import org.dnsge.fbla.ebkmg.util.Pair;
+
+/**
+ * Class that allows for the creation of popups that ask for the title
+ * (and optionally the number of codes) of a batch of Ebooks
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class BulkEbookPopup {
+
+    private final static int MAX_COUNT = 1_000_000;
+
+    private TextField nameField;
+    private TextField countField;
+    private Stage myStage;
+
+    private boolean wantSave = false;
+
+    /**
+     * BulkEbookPopup constructor
+     *
+     * @param title Popup title and header
+     * @param askForCount Whether to ask how many codes to generate
+     */
+    public BulkEbookPopup(String title, boolean askForCount) {
+        // Create containers
+        AnchorPane root = new AnchorPane();
+        root.setPrefSize(300, 150);
+        root.setPadding(new Insets(5));
+
+        GridPane mainGrid = new GridPane();
+        mainGrid.setPrefSize(300, 150);
+        GridPane.setHgrow(mainGrid, Priority.ALWAYS);
+        GridPane.setVgrow(mainGrid, Priority.ALWAYS);
+        GridPane.setMargin(mainGrid, new Insets(5));
+        mainGrid.setHgap(5);
+        mainGrid.setVgap(7);
+        mainGrid.setPadding(new Insets(10));
+
+        // Create labels
+        Text header = new Text(title);
+        header.setFont(new Font(20));
+        GridPane.setHalignment(header, HPos.CENTER);
+        GridPane.setValignment(header, VPos.CENTER);
+        GridPane.setHgrow(header, Priority.ALWAYS);
+
+        Label nameLabel = new Label("Ebook Name");
+        Label countLabel = new Label("Number of Codes");
+
+        // Create buttons
+        HBox buttonsBox = new HBox(5);
+        buttonsBox.setPadding(new Insets(5));
+        buttonsBox.setAlignment(Pos.CENTER_RIGHT);
+        Button saveButton = new Button("Save");
+        Button cancelButton = new Button("Cancel");
+
+        // Create text fields
+        nameField = new TextField();
+        countField = new TextField();
+
+        GridPane.setHgrow(nameField, Priority.ALWAYS);
+        GridPane.setHgrow(countField, Priority.ALWAYS);
+
+        // Fill containers
+        buttonsBox.getChildren().addAll(saveButton, cancelButton);
+
+        mainGrid.add(header, 0, 0, 2, 1);
+        mainGrid.add(nameLabel, 0, 1);
+        mainGrid.add(nameField, 1, 1);
+        if (askForCount) {
+            mainGrid.add(countLabel, 0, 2);
+            mainGrid.add(countField, 1, 2);
+        }
+        mainGrid.add(buttonsBox, 1, 3);
+
+        root.getChildren().add(mainGrid);
+
+        // Set up scene & stage & event listeners
+        Scene myScene = new Scene(root);
+        myStage = new Stage();
+
+        myStage.setScene(myScene);
+        myStage.setTitle(title);
+        myStage.initModality(Modality.APPLICATION_MODAL);
+        myStage.setResizable(false);
+
+        saveButton.setOnAction(e -> {
+            if (nameField.getText().trim().isEmpty()) {
+                AlertCreator.errorUser("You need to give the Ebooks a name");
+            } else if (askForCount && getCount() <= 0) {
+                AlertCreator.errorUser(String.format("The number of codes must be between 1 and %,d", MAX_COUNT));
+            } else {
+                wantSave = true;
+                myStage.close();
+            }
+        });
+
+        cancelButton.setOnAction(e -> myStage.close());
+    }
+
+    /**
+     * @return The number of codes entered, or -1 if it isn't a valid number
+     */
+    public int getCount() {
+        try {
+            int count = Integer.parseInt(countField.getText().trim().replace(",", ""));
+            return count > 0 && count <= MAX_COUNT ? count : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public Pair<String, Boolean> showAndWait() {
+        myStage.showAndWait();
+        return new Pair<>(nameField.getText().trim(), wantSave);
+    }
+
+}
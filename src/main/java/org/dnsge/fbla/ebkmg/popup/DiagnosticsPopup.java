@@ -0,0 +1,164 @@
+package org.dnsge.fbla.ebkmg.popup;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import org.dnsge.fbla.ebkmg.metrics.FlightRecording;
+import org.dnsge.fbla.ebkmg.metrics.MetricSnapshot;
+import org.dnsge.fbla.ebkmg.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Class that creates a popup showing every metric, for finding where time goes
+ * <p>
+ * Durations are shown in milliseconds. The metrics can be reset, or saved to a file in the
+ * logs directory to attach to a bug report. The {@link FlightRecording} can also be turned on
+ * here, and is saved along with the metrics while it runs.
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public class DiagnosticsPopup {
+
+    private Stage myStage;
+    private TableView<MetricSnapshot> tableView;
+
+    /**
+     * DiagnosticsPopup constructor
+     */
+    public DiagnosticsPopup() {
+        AnchorPane root = new AnchorPane();
+        root.setPrefSize(760, 520);
+        root.setPadding(new Insets(5));
+
+        VBox all = new VBox(7);
+        all.setPadding(new Insets(10));
+
+        // Metrics table
+
+        tableView = new TableView<>();
+        TableColumn<MetricSnapshot, String> nameColumn = new TableColumn<>("Metric");
+        TableColumn<MetricSnapshot, String> valueColumn = new TableColumn<>("Count / Value");
+        nameColumn.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getName()));
+        valueColumn.setCellValueFactory(param -> new SimpleStringProperty(String.format("%,d", param.getValue().getValue())));
+        nameColumn.setPrefWidth(260);
+        tableView.getColumns().add(nameColumn);
+        tableView.getColumns().add(valueColumn);
+        tableView.getColumns().add(durationColumn("Total ms", MetricSnapshot::getTotal));
+        tableView.getColumns().add(durationColumn("Mean ms", MetricSnapshot::getMean));
+        tableView.getColumns().add(durationColumn("p50 ms", MetricSnapshot::getP50));
+        tableView.getColumns().add(durationColumn("p99 ms", MetricSnapshot::getP99));
+        tableView.getColumns().add(durationColumn("Max ms", MetricSnapshot::getMax));
+        tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        tableView.setPlaceholder(new Label("Nothing has been recorded yet"));
+        VBox.setVgrow(tableView, Priority.ALWAYS);
+
+        // Buttons
+
+        CheckBox recordingCheckBox = new CheckBox("Keep a flight recording");
+        recordingCheckBox.setSelected(FlightRecording.isRunning());
+        recordingCheckBox.setOnAction(event -> {
+            if (!recordingCheckBox.isSelected()) {
+                FlightRecording.stop();
+            } else if (!FlightRecording.start()) {
+                recordingCheckBox.setSelected(false);
+                AlertCreator.errorUser("Flight recordings aren't supported by this Java installation.");
+            }
+        });
+        Pane spacer = new Pane();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+
+        Button refreshButton = new Button("Refresh");
+        Button resetButton = new Button("Reset");
+        Button saveButton = new Button("Save to File");
+        Button closeButton = new Button("Close");
+        HBox buttonBox = new HBox(5);
+        buttonBox.setAlignment(Pos.CENTER_LEFT);
+        buttonBox.getChildren().addAll(recordingCheckBox, spacer, refreshButton, resetButton, saveButton, closeButton);
+
+        refreshButton.setOnAction(event -> refresh());
+        resetButton.setOnAction(event -> {
+            Metrics.reset();
+            refresh();
+        });
+        saveButton.setOnAction(event -> {
+            try {
+                File dumpFile = Metrics.dump();
+                File recordingFile = FlightRecording.dumpBeside(dumpFile);
+                AlertCreator.infoUser(recordingFile != null
+                        ? String.format("Metrics and flight recording saved to %s", dumpFile.getParentFile().getAbsolutePath())
+                        : String.format("Metrics saved to %s", dumpFile.getAbsolutePath()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                AlertCreator.errorUser("There was an issue saving the metrics. " + e.getMessage());
+            }
+        });
+        closeButton.setOnAction(event -> myStage.close());
+
+        // Root setup
+
+        all.getChildren().addAll(tableView, buttonBox);
+        root.getChildren().add(all);
+        AnchorPane.setTopAnchor(all, 0.0);
+        AnchorPane.setBottomAnchor(all, 0.0);
+        AnchorPane.setLeftAnchor(all, 0.0);
+        AnchorPane.setRightAnchor(all, 0.0);
+
+        Scene myScene = new Scene(root);
+        myStage = new Stage();
+
+        myStage.setScene(myScene);
+        myStage.setTitle("Diagnostics");
+        myStage.initModality(Modality.APPLICATION_MODAL);
+
+        refresh();
+    }
+
+    /**
+     * Makes a column showing a histogram's duration in milliseconds, left blank for other metrics
+     *
+     * @param title Column title
+     * @param duration Reads the duration in nanoseconds
+     * @return The column
+     */
+    private static TableColumn<MetricSnapshot, String> durationColumn(String title, ToDoubleFunction<MetricSnapshot> duration) {
+        TableColumn<MetricSnapshot, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(param -> new SimpleStringProperty(
+                param.getValue().getType() == MetricSnapshot.Type.HISTOGRAM
+                        ? String.format("%,.3f", Metrics.millis(duration.applyAsDouble(param.getValue())))
+                        : ""));
+        return column;
+    }
+
+    /**
+     * Shows the current value of every metric
+     */
+    private void refresh() {
+        tableView.setItems(FXCollections.observableArrayList(Metrics.snapshot()));
+    }
+
+    /**
+     * Shows the popup
+     */
+    public void showAndWait() {
+        myStage.showAndWait();
+    }
+
+}
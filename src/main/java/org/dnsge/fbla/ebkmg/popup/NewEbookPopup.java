@@ -19,11 +19,13 @@ import javafx.stage.Stage;
 import org.dnsge.fbla.ebkmg.db.Ebook;
 import org.dnsge.fbla.ebkmg.util.Pair;
 
+import java.sql.SQLException;
+
 /**
  * Class that allows for the creation of popups for new Ebooks
  *
  * @author Daniel Sage
- * @version 0.1
+ * @version 0.2
  */
 public class NewEbookPopup {
 
@@ -95,7 +97,16 @@ public class NewEbookPopup {
 
         saveButton.setOnAction(e -> {
             if (filledOutProperly()) {
-                if (!Ebook.exists(redemptionField.getText().trim())) {
+                boolean exists;
+                try {
+                    exists = Ebook.exists(redemptionField.getText().trim());
+                } catch (SQLException ex) {
+                    AlertCreator.errorUser("There was an issue checking Ebook codes");
+                    ex.printStackTrace();
+                    return;
+                }
+
+                if (!exists) {
                     System.out.println(redemptionField.getText().trim());
                     System.out.println(redemptionField.getText().trim().isEmpty());
                     wantSave = true;
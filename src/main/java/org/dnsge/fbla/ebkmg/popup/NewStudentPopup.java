@@ -21,11 +21,13 @@ import javafx.stage.Stage;
 import org.dnsge.fbla.ebkmg.db.Student;
 import org.dnsge.fbla.ebkmg.util.Pair;
 
+import java.sql.SQLException;
+
 /**
  * Class that allows for the creation of popups for new Students
  *
  * @author Daniel Sage
- * @version 0.1
+ * @version 0.2
  */
 public class NewStudentPopup {
 
@@ -101,7 +103,16 @@ public class NewStudentPopup {
 
         saveButton.setOnAction(e -> {
             if (filledOutProperly()) {
-                if (!Student.studentWithIdExists(studentIdField.getText().trim())) {
+                boolean exists;
+                try {
+                    exists = Student.studentWithIdExists(studentIdField.getText().trim());
+                } catch (SQLException ex) {
+                    AlertCreator.errorUser("There was an issue checking Student IDs");
+                    ex.printStackTrace();
+                    return;
+                }
+
+                if (!exists) {
                     wantSave = true;
                     myStage.close();
                 } else {
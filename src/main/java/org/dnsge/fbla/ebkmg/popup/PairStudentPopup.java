@@ -1,5 +1,6 @@
 package org.dnsge.fbla.ebkmg.popup;
 
+import javafx.animation.PauseTransition;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -9,13 +10,16 @@ import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
-import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import javafx.util.Duration;
+import org.dnsge.fbla.ebkmg.db.KeysetPager;
+import org.dnsge.fbla.ebkmg.db.SearchIndex;
 import org.dnsge.fbla.ebkmg.db.Student;
 import org.dnsge.fbla.ebkmg.util.Pair;
 
@@ -24,14 +28,20 @@ import java.util.List;
 
 /**
  * Class that allows for the creation of a popup to select a student for pairing with an ebook
+ * <p>
+ * Students are found with a search box instead of listing every student at once
  *
  * @author Daniel Sage
- * @version 0.1
+ * @version 0.2
  */
 public class PairStudentPopup {
 
+    private final static int MAX_RESULTS = 200;
+    private final static Duration SEARCH_DELAY = Duration.millis(150);
+
     private Stage myStage;
     private TableView<Student> tableView;
+    private TextField searchField;
     private Button selectButton;
 
     private boolean wantSave = false;
@@ -68,14 +78,14 @@ public class PairStudentPopup {
         lastNameColumn.setPrefWidth(halfWidth);
         firstNameColumn.setPrefWidth(halfWidth);
 
-        try {
-            List<Student> allStudents = SQLiteConnector.getInstance().getStudentDao().queryForAll();
-            tableView.setItems(FXCollections.observableArrayList(allStudents));
-        } catch (SQLException e) {
-            AlertCreator.errorUser("There was an issue fetching all Students");
-            e.printStackTrace();
-            return;
-        }
+        // Search setup
+
+        searchField = new TextField();
+        searchField.setPromptText("Search by name or student ID");
+        PauseTransition searchDelay = new PauseTransition(SEARCH_DELAY);
+        searchDelay.setOnFinished(event -> search());
+        searchField.textProperty().addListener((observable, oldValue, newValue) -> searchDelay.playFromStart());
+        GridPane.setHgrow(searchField, Priority.ALWAYS);
 
         GridPane.setHgrow(tableView, Priority.ALWAYS);
         GridPane.setVgrow(tableView, Priority.ALWAYS);
@@ -102,11 +112,14 @@ public class PairStudentPopup {
 
 
         tableView.setOnMouseClicked(event -> updateTableState());
-        updateTableState();
+        if (!search()) {
+            return;
+        }
         // Grid and Root setup
 
-        mainGrid.add(tableView, 0, 0);
-        mainGrid.add(buttonBox, 0, 1);
+        mainGrid.add(searchField, 0, 0);
+        mainGrid.add(tableView, 0, 1);
+        mainGrid.add(buttonBox, 0, 2);
         root.getChildren().add(mainGrid);
         AnchorPane.setLeftAnchor(mainGrid, (double)25);
         AnchorPane.setRightAnchor(mainGrid, (double)25);
@@ -119,6 +132,32 @@ public class PairStudentPopup {
         myStage.setResizable(false);
     }
 
+    /**
+     * Fills the table with the students that best match the search box, or the first
+     * students by last name if it's empty
+     *
+     * @return Whether the students could be read
+     */
+    private boolean search() {
+        String text = searchField.getText();
+        List<Student> students;
+        try {
+            if (text == null || text.trim().isEmpty()) {
+                students = KeysetPager.forStudents(KeysetPager.Order.LAST_NAME, null).pageAfter(null, MAX_RESULTS);
+            } else {
+                students = SearchIndex.searchStudents(text, MAX_RESULTS);
+            }
+        } catch (SQLException e) {
+            AlertCreator.errorUser("There was an issue searching Students");
+            e.printStackTrace();
+            return false;
+        }
+
+        tableView.setItems(FXCollections.observableArrayList(students));
+        updateTableState();
+        return true;
+    }
+
     /**
      * Updates the selectButton's enabled state when the table is pressed
      */
@@ -0,0 +1,320 @@
+package org.dnsge.fbla.ebkmg.popup;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import org.dnsge.fbla.ebkmg.db.DatabaseExecutor;
+import org.dnsge.fbla.ebkmg.db.DatabaseTask;
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.PairingService;
+import org.dnsge.fbla.ebkmg.db.Student;
+
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * Class that creates a popup for pairing students and ebooks with a barcode scanner
+ * <p>
+ * The scanner types into a text field and presses enter, like a keyboard. Scanning a
+ * student ID and then an ebook code pairs them through {@link PairingService}. Scans are checked
+ * against the in-memory student ID and ebook code indexes, and the writes run on a
+ * {@link DatabaseExecutor} one after another, so scanning never waits on the database.
+ *
+ * @author Daniel Sage
+ * @version 0.4
+ */
+public class ScanPairingPopup {
+
+    private final static int MAX_LOG_ENTRIES = 200;
+
+    private final DatabaseExecutor executor;
+    private final Supplier<ChangedRows> changedRows;
+
+    private Stage myStage;
+    private TextField scanField;
+    private Label promptLabel;
+    private Button undoButton;
+    private final ObservableList<String> logEntries = FXCollections.observableArrayList();
+
+    private String pendingStudentId;
+    private final Deque<Pairing> undoStack = new ArrayDeque<>();
+    private DatabaseTask<?> lastWrite;
+
+    /**
+     * Keeps the rest of the GUI up to date with the rows that one write changed
+     */
+    public interface ChangedRows {
+
+        /**
+         * Called on the worker thread right after the write, e.g. to find where the rows now belong
+         *
+         * @param changes Changed objects
+         */
+        void locate(PairingService.Changes changes);
+
+        /**
+         * Called on the JavaFX thread once the write has finished
+         *
+         * @param changes Changed objects
+         */
+        void apply(PairingService.Changes changes);
+    }
+
+    /**
+     * ScanPairingPopup constructor
+     *
+     * @param executor Executor to write pairings with
+     * @param changedRows Called on the JavaFX thread before each write for what to tell about its changes
+     */
+    public ScanPairingPopup(DatabaseExecutor executor, Supplier<ChangedRows> changedRows) {
+        this.executor = executor;
+        this.changedRows = changedRows;
+
+        AnchorPane root = new AnchorPane();
+        root.setPrefSize(450, 500);
+        root.setPadding(new Insets(5));
+
+        VBox all = new VBox(10);
+        all.setPadding(new Insets(10));
+
+        Label titleLabel = new Label("Scan Pairing");
+        titleLabel.setFont(new Font(16));
+        promptLabel = new Label();
+
+        scanField = new TextField();
+        scanField.setOnAction(event -> {
+            String scanned = scanField.getText().trim();
+            scanField.clear();
+            if (!scanned.isEmpty()) {
+                scan(scanned);
+            }
+        });
+
+        ListView<String> logView = new ListView<>(logEntries);
+        logView.setFocusTraversable(false);
+        VBox.setVgrow(logView, Priority.ALWAYS);
+
+        undoButton = new Button("Undo Last Pairing");
+        undoButton.setDisable(true);
+        undoButton.setOnAction(event -> {
+            undoLast();
+            scanField.requestFocus();
+        });
+        Button closeButton = new Button("Done");
+        closeButton.setOnAction(event -> myStage.close());
+        HBox buttonBox = new HBox(5);
+        buttonBox.setAlignment(Pos.CENTER_RIGHT);
+        buttonBox.getChildren().addAll(undoButton, closeButton);
+
+        all.getChildren().addAll(titleLabel, promptLabel, scanField, logView, buttonBox);
+        root.getChildren().add(all);
+        AnchorPane.setTopAnchor(all, 0.0);
+        AnchorPane.setBottomAnchor(all, 0.0);
+        AnchorPane.setLeftAnchor(all, 0.0);
+        AnchorPane.setRightAnchor(all, 0.0);
+
+        Scene myScene = new Scene(root);
+        myStage = new Stage();
+
+        myStage.setScene(myScene);
+        myStage.setTitle("Scan Pairing");
+        myStage.initModality(Modality.APPLICATION_MODAL);
+        myStage.setResizable(false);
+        myStage.setOnShown(event -> scanField.requestFocus());
+
+        updatePrompt();
+    }
+
+    /**
+     * Shows the popup, returning once it's closed and every pairing has been written
+     */
+    public void showAndWait() {
+        myStage.showAndWait();
+        if (lastWrite != null) {
+            lastWrite.getResult().handle((value, throwable) -> null).join();
+        }
+    }
+
+    /**
+     * Handles one scan, which should be a student ID or, after one, an ebook code
+     *
+     * @param scanned Scanned text
+     */
+    private void scan(String scanned) {
+        try {
+            if (pendingStudentId == null) {
+                if (Student.studentWithIdExists(scanned)) {
+                    pendingStudentId = scanned;
+                } else if (Ebook.exists(scanned)) {
+                    log("Scan a student ID before an ebook code (" + scanned + ")");
+                } else {
+                    log("Unknown student ID: " + scanned);
+                }
+            } else if (Ebook.exists(scanned)) {
+                String studentId = pendingStudentId;
+                pendingStudentId = null;
+                submitPairing(studentId, scanned);
+            } else if (Student.studentWithIdExists(scanned)) {
+                pendingStudentId = scanned;
+            } else {
+                log("Unknown ebook code: " + scanned);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            log("Couldn't look up " + scanned + ": " + e.getMessage());
+        }
+        updatePrompt();
+    }
+
+    /**
+     * Pairs a student and ebook after every earlier write has finished
+     *
+     * @param studentId ID of the student
+     * @param code Code of the ebook
+     */
+    private void submitPairing(String studentId, String code) {
+        ChangedRows rows = changedRows.get();
+        DatabaseTask<PairingService.Changes> task = submitAfterLastWrite("Pairing " + code, () -> {
+            PairingService.Changes changes = pair(studentId, code);
+            rows.locate(changes);
+            return changes;
+        });
+        task.onSuccess(changes -> {
+            if (changes.isEmpty()) {
+                log(String.format("Already paired (%s, %s)", studentId, code));
+                return;
+            }
+
+            undoStack.push(new Pairing(studentId, code, changes));
+            while (undoStack.size() > MAX_LOG_ENTRIES) {
+                undoStack.removeLast();
+            }
+            undoButton.setDisable(false);
+            rows.apply(changes);
+            Student student = changes.getStudents().get(0);
+            log(String.format("Paired %s %s (%s) with %s", student.getFirstName(), student.getLastName(), studentId, code));
+        });
+        task.onFailure(e -> {
+            if (!(e instanceof IllegalStateException)) {
+                e.printStackTrace();
+            }
+            log(String.format("Not paired (%s, %s): %s", studentId, code, e.getMessage()));
+        });
+    }
+
+    /**
+     * Undoes the most recent pairing that hasn't been undone yet
+     */
+    private void undoLast() {
+        Pairing pairing = undoStack.poll();
+        if (pairing == null) {
+            return;
+        }
+        undoButton.setDisable(undoStack.isEmpty());
+
+        ChangedRows rows = changedRows.get();
+        DatabaseTask<PairingService.Changes> task = submitAfterLastWrite("Undoing pairing", () -> {
+            PairingService.Changes changes = PairingService.undo(pairing.changes);
+            rows.locate(changes);
+            return changes;
+        });
+        task.onSuccess(changes -> {
+            rows.apply(changes);
+            log(String.format("Undid pairing of %s with %s", pairing.studentId, pairing.code));
+        });
+        task.onFailure(e -> {
+            e.printStackTrace();
+            log("Couldn't undo pairing: " + e.getMessage());
+        });
+    }
+
+    /**
+     * Looks up a student and ebook and pairs them
+     * <p>
+     * Runs on a worker thread
+     *
+     * @param studentId ID of the student
+     * @param code Code of the ebook
+     * @return Changed objects; empty if they were already paired
+     * @throws SQLException if something goes wrong; nothing is changed
+     * @throws IllegalStateException if the pairing isn't allowed
+     * @see PairingService#pair(Student, Ebook)
+     */
+    private PairingService.Changes pair(String studentId, String code) throws SQLException {
+        Student student = Student.getFromStudentId(studentId);
+        Ebook ebook = Ebook.get(code);
+        if (student == null || ebook == null) {
+            throw new IllegalStateException("The student or ebook was deleted");
+        }
+        return PairingService.pair(student, ebook);
+    }
+
+    /**
+     * Submits a write that starts once the previous one has finished, so pairings of
+     * the same student or ebook never overlap
+     *
+     * @param description Description of the write
+     * @param call Write to run
+     * @param <T> Type of the result
+     * @return The submitted task
+     */
+    private <T> DatabaseTask<T> submitAfterLastWrite(String description, DatabaseExecutor.DatabaseCall<T> call) {
+        DatabaseTask<?> previous = lastWrite;
+        DatabaseTask<T> task = executor.submit(description, () -> {
+            if (previous != null) {
+                previous.getResult().handle((value, throwable) -> null).join();
+            }
+            return call.call();
+        });
+        lastWrite = task;
+        return task;
+    }
+
+    private void updatePrompt() {
+        if (pendingStudentId == null) {
+            promptLabel.setText("Scan a student ID");
+        } else {
+            promptLabel.setText("Student " + pendingStudentId + ": scan an ebook code");
+        }
+    }
+
+    private void log(String message) {
+        logEntries.add(0, new SimpleDateFormat("hh:mm:ss aa").format(new Date()) + "  " + message);
+        if (logEntries.size() > MAX_LOG_ENTRIES) {
+            logEntries.remove(MAX_LOG_ENTRIES, logEntries.size());
+        }
+    }
+
+    /**
+     * A pairing that was written, with what it changed
+     */
+    private final static class Pairing {
+        private final String studentId;
+        private final String code;
+        private final PairingService.Changes changes;
+
+        Pairing(String studentId, String code, PairingService.Changes changes) {
+            this.studentId = studentId;
+            this.code = code;
+            this.changes = changes;
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.dnsge.fbla.ebkmg.util;
 
-import org.dnsge.fbla.ebkmg.Main;
+import org.dnsge.fbla.ebkmg.AppConstants;
+import org.dnsge.fbla.ebkmg.metrics.FlightRecording;
 import org.dnsge.fbla.ebkmg.popup.AlertCreator;
 
 import java.io.File;
@@ -13,13 +14,15 @@ import java.util.Date;
  * Class with static methods to make error logs and show error popups
  *
  * @author Daniel Sage
- * @version 0.1
+ * @version 0.4
  */
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class ErrorLog {
 
     /**
      * Creates a new error log file from a throwable
+     * <p>
+     * If the {@link FlightRecording} is running, it is saved next to the log with the same name ending in {@code .jfr}
      *
      * @param logFile {@code File} object to store the log in
      * @param timestamp {@code Date} object representing the log timestamp
@@ -32,7 +35,8 @@ public class ErrorLog {
 
         try {
             logFile.createNewFile();
-            writeErrorLogFile(logFile, exception, timestamp);
+            File recordingFile = FlightRecording.dumpBeside(logFile);
+            writeErrorLogFile(logFile, exception, timestamp, recordingFile);
         } catch (IOException e) {
             e.printStackTrace();
             AlertCreator.errorUser("An unknown error occurred. Funnily enough, another error occured while creating the error log."
@@ -51,7 +55,7 @@ public class ErrorLog {
      */
     public static File createErrorLog(Throwable exception) {
         Date timestamp = new Date();
-        File logFile = new File(Main.LOGS_DIRECTORY, String.format("error@%s.log", Main.ERROR_LOG_DATE_FORMAT.format(timestamp)));
+        File logFile = new File(AppConstants.LOGS_DIRECTORY, String.format("error@%s.log", AppConstants.ERROR_LOG_DATE_FORMAT.format(timestamp.toInstant())));
         createErrorLog(logFile, timestamp, exception);
         return logFile;
     }
@@ -92,14 +96,19 @@ public class ErrorLog {
      * @param outputFile Output {@code File}
      * @param exception Input {@code Throwable}
      * @param errorDate Timestamp as a {@code Date} object
+     * @param recordingFile Flight recording saved with the log, or null
      * @throws FileNotFoundException if the output {@code File} couldn't be found or couldn't be written to
      */
-    private static void writeErrorLogFile(File outputFile, Throwable exception, Date errorDate) throws FileNotFoundException {
+    private static void writeErrorLogFile(File outputFile, Throwable exception, Date errorDate, File recordingFile) throws FileNotFoundException {
         PrintStream ps = new PrintStream(outputFile);
         ps.println("┏━━━━━━━━━━━━━━━━━━━━━━━━━┓ ");
         ps.println("┃ Ebook Manager Error Log ┃ ");
         ps.println("┗━━━━━━━━━━━━━━━━━━━━━━━━━┛ ");
-        ps.println(String.format("Ebook manager version %s @ %s", Main.VERSION, Main.ERROR_LOG_DATE_FORMAT.format(errorDate)));
+        ps.println(String.format("Ebook manager version %s @ %s", AppConstants.VERSION, AppConstants.ERROR_LOG_DATE_FORMAT.format(errorDate.toInstant())));
+        if (recordingFile != null) {
+            ps.println(String.format("Flight recording of up to the last %d minutes: %s",
+                    FlightRecording.MAX_AGE_MINUTES, recordingFile.getName()));
+        }
         ps.println("Detailed exception stack trace below: \n");
         exception.printStackTrace(ps);
         ps.close();
@@ -0,0 +1,20 @@
+package org.dnsge.fbla.ebkmg.util;
+
+/**
+ * Receives progress updates from long running operations
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called whenever more work has been completed
+     *
+     * @param done Amount of work completed so far
+     * @param total Total amount of work, or -1 if unknown
+     */
+    void progress(long done, long total);
+
+}
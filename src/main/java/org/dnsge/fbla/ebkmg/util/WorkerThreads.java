@@ -0,0 +1,51 @@
+package org.dnsge.fbla.ebkmg.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for background work
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public final class WorkerThreads {
+
+    private WorkerThreads() { }
+
+    /**
+     * Creates a virtual thread per task executor when the runtime has them (Java 21+),
+     * or a fixed pool of daemon threads otherwise
+     *
+     * @param name Name of the fallback threads, which are numbered
+     * @param fallbackThreads Number of fallback threads
+     * @return Worker executor
+     */
+    public static ExecutorService newExecutor(String name, int fallbackThreads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return newFixedExecutor(name, fallbackThreads);
+        }
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads, for work that keeps a core busy such as laying out pages
+     *
+     * @param name Name of the threads, which are numbered
+     * @param threads Number of threads
+     * @return Worker executor
+     */
+    public static ExecutorService newFixedExecutor(String name, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+}
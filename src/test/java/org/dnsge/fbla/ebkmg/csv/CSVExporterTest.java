@@ -0,0 +1,71 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.IdentityMap;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.db.TempDatabase;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link CSVExporter}
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class CSVExporterTest {
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    @Test
+    public void exportsEveryRowWithoutFillingTheIdentityMap() throws Exception {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        List<Ebook> ebooks = new ArrayList<>();
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            ebooks.add(new Ebook("Book", "E" + i, i % 2 == 0 ? new Date(1_500_000_000_000L + i) : null));
+            Student student = new Student("First" + i, "Last", "10", "S" + i);
+            if (i % 3 == 0) {
+                student.setEbook(ebooks.get(i));
+            }
+            students.add(student);
+        }
+        connector.getEbookDao().create(ebooks);
+        connector.getStudentDao().create(students);
+        IdentityMap identityMap = connector.getIdentityMap();
+        identityMap.clearAll();
+
+        StringWriter studentsCsv = new StringWriter();
+        StringWriter ebooksCsv = new StringWriter();
+        assertEquals(1200, CSVExporter.writeCsvFromDao(connector.getStudentDao(), studentsCsv,
+                Student::preloadDetachedEbooks, null));
+        assertEquals(1200, CSVExporter.writeCsvFromDao(connector.getEbookDao(), ebooksCsv, null, null));
+
+        assertEquals(0, identityMap.sizeAll());
+        String[] studentLines = studentsCsv.toString().split("\n");
+        assertEquals(1201, studentLines.length);
+        assertEquals("\"First3\",\"Last\",\"10\",\"S3\",\"true\",\"E3\"", studentLines[4]);
+        assertEquals("\"First4\",\"Last\",\"10\",\"S4\",\"false\",\"\"", studentLines[5]);
+        String[] ebookLines = ebooksCsv.toString().split("\n");
+        assertEquals(1201, ebookLines.length);
+        assertEquals(String.join(",", quoted(ebooks.get(2).asCsvLine())), ebookLines[3]);
+    }
+
+    private static String[] quoted(String[] values) {
+        String[] quoted = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            quoted[i] = "\"" + values[i] + "\"";
+        }
+        return quoted;
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import org.dnsge.fbla.ebkmg.db.Ebook;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.TempDatabase;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EbookCodeImporter}
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class EbookCodeImporterTest {
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    @Test
+    public void importsNewCodesAndRejectsTheRest() throws Exception {
+        SQLiteConnector.getInstance().getEbookDao().create(new Ebook("Chemistry", "OLD1", null));
+
+        ImportResult result = EbookCodeImporter.importCodes(write("codes.csv",
+                "code",
+                "NEW1",
+                "",
+                "OLD1",
+                " NEW2 ,ignored",
+                "NEW1"), "Biology", null);
+
+        assertEquals(2, result.getImportedCount());
+        assertEquals(Arrays.asList(
+                "Line 3: Missing code",
+                "Line 4: An Ebook with code OLD1 already exists",
+                "Line 6: An Ebook with code NEW1 already exists"), RosterImporterTest.reasons(result));
+
+        Ebook imported = Ebook.get("NEW2");
+        assertEquals("Biology", imported.getName());
+        assertNull(imported.getAssignmentDate());
+        assertEquals("Chemistry", Ebook.get("OLD1").getName());
+        assertTrue(Ebook.exists("NEW1"));
+        assertEquals(Arrays.asList("NEW1", "NEW2"), Ebook.codesStartingWith("NEW", 10));
+    }
+
+    @Test
+    public void headerIsOptional() throws Exception {
+        ImportResult result = EbookCodeImporter.importCodes(write("codes.txt", "A1", "ebookCode", "A2"), "Biology", null);
+
+        // Only a header on the first line is skipped
+        assertEquals(3, result.getImportedCount());
+        assertTrue(Ebook.exists("ebookCode"));
+    }
+
+    @Test
+    public void emptyFileImportsNothing() throws Exception {
+        ImportResult result = EbookCodeImporter.importCodes(write("empty.csv"), "Biology", null);
+
+        assertEquals(0, result.getImportedCount());
+        assertEquals(Collections.emptyList(), result.getRejectedRows());
+        assertEquals(0, SQLiteConnector.getInstance().getEbookDao().countOf());
+    }
+
+    private Path write(String name, String... lines) throws Exception {
+        Path path = database.newFile(name).toPath();
+        Files.write(path, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return path;
+    }
+
+}
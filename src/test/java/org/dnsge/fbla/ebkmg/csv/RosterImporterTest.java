@@ -0,0 +1,140 @@
+package org.dnsge.fbla.ebkmg.csv;
+
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.db.TempDatabase;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link RosterImporter}
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class RosterImporterTest {
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    @Test
+    public void importsValidRowsAndRejectsTheRest() throws Exception {
+        SQLiteConnector.getInstance().getStudentDao().create(new Student("Old", "Student", "12", "S0"));
+
+        ImportResult result = RosterImporter.importRoster(write("roster.csv",
+                "firstName,lastName,grade,studentId",
+                "Ada,Lovelace,11,S1",
+                "Alan,Turing,13,S2",
+                "Grace,,10,S3",
+                "Edsger,Dijkstra,9",
+                "Barbara,Liskov,10,S0",
+                "Donald,Knuth,12,S1",
+                " Ken , Thompson , 9 , S4 "), null);
+
+        assertEquals(2, result.getImportedCount());
+        assertEquals(Arrays.asList(
+                "Line 3: Grade must be one of 9, 10, 11, 12",
+                "Line 4: Missing value for lastName",
+                "Line 5: Expected at least 4 columns but found 3",
+                "Line 6: A Student with Student ID S0 already exists",
+                "Line 7: A Student with Student ID S1 already exists"), reasons(result));
+
+        Student ken = Student.getFromStudentId("S4");
+        assertNotNull(ken);
+        assertEquals("Ken", ken.getFirstName());
+        assertEquals("9", ken.getGrade());
+        assertTrue(Student.studentWithIdExists("S1"));
+        assertFalse(Student.studentWithIdExists("S2"));
+        assertEquals(3, SQLiteConnector.getInstance().getStudentDao().countOf());
+    }
+
+    @Test
+    public void reimportsAnExportedFile() throws Exception {
+        // Exports have extra columns and a quoted value with a comma in it
+        ImportResult result = RosterImporter.importRoster(write("students.csv",
+                "\"firstName\",\"lastName\",\"grade\",\"studentId\",\"hasEbook\",\"ebookCode\"",
+                "\"Ada\",\"Lovelace, Countess\",\"11\",\"S1\",\"true\",\"E1\"",
+                "\"Alan\",\"Turing\",\"9\",\"S2\",\"false\",\"\""), null);
+
+        assertEquals(2, result.getImportedCount());
+        assertTrue(result.getRejectedRows().isEmpty());
+        assertEquals("Lovelace, Countess", Student.getFromStudentId("S1").getLastName());
+        assertFalse(Student.getFromStudentId("S1").hasEbook());
+    }
+
+    @Test
+    public void readsTabSeparatedFiles() throws Exception {
+        RosterImporter.importRoster(write("roster.tsv",
+                "firstName\tlastName\tgrade\tstudentId",
+                "Ada\tLovelace\t11\tS1"), null);
+        // Tabs are also found in a file without a .tsv name
+        RosterImporter.importRoster(write("roster.txt",
+                "firstName\tlastName\tgrade\tstudentId",
+                "Alan\tTuring\t9\tS2"), null);
+
+        assertEquals("Lovelace", Student.getFromStudentId("S1").getLastName());
+        assertEquals("Turing", Student.getFromStudentId("S2").getLastName());
+    }
+
+    @Test
+    public void refusesTheWrongHeader() throws Exception {
+        for (String header : new String[]{"lastName,firstName,grade,studentId", "firstName,lastName,grade", ""}) {
+            try {
+                RosterImporter.importRoster(write("roster" + header.length() + ".csv", header, "Ada,Lovelace,11,S1"), null);
+                fail("Accepted header " + header);
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("firstName, lastName, grade, studentId"));
+            }
+        }
+        assertEquals(0, SQLiteConnector.getInstance().getStudentDao().countOf());
+    }
+
+    @Test
+    public void reportsProgressAndFinishes() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("firstName,lastName,grade,studentId");
+        for (int i = 0; i < 2500; i++) {
+            lines.add("First,Last,10,S" + i);
+        }
+        List<long[]> progress = new ArrayList<>();
+
+        ImportResult result = RosterImporter.importRoster(write("large.csv", lines.toArray(new String[0])),
+                (done, total) -> progress.add(new long[]{done, total}));
+
+        assertEquals(2500, result.getImportedCount());
+        assertEquals(2500, SQLiteConnector.getInstance().getStudentDao().countOf());
+        assertEquals(3, progress.size());
+        assertEquals(-1, progress.get(0)[1]);
+        assertEquals(2500, progress.get(2)[0]);
+        assertEquals(2500, progress.get(2)[1]);
+    }
+
+    private Path write(String name, String... lines) throws Exception {
+        Path path = database.newFile(name).toPath();
+        Files.write(path, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return path;
+    }
+
+    static List<String> reasons(ImportResult result) {
+        List<String> reasons = new ArrayList<>();
+        for (ImportResult.RejectedRow row : result.getRejectedRows()) {
+            reasons.add(row.toString());
+        }
+        return reasons;
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link IdentityMap}
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class IdentityMapTest {
+
+    /**
+     * Mutable object with a primary key and one secondary key
+     */
+    private final static class Row {
+        final Integer id;
+        String code;
+
+        Row(int id, String code) {
+            this.id = id;
+            this.code = code;
+        }
+    }
+
+    private IdentityMap map;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        map = new IdentityMap(3);
+        map.registerType(Row.class, row -> row.id);
+        map.registerKey(Row.class, "code", row -> row.code);
+    }
+
+    private IdentityMap.Loader<Row> loader(Row result) {
+        return () -> {
+            loads.incrementAndGet();
+            return result;
+        };
+    }
+
+    @Test
+    public void getReturnsTheCachedInstance() {
+        Row row = new Row(1, "A");
+        map.put(Row.class, row.id, row);
+
+        assertSame(row, map.get(Row.class, 1));
+        assertNull(map.get(Row.class, 2));
+        assertEquals(1, map.getHitCount());
+        assertEquals(1, map.getMissCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOnceFull() {
+        for (int id = 1; id <= 3; id++) {
+            map.put(Row.class, id, new Row(id, "code" + id));
+        }
+        // Using 1 makes 2 the least recently used
+        map.get(Row.class, 1);
+        map.put(Row.class, 4, new Row(4, "code4"));
+
+        assertEquals(3, map.size(Row.class));
+        assertEquals(1, map.getEvictionCount());
+        assertNull(map.get(Row.class, 2));
+        assertEquals(Integer.valueOf(1), map.get(Row.class, 1).id);
+        assertEquals(Integer.valueOf(3), map.get(Row.class, 3).id);
+    }
+
+    @Test
+    public void evictedObjectsAreDroppedFromSecondaryKeys() throws Exception {
+        Row evicted = new Row(1, "A");
+        map.put(Row.class, 1, evicted);
+        for (int id = 2; id <= 4; id++) {
+            map.put(Row.class, id, new Row(id, "code" + id));
+        }
+
+        Row reloaded = new Row(1, "A");
+        assertSame(reloaded, map.find(Row.class, "code", "A", loader(reloaded)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void findLoadsOnceThenAnswersFromMemory() throws Exception {
+        Row row = new Row(1, "A");
+
+        assertSame(row, map.find(Row.class, "code", "A", loader(row)));
+        assertSame(row, map.find(Row.class, "code", "A", loader(null)));
+        assertSame(row, map.get(Row.class, 1));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void findDoesNotCacheMissingRows() throws Exception {
+        assertNull(map.find(Row.class, "code", "A", loader(null)));
+        assertNull(map.find(Row.class, "code", "A", loader(null)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void changedSecondaryKeyIsVerifiedBeforeUse() throws Exception {
+        Row row = new Row(1, "A");
+        map.put(Row.class, 1, row);
+        row.code = "B";
+
+        // The index still points "A" at the row, but the row no longer has that key
+        assertNull(map.find(Row.class, "code", "A", loader(null)));
+        assertEquals(1, loads.get());
+
+        // Finding it under its new key indexes it again
+        assertSame(row, map.find(Row.class, "code", "B", loader(row)));
+        assertSame(row, map.find(Row.class, "code", "B", loader(null)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void putMovesSecondaryKeysToTheNewInstance() throws Exception {
+        Row before = new Row(1, "A");
+        Row after = new Row(1, "B");
+        map.put(Row.class, 1, before);
+        map.put(Row.class, 1, after);
+
+        assertNull(map.find(Row.class, "code", "A", loader(null)));
+        assertSame(after, map.find(Row.class, "code", "B", loader(null)));
+    }
+
+    @Test
+    public void removeAndUpdateIdKeepKeysConsistent() throws Exception {
+        Row row = new Row(1, "A");
+        map.put(Row.class, 1, row);
+        map.updateId(Row.class, 1, 5);
+
+        assertNull(map.get(Row.class, 1));
+        assertSame(row, map.get(Row.class, 5));
+        assertSame(row, map.find(Row.class, "code", "A", loader(null)));
+
+        map.remove(Row.class, 5);
+        assertNull(map.find(Row.class, "code", "A", loader(null)));
+        assertEquals(0, map.size(Row.class));
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link KeysetPager}, checking that reading page by page from the page boundaries
+ * gives the same rows as sorting every row
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class KeysetPagerTest {
+
+    private final static int PAGE_SIZE = 3;
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    private final List<Student> students = new ArrayList<>();
+    private final List<Ebook> ebooks = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        // Repeated names make ties that only the primary key can break
+        String[][] names = {
+                {"Ada", "Smith"}, {"Bob", "Jones"}, {"Ada", "Smith"}, {"Cy", "Smith"}, {"Ada", "Brown"},
+                {"Bob", "Smith"}, {"Ada", "Jones"}, {"Cy", "Brown"}, {"Ada", "Smith"}, {"Dee", "Adams"}, {"Bob", "Jones"}
+        };
+        for (int i = 0; i < names.length; i++) {
+            Student student = new Student(names[i][0], names[i][1], "10", "S" + i);
+            SQLiteConnector.getInstance().getStudentDao().create(student);
+            students.add(student);
+        }
+
+        // Unassigned ebooks sort as if assigned at 0, and some dates are shared
+        Long[] dates = {3000L, null, 1000L, 3000L, null, 2000L, 1000L, null, 3000L, 500L};
+        for (int i = 0; i < dates.length; i++) {
+            Ebook ebook = new Ebook("Book " + (i % 4), "E" + (char) ('J' - i), dates[i] == null ? null : new Date(dates[i]));
+            SQLiteConnector.getInstance().getEbookDao().create(ebook);
+            ebooks.add(ebook);
+        }
+    }
+
+    @Test
+    public void studentsInEveryOrderAndDirection() throws Exception {
+        Comparator<Student> byId = Comparator.comparingInt(Student::getId);
+        Comparator<Student> lastName = Comparator.comparing(Student::getLastName)
+                .thenComparing(Student::getFirstName).thenComparing(byId);
+        Comparator<Student> firstName = Comparator.comparing(Student::getFirstName)
+                .thenComparing(Student::getLastName).thenComparing(byId);
+
+        checkBothDirections(KeysetPager.Order.KEY, null, students, byId, Student::getId);
+        checkBothDirections(KeysetPager.Order.LAST_NAME, null, students, lastName, Student::getId);
+        checkBothDirections(KeysetPager.Order.FIRST_NAME, null, students, firstName, Student::getId);
+    }
+
+    @Test
+    public void ebooksInEveryOrderAndDirection() throws Exception {
+        Comparator<Ebook> byId = Comparator.comparingInt(Ebook::getId);
+        Comparator<Ebook> code = Comparator.comparing(Ebook::getCode).thenComparing(byId);
+        Comparator<Ebook> date = Comparator.<Ebook>comparingLong(e -> e.getAssignmentDate() == null ? 0 : e.getAssignmentDate().getTime())
+                .thenComparing(byId);
+
+        checkBothDirections(KeysetPager.Order.KEY, null, ebooks, byId, Ebook::getId);
+        checkBothDirections(KeysetPager.Order.CODE, null, ebooks, code, Ebook::getId);
+        checkBothDirections(KeysetPager.Order.ASSIGNMENT_DATE, null, ebooks, date, Ebook::getId);
+    }
+
+    @Test
+    public void unassignedEbooksComeFirst() throws Exception {
+        KeysetPager<Ebook> pager = KeysetPager.forEbooks(KeysetPager.Order.ASSIGNMENT_DATE, null);
+        List<Ebook> page = pager.pageAfter(null, PAGE_SIZE);
+
+        for (Ebook ebook : page) {
+            assertNull(ebook.getCode(), ebook.getAssignmentDate());
+        }
+        // The last boundary of the unassigned ebooks is stored as 0, not NULL
+        assertEquals("0", pager.pageBoundaries(PAGE_SIZE).get(1)[0]);
+    }
+
+    @Test
+    public void filteredStudentsKeepTheirOrder() throws Exception {
+        List<Student> smiths = new ArrayList<>();
+        for (Student student : students) {
+            if (student.getLastName().equals("Smith")) {
+                smiths.add(student);
+            }
+        }
+        Comparator<Student> firstName = Comparator.comparing(Student::getFirstName)
+                .thenComparing(Student::getLastName).thenComparingInt(Student::getId);
+
+        checkBothDirections(KeysetPager.Order.FIRST_NAME, "smith", smiths, firstName, Student::getId);
+        assertEquals(smiths.size(), KeysetPager.forStudents(KeysetPager.Order.FIRST_NAME, "smith").count());
+    }
+
+    @Test
+    public void searchInKeyOrderIsReadByRelevance() throws Exception {
+        KeysetPager<Student> pager = KeysetPager.forStudents(KeysetPager.Order.KEY, "jones");
+
+        assertEquals(1, pager.pageBoundaries(2).size());
+        assertEquals(-1, pager.positionOf(students.get(1)));
+        assertEquals(3, pager.pageAt(0, 10).size());
+        assertEquals(pager.pageAt(0, 2), pager.pageAfter(null, 2));
+    }
+
+    @Test
+    public void matchesChecksTheFilter() throws Exception {
+        KeysetPager<Student> pager = KeysetPager.forStudents(KeysetPager.Order.LAST_NAME, "brown");
+
+        assertTrue(pager.matches(students.get(4)));
+        assertFalse(pager.matches(students.get(0)));
+        assertTrue(KeysetPager.forStudents(KeysetPager.Order.KEY, null).isKeyOrdered());
+        assertFalse(pager.isKeyOrdered());
+    }
+
+    /**
+     * Checks an order and its reverse
+     */
+    private <T> void checkBothDirections(KeysetPager.Order order, String filter, List<T> rows,
+                                         Comparator<T> comparator, ToIntFunction<T> key) throws Exception {
+        List<T> expected = new ArrayList<>(rows);
+        expected.sort(comparator);
+        check(order, filter, expected, key);
+
+        Collections.reverse(expected);
+        check(order.withAscending(false), filter, expected, key);
+    }
+
+    /**
+     * Reads every page by keyset and by offset and checks them, and the position of every row,
+     * against the expected order
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void check(KeysetPager.Order order, String filter, List<T> expected, ToIntFunction<T> key) throws Exception {
+        KeysetPager<T> pager = (KeysetPager<T>) (expected.isEmpty() || expected.get(0) instanceof Student
+                ? KeysetPager.forStudents(order, filter)
+                : KeysetPager.forEbooks(order, filter));
+        String description = order + " " + filter;
+
+        List<String[]> boundaries = pager.pageBoundaries(PAGE_SIZE);
+        assertEquals(description, expected.size() / PAGE_SIZE + 1, boundaries.size());
+
+        List<Integer> byKeyset = new ArrayList<>();
+        List<Integer> byOffset = new ArrayList<>();
+        for (int page = 0; page < boundaries.size(); page++) {
+            for (T row : pager.pageAfter(boundaries.get(page), PAGE_SIZE)) {
+                byKeyset.add(key.applyAsInt(row));
+            }
+            for (T row : pager.pageAt((long) page * PAGE_SIZE, PAGE_SIZE)) {
+                byOffset.add(key.applyAsInt(row));
+            }
+        }
+
+        List<Integer> keys = new ArrayList<>();
+        for (T row : expected) {
+            keys.add(key.applyAsInt(row));
+        }
+        assertEquals(description, keys, byKeyset);
+        assertEquals(description, keys, byOffset);
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(description, i, pager.positionOf(expected.get(i)));
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.GenericRawResults;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link PairingService}, checking both the shared objects and the rows behind them
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class PairingServiceTest {
+
+    private final static Date OLD_DATE = new Date(1_500_000_000_000L);
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    private Student ada;
+    private Student bob;
+    private Student cy;
+    private Ebook biology;
+    private Ebook chemistry;
+    private Ebook physics;
+
+    @Before
+    public void setUp() throws Exception {
+        biology = createEbook("Biology", "E1");
+        chemistry = createEbook("Chemistry", "E2");
+        physics = createEbook("Physics", "E3");
+        ada = createStudent("Ada", "S1", biology);
+        bob = createStudent("Bob", "S2", chemistry);
+        cy = createStudent("Cy", "S3", null);
+    }
+
+    @Test
+    public void pairGivesAnUnownedEbook() throws Exception {
+        PairingService.Changes changes = PairingService.pair(cy, physics);
+
+        assertSame(physics, cy.getOwnedEbook());
+        assertSame(cy, physics.getOwner());
+        assertNotNull(physics.getAssignmentDate());
+        assertEquals("E3", codeInDatabase(cy));
+        assertNotNull(dateInDatabase(physics));
+        assertEquals(Arrays.asList(cy), changes.getStudents());
+        assertEquals(Arrays.asList(physics), changes.getEbooks());
+    }
+
+    @Test
+    public void pairUnpairsThePreviousEbook() throws Exception {
+        PairingService.pair(ada, physics);
+
+        assertSame(physics, ada.getOwnedEbook());
+        assertNull(biology.getOwner());
+        assertNull(biology.getAssignmentDate());
+        assertNull(dateInDatabase(biology));
+    }
+
+    @Test
+    public void pairRefusesAnotherStudentsEbook() throws Exception {
+        try {
+            PairingService.pair(cy, biology);
+            fail("Took Ada's ebook");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("Ada"));
+        }
+        assertSame(biology, ada.getOwnedEbook());
+        assertNull(cy.getOwnedEbook());
+        assertEquals("E1", codeInDatabase(ada));
+    }
+
+    @Test
+    public void pairingTheSameEbookAgainChangesNothing() throws Exception {
+        assertTrue(PairingService.pair(ada, biology).isEmpty());
+        assertEquals(OLD_DATE, biology.getAssignmentDate());
+    }
+
+    @Test
+    public void transferTakesTheEbookFromItsOwner() throws Exception {
+        PairingService.transfer(biology, cy);
+
+        assertNull(ada.getOwnedEbook());
+        assertSame(biology, cy.getOwnedEbook());
+        assertSame(cy, biology.getOwner());
+        assertNull(codeInDatabase(ada));
+        assertEquals("E1", codeInDatabase(cy));
+        assertFalse(OLD_DATE.equals(biology.getAssignmentDate()));
+    }
+
+    @Test
+    public void swapExchangesEbooks() throws Exception {
+        PairingService.swap(ada, bob);
+
+        assertSame(chemistry, ada.getOwnedEbook());
+        assertSame(biology, bob.getOwnedEbook());
+        assertEquals("E2", codeInDatabase(ada));
+        assertEquals("E1", codeInDatabase(bob));
+    }
+
+    @Test
+    public void swapWithAStudentWithoutAnEbookMovesIt() throws Exception {
+        PairingService.swap(ada, cy);
+
+        assertNull(ada.getOwnedEbook());
+        assertSame(biology, cy.getOwnedEbook());
+        assertNull(codeInDatabase(ada));
+        assertEquals("E1", codeInDatabase(cy));
+    }
+
+    @Test
+    public void pairAllFollowsAChainOfTransfers() throws Exception {
+        // Each code is still held by the next student when the one before takes it
+        PairingService.pairAll(Arrays.asList(
+                new PairingService.Pairing(cy, biology),
+                new PairingService.Pairing(ada, chemistry),
+                new PairingService.Pairing(bob, physics)));
+
+        assertSame(biology, cy.getOwnedEbook());
+        assertSame(chemistry, ada.getOwnedEbook());
+        assertSame(physics, bob.getOwnedEbook());
+        assertEquals("E1", codeInDatabase(cy));
+        assertEquals("E2", codeInDatabase(ada));
+        assertEquals("E3", codeInDatabase(bob));
+    }
+
+    @Test
+    public void failedBatchLeavesObjectsAndRowsUntouched() throws Exception {
+        // The second pairing fails after the first one has been written
+        SQLiteConnector.getInstance().getStudentDao().executeRaw("DELETE FROM students WHERE studentId = 'S3'");
+        try {
+            PairingService.pairAll(Arrays.asList(
+                    new PairingService.Pairing(bob, biology),
+                    new PairingService.Pairing(cy, physics)));
+            fail("Paired a deleted student");
+        } catch (SQLException expected) {
+            assertTrue(expected.getMessage().contains("S3"));
+        }
+
+        assertSame(biology, ada.getOwnedEbook());
+        assertSame(chemistry, bob.getOwnedEbook());
+        assertSame(ada, biology.getOwner());
+        assertEquals(OLD_DATE, biology.getAssignmentDate());
+        assertNull(cy.getOwnedEbook());
+        assertEquals("E1", codeInDatabase(ada));
+        assertEquals("E2", codeInDatabase(bob));
+        assertEquals(OLD_DATE, dateInDatabase(biology));
+    }
+
+    @Test
+    public void undoReversesATransfer() throws Exception {
+        PairingService.Changes changes = PairingService.transfer(biology, bob);
+        PairingService.undo(changes);
+
+        assertSame(biology, ada.getOwnedEbook());
+        assertSame(chemistry, bob.getOwnedEbook());
+        assertSame(ada, biology.getOwner());
+        assertEquals(OLD_DATE, biology.getAssignmentDate());
+        assertEquals(OLD_DATE, chemistry.getAssignmentDate());
+        assertEquals("E1", codeInDatabase(ada));
+        assertEquals("E2", codeInDatabase(bob));
+        assertEquals(OLD_DATE, dateInDatabase(biology));
+        assertEquals(OLD_DATE, dateInDatabase(chemistry));
+    }
+
+    @Test
+    public void undoReversesASwap() throws Exception {
+        PairingService.undo(PairingService.swap(ada, bob));
+
+        assertSame(biology, ada.getOwnedEbook());
+        assertSame(chemistry, bob.getOwnedEbook());
+        assertEquals("E1", codeInDatabase(ada));
+        assertEquals("E2", codeInDatabase(bob));
+    }
+
+    @Test
+    public void deletingAnEbookUnpairsItsOwner() throws Exception {
+        PairingService.Changes changes = PairingService.deleteEbook(biology);
+
+        assertNull(ada.getOwnedEbook());
+        assertNull(codeInDatabase(ada));
+        assertNull(Ebook.get("E1"));
+        assertEquals(Arrays.asList(ada), changes.getStudents());
+    }
+
+    @Test
+    public void deletingAStudentFreesTheirEbook() throws Exception {
+        PairingService.deleteStudent(bob);
+
+        assertNull(Student.getFromStudentId("S2"));
+        assertNull(SQLiteConnector.getInstance().getIdentityMap().get(Student.class, bob.getId()));
+        assertFalse(Student.studentWithIdExists("S2"));
+        assertNull(chemistry.getOwner());
+        assertNull(chemistry.getAssignmentDate());
+        assertNull(dateInDatabase(chemistry));
+    }
+
+    @Test
+    public void failedDeleteKeepsTheStudentKnown() throws Exception {
+        SQLiteConnector.getInstance().getStudentDao().executeRaw(
+                "CREATE TRIGGER refuse_delete BEFORE DELETE ON students BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        try {
+            PairingService.deleteStudent(bob);
+            fail("Deleted through the trigger");
+        } catch (SQLException expected) {
+            // The unpairing before the delete is rolled back too
+        }
+
+        assertSame(bob, SQLiteConnector.getInstance().getIdentityMap().get(Student.class, bob.getId()));
+        assertTrue(Student.studentWithIdExists("S2"));
+        assertSame(chemistry, bob.getOwnedEbook());
+        assertEquals("E2", codeInDatabase(bob));
+    }
+
+    private static Ebook createEbook(String name, String code) throws SQLException {
+        Ebook ebook = new Ebook(name, code, null);
+        SQLiteConnector.getInstance().getEbookDao().create(ebook);
+        return ebook;
+    }
+
+    private static Student createStudent(String firstName, String studentId, Ebook ebook) throws SQLException {
+        Student student = new Student(firstName, "Test", "10", studentId);
+        if (ebook != null) {
+            student.setEbook(ebook);
+            ebook.setAssignmentDate(OLD_DATE);
+            SQLiteConnector.getInstance().getEbookDao().update(ebook);
+        }
+        SQLiteConnector.getInstance().getStudentDao().create(student);
+        return student;
+    }
+
+    /**
+     * Reads a student's ebook code from their row rather than the shared object
+     */
+    private static String codeInDatabase(Student student) throws Exception {
+        return queryForString("SELECT ebookCode FROM students WHERE id = ?", student.getId());
+    }
+
+    /**
+     * Reads an ebook's assignment date from its row rather than the shared object
+     */
+    private static Date dateInDatabase(Ebook ebook) throws Exception {
+        String stored = queryForString("SELECT assignmentDate FROM ebooks WHERE id = ?", ebook.getId());
+        return stored == null ? null : new Date(Long.parseLong(stored));
+    }
+
+    private static String queryForString(String statement, int id) throws Exception {
+        GenericRawResults<String[]> results = SQLiteConnector.getInstance().getStudentDao()
+                .queryRaw(statement, String.valueOf(id));
+        try {
+            String[] row = results.getFirstResult();
+            return row == null ? null : row[0];
+        } finally {
+            results.close();
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.dao.Dao;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link PrefixIndex}, over the students table of a temporary database
+ *
+ * @author Daniel Sage
+ * @version 0.2
+ */
+public class PrefixIndexTest {
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    private Dao<Student, String> dao;
+    private PrefixIndex index;
+    private final List<Student> students = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dao = SQLiteConnector.getInstance().getStudentDao();
+        for (String studentId : new String[]{"A100", "A200", "B100", "A150", "C300"}) {
+            Student student = new Student("First", "Last", "10", studentId);
+            dao.create(student);
+            students.add(student);
+        }
+        index = new PrefixIndex("studentId", dao);
+    }
+
+    @Test
+    public void answersWithSqlBeforeLoading() throws Exception {
+        assertFalse(index.isLoaded());
+
+        assertEquals((int) students.get(3).getId(), index.idOf("A150"));
+        assertEquals(-1, index.idOf("A175"));
+        assertTrue(index.contains("C300"));
+        assertEquals(Arrays.asList("A100", "A150"), index.keysWithPrefix("A1", 10));
+        assertEquals(Collections.singletonList("A100"), index.keysWithPrefix("A", 1));
+        assertEquals(new HashSet<>(Arrays.asList("A100", "A200", "B100", "A150", "C300")), index.allKeys());
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void sqlErrorsReachTheCaller() throws Exception {
+        dao.executeRaw("ALTER TABLE students RENAME TO students_gone");
+        try {
+            index.load();
+            fail("Loaded a missing table");
+        } catch (SQLException expected) {
+            assertFalse(index.isLoaded());
+        }
+
+        // A missing table isn't the same as a missing key
+        try {
+            index.contains("A100");
+            fail("Answered without a table");
+        } catch (SQLException expected) {
+        }
+
+        dao.executeRaw("ALTER TABLE students_gone RENAME TO students");
+        index.put(80, "E100");
+        index.load();
+        assertTrue(index.contains("A100"));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void answersFromMemoryOnceLoaded() throws Exception {
+        index.load();
+        assertTrue(index.isLoaded());
+
+        // Rows the index doesn't know about are no longer found by SQL
+        dao.executeRaw("INSERT INTO students (studentId) VALUES ('A199')");
+        assertFalse(index.contains("A199"));
+
+        assertEquals((int) students.get(3).getId(), index.idOf("A150"));
+        assertEquals(Arrays.asList("A100", "A150", "A200"), index.keysWithPrefix("A", 10));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void overlayIsMergedWithLoadedKeys() throws Exception {
+        index.load();
+
+        index.put(50, "A120");
+        index.put(51, "A300");
+        index.put(students.get(1).getId(), "A175"); // Changes A200's key
+        index.removeId(students.get(0).getId());   // Deletes A100
+
+        assertEquals(Arrays.asList("A120", "A150", "A175", "A300"), index.keysWithPrefix("A", 10));
+        assertEquals(Arrays.asList("A120", "A150"), index.keysWithPrefix("A", 2));
+        assertEquals(-1, index.idOf("A100"));
+        assertEquals(-1, index.idOf("A200"));
+        assertEquals((int) students.get(1).getId(), index.idOf("A175"));
+        assertEquals(6, index.size());
+        assertEquals(new HashSet<>(Arrays.asList("A120", "A300", "A175", "B100", "A150", "C300")), index.allKeys());
+
+        // Writing the same key again changes nothing, and a null key takes the row out
+        index.put(50, "A120");
+        index.put(51, null);
+        assertEquals(Arrays.asList("A120", "A150", "A175"), index.keysWithPrefix("A", 10));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void keysMovedBetweenOverlayAndArraysAreFoundOnce() throws Exception {
+        index.load();
+
+        // A loaded row is given a new key, then the key it used to have goes to another row
+        index.put(students.get(2).getId(), "B200");
+        index.put(60, "B100");
+
+        assertEquals(Arrays.asList("B100", "B200"), index.keysWithPrefix("B", 10));
+        assertEquals(60, index.idOf("B100"));
+        assertEquals((int) students.get(2).getId(), index.idOf("B200"));
+    }
+
+    @Test
+    public void compactionKeepsEveryKey() throws Exception {
+        index.load();
+        TreeSet<String> expected = new TreeSet<>(Arrays.asList("A100", "A200", "B100", "A150", "C300"));
+
+        // Enough writes to fold the overlay back into the arrays more than once
+        for (int i = 0; i < 5000; i++) {
+            String key = String.format("K%05d", i);
+            index.put(1000 + i, key);
+            expected.add(key);
+        }
+        for (int i = 0; i < 5000; i += 3) {
+            index.removeId(1000 + i);
+            expected.remove(String.format("K%05d", i));
+        }
+        for (int i = 1; i < 5000; i += 7) {
+            if (index.idOf(String.format("K%05d", i)) >= 0) {
+                index.put(1000 + i, String.format("L%05d", i));
+                expected.remove(String.format("K%05d", i));
+                expected.add(String.format("L%05d", i));
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        assertEquals(expected, new TreeSet<>(index.allKeys()));
+        assertEquals(new ArrayList<>(expected.subSet("K", "L")), index.keysWithPrefix("K", Integer.MAX_VALUE));
+        assertEquals(1002, index.idOf("K00002"));
+        assertEquals(-1, index.idOf("K00001"));
+        assertEquals(-1, index.idOf("K00000"));
+        assertEquals(1008, index.idOf("L00008"));
+    }
+
+    @Test
+    public void writesDuringALoadAreReplayed() throws Exception {
+        // Writes land after the load has started, so what it reads from the table is already out of date
+        Dao<?, ?> racingDao = writingWhileReading(() -> {
+            index.put(70, "D100");
+            index.removeId(students.get(4).getId());
+        });
+        index = new PrefixIndex("studentId", racingDao);
+
+        index.load();
+
+        assertTrue(index.contains("D100"));
+        assertFalse(index.contains("C300"));
+        assertEquals(5, index.size());
+    }
+
+    /**
+     * Wraps the DAO so that the first raw query runs some writes before reading
+     */
+    private Dao<?, ?> writingWhileReading(Runnable writes) {
+        boolean[] ran = {false};
+        return (Dao<?, ?>) Proxy.newProxyInstance(Dao.class.getClassLoader(), new Class<?>[]{Dao.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("queryRaw") && !ran[0]) {
+                        ran[0] = true;
+                        writes.run();
+                    }
+                    try {
+                        return method.invoke(dao, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.TableUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SchemaMigrator}, starting from a file made by the first version of the program
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class SchemaMigratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private ConnectionSource connectionSource;
+
+    @Before
+    public void setUp() throws Exception {
+        // Version 0 files only have the tables ORMLite creates
+        file = folder.newFile("old.db");
+        connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + file.getAbsolutePath());
+        TableUtils.createTableIfNotExists(connectionSource, Student.class);
+        TableUtils.createTableIfNotExists(connectionSource, Ebook.class);
+        execute("INSERT INTO students (firstName, lastName, grade, studentId, ebookCode) VALUES ('Ada', 'Lovelace', '11', 'S1', 'E1')");
+        execute("INSERT INTO students (firstName, lastName, grade, studentId) VALUES ('Alan', 'Turing', '9', 'S2')");
+        execute("INSERT INTO ebooks (code, name, assignmentDate) VALUES ('E1', 'Biology', 1500000000000)");
+        execute("INSERT INTO ebooks (code, name) VALUES ('E2', 'Chemistry')");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionSource.close();
+        SQLiteConnector.getInstance().disconnectIfConnected();
+    }
+
+    @Test
+    public void upgradesVersionZeroToCurrent() throws Exception {
+        assertEquals(0, queryForLong("PRAGMA user_version"));
+
+        assertEquals(0, SchemaMigrator.migrate(connectionSource));
+
+        assertEquals(SchemaMigrator.CURRENT_VERSION, queryForLong("PRAGMA user_version"));
+        for (String index : new String[]{"students_name_idx", "students_grade_idx", "ebooks_name_idx",
+                "ebooks_assignmentDate_idx", "students_firstName_idx", "ebooks_assignmentDate_sort_idx"}) {
+            assertEquals(index, 1, queryForLong("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = '" + index + "'"));
+        }
+        // The unique constraints already index these columns
+        assertEquals(0, queryForLong("SELECT COUNT(*) FROM sqlite_master WHERE name IN "
+                + "('students_ebookCode_idx', 'students_studentId_idx', 'ebooks_code_idx')"));
+    }
+
+    @Test
+    public void buildsSearchIndexFromExistingRows() throws Exception {
+        SchemaMigrator.migrate(connectionSource);
+
+        assertEquals(1, queryForLong("SELECT COUNT(*) FROM " + SearchIndex.STUDENTS_TABLE + " WHERE "
+                + SearchIndex.STUDENTS_TABLE + " MATCH 'lovelace'"));
+        assertEquals(1, queryForLong("SELECT COUNT(*) FROM " + SearchIndex.EBOOKS_TABLE + " WHERE "
+                + SearchIndex.EBOOKS_TABLE + " MATCH 'chem*'"));
+
+        // Triggers keep it current
+        execute("UPDATE students SET lastName = 'Byron' WHERE studentId = 'S1'");
+        assertEquals(0, queryForLong("SELECT COUNT(*) FROM " + SearchIndex.STUDENTS_TABLE + " WHERE "
+                + SearchIndex.STUDENTS_TABLE + " MATCH 'lovelace'"));
+        assertEquals(1, queryForLong("SELECT COUNT(*) FROM " + SearchIndex.STUDENTS_TABLE + " WHERE "
+                + SearchIndex.STUDENTS_TABLE + " MATCH 'byron'"));
+    }
+
+    @Test
+    public void updateTriggersOnlyFireForIndexedText() throws Exception {
+        SchemaMigrator.migrate(connectionSource);
+
+        for (String table : new String[]{SearchIndex.STUDENTS_TABLE, SearchIndex.EBOOKS_TABLE}) {
+            assertEquals(table, 1, queryForLong("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND name = '"
+                    + table + "_update' AND sql LIKE '% WHEN old.% IS NOT new.%'"));
+        }
+    }
+
+    @Test
+    public void migratingAgainDoesNothing() throws Exception {
+        SchemaMigrator.migrate(connectionSource);
+        assertEquals(SchemaMigrator.CURRENT_VERSION, SchemaMigrator.migrate(connectionSource));
+        assertEquals(SchemaMigrator.CURRENT_VERSION, queryForLong("PRAGMA user_version"));
+    }
+
+    @Test
+    public void refusesNewerFiles() throws Exception {
+        execute("PRAGMA user_version = " + (SchemaMigrator.CURRENT_VERSION + 1));
+        try {
+            SchemaMigrator.migrate(connectionSource);
+            fail("Newer schema was accepted");
+        } catch (SQLException expected) {
+            assertTrue(expected.getMessage().contains("newer"));
+        }
+    }
+
+    @Test
+    public void connectorOpensOldFilesWithTheirRows() throws Exception {
+        connectionSource.close();
+        SQLiteConnector.getInstance().connect(file.getAbsolutePath());
+
+        Student ada = Student.getFromStudentId("S1");
+        assertNotNull(ada);
+        assertEquals("Lovelace", ada.getLastName());
+        assertEquals("E1", ada.getOwnedEbook().getCode());
+        List<Student> found = SearchIndex.searchStudents("turing", 10);
+        assertEquals(1, found.size());
+        assertEquals("S2", found.get(0).getStudentId());
+    }
+
+    private void execute(String statement) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadWriteConnection(null);
+        try {
+            connection.executeStatement(statement, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+    private long queryForLong(String statement) throws SQLException {
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection(null);
+        try {
+            return connection.queryForLong(statement);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.dnsge.fbla.ebkmg.db;
+
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test rule that connects {@link SQLiteConnector} to a new SQLite file for each test
+ * and disconnects afterwards
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public final class TempDatabase extends ExternalResource {
+
+    private final TemporaryFolder folder = new TemporaryFolder();
+    private File file;
+
+    @Override
+    protected void before() throws Throwable {
+        folder.create();
+        file = folder.newFile("test.db");
+        connect();
+    }
+
+    @Override
+    protected void after() {
+        try {
+            SQLiteConnector.getInstance().disconnectIfConnected();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        folder.delete();
+    }
+
+    /**
+     * Connects to the file again, for example after writing to it without the connector,
+     * and waits for its indexes to be loaded
+     *
+     * @throws Exception if the file can't be opened
+     */
+    public void connect() throws Exception {
+        SQLiteConnector connector = SQLiteConnector.getInstance();
+        connector.connect(file.getAbsolutePath());
+        if (!connector.awaitIndexes(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Indexes weren't loaded");
+        }
+    }
+
+    /**
+     * Closes the connection, leaving the file in place
+     *
+     * @throws Exception if it can't be closed
+     */
+    public void disconnect() throws Exception {
+        SQLiteConnector.getInstance().disconnectIfConnected();
+    }
+
+    /**
+     * @return The database file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Creates an empty file in the test's temporary folder
+     *
+     * @param name Name of the file
+     * @return The new file
+     * @throws Exception if it can't be created
+     */
+    public File newFile(String name) throws Exception {
+        return folder.newFile(name);
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.dnsge.fbla.ebkmg.extensions;
+
+import javafx.collections.ListChangeListener;
+import org.dnsge.fbla.ebkmg.db.DatabaseExecutor;
+import org.dnsge.fbla.ebkmg.db.KeysetPager;
+import org.dnsge.fbla.ebkmg.db.SQLiteConnector;
+import org.dnsge.fbla.ebkmg.db.Student;
+import org.dnsge.fbla.ebkmg.db.TempDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LazyPagedList}, with the test thread standing in for the JavaFX application thread
+ *
+ * @author Daniel Sage
+ * @version 0.1
+ */
+public class LazyPagedListTest {
+
+    @Rule
+    public TempDatabase database = new TempDatabase();
+
+    private final BlockingQueue<Runnable> callbacks = new LinkedBlockingQueue<>();
+    private final DatabaseExecutor executor = new DatabaseExecutor(callbacks::add);
+    private final List<Student> students = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 250; i++) {
+            students.add(new Student("First" + i, "Last" + (i % 10), "10", "S" + i));
+        }
+        SQLiteConnector.getInstance().getStudentDao().create(students);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void pagesAreReadInTheBackground() throws Exception {
+        LazyPagedList<Student> list = open(KeysetPager.Order.KEY);
+        List<String> replaced = new ArrayList<>();
+        list.addListener((ListChangeListener<Student>) change -> {
+            while (change.next()) {
+                if (change.wasReplaced()) {
+                    replaced.add(change.getFrom() + "-" + change.getTo());
+                }
+            }
+        });
+
+        assertNull(list.get(150));
+        runCallbacks();
+
+        assertSame(students.get(150), list.get(150));
+        assertEquals(Collections.singletonList("100-200"), replaced);
+        // Neighbouring pages were read too, but nobody was shown them yet
+        assertSame(students.get(249), list.get(249));
+        assertEquals(1, replaced.size());
+    }
+
+    @Test
+    public void upsertReplacesARowThatStaysInPlace() throws Exception {
+        LazyPagedList<Student> list = open(KeysetPager.Order.LAST_NAME);
+        Student moved = students.get(0);
+        int index = list.indexOf(moved);
+        assertTrue(index >= 0);
+
+        moved.setFirstName("First0 again");
+        SQLiteConnector.getInstance().getStudentDao().update(moved);
+        assertTrue(list.upsert(moved, list.locate(moved)));
+        assertSame(moved, list.get(index));
+
+        // A new last name moves the row, so the list can't be patched
+        moved.setLastName("Last5");
+        SQLiteConnector.getInstance().getStudentDao().update(moved);
+        assertFalse(list.upsert(moved, list.locate(moved)));
+    }
+
+    @Test
+    public void upsertAppendsNewRowsInKeyOrder() throws Exception {
+        LazyPagedList<Student> list = open(KeysetPager.Order.KEY);
+        Student created = new Student("New", "Student", "9", "S250");
+        SQLiteConnector.getInstance().getStudentDao().create(created);
+
+        assertTrue(list.upsert(created, list.locate(created)));
+        assertEquals(251, list.size());
+    }
+
+    @Test
+    public void deleteUsesThePositionOfRowsNotInMemory() throws Exception {
+        LazyPagedList<Student> list = open(KeysetPager.Order.KEY);
+        Student deleted = students.get(180);
+        assertEquals(-1, list.indexOf(deleted));
+
+        long position = list.locate(deleted);
+        SQLiteConnector.getInstance().getStudentDao().delete(deleted);
+
+        assertEquals(-1, list.locate(deleted));
+        assertTrue(list.delete(deleted, position));
+        assertEquals(249, list.size());
+        assertNull(list.get(180));
+        runCallbacks();
+        assertSame(students.get(181), list.get(180));
+    }
+
+    private LazyPagedList<Student> open(KeysetPager.Order order) throws Exception {
+        LazyPagedList<Student> list = LazyPagedList.open(KeysetPager.forStudents(order, null), executor, "Loading students");
+        runCallbacks();
+        return list;
+    }
+
+    /**
+     * Runs callbacks until every task has finished and nothing else is queued
+     */
+    private void runCallbacks() throws InterruptedException {
+        Runnable callback;
+        while ((callback = callbacks.poll(200, TimeUnit.MILLISECONDS)) != null || executor.getRunningCount() > 0) {
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    }
+
+}